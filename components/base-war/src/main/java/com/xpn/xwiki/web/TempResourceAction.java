@@ -25,13 +25,19 @@
 import java.net.URI;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
+import javax.servlet.http.HttpServletResponse;
+
 import org.apache.commons.lang3.StringUtils;
 import org.apache.tika.Tika;
 import org.apache.tika.mime.MimeTypes;
@@ -56,6 +62,11 @@
  * <p>
  * For example if the URL is {@code http://localhost:8080/xwiki/bin/temp/Main/WebHome/test/test.png} then the resource
  * will be fetched from {@code TMPDIR/temp/test/xwiki/Main/WebHome/test.png}.
+ * <p>
+ * Conditional requests ({@code If-None-Match}, {@code If-Modified-Since}) and single byte ranges ({@code Range},
+ * {@code If-Range}) are supported. The requested bytes are sent with {@link FileChannel#transferTo}; since the servlet
+ * output stream is only wrapped in a channel, this is still a regular copy through a small buffer, not a zero-copy
+ * transfer, but the file is never loaded in memory as a whole.
  *
  * @version $Id$
  * @since 2.4M1
@@ -77,6 +88,23 @@ public class TempResourceAction extends XWikiAction
      */
     private static final String URL_ENCODING = "UTF-8";
 
+    /** The only range unit supported. */
+    private static final String BYTES_UNIT = "bytes";
+
+    private static final String CONTENT_RANGE_HEADER = "Content-Range";
+
+    /** A single byte range specification, {@code first-last}, {@code first-} or {@code -suffixLength}. */
+    private static final Pattern RANGE_PATTERN = Pattern.compile("(\\d*+)\\s*+-\\s*+(\\d*+)");
+
+    /** Marker returned when the requested range doesn't overlap the file. */
+    private static final long[] UNSATISFIABLE_RANGE = new long[0];
+
+    /** The maximum number of detected mime-types to remember. */
+    private static final int CONTENT_TYPES_CACHE_SIZE = 1000;
+
+    /** Detected mime-types, keyed by file path and last modification date. */
+    private static final Map<String, String> CONTENT_TYPES = new ConcurrentHashMap<>();
+
     /**
      * Logging support.
      */
@@ -106,25 +134,51 @@ public String render(XWikiContext context) throws XWikiException
                 "Invalid temporary resource URL");
         }
 
-        // Write temporary file into response.
-        response.setDateHeader("Last-Modified", tempFile.lastModified());
-        String contentType = MimeTypes.OCTET_STREAM;
-        try {
-            contentType = this.tika.detect(tempFile);
-        } catch (IOException ex) {
-            LOGGER.warn(
-                String.format("Unable to determine mime type for temporary resource [%s]", tempFile.getAbsolutePath()),
-                ex);
+        long lastModified = tempFile.lastModified();
+        long length = tempFile.length();
+        String etag = getETag(lastModified, length);
+        response.setDateHeader("Last-Modified", lastModified);
+        response.setHeader("ETag", etag);
+        response.setHeader("Accept-Ranges", BYTES_UNIT);
+        if (isNotModified(request, etag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return null;
         }
-        response.setContentType(contentType);
+
+        response.setContentType(getContentType(tempFile, lastModified));
         if ("1".equals(request.getParameter("force-download"))) {
             String fileName = StringUtils.defaultIfBlank(request.getParameter("force-filename"), tempFile.getName());
             fileName = Util.encodeURI(fileName, context).replaceAll("\\+", "%20");
             response.addHeader("Content-disposition", "attachment; filename*=utf-8''" + fileName);
         }
-        try {
-            response.setContentLength((int) tempFile.length());
-            IOUtils.copy(FileUtils.openInputStream(tempFile), response.getOutputStream());
+
+        // Write the requested part of the temporary file into the response.
+        long start = 0;
+        long end = length - 1;
+        long[] range = getRequestedRange(request, etag, lastModified, length);
+        if (range == UNSATISFIABLE_RANGE) {
+            response.setHeader(CONTENT_RANGE_HEADER, BYTES_UNIT + " */" + length);
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return null;
+        } else if (range != null) {
+            start = range[0];
+            end = range[1];
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(CONTENT_RANGE_HEADER, BYTES_UNIT + ' ' + start + '-' + end + '/' + length);
+        }
+        // The length may not fit in an int, so don't use setContentLength
+        response.setHeader("Content-Length", String.valueOf(end - start + 1));
+        try (FileChannel in = FileChannel.open(tempFile.toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            while (position <= end) {
+                long transferred = in.transferTo(position, end - position + 1, out);
+                if (transferred <= 0) {
+                    // The file was truncated while being sent
+                    break;
+                }
+                position += transferred;
+            }
         } catch (IOException e) {
             throw new XWikiException(XWikiException.MODULE_XWIKI_APP,
                 XWikiException.ERROR_XWIKI_APP_SEND_RESPONSE_EXCEPTION, "Exception while sending response", e);
@@ -132,6 +186,161 @@ public String render(XWikiContext context) throws XWikiException
         return null;
     }
 
+    /**
+     * Builds a validator for the current version of a temporary file.
+     *
+     * @param lastModified the last modification date of the file
+     * @param length the size of the file
+     * @return a quoted entity tag
+     */
+    private String getETag(long lastModified, long length)
+    {
+        return '"' + Long.toHexString(lastModified) + '-' + Long.toHexString(length) + '"';
+    }
+
+    /**
+     * Checks the {@code If-None-Match} and {@code If-Modified-Since} conditional headers against the current version of
+     * the file. As specified by RFC 7232, {@code If-Modified-Since} is ignored when {@code If-None-Match} is present.
+     *
+     * @param request the current request
+     * @param etag the entity tag of the file
+     * @param lastModified the last modification date of the file
+     * @return {@code true} if the client already has the current version of the file
+     */
+    private boolean isNotModified(XWikiRequest request, String etag, long lastModified)
+    {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return matchesETag(ifNoneMatch, etag);
+        }
+        long ifModifiedSince = getDateHeader(request, "If-Modified-Since");
+        // HTTP dates only have a precision of one second
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    private boolean matchesETag(String header, String etag)
+    {
+        for (String candidate : StringUtils.split(header, ',')) {
+            String value = StringUtils.removeStart(candidate.trim(), "W/");
+            if ("*".equals(value) || etag.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long getDateHeader(XWikiRequest request, String name)
+    {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException ex) {
+            // Malformed date, ignore the header
+            return -1;
+        }
+    }
+
+    /**
+     * Parses the {@code Range} header of the request. Only a single byte range is supported; requests for several
+     * ranges, or with a stale {@code If-Range} validator, get the full file, which is allowed by RFC 7233.
+     *
+     * @param request the current request
+     * @param etag the entity tag of the file
+     * @param lastModified the last modification date of the file
+     * @param length the size of the file
+     * @return the first and last byte positions to send, {@code null} if the whole file must be sent, or
+     *         {@link #UNSATISFIABLE_RANGE} if the requested range is outside the file
+     */
+    private long[] getRequestedRange(XWikiRequest request, String etag, long lastModified, long length)
+    {
+        String header = request.getHeader("Range");
+        if (header == null || !header.startsWith(BYTES_UNIT + '=') || header.indexOf(',') >= 0) {
+            return null;
+        }
+        if (!isRangeValid(request, etag, lastModified)) {
+            return null;
+        }
+        Matcher matcher = RANGE_PATTERN.matcher(header.substring(BYTES_UNIT.length() + 1).trim());
+        if (!matcher.matches() || matcher.group(1).isEmpty() && matcher.group(2).isEmpty()) {
+            return null;
+        }
+        try {
+            long start;
+            long end = length - 1;
+            if (matcher.group(1).isEmpty()) {
+                // Suffix range: the last N bytes
+                long suffix = Long.parseLong(matcher.group(2));
+                start = suffix == 0 ? length : Math.max(0, length - suffix);
+            } else {
+                start = Long.parseLong(matcher.group(1));
+                if (!matcher.group(2).isEmpty()) {
+                    long last = Long.parseLong(matcher.group(2));
+                    if (last < start) {
+                        // Syntactically invalid range, ignore the header
+                        return null;
+                    }
+                    end = Math.min(last, end);
+                }
+            }
+            if (start >= length) {
+                return UNSATISFIABLE_RANGE;
+            }
+            return new long[] { start, end };
+        } catch (NumberFormatException ex) {
+            // Too large to be a valid position
+            return null;
+        }
+    }
+
+    /**
+     * Checks the {@code If-Range} header, if any, which makes the range request conditional on the file not having
+     * changed since the client got the first part of it.
+     *
+     * @param request the current request
+     * @param etag the entity tag of the file
+     * @param lastModified the last modification date of the file
+     * @return {@code true} if there is no {@code If-Range} header, or if it matches the current version of the file
+     */
+    private boolean isRangeValid(XWikiRequest request, String etag, long lastModified)
+    {
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange == null) {
+            return true;
+        } else if (ifRange.startsWith("\"")) {
+            return etag.equals(ifRange);
+        }
+        long date = getDateHeader(request, "If-Range");
+        return date >= 0 && date / 1000 == lastModified / 1000;
+    }
+
+    /**
+     * Detects the mime-type of a temporary file. Since detection reads the start of the file, the result is cached for
+     * as long as the file isn't modified.
+     *
+     * @param file the file being served
+     * @param lastModified the last modification date of the file
+     * @return the detected mime-type, or {@code application/octet-stream} if it cannot be determined
+     */
+    private String getContentType(File file, long lastModified)
+    {
+        String key = file.getAbsolutePath() + '@' + lastModified;
+        String result = CONTENT_TYPES.get(key);
+        if (result == null) {
+            result = MimeTypes.OCTET_STREAM;
+            try {
+                result = this.tika.detect(file);
+                if (CONTENT_TYPES.size() >= CONTENT_TYPES_CACHE_SIZE) {
+                    CONTENT_TYPES.clear();
+                }
+                CONTENT_TYPES.put(key, result);
+            } catch (IOException ex) {
+                LOGGER.warn(
+                    String.format("Unable to determine mime type for temporary resource [%s]", file.getAbsolutePath()),
+                    ex);
+            }
+        }
+        return result;
+    }
+
     /**
      * Returns the temporary file corresponding to the specified URI.
      *
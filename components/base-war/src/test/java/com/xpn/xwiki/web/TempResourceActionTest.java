@@ -0,0 +1,245 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package com.xpn.xwiki.web;
+
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.environment.Environment;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the range and conditional request support of {@link TempResourceAction}.
+ *
+ * @version $Id$
+ */
+public class TempResourceActionTest
+{
+    private static final String CONTENT = "0123456789";
+
+    private static final long LAST_MODIFIED = 1500000000000L;
+
+    private static final String ETAG =
+        "\"" + Long.toHexString(LAST_MODIFIED) + '-' + Long.toHexString(CONTENT.length()) + '"';
+
+    @Rule
+    public final MockitoComponentManagerRule componentManager = new MockitoComponentManagerRule();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private XWikiContext context = mock(XWikiContext.class);
+
+    private XWikiRequest request = mock(XWikiRequest.class);
+
+    private XWikiResponse response = mock(XWikiResponse.class);
+
+    private ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+    private TempResourceAction action;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.componentManager.registerComponent(ComponentManager.class, "context", this.componentManager);
+        Environment environment = this.componentManager.registerMockComponent(Environment.class);
+        when(environment.getTemporaryDirectory()).thenReturn(this.folder.getRoot());
+        Utils.setComponentManager(this.componentManager);
+
+        File file = new File(this.folder.getRoot(), "temp/module/xwiki/Space/Page/file.txt");
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), CONTENT.getBytes(StandardCharsets.US_ASCII));
+        file.setLastModified(LAST_MODIFIED);
+
+        when(this.context.getRequest()).thenReturn(this.request);
+        when(this.context.getResponse()).thenReturn(this.response);
+        when(this.context.getWikiId()).thenReturn("xwiki");
+        when(this.request.getRequestURI()).thenReturn("/xwiki/bin/temp/Space/Page/module/file.txt");
+        when(this.request.getDateHeader(anyString())).thenReturn(-1L);
+
+        ServletOutputStream out = mock(ServletOutputStream.class);
+        doAnswer(invocation -> {
+            Object[] args = invocation.getArguments();
+            this.body.write((byte[]) args[0], (Integer) args[1], (Integer) args[2]);
+            return null;
+        }).when(out).write(any(byte[].class), anyInt(), anyInt());
+        when(this.response.getOutputStream()).thenReturn(out);
+
+        this.action = new TempResourceAction();
+    }
+
+    @Test
+    public void wholeFileIsSentWithoutRange() throws Exception
+    {
+        this.action.render(this.context);
+
+        Assert.assertEquals(CONTENT, this.body.toString("US-ASCII"));
+        verify(this.response).setHeader("Content-Length", "10");
+        verify(this.response).setHeader("ETag", ETAG);
+        verify(this.response).setHeader("Accept-Ranges", "bytes");
+        verify(this.response).setDateHeader("Last-Modified", LAST_MODIFIED);
+        verify(this.response, never()).setStatus(anyInt());
+    }
+
+    @Test
+    public void singleRangeIsSentAsPartialContent() throws Exception
+    {
+        when(this.request.getHeader("Range")).thenReturn("bytes=2-5");
+
+        this.action.render(this.context);
+
+        Assert.assertEquals("2345", this.body.toString("US-ASCII"));
+        verify(this.response).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        verify(this.response).setHeader("Content-Range", "bytes 2-5/10");
+        verify(this.response).setHeader("Content-Length", "4");
+    }
+
+    @Test
+    public void openRangeGoesToTheEndOfTheFile() throws Exception
+    {
+        when(this.request.getHeader("Range")).thenReturn("bytes=7-20");
+
+        this.action.render(this.context);
+
+        Assert.assertEquals("789", this.body.toString("US-ASCII"));
+        verify(this.response).setHeader("Content-Range", "bytes 7-9/10");
+    }
+
+    @Test
+    public void suffixRangeSendsTheLastBytes() throws Exception
+    {
+        when(this.request.getHeader("Range")).thenReturn("bytes=-3");
+
+        this.action.render(this.context);
+
+        Assert.assertEquals("789", this.body.toString("US-ASCII"));
+        verify(this.response).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        verify(this.response).setHeader("Content-Range", "bytes 7-9/10");
+        verify(this.response).setHeader("Content-Length", "3");
+    }
+
+    @Test
+    public void rangeOutsideTheFileIsNotSatisfiable() throws Exception
+    {
+        when(this.request.getHeader("Range")).thenReturn("bytes=10-");
+
+        this.action.render(this.context);
+
+        Assert.assertEquals(0, this.body.size());
+        verify(this.response).setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        verify(this.response).setHeader("Content-Range", "bytes */10");
+        verify(this.response, never()).getOutputStream();
+    }
+
+    @Test
+    public void multipleRangesGetTheWholeFile() throws Exception
+    {
+        when(this.request.getHeader("Range")).thenReturn("bytes=0-1,4-5");
+
+        this.action.render(this.context);
+
+        Assert.assertEquals(CONTENT, this.body.toString("US-ASCII"));
+        verify(this.response, never()).setStatus(anyInt());
+    }
+
+    @Test
+    public void staleIfRangeGetsTheWholeFile() throws Exception
+    {
+        when(this.request.getHeader("Range")).thenReturn("bytes=2-5");
+        when(this.request.getHeader("If-Range")).thenReturn("\"0-0\"");
+
+        this.action.render(this.context);
+
+        Assert.assertEquals(CONTENT, this.body.toString("US-ASCII"));
+        verify(this.response, never()).setStatus(anyInt());
+        verify(this.response, never()).setHeader(eq("Content-Range"), anyString());
+    }
+
+    @Test
+    public void matchingIfRangeGetsTheRange() throws Exception
+    {
+        when(this.request.getHeader("Range")).thenReturn("bytes=2-5");
+        when(this.request.getHeader("If-Range")).thenReturn(ETAG);
+
+        this.action.render(this.context);
+
+        Assert.assertEquals("2345", this.body.toString("US-ASCII"));
+        verify(this.response).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+    }
+
+    @Test
+    public void notModifiedSinceTheLastRequest() throws Exception
+    {
+        // HTTP dates only have a one second precision
+        when(this.request.getDateHeader("If-Modified-Since")).thenReturn(LAST_MODIFIED / 1000 * 1000);
+
+        this.action.render(this.context);
+
+        Assert.assertEquals(0, this.body.size());
+        verify(this.response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(this.response, never()).getOutputStream();
+    }
+
+    @Test
+    public void modifiedSinceTheLastRequest() throws Exception
+    {
+        when(this.request.getDateHeader("If-Modified-Since")).thenReturn(LAST_MODIFIED - 60000);
+
+        this.action.render(this.context);
+
+        Assert.assertEquals(CONTENT, this.body.toString("US-ASCII"));
+        verify(this.response, never()).setStatus(anyInt());
+    }
+
+    @Test
+    public void matchingETagIsNotModified() throws Exception
+    {
+        when(this.request.getHeader("If-None-Match")).thenReturn("\"other\", " + ETAG);
+        // If-Modified-Since is ignored when If-None-Match is present
+        when(this.request.getDateHeader("If-Modified-Since")).thenReturn(LAST_MODIFIED - 60000);
+
+        this.action.render(this.context);
+
+        Assert.assertEquals(0, this.body.size());
+        verify(this.response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    }
+}
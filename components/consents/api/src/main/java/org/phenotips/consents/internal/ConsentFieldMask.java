@@ -0,0 +1,159 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.consents.internal;
+
+import org.phenotips.consents.Consent;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Consent configuration compiled into bit masks: each consent gets a bit, and each form field is mapped to the bits of
+ * the consents it depends on. Checking whether a field is enabled for a set of missing consents is then a single
+ * {@link BitSet#intersects(BitSet) mask operation}, instead of going through the fields of all the missing consents.
+ * Instances are immutable, and must be recompiled when the consent configuration changes.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+final class ConsentFieldMask
+{
+    /** The consents this mask was compiled from. */
+    private final Collection<Consent> source;
+
+    /** The bit assigned to each consent, by consent identifier. */
+    private final Map<String, Integer> consentBits = new HashMap<>();
+
+    /** Consents which, when missing, disable all the fields: required consents, and consents affecting all fields. */
+    private final BitSet blocking = new BitSet();
+
+    /** Required consents. */
+    private final BitSet required = new BitSet();
+
+    /** The consents that each affected form field depends on. */
+    private final Map<String, BitSet> fieldConsents = new HashMap<>();
+
+    /**
+     * Compiles a consent configuration.
+     *
+     * @param consents the consents to compile, usually all the consents configured in the system
+     */
+    ConsentFieldMask(Collection<Consent> consents)
+    {
+        this.source = consents;
+        for (Consent consent : consents) {
+            if (this.consentBits.containsKey(consent.getId())) {
+                continue;
+            }
+            int bit = this.consentBits.size();
+            this.consentBits.put(consent.getId(), bit);
+            if (consent.isRequired()) {
+                this.required.set(bit);
+                this.blocking.set(bit);
+            }
+            if (consent.affectsAllFields()) {
+                this.blocking.set(bit);
+            } else if (consent.affectsSomeFields()) {
+                for (String field : consent.getFields()) {
+                    this.fieldConsents.computeIfAbsent(field, k -> new BitSet()).set(bit);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if this mask was compiled from a specific collection of consents. Since the consent manager keeps
+     * returning the same set while the configuration doesn't change, this is an identity check.
+     *
+     * @param consents the consents to check
+     * @return {@code true} if this mask was compiled from the exact same collection
+     */
+    boolean isCompiledFrom(Collection<Consent> consents)
+    {
+        return this.source == consents;
+    }
+
+    /**
+     * Converts a set of consents into a mask.
+     *
+     * @param consents a collection of consents, usually the consents missing for a patient
+     * @return the mask with the bits of the consents set, or {@code null} if one of the consents is not part of the
+     *         compiled configuration
+     */
+    BitSet toMask(Collection<Consent> consents)
+    {
+        BitSet result = new BitSet();
+        for (Consent consent : consents) {
+            Integer bit = this.consentBits.get(consent.getId());
+            if (bit == null) {
+                return null;
+            }
+            result.set(bit);
+        }
+        return result;
+    }
+
+    /**
+     * Converts a set of consent identifiers into the mask of the configured consents that are not in the set.
+     *
+     * @param grantedConsents identifiers of granted consents
+     * @return a mask of missing consents
+     */
+    BitSet getMissing(Collection<String> grantedConsents)
+    {
+        BitSet result = new BitSet();
+        result.set(0, this.consentBits.size());
+        for (String id : grantedConsents == null ? Collections.<String>emptySet() : grantedConsents) {
+            Integer bit = this.consentBits.get(id);
+            if (bit != null) {
+                result.clear(bit);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks that no required consent is missing.
+     *
+     * @param missing a mask of missing consents
+     * @return {@code true} if all the required consents are granted
+     */
+    boolean hasRequiredConsents(BitSet missing)
+    {
+        return !this.required.intersects(missing);
+    }
+
+    /**
+     * Checks if a form field can be used.
+     *
+     * @param field the identifier of the form field
+     * @param missing a mask of missing consents
+     * @return {@code true} if none of the consents needed by the field is missing
+     */
+    boolean isFieldEnabled(String field, BitSet missing)
+    {
+        if (this.blocking.intersects(missing)) {
+            return false;
+        }
+        BitSet needed = this.fieldConsents.get(field);
+        return needed == null || !needed.intersects(missing);
+    }
+}
@@ -24,8 +24,8 @@
 
 import org.xwiki.component.annotation.Component;
 
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
@@ -50,6 +50,9 @@ public class DefaultConsentAuthorizer implements ConsentAuthorizer
     @Inject
     private ConsentManager consentManager;
 
+    /** The consents configured in the system, compiled into masks. */
+    private volatile ConsentFieldMask systemMask;
+
     @Override
     public boolean consentsGloballyEnabled()
     {
@@ -68,17 +71,20 @@ public List<RecordElement> filterForm(List<RecordElement> elements, Patient pati
         }
 
         Set<Consent> missingConsents = this.consentManager.getMissingConsentsForPatient(patient);
-        // If !containsRequiredConsents(missingConsents) is true, then one of the consents is mandatory, which means
-        // that no sections should be displayed; missingConsents will only be null if patient is null.
-        if (missingConsents == null || !containsRequiredConsents(missingConsents)) {
+        // missingConsents will only be null if patient is null
+        if (missingConsents == null) {
+            return Collections.emptyList();
+        }
+        ConsentFieldMask mask = getMask(missingConsents);
+        BitSet missing = mask.toMask(missingConsents);
+        // If a required consent is missing, then no sections should be displayed
+        if (!mask.hasRequiredConsents(missing)) {
             return Collections.emptyList();
         }
-
-        Set<String> nonConsentedFields = this.getNonConsentedFieldSet(missingConsents);
 
         List<RecordElement> updatedElements = new LinkedList<>();
         for (RecordElement element : elements) {
-            if (this.isElementEnabled(element, nonConsentedFields)) {
+            if (mask.isFieldEnabled(element.getExtension().getId(), missing)) {
                 updatedElements.add(element);
             }
         }
@@ -88,91 +94,66 @@ public List<RecordElement> filterForm(List<RecordElement> elements, Patient pati
     @Override
     public boolean authorizeInteraction(Patient patient)
     {
-        return (patient != null)
-            && this.containsRequiredConsents(this.consentManager.getMissingConsentsForPatient(patient));
-    }
-
-    @Override
-    public boolean authorizeInteraction(Set<String> grantedConsents)
-    {
-        Set<Consent> systemConsents = this.consentManager.getSystemConsents();
-        if (CollectionUtils.isEmpty(systemConsents)) {
-            return true;
+        if (patient == null) {
+            return false;
         }
-
-        if (CollectionUtils.isEmpty(grantedConsents)) {
-            return containsRequiredConsents(systemConsents);
-        }
-
-        Set<Consent> missingConsents = new HashSet<>();
-        for (Consent consent : systemConsents) {
-            if (!grantedConsents.contains(consent.getId())) {
-                missingConsents.add(consent);
-            }
+        Set<Consent> missingConsents = this.consentManager.getMissingConsentsForPatient(patient);
+        if (missingConsents == null) {
+            return false;
         }
-        return containsRequiredConsents(missingConsents);
+        ConsentFieldMask mask = getMask(missingConsents);
+        return mask.hasRequiredConsents(mask.toMask(missingConsents));
     }
 
-    /**
-     * Given a set of missing consents for a {@link Patient} object, returns true iff none of the
-     * {@code missingConsents} is required ({@link Consent#isRequired()}), false otherwise.
-     *
-     * @param missingConsents a set of missing {@link Consent} objects
-     * @return true iff none of the {@code missingConsents} are required, false otherwise
-     */
-    private boolean containsRequiredConsents(@Nonnull Set<Consent> missingConsents)
+    @Override
+    public boolean authorizeInteraction(Set<String> grantedConsents)
     {
-        for (Consent consent : missingConsents) {
-            if (consent.isRequired()) {
-                return false;
-            }
-        }
-        return true;
+        ConsentFieldMask mask = getSystemMask();
+        return mask.hasRequiredConsents(mask.getMissing(grantedConsents));
     }
 
     @Override
     public boolean isElementConsented(RecordElement element, Patient patient)
     {
         Set<Consent> missingConsents = this.consentManager.getMissingConsentsForPatient(patient);
-        return this.isElementEnabled(element, this.getNonConsentedFieldSet(missingConsents));
+        if (missingConsents == null) {
+            return false;
+        }
+        ConsentFieldMask mask = getMask(missingConsents);
+        return mask.isFieldEnabled(element.getExtension().getId(), mask.toMask(missingConsents));
     }
 
     /**
-     * Given a form element and a set of non consented elements, returns true iff {@code element} is enabled, false
-     * otherwise.
+     * Gets the compiled form of the consents configured in the system, recompiling it only when the configuration
+     * changes.
      *
-     * @param element the {@link RecordElement} being examined
-     * @param nonConsentedFields IDs of field that have not received the required consents
-     * @return true iff {@code element} is not part of {@code nonConsentedFields}, false otherwise
+     * @return the compiled system consents
      */
-    private boolean isElementEnabled(@Nonnull RecordElement element, @Nonnull Set<String> nonConsentedFields)
+    private ConsentFieldMask getSystemMask()
     {
-        return !(nonConsentedFields == null) && !nonConsentedFields.contains(element.getExtension().getId());
+        Set<Consent> systemConsents = this.consentManager.getSystemConsents();
+        ConsentFieldMask result = this.systemMask;
+        if (result == null || !result.isCompiledFrom(systemConsents)) {
+            result = new ConsentFieldMask(systemConsents);
+            this.systemMask = result;
+        }
+        return result;
     }
 
     /**
-     * Given a set of {@code missingConsents missing consents}, returns the union of all {@link Consent#getFields()
-     * fields}, which the provided set of {@code missingConsents} prevents from being used. Returns an empty set if no
-     * fields are affected.
+     * Gets a compiled configuration that knows about all the given missing consents. This is normally the compiled
+     * system configuration, unless the configuration was changed after the missing consents were computed, in which
+     * case the missing consents are compiled on their own.
      *
-     * @param missingConsents a set of not granted {@link Consent} consents.
-     * @return {@code null} if mandatory consents are missing, an empty list of no fields are missing consents, or a
-     *         list of field names that are missing a required consent
+     * @param missingConsents a set of not granted consents
+     * @return a compiled configuration that can be used for checking the missing consents
      */
-    private Set<String> getNonConsentedFieldSet(@Nonnull Set<Consent> missingConsents)
+    private ConsentFieldMask getMask(@Nonnull Set<Consent> missingConsents)
     {
-        Set<String> notConsentedFields = new HashSet<>();
-        for (Consent consent : missingConsents) {
-            if (consent.affectsAllFields() || consent.isRequired()) {
-                // if at least one of the consents affects all fields no point to examine other consents
-                // since all fields are affected anyway
-                return null;
-            }
-            if (!consent.affectsSomeFields()) {
-                continue;
-            }
-            notConsentedFields.addAll(consent.getFields());
+        ConsentFieldMask result = getSystemMask();
+        if (result.toMask(missingConsents) == null) {
+            result = new ConsentFieldMask(missingConsents);
         }
-        return notConsentedFields;
+        return result;
     }
 }
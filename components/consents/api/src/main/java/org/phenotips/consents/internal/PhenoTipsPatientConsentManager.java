@@ -126,9 +126,9 @@ public class PhenoTipsPatientConsentManager implements ConsentManager, Initializ
     private EntityReference configurationPageReference =
         new EntityReference("Consents", EntityType.DOCUMENT, Constants.CODE_SPACE_REFERENCE);
 
-    private Date lastSystemConsentLoadTime;
+    private volatile Date lastSystemConsentLoadTime;
 
-    private Set<Consent> cachedSystemConsents = Collections.unmodifiableSet(new LinkedHashSet<Consent>());
+    private volatile Set<Consent> cachedSystemConsents = Collections.unmodifiableSet(new LinkedHashSet<Consent>());
 
     @Override
     public void initialize() throws InitializationException
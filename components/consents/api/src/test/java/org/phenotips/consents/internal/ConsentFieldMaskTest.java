@@ -0,0 +1,99 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.consents.internal;
+
+import org.phenotips.consents.Consent;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link ConsentFieldMask}.
+ *
+ * @version $Id$
+ */
+public class ConsentFieldMaskTest
+{
+    private static final Consent SOME_FIELDS =
+        new DefaultConsent("genetic", "Genetic", null, false, null, Arrays.asList("genotype", "variants"));
+
+    private static final Consent ALL_FIELDS =
+        new DefaultConsent("photos", "Photos", null, false, null, Collections.<String>emptyList());
+
+    private static final Consent NO_FIELDS = new DefaultConsent("contact", "Contact", null, false, null, null);
+
+    private static final Consent REQUIRED = new DefaultConsent("main", "Main", null, true, null, null);
+
+    private final List<Consent> configuration = Arrays.asList(SOME_FIELDS, ALL_FIELDS, NO_FIELDS, REQUIRED);
+
+    @Test
+    public void fieldsAreOnlyDisabledByTheirMissingConsents()
+    {
+        ConsentFieldMask mask = new ConsentFieldMask(this.configuration);
+        BitSet missing = mask.toMask(Arrays.asList(SOME_FIELDS, NO_FIELDS));
+        Assert.assertFalse(mask.isFieldEnabled("genotype", missing));
+        Assert.assertFalse(mask.isFieldEnabled("variants", missing));
+        Assert.assertTrue(mask.isFieldEnabled("phenotype", missing));
+        Assert.assertTrue(mask.hasRequiredConsents(missing));
+
+        missing = mask.toMask(Collections.singleton(NO_FIELDS));
+        Assert.assertTrue(mask.isFieldEnabled("genotype", missing));
+    }
+
+    @Test
+    public void consentsAffectingAllFieldsDisableAllFields()
+    {
+        ConsentFieldMask mask = new ConsentFieldMask(this.configuration);
+        BitSet missing = mask.toMask(Collections.singleton(ALL_FIELDS));
+        Assert.assertFalse(mask.isFieldEnabled("phenotype", missing));
+        Assert.assertTrue(mask.hasRequiredConsents(missing));
+    }
+
+    @Test
+    public void missingRequiredConsentsDisableAllFields()
+    {
+        ConsentFieldMask mask = new ConsentFieldMask(this.configuration);
+        BitSet missing = mask.getMissing(Arrays.asList("genetic", "photos", "contact"));
+        Assert.assertFalse(mask.hasRequiredConsents(missing));
+        Assert.assertFalse(mask.isFieldEnabled("phenotype", missing));
+
+        missing = mask.getMissing(Arrays.asList("main", "unknown"));
+        Assert.assertTrue(mask.hasRequiredConsents(missing));
+        Assert.assertFalse(mask.isFieldEnabled("genotype", missing));
+    }
+
+    @Test
+    public void unknownConsentsAreReported()
+    {
+        ConsentFieldMask mask = new ConsentFieldMask(Collections.singleton(SOME_FIELDS));
+        Assert.assertNull(mask.toMask(Arrays.asList(SOME_FIELDS, REQUIRED)));
+    }
+
+    @Test
+    public void compiledConfigurationIsIdentifiedByIdentity()
+    {
+        ConsentFieldMask mask = new ConsentFieldMask(this.configuration);
+        Assert.assertTrue(mask.isCompiledFrom(this.configuration));
+        Assert.assertFalse(mask.isCompiledFrom(Arrays.asList(SOME_FIELDS, ALL_FIELDS, NO_FIELDS, REQUIRED)));
+    }
+}
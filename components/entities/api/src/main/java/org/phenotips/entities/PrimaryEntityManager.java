@@ -25,6 +25,8 @@
 
 import java.util.Iterator;
 
+import org.json.JSONObject;
+
 /**
  * API that provides access for a specific type of entity, with support for simple CRUD operations. No access rights are
  * checked here.
@@ -69,6 +71,29 @@
     @Unstable("The type of the parameter will be replaced by Principal, once the principals module is implemented")
     E create(DocumentReference creator);
 
+    /**
+     * Creates and returns a new entity filled in with the given data, setting the given principal as the creator.
+     * Implementations should store the new entity with all its data at once, instead of first storing an empty entity
+     * and then updating it. The default implementation simply {@link #create(DocumentReference) creates} an empty
+     * entity and then {@link PrimaryEntity#updateFromJSON(JSONObject) updates} it.
+     *
+     * @param data the data of the new entity, in the JSON format accepted by
+     *            {@link PrimaryEntity#updateFromJSON(JSONObject)}; may be {@code null}
+     * @param creator a reference to the document representing a principal (a user or a group) which will be set as the
+     *            creator for the created entity
+     * @return the created entity, or {@code null} in case of errors
+     * @since 1.4
+     */
+    @Unstable("New API introduced in 1.4")
+    default E create(JSONObject data, DocumentReference creator)
+    {
+        E result = create(creator);
+        if (result != null && data != null) {
+            result.updateFromJSON(data);
+        }
+        return result;
+    }
+
     /**
      * Retrieves an {@link PrimaryEntity entity} by its {@link PrimaryEntity#getId() internal PhenoTips identifier}.
      *
@@ -24,11 +24,17 @@
 
 import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryManager;
@@ -38,15 +44,20 @@
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 
 import org.apache.commons.lang3.StringUtils;
+import org.json.JSONObject;
 import org.slf4j.Logger;
 
 import com.xpn.xwiki.XWikiContext;
@@ -81,6 +92,10 @@
 @Unstable("New class and interface added in 1.3")
 public abstract class AbstractPrimaryEntityManager<E extends PrimaryEntity> implements PrimaryEntityManager<E>
 {
+    private static final String CLASS_SUFFIX = "Class";
+
+    private static final String TEMPLATE_SUFFIX = "Template";
+
     /** Logging helper object. */
     @Inject
     protected Logger logger;
@@ -112,6 +127,25 @@
     @Named("local")
     protected EntityReferenceSerializer<String> localSerializer;
 
+    /** Used for registering the listener that invalidates the cached XClass information. */
+    @Inject
+    private Provider<ObservationManager> observationManager;
+
+    /** The XClass referenced by the {@code @Named} annotation, resolved in each wiki. */
+    private final Map<WikiReference, DocumentReference> namedXClass = new ConcurrentHashMap<>();
+
+    /** The template and other information derived from the XClass used by the managed entities. */
+    private final Map<DocumentReference, XClassInfo> xclassInfo = new ConcurrentHashMap<>();
+
+    /** The documents whose existence was checked while filling the caches above. */
+    private final Set<DocumentReference> watchedDocuments = ConcurrentHashMap.newKeySet();
+
+    /** Whether the listener that invalidates the cached XClass information was already registered. */
+    private volatile boolean listening;
+
+    /** Documents reserved for entities being created, but not saved yet. */
+    private final Set<DocumentReference> reservedDocuments = ConcurrentHashMap.newKeySet();
+
     /** The concrete {@link PrimaryEntity} instance class being managed. */
     private Class<? extends E> eclass;
 
@@ -129,23 +163,7 @@ public synchronized E create(DocumentReference creator)
     {
         try {
             XWikiContext context = this.xcontextProvider.get();
-            DocumentReference newDoc = getNextDocument();
-            XWikiDocument doc = (XWikiDocument) this.bridge.getDocument(newDoc);
-
-            DocumentReference template = getEntityXClassReference();
-            template = new DocumentReference(template.getName().concat("Template"), template.getLastSpaceReference());
-            if (!this.bridge.exists(template)) {
-                template = new DocumentReference(template.getName().replaceAll("Class(Template)$", "$1"),
-                    template.getLastSpaceReference());
-            }
-            if (this.bridge.exists(template)) {
-                doc.readFromTemplate(template, context);
-            }
-            if (creator != null) {
-                doc.setCreatorReference(creator);
-                doc.setAuthorReference(creator);
-                doc.setContentAuthorReference(creator);
-            }
+            XWikiDocument doc = prepareDocument(getNextDocument(), creator, context);
             context.getWiki().saveDocument(doc, context);
 
             return load(doc);
@@ -155,6 +173,45 @@ public synchronized E create(DocumentReference creator)
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The document of the new entity is only reserved, and not stored until the data is set, so that only one version
+     * of the document is created. Since the document is not locked while being filled in, several entities can be
+     * created in parallel.
+     * </p>
+     */
+    @Override
+    public E create(JSONObject data, DocumentReference creator)
+    {
+        DocumentReference newDoc = null;
+        try {
+            XWikiContext context = this.xcontextProvider.get();
+            newDoc = reserveNextDocument();
+            XWikiDocument doc = prepareDocument(newDoc, creator, context);
+            E result = load(doc);
+            if (result == null) {
+                return null;
+            }
+            initializeNewEntity(result);
+            if (data != null) {
+                result.updateFromJSON(data);
+            }
+            // Entities without data, or which don't store their changes when updated, must still be saved
+            if (doc.isNew()) {
+                context.getWiki().saveDocument(doc, context);
+            }
+            return result;
+        } catch (Exception ex) {
+            this.logger.warn("Failed to create entity: {}", ex.getMessage(), ex);
+            return null;
+        } finally {
+            if (newDoc != null) {
+                this.reservedDocuments.remove(newDoc);
+            }
+        }
+    }
+
     @Override
     public E get(String id)
     {
@@ -188,7 +245,7 @@ public E getByName(String name)
         try {
             Query q = this.qm.createQuery(
                 "select doc.fullName from Document doc, doc.object("
-                    + this.localSerializer.serialize(getEntityXClassReference())
+                    + getXClassInfo().serializedClass
                     + ") as entity where doc.space = :space and doc.title = :name",
                 Query.XWQL).bindValue("space", this.getDataSpace().getName()).bindValue("name", name);
             List<String> docNames = q.execute();
@@ -205,13 +262,13 @@ public E getByName(String name)
     public Iterator<E> getAll()
     {
         try {
+            XClassInfo info = getXClassInfo();
             Query q = this.qm.createQuery(
                 "select doc.fullName from Document as doc, doc.object("
-                    + this.localSerializer.serialize(getEntityXClassReference())
+                    + info.serializedClass
                     + ") as entity where doc.name not in (:template1, :template2) order by doc.name asc",
-                Query.XWQL).bindValue("template1", this.getEntityXClassReference().getName() + "Template")
-                .bindValue("template2",
-                    StringUtils.removeEnd(this.getEntityXClassReference().getName(), "Class") + "Template");
+                Query.XWQL).bindValue("template1", info.templates.get(0).getName())
+                .bindValue("template2", info.templates.get(1).getName());
             List<String> docNames = q.execute();
             return new LazyPrimaryEntityIterator<>(docNames, this);
         } catch (QueryException ex) {
@@ -250,6 +307,56 @@ public E load(DocumentModelBridge document) throws IllegalArgumentException
         return null;
     }
 
+    /**
+     * Sets up a newly created entity, before its data is filled in and before it is stored for the first time. The
+     * default implementation does nothing.
+     *
+     * @param entity the new entity, not stored yet
+     */
+    protected void initializeNewEntity(E entity)
+    {
+        // Nothing to do by default
+    }
+
+    /**
+     * Reserves the next document that can be used for a newly created entity, so that entities created in parallel
+     * don't use the same document. The reservation must be released once the document is saved.
+     *
+     * @return a reference for a new document
+     */
+    private synchronized DocumentReference reserveNextDocument()
+    {
+        DocumentReference result = getNextDocument();
+        this.reservedDocuments.add(result);
+        return result;
+    }
+
+    /**
+     * Sets up a new document for an entity, from the entity template, without saving it.
+     *
+     * @param reference the reference of the new document
+     * @param creator the creator of the entity, may be {@code null}
+     * @param context the current XWiki context
+     * @return the new document
+     * @throws Exception if reading the new document or the template fails
+     */
+    private XWikiDocument prepareDocument(DocumentReference reference, DocumentReference creator,
+        XWikiContext context) throws Exception
+    {
+        XWikiDocument doc = (XWikiDocument) this.bridge.getDocument(reference);
+
+        DocumentReference template = getXClassInfo().template;
+        if (template != null) {
+            doc.readFromTemplate(template, context);
+        }
+        if (creator != null) {
+            doc.setCreatorReference(creator);
+            doc.setAuthorReference(creator);
+            doc.setContentAuthorReference(creator);
+        }
+        return doc;
+    }
+
     /**
      * Gets a reference to the next document that can be used for a newly created entity. It uses {@link #getIdPrefix()
      * a short prefix} and {@link #getLastUsedId() a sequence number} for the document name, and {@link #getDataSpace()
@@ -265,16 +372,14 @@ protected DocumentReference getNextDocument()
         do {
             newDoc = this.referenceResolver.resolve(new EntityReference(
                 prefix + String.format("%07d", ++id), EntityType.DOCUMENT, getDataSpace()));
-        } while (this.bridge.exists(newDoc));
+        } while (this.reservedDocuments.contains(newDoc) || this.bridge.exists(newDoc));
         return newDoc;
     }
 
     @Override
     public String getIdPrefix()
     {
-        String name = getEntityXClassReference().getName();
-        name = StringUtils.removeEnd(name, "Class");
-        return name.replaceAll("\\p{Lower}++", "");
+        return getXClassInfo().idPrefix;
     }
 
     protected long getLastUsedId()
@@ -284,7 +389,7 @@ protected long getLastUsedId()
             Query q =
                 this.qm.createQuery(
                     "select doc.name from Document doc, doc.object("
-                        + this.localSerializer.serialize(getEntityXClassReference())
+                        + getXClassInfo().serializedClass
                         + ") as entity where doc.space = :space order by doc.name desc",
                     Query.XWQL).bindValue("space", this.getDataSpace().getName()).setLimit(1);
             List<String> crtMaxIDList = q.execute();
@@ -325,8 +430,16 @@ protected DocumentReference getEntityXClassReference()
         }
         String name = StringUtils.substringBefore(this.getClass().getAnnotation(Named.class).value(), "/");
         DocumentReference result = this.stringResolver.resolve(name, Constants.CODE_SPACE_REFERENCE);
-        if (!this.bridge.exists(result) && !name.endsWith("Class")) {
-            result = this.stringResolver.resolve(name + "Class", Constants.CODE_SPACE_REFERENCE);
+        WikiReference wiki = result.getWikiReference();
+        DocumentReference cached = this.namedXClass.get(wiki);
+        if (cached != null) {
+            return cached;
+        }
+        registerListener();
+        this.watchedDocuments.add(result);
+        if (!this.bridge.exists(result) && !name.endsWith(CLASS_SUFFIX)) {
+            result = this.stringResolver.resolve(name + CLASS_SUFFIX, Constants.CODE_SPACE_REFERENCE);
+            this.watchedDocuments.add(result);
         }
         if (!this.bridge.exists(result)) {
             this.logger.error("Invalid component configuration: {} does not have a valid @Named annotation",
@@ -335,9 +448,67 @@ protected DocumentReference getEntityXClassReference()
                 "The @Named annotation on PrimaryEntityManager class " + this.getClass().getCanonicalName()
                     + " must be a reference to the XClass used by its managed entity");
         }
+        this.namedXClass.put(wiki, result);
         return result;
     }
 
+    /**
+     * Gets the template and other information derived from the {@link #getEntityXClassReference() XClass} used by the
+     * managed entities. Finding the template requires checking which documents exist, so the result is cached, and only
+     * invalidated when one of the candidate class or template documents is created or deleted.
+     *
+     * @return the XClass information
+     */
+    private XClassInfo getXClassInfo()
+    {
+        DocumentReference classReference = getEntityXClassReference();
+        XClassInfo result = this.xclassInfo.get(classReference);
+        if (result == null) {
+            registerListener();
+            String className = classReference.getName();
+            List<DocumentReference> templates = Arrays.asList(
+                new DocumentReference(className + TEMPLATE_SUFFIX, classReference.getLastSpaceReference()),
+                new DocumentReference(StringUtils.removeEnd(className, CLASS_SUFFIX) + TEMPLATE_SUFFIX,
+                    classReference.getLastSpaceReference()));
+            this.watchedDocuments.addAll(templates);
+            DocumentReference template = null;
+            for (DocumentReference candidate : templates) {
+                if (this.bridge.exists(candidate)) {
+                    template = candidate;
+                    break;
+                }
+            }
+            result = new XClassInfo(this.localSerializer.serialize(classReference), templates, template,
+                StringUtils.removeEnd(className, CLASS_SUFFIX).replaceAll("\\p{Lower}++", ""));
+            this.xclassInfo.put(classReference, result);
+        }
+        return result;
+    }
+
+    /**
+     * Registers a listener which forgets the cached XClass information when one of the documents it was computed from
+     * is created or deleted. This is done lazily, since eagerly looking up the observation manager may cause cyclic
+     * dependencies while event listeners are initialized.
+     */
+    private void registerListener()
+    {
+        if (this.listening) {
+            return;
+        }
+        synchronized (this.watchedDocuments) {
+            if (this.listening) {
+                return;
+            }
+            this.listening = true;
+            try {
+                this.observationManager.get().addListener(new XClassInfoInvalidator());
+            } catch (RuntimeException ex) {
+                this.logger.warn("Failed to register the entity type cache invalidator for [{}]: {}",
+                    this.getClass().getName(), ex.getMessage());
+            }
+        }
+    }
+
     @Override
     public EntityReference getEntityType()
     {
@@ -399,4 +570,55 @@ protected Constructor<? extends E> getEntityConstructor() throws AbstractMethodE
         }
         return this.econstructor;
     }
+
+    /** Information derived from the XClass used by the managed entities. */
+    private static final class XClassInfo
+    {
+        /** The XClass reference, serialized without the wiki. */
+        private final String serializedClass;
+
+        /** The possible template documents, in order of preference. */
+        private final List<DocumentReference> templates;
+
+        /** The template actually used for new entities, {@code null} if none exists. */
+        private final DocumentReference template;
+
+        /** The default prefix for the names of new entity documents. */
+        private final String idPrefix;
+
+        XClassInfo(String serializedClass, List<DocumentReference> templates, DocumentReference template,
+            String idPrefix)
+        {
+            this.serializedClass = serializedClass;
+            this.templates = templates;
+            this.template = template;
+            this.idPrefix = idPrefix;
+        }
+    }
+
+    /** Forgets the cached XClass information when one of the class or template documents is created or deleted. */
+    private final class XClassInfoInvalidator implements EventListener
+    {
+        @Override
+        public String getName()
+        {
+            return "primary-entity-xclass-invalidator-" + AbstractPrimaryEntityManager.this.getClass().getName();
+        }
+
+        @Override
+        public List<Event> getEvents()
+        {
+            return Arrays.<Event>asList(new DocumentCreatedEvent(), new DocumentDeletedEvent());
+        }
+
+        @Override
+        public void onEvent(Event event, Object source, Object data)
+        {
+            DocumentReference reference = ((DocumentModelBridge) source).getDocumentReference();
+            if (AbstractPrimaryEntityManager.this.watchedDocuments.contains(reference)) {
+                AbstractPrimaryEntityManager.this.namedXClass.clear();
+                AbstractPrimaryEntityManager.this.xclassInfo.clear();
+            }
+        }
+    }
 }
@@ -22,11 +22,15 @@
 
 import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.component.util.DefaultParameterizedType;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryManager;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
@@ -36,10 +40,12 @@
 
 import javax.inject.Provider;
 
+import org.json.JSONObject;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -102,6 +108,9 @@
     @Mock
     private XWikiContext xcontext;
 
+    @Mock
+    private ObservationManager observationManager;
+
     @Before
     public void setUp() throws Exception
     {
@@ -145,6 +154,10 @@ public void setUp() throws Exception
         when(this.xcontext.getWiki()).thenReturn(this.xwiki);
 
         when(this.dab.getCurrentUserReference()).thenReturn(this.currentUser);
+
+        Provider<ObservationManager> omProvider =
+            this.mocker.getInstance(new DefaultParameterizedType(null, Provider.class, ObservationManager.class));
+        when(omProvider.get()).thenReturn(this.observationManager);
     }
 
     @Test
@@ -241,6 +254,42 @@ public void createLeavesAuthorEmptyWithGuestUser() throws Exception
         Mockito.verify(this.doc, Mockito.never()).setContentAuthorReference(any());
     }
 
+    @Test
+    public void createWithDataSavesTheNewDocumentOnce() throws Exception
+    {
+        DocumentReference ref = new DocumentReference("main", "Persons", "P0000005");
+        when(this.referenceResolver
+            .resolve(new EntityReference("P0000005", EntityType.DOCUMENT, this.manager.getDataSpace())))
+                .thenReturn(ref);
+        when(this.dab.getDocument(ref)).thenReturn(this.doc);
+        when(this.doc.getDocumentReference()).thenReturn(ref);
+        when(this.doc.isNew()).thenReturn(true);
+
+        Person result = this.manager.create(new JSONObject(), this.currentUser);
+
+        Assert.assertNotNull(result);
+        Assert.assertEquals("P0000005", result.getId());
+        Mockito.verify(this.doc).setCreatorReference(this.currentUser);
+        Mockito.verify(this.xwiki, Mockito.times(1)).saveDocument(this.doc, this.xcontext);
+    }
+
+    @Test
+    public void createWithDataDoesNotSaveAgainDocumentsStoredWhileUpdating() throws Exception
+    {
+        DocumentReference ref = new DocumentReference("main", "Persons", "P0000005");
+        when(this.referenceResolver
+            .resolve(new EntityReference("P0000005", EntityType.DOCUMENT, this.manager.getDataSpace())))
+                .thenReturn(ref);
+        when(this.dab.getDocument(ref)).thenReturn(this.doc);
+        when(this.doc.getDocumentReference()).thenReturn(ref);
+        when(this.doc.isNew()).thenReturn(false);
+
+        Person result = this.manager.create(new JSONObject(), this.currentUser);
+
+        Assert.assertNotNull(result);
+        Mockito.verify(this.xwiki, Mockito.never()).saveDocument(this.doc, this.xcontext);
+    }
+
     @Test
     public void createUsesClassTemplateWhenAvailable() throws Exception
     {
@@ -259,6 +308,54 @@ public void createUsesClassTemplateWhenAvailable() throws Exception
         Mockito.verify(this.doc).readFromTemplate(template, this.xcontext);
     }
 
+    @Test
+    public void classAndTemplateAreOnlyResolvedOnce() throws Exception
+    {
+        DocumentReference ref = new DocumentReference("main", "Persons", "P0000005");
+        when(this.referenceResolver
+            .resolve(new EntityReference("P0000005", EntityType.DOCUMENT, this.manager.getDataSpace())))
+                .thenReturn(ref);
+        when(this.dab.getDocument(ref)).thenReturn(this.doc);
+        when(this.doc.getDocumentReference()).thenReturn(ref);
+        DocumentReference template = new DocumentReference("main", "PhenoTips", "PersonClassTemplate");
+
+        this.manager.create();
+        this.manager.create();
+        this.manager.getAll();
+        this.manager.getIdPrefix();
+
+        Mockito.verify(this.dab).exists(new DocumentReference("main", "PhenoTips", "Person"));
+        Mockito.verify(this.dab).exists(PERSON_CLASS_REFERENCE);
+        Mockito.verify(this.dab).exists(template);
+        Mockito.verify(this.observationManager).addListener(any(EventListener.class));
+    }
+
+    @Test
+    public void createdTemplateIsUsedAfterInvalidation() throws Exception
+    {
+        DocumentReference ref = new DocumentReference("main", "Persons", "P0000005");
+        when(this.referenceResolver
+            .resolve(new EntityReference("P0000005", EntityType.DOCUMENT, this.manager.getDataSpace())))
+                .thenReturn(ref);
+        when(this.dab.getDocument(ref)).thenReturn(this.doc);
+        when(this.doc.getDocumentReference()).thenReturn(ref);
+
+        this.manager.create();
+        Mockito.verify(this.doc, Mockito.never()).readFromTemplate(any(DocumentReference.class), eq(this.xcontext));
+
+        DocumentReference template = new DocumentReference("main", "PhenoTips", "PersonClassTemplate");
+        when(this.dab.exists(template)).thenReturn(true);
+        XWikiDocument templateDoc = Mockito.mock(XWikiDocument.class);
+        when(templateDoc.getDocumentReference()).thenReturn(template);
+        ArgumentCaptor<EventListener> listener = ArgumentCaptor.forClass(EventListener.class);
+        Mockito.verify(this.observationManager).addListener(listener.capture());
+        listener.getValue().onEvent(new DocumentCreatedEvent(template), templateDoc, null);
+
+        this.manager.create();
+
+        Mockito.verify(this.doc).readFromTemplate(template, this.xcontext);
+    }
+
     @Test
     public void getFromReferenceReturnsAPerson() throws Exception
     {
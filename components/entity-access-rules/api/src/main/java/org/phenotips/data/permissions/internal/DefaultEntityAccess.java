@@ -23,10 +23,12 @@
 import org.phenotips.data.permissions.Owner;
 import org.phenotips.data.permissions.Visibility;
 import org.phenotips.entities.PrimaryEntity;
+import org.phenotips.security.authorization.AuthorizationDecisionCache;
 
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
 
+import java.util.Arrays;
 import java.util.Collection;
 
 import javax.annotation.Nonnull;
@@ -51,6 +53,8 @@ public class DefaultEntityAccess implements EntityAccess
 
     private final EntityVisibilityManager visibilityManager;
 
+    private final AuthorizationDecisionCache cache;
+
     /**
      * The default constructor taking in the {@code entity} of interest, a {@code helper} object, an
      * {@code accessManager access manager}, and a {@code visibilityManager visibility manager}.
@@ -65,11 +69,34 @@ public DefaultEntityAccess(
         @Nonnull final EntityAccessHelper helper,
         @Nonnull final EntityAccessManager accessManager,
         @Nonnull final EntityVisibilityManager visibilityManager)
+    {
+        this(entity, helper, accessManager, visibilityManager, null);
+    }
+
+    /**
+     * Constructor which also takes a {@code cache} where the computed access levels are remembered for the duration of
+     * the current request.
+     *
+     * @param entity the {@link PrimaryEntity} of interest
+     * @param helper the {@link EntityAccessHelper} object
+     * @param accessManager the {@link EntityAccessManager access manager}
+     * @param visibilityManager the {@link EntityVisibilityManager visibility manager}
+     * @param cache the {@link AuthorizationDecisionCache decision cache}, may be {@code null} if access levels
+     *            shouldn't be cached
+     * @since 1.4
+     */
+    public DefaultEntityAccess(
+        @Nullable final PrimaryEntity entity,
+        @Nonnull final EntityAccessHelper helper,
+        @Nonnull final EntityAccessManager accessManager,
+        @Nonnull final EntityVisibilityManager visibilityManager,
+        @Nullable final AuthorizationDecisionCache cache)
     {
         this.entity = entity;
         this.helper = helper;
         this.accessManager = accessManager;
         this.visibilityManager = visibilityManager;
+        this.cache = cache;
     }
 
     @Nullable
@@ -109,7 +136,7 @@ public boolean isOwner(@Nullable final EntityReference user)
     @Override
     public boolean setOwner(@Nullable EntityReference userOrGroup)
     {
-        return this.accessManager.setOwner(this.entity, userOrGroup);
+        return invalidate(this.accessManager.setOwner(this.entity, userOrGroup));
     }
 
     @Nonnull
@@ -122,7 +149,7 @@ public Visibility getVisibility()
     @Override
     public boolean setVisibility(@Nullable Visibility newVisibility)
     {
-        return this.visibilityManager.setVisibility(this.entity, newVisibility);
+        return invalidate(this.visibilityManager.setVisibility(this.entity, newVisibility));
     }
 
     @Nonnull
@@ -135,14 +162,14 @@ public Collection<Collaborator> getCollaborators()
     @Override
     public boolean updateCollaborators(@Nullable Collection<Collaborator> newCollaborators)
     {
-        return this.accessManager.setCollaborators(this.entity, newCollaborators);
+        return invalidate(this.accessManager.setCollaborators(this.entity, newCollaborators));
     }
 
     @Override
     public boolean addCollaborator(@Nullable EntityReference user, @Nullable AccessLevel access)
     {
         Collaborator collaborator = new DefaultCollaborator(user, access, null);
-        return this.accessManager.addCollaborator(this.entity, collaborator);
+        return invalidate(this.accessManager.addCollaborator(this.entity, collaborator));
     }
 
     @Override
@@ -155,7 +182,7 @@ public boolean removeCollaborator(@Nullable EntityReference user)
     @Override
     public boolean removeCollaborator(@Nullable Collaborator collaborator)
     {
-        return this.accessManager.removeCollaborator(this.entity, collaborator);
+        return invalidate(this.accessManager.removeCollaborator(this.entity, collaborator));
     }
 
     @Nonnull
@@ -168,6 +195,15 @@ public AccessLevel getAccessLevel()
     @Nonnull
     @Override
     public AccessLevel getAccessLevel(@Nullable EntityReference user)
+    {
+        if (this.cache == null || this.entity == null) {
+            return computeAccessLevel(user);
+        }
+        return this.cache.get(Arrays.asList("accessLevel", user, this.entity.getDocumentReference()),
+            () -> computeAccessLevel(user));
+    }
+
+    private AccessLevel computeAccessLevel(@Nullable EntityReference user)
     {
         if (user == null) {
             final Owner owner = this.getOwner();
@@ -200,6 +236,20 @@ public boolean hasAccessLevel(@Nullable EntityReference user, @Nullable AccessLe
         return access != null && realAccess.compareTo(access) >= 0;
     }
 
+    /**
+     * Forgets the cached access levels after a change in the access rules.
+     *
+     * @param changed whether the access rules were actually changed
+     * @return {@code changed}, unmodified
+     */
+    private boolean invalidate(boolean changed)
+    {
+        if (this.cache != null) {
+            this.cache.invalidate();
+        }
+        return changed;
+    }
+
     @Override
     public String toString()
     {
@@ -23,6 +23,7 @@
 import org.phenotips.data.permissions.Visibility;
 import org.phenotips.data.permissions.events.EntityRightsUpdatedEvent;
 import org.phenotips.entities.PrimaryEntity;
+import org.phenotips.security.authorization.AuthorizationDecisionCache;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.observation.ObservationManager;
@@ -54,6 +55,9 @@ public class DefaultEntityPermissionsManager implements EntityPermissionsManager
     @Inject
     private EntityAccessManager accessManager;
 
+    @Inject
+    private AuthorizationDecisionCache decisionCache;
+
     @Nonnull
     @Override
     public Collection<Visibility> listVisibilityOptions()
@@ -107,7 +111,8 @@ public AccessLevel resolveAccessLevel(@Nullable final String name)
     @Override
     public EntityAccess getEntityAccess(@Nullable final PrimaryEntity targetPatient)
     {
-        return new DefaultEntityAccess(targetPatient, this.helper, this.accessManager, this.visibilityManager);
+        return new DefaultEntityAccess(targetPatient, this.helper, this.accessManager, this.visibilityManager,
+            this.decisionCache);
     }
 
     @Nonnull
@@ -131,6 +136,7 @@ public Iterator<? extends PrimaryEntity> filterByVisibility(
     @Override
     public void fireRightsUpdateEvent(@Nonnull final String entityId)
     {
+        this.decisionCache.invalidate();
         this.observationManager.notify(new EntityRightsUpdatedEvent(entityId), null);
     }
 }
@@ -19,6 +19,12 @@
 
 import org.phenotips.studies.family.Pedigree;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.json.JSONObject;
@@ -33,10 +39,19 @@
  */
 public abstract class AbstractBasePedigree implements Pedigree
 {
+    /** The maximum total length, in characters, of the rendered images kept in {@link #RENDERED_IMAGES}. */
+    private static final int RENDERED_IMAGES_CACHE_LENGTH = 4 * 1024 * 1024;
+
+    /** Recently rendered image variants, keyed by image version, highlighted patient and size. */
+    private static final RenderedImageCache RENDERED_IMAGES = new RenderedImageCache(RENDERED_IMAGES_CACHE_LENGTH);
+
     protected JSONObject data;
 
     protected String image = "";
 
+    /** Identifies the stored version of {@link #image}, {@code null} if the image is not cacheable. */
+    protected String imageVersion;
+
     /**
      * Create a new pedigree using given data and image.
      *
@@ -44,12 +59,27 @@ public abstract class AbstractBasePedigree implements Pedigree
      * @param image SVG 'image'
      */
     public AbstractBasePedigree(JSONObject data, String image)
+    {
+        this(data, image, null);
+    }
+
+    /**
+     * Create a new pedigree using given data and image, whose rendered variants can be cached.
+     *
+     * @param data pedigree data
+     * @param image SVG 'image'
+     * @param imageVersion identifies the stored version of the image, for example the family document reference and
+     *            version; {@code null} if rendered images should not be cached
+     * @since 1.4
+     */
+    public AbstractBasePedigree(JSONObject data, String image, String imageVersion)
     {
         if (data == null || data.length() == 0) {
             throw new IllegalArgumentException();
         }
         this.data = data;
         this.image = image;
+        this.imageVersion = imageVersion;
     }
 
     @Override
@@ -67,13 +97,31 @@ public String getImage(String highlightCurrentPatientId)
     @Override
     public String getImage(String highlightCurrentPatientId, int width, int height)
     {
-        String svg = SvgUpdater.setCurrentPatientStylesInSvg(this.image, highlightCurrentPatientId);
-        if (width > 0) {
-            svg = SvgUpdater.setSVGWidth(svg, width);
+        String cacheKey = null;
+        if (this.imageVersion != null && this.image != null) {
+            // the image length and hash guard against in-memory changes not yet reflected in the version
+            cacheKey = this.imageVersion + '/' + this.image.length() + '/' + this.image.hashCode() + '/'
+                + highlightCurrentPatientId + '/' + width + 'x' + height;
+            String cached = RENDERED_IMAGES.get(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
         }
-        if (height > 0) {
+
+        String svg;
+        try {
+            svg = new SvgTransformer().highlightCurrentPatient(highlightCurrentPatientId).setSize(width, height)
+                .transform(this.image);
+        } catch (XMLStreamException ex) {
+            // not a well-formed XML document, fall back to textual processing
+            svg = SvgUpdater.setCurrentPatientStylesInSvg(this.image, highlightCurrentPatientId);
+            svg = SvgUpdater.setSVGWidth(svg, width);
             svg = SvgUpdater.setSVGHeight(svg, height);
         }
+
+        if (cacheKey != null && svg != null) {
+            RENDERED_IMAGES.put(cacheKey, svg);
+        }
         return svg;
     }
 
@@ -97,7 +145,14 @@ public String getProbandPatientLastName()
     public void removeLink(String linkedPatientId)
     {
         // update SVG
-        this.image = SvgUpdater.removeLink(this.image, linkedPatientId);
+        try {
+            this.image = new SvgTransformer().removeLink(linkedPatientId).transform(this.image);
+        } catch (XMLStreamException ex) {
+            // not a well-formed XML document, fall back to textual processing
+            this.image = SvgUpdater.removeLink(this.image, linkedPatientId);
+        }
+        // the image no longer matches the stored version
+        this.imageVersion = null;
 
         // update JSON
         removeLinkFromPedigreeJSON(linkedPatientId);
@@ -112,4 +167,43 @@ public void removeLink(String linkedPatientId)
      * Removes all links to the given PhenoTips patient form the pedigree JSON.
      */
     protected abstract void removeLinkFromPedigreeJSON(String linkedPatientId);
+
+    /**
+     * A least recently used cache of rendered images, bounded by the total length of the images instead of their
+     * number, since pedigree images range from a few kilobytes to several megabytes.
+     */
+    private static final class RenderedImageCache
+    {
+        private final Map<String, String> images = new LinkedHashMap<>(16, 0.75f, true);
+
+        private final long maxLength;
+
+        /** The total length of the cached images. */
+        private long length;
+
+        RenderedImageCache(long maxLength)
+        {
+            this.maxLength = maxLength;
+        }
+
+        synchronized String get(String key)
+        {
+            return this.images.get(key);
+        }
+
+        synchronized void put(String key, String image)
+        {
+            // a single large image shouldn't evict all the others
+            if (image.length() > this.maxLength / 4) {
+                return;
+            }
+            String previous = this.images.put(key, image);
+            this.length += image.length() - (previous == null ? 0 : previous.length());
+            Iterator<String> eldest = this.images.values().iterator();
+            while (this.length > this.maxLength && eldest.hasNext()) {
+                this.length -= eldest.next().length();
+                eldest.remove();
+            }
+        }
+    }
 }
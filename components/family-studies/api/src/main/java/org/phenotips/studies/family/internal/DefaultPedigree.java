@@ -61,6 +61,19 @@ public DefaultPedigree(JSONObject data, String image)
         super(data, image);
     }
 
+    /**
+     * Create a new default pedigree from data (in "old internal" format) and a stored image (a text representing SVG).
+     *
+     * @param data pedigree data
+     * @param image SVG 'image'
+     * @param imageVersion identifies the stored version of the image, used for caching rendered images
+     * @since 1.4
+     */
+    public DefaultPedigree(JSONObject data, String image, String imageVersion)
+    {
+        super(data, image, imageVersion);
+    }
+
     /**
      * Checks that the provided JSON objects represents a pedigree in the supported format.
      *
@@ -249,7 +249,9 @@ public Pedigree getPedigree()
                     JSONObject pedigreeJSON = new JSONObject(data.toText());
                     // Do a basic data format check before attempting to initialize a pedigree
                     if (DefaultPedigree.isSupportedPedigreeFormat(pedigreeJSON)) {
-                        return new DefaultPedigree(pedigreeJSON, image.toText());
+                        XWikiDocument document = getXDocument();
+                        return new DefaultPedigree(pedigreeJSON, image.toText(),
+                            document.getDocumentReference() + "@" + document.getVersion());
                     }
                 }
             } catch (XWikiException e) {
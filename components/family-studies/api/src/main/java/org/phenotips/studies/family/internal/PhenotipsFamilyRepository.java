@@ -19,6 +19,7 @@
 
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientRepository;
+import org.phenotips.data.PatientWritePolicy;
 import org.phenotips.data.permissions.Owner;
 import org.phenotips.security.authorization.AuthorizationService;
 import org.phenotips.studies.family.Family;
@@ -45,10 +46,14 @@
 import org.xwiki.users.User;
 import org.xwiki.users.UserManager;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.apache.commons.lang3.StringUtils;
@@ -59,6 +64,9 @@
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.store.XWikiCacheStore;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+import com.xpn.xwiki.store.XWikiStoreInterface;
 
 /**
  * Provides utility methods for working with family documents and patients.
@@ -164,11 +172,15 @@ public boolean forceRemoveAllMembers(Family family, User updatingUser)
         if (!this.authorizationService.hasAccess(updatingUser, Right.EDIT, family.getDocumentReference())) {
             return false;
         }
+        XWikiContext context = this.xcontextProvider.get();
         try {
             for (Patient patient : family.getMembers()) {
                 // remove the member without updating family document (use "batch mode")
                 // since we don't care about it as it will be removed anyway
                 this.removeMember(family, patient, updatingUser, true);
+                if (!savePatientDocument(patient.getXDocument(), "removed from family", context)) {
+                    throw new PTInternalErrorException();
+                }
             }
             return true;
         } catch (PTException ex) {
@@ -225,7 +237,8 @@ public synchronized void addMember(Family family, Patient patient, User updating
 
     /**
      * This method may be called either as a standalone invocation, or internally as part of family pedigree update. The
-     * latter invocation may add multiple patients (a "batch update")
+     * latter invocation may add multiple patients (a "batch update"), in which case neither the patient nor the family
+     * document are saved, and the caller is responsible for persisting them.
      */
     private void addMember(Family family, Patient patient, User updatingUser, boolean batchUpdate) throws PTException
     {
@@ -258,7 +271,7 @@ private void addMember(Family family, Patient patient, User updatingUser, boolea
         if (!this.setFamilyReference(patientDocument, family.getXDocument(), context)) {
             throw new PTInternalErrorException();
         }
-        if (!savePatientDocument(patientDocument, "added to family " + family.getId(), context)) {
+        if (!batchUpdate && !savePatientDocument(patientDocument, "added to family " + family.getId(), context)) {
             throw new PTInternalErrorException();
         }
 
@@ -327,7 +340,7 @@ private void removeMember(Family family, Patient patient, User updatingUser, boo
         if (!this.removeFamilyReference(patientDocument)) {
             throw new PTInternalErrorException();
         }
-        if (!savePatientDocument(patientDocument, "removed from family", context)) {
+        if (!batchUpdate && !savePatientDocument(patientDocument, "removed from family", context)) {
             throw new PTInternalErrorException();
         }
 
@@ -453,7 +466,7 @@ private void checkIfPatientCanBeRemovedFromFamily(Family family, Patient patient
     public synchronized void setPedigree(Family family, Pedigree pedigree, User updatingUser) throws PTException
     {
         // note: whenever available, internal versions of helper methods are used which modify the
-        // family document but do not save it to disk
+        // family and patient documents but do not save them to disk
         List<String> oldMembers = family.getMembersIds();
 
         List<String> currentMembers = pedigree.extractIds();
@@ -468,44 +481,163 @@ public synchronized void setPedigree(Family family, Pedigree pedigree, User upda
         XWikiContext context = this.xcontextProvider.get();
         context.setUserReference(updatingUser == null ? null : updatingUser.getProfileDocument());
 
-        // update patient data from pedigree's JSON
-        // (no links to families are set at this point, only patient dat ais updated)
-        this.updatePatientsFromJson(pedigree, updatingUser);
-
-        boolean firstPedigree = (family.getPedigree() == null);
-
-        this.setPedigreeObject(family, pedigree, context);
-
         // Removed members who are no longer in the family
         List<String> patientsToRemove = new LinkedList<>();
         patientsToRemove.addAll(oldMembers);
         patientsToRemove.removeAll(currentMembers);
-        for (String patientId : patientsToRemove) {
-            Patient patient = this.patientRepository.get(patientId);
-            // remove the memebr and update patient document, but don't write family document to disk yet
-            // and don't update permisisons (that will be done once afdter all patients are added/removed)
-            this.removeMember(family, patient, updatingUser, true);
-        }
 
-        for (String patientId : patientsToAdd) {
-            Patient patient = this.patientRepository.get(patientId);
-            this.addMember(family, patient, updatingUser, true);
+        // all the patient and family documents touched by this pedigree are written in a single store transaction,
+        // and each patient document is saved (and thus versioned and reported as changed) only once
+        XWikiHibernateStore store = beginBatchTransaction(context);
+        // patients whose documents were modified in memory, and which must be saved, or evicted on failure
+        Map<String, Patient> modifiedPatients = new LinkedHashMap<>();
+        boolean success = false;
+        try {
+            boolean firstPedigree = (family.getPedigree() == null);
+
+            this.setPedigreeObject(family, pedigree, context);
+
+            for (String patientId : patientsToRemove) {
+                Patient patient = this.patientRepository.get(patientId);
+                // remove the member from the family, but don't write any documents to disk yet
+                this.removeMember(family, patient, updatingUser, true);
+                modifiedPatients.put(patientId, patient);
+            }
+
+            for (String patientId : patientsToAdd) {
+                Patient patient = this.patientRepository.get(patientId);
+                this.addMember(family, patient, updatingUser, true);
+                modifiedPatients.put(patientId, patient);
+            }
+
+            // update patient data from pedigree's JSON, in memory only
+            this.updatePatientsFromJson(pedigree, updatingUser, modifiedPatients);
+
+            for (Patient patient : modifiedPatients.values()) {
+                saveInBatch(patient.getXDocument(), "Updated family from saved pedigree", context);
+            }
+
+            if (firstPedigree && StringUtils.isEmpty(family.getExternalId())) {
+                // default family identifier to proband last name - only on first pedigree creation
+                // and only if no extrenal id is already (manully) defined
+                String lastName = pedigree.getProbandPatientLastName();
+                if (lastName != null) {
+                    this.setFamilyExternalId(lastName, family, context);
+                }
+            }
+
+            saveInBatch(family.getXDocument(), "Updated family from saved pedigree", context);
+            success = true;
+        } finally {
+            success = endBatchTransaction(store, success, context);
+            if (!success) {
+                // the documents modified in memory are shared through the document cache, and must not outlive
+                // the rolled back transaction
+                List<XWikiDocument> touchedDocuments = new ArrayList<>(modifiedPatients.size() + 1);
+                for (Patient patient : modifiedPatients.values()) {
+                    touchedDocuments.add(patient.getXDocument());
+                }
+                touchedDocuments.add(family.getXDocument());
+                evict(touchedDocuments, context);
+            }
+        }
+        if (!success) {
+            // the transaction could not be committed
+            throw new PTInternalErrorException();
         }
+    }
 
-        if (firstPedigree && StringUtils.isEmpty(family.getExternalId())) {
-            // default family identifier to proband last name - only on first pedigree creation
-            // and only if no extrenal id is already (manully) defined
-            String lastName = pedigree.getProbandPatientLastName();
-            if (lastName != null) {
-                this.setFamilyExternalId(lastName, family, context);
+    /**
+     * Starts a store transaction spanning several document saves. Document saves performed while the transaction is
+     * open join it instead of committing on their own.
+     *
+     * @param context the current request context
+     * @return the store that owns the new transaction, or {@code null} if no new transaction was started, either
+     *         because one is already in progress, or because the store does not support it
+     */
+    private XWikiHibernateStore beginBatchTransaction(XWikiContext context)
+    {
+        try {
+            XWikiHibernateStore store = context.getWiki().getHibernateStore();
+            if (store != null && store.beginTransaction(context)) {
+                return store;
             }
+        } catch (XWikiException ex) {
+            this.logger.warn("Failed to start a batch transaction, saving documents individually: {}",
+                ex.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Commits or rolls back a transaction started with {@link #beginBatchTransaction(XWikiContext)}.
+     *
+     * @param store the store that owns the transaction, may be {@code null} if no transaction was started
+     * @param commit whether the transaction should be committed or rolled back
+     * @param context the current request context
+     * @return {@code true} if the transaction was committed, {@code false} if it was rolled back or committing failed
+     */
+    private boolean endBatchTransaction(XWikiHibernateStore store, boolean commit, XWikiContext context)
+    {
+        if (store == null) {
+            return commit;
+        }
+        try {
+            store.endTransaction(context, commit);
+            return commit;
+        } catch (RuntimeException ex) {
+            this.logger.error("Failed to commit the pedigree update: {}", ex.getMessage(), ex);
+            return false;
         }
+    }
 
-        if (!this.saveFamilyDocument(family, "Updated family from saved pedigree", context)) {
+    /**
+     * Saves a document as part of a batch update. The document is saved through the normal XWiki API, so that listeners
+     * and versioning behave as for any other save, but the store joins the transaction already started with
+     * {@link #beginBatchTransaction(XWikiContext)} instead of committing on its own.
+     *
+     * @param document the document to save
+     * @param comment the history comment
+     * @param context the current request context
+     * @throws PTInternalErrorException if saving the document failed or was canceled by a listener
+     */
+    private void saveInBatch(XWikiDocument document, String comment, XWikiContext context)
+        throws PTInternalErrorException
+    {
+        try {
+            document.setAuthorReference(context.getUserReference());
+            context.getWiki().saveDocument(document, comment, false, context);
+        } catch (XWikiException ex) {
+            this.logger.error("Error saving document [{}] for commit {}: [{}]", document.getDocumentReference(),
+                comment, ex.getMessage());
             throw new PTInternalErrorException();
         }
     }
 
+    /**
+     * Removes documents from the document cache, so that they are loaded again from the database the next time they
+     * are needed.
+     *
+     * @param documents the documents to evict
+     * @param context the current request context
+     */
+    private void evict(List<XWikiDocument> documents, XWikiContext context)
+    {
+        XWikiStoreInterface store = context.getWiki().getStore();
+        if (!(store instanceof XWikiCacheStore)) {
+            return;
+        }
+        XWikiCacheStore cacheStore = (XWikiCacheStore) store;
+        for (XWikiDocument document : documents) {
+            if (document == null) {
+                continue;
+            }
+            String key = cacheStore.getKey(document, context);
+            cacheStore.getCache().remove(key);
+            cacheStore.getPageExistCache().remove(key);
+        }
+    }
+
     private void checkValidity(Family family, List<String> newMembers, User updatingUser) throws PTException
     {
         // Checks that current user has edit permissions on family
@@ -527,26 +659,47 @@ private void checkValidity(Family family, List<String> newMembers, User updating
         }
     }
 
-    private void updatePatientsFromJson(Pedigree pedigree, User updatingUser)
+    /**
+     * Updates patient data from the pedigree JSON, without saving the patient documents. The updated patients are
+     * added to {@code modifiedPatients}, reusing the patients already there, so that all their changes are saved at
+     * once.
+     */
+    private void updatePatientsFromJson(Pedigree pedigree, User updatingUser, Map<String, Patient> modifiedPatients)
+        throws PTException
     {
         String idKey = "id";
+        List<JSONObject> patientsJson;
         try {
-            List<JSONObject> patientsJson = this.pedigreeConverter.convert(pedigree);
-
-            for (JSONObject singlePatient : patientsJson) {
-                if (singlePatient.has(idKey)) {
-                    Patient patient = this.patientRepository.get(singlePatient.getString(idKey));
-                    if (!this.authorizationService.hasAccess(
-                        updatingUser, Right.EDIT, patient.getDocumentReference())) {
-                        // skip patients the current user does not have edit rights for
-                        continue;
-                    }
-                    patient.updateFromJSON(singlePatient);
-                }
-            }
+            patientsJson = this.pedigreeConverter.convert(pedigree);
         } catch (Exception ex) {
+            this.logger.error("Failed to extract patient data from pedigree: {}", ex.getMessage(), ex);
             throw new PTInternalErrorException();
         }
+
+        for (JSONObject singlePatient : patientsJson) {
+            if (!singlePatient.has(idKey)) {
+                continue;
+            }
+            String patientId = singlePatient.getString(idKey);
+            Patient patient = modifiedPatients.get(patientId);
+            if (patient == null) {
+                patient = this.patientRepository.get(patientId);
+            }
+            if (patient == null) {
+                throw new PTInvalidPatientIdException(patientId);
+            }
+            if (!this.authorizationService.hasAccess(updatingUser, Right.EDIT, patient.getDocumentReference())) {
+                // skip patients the current user does not have edit rights for
+                continue;
+            }
+            try {
+                patient.applyJSON(singlePatient, PatientWritePolicy.UPDATE);
+            } catch (RuntimeException ex) {
+                this.logger.error("Failed to update patient [{}] from pedigree: {}", patientId, ex.getMessage(), ex);
+                throw new PTInternalErrorException();
+            }
+            modifiedPatients.put(patientId, patient);
+        }
     }
 
     private String findDuplicate(List<String> updatedMembers)
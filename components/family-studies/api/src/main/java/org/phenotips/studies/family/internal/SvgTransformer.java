@@ -0,0 +1,489 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.studies.family.internal;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Applies a set of edits (size, link removal, current patient highlighting) to a pedigree SVG while streaming it.
+ * <p>
+ * Positions of links can only be known once the whole document has been seen, so the input is first scanned with a
+ * read-only cursor to locate the affected links, then copied to the output in a single pass during which all the
+ * edits are applied. No intermediate copies of the document are created.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+public final class SvgTransformer
+{
+    /**
+     * Finds the patient identifier in the value of SVG links to patients, which may be relative or absolute URLs, such
+     * as {@code /bin/data/P0000001}, {@code ../bin/P0000001} or {@code http://host:8080/bin/data/P0000001?vr=1}.
+     */
+    private static final Pattern PATIENT_PAGE_LINK_PATTERN = Pattern.compile("/(P\\d+)(?=$|[/?#])");
+
+    private static final Pattern NUMBER_PATTERN = Pattern.compile("\\d+");
+
+    private static final String SVG_TAG = "svg";
+
+    private static final String LINK_TAG = "a";
+
+    private static final String TEXT_TAG = "text";
+
+    private static final String HREF_ATTR = "href";
+
+    private static final String WIDTH_ATTR = "width";
+
+    private static final String HEIGHT_ATTR = "height";
+
+    private static final String Y_ATTR = "y";
+
+    private static final String STROKE_WIDTH_ATTR = "stroke-width";
+
+    private static final String NODE_ID_ATTR = "pedigreeNodeID";
+
+    private static final String PROBAND_ATTR = "isProband";
+
+    private static final String NODE_SHAPE_TOKEN = "node-shape-";
+
+    private static final double PROBAND_STROKE_WIDTH = 2;
+
+    private static final double CURRENT_PATIENT_STROKE_WIDTH = 5;
+
+    /** The number of pixels to shift text when a link is removed. */
+    private static final int SVG_LINK_HEIGHT_IN_PIXELS = 22;
+
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newInstance();
+
+    static {
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, false);
+    }
+
+    private int width;
+
+    private int height;
+
+    private boolean highlight;
+
+    private String highlightPatientId;
+
+    private String removedPatientId;
+
+    /**
+     * Sets the target size of the image. Values {@code <= 0} are ignored.
+     *
+     * @param targetWidth target width in pixels
+     * @param targetHeight target height in pixels
+     * @return this transformer, for chaining
+     */
+    public SvgTransformer setSize(int targetWidth, int targetHeight)
+    {
+        this.width = targetWidth;
+        this.height = targetHeight;
+        return this;
+    }
+
+    /**
+     * Visually marks the proband and the given patient, and removes any other stroke width from the node shapes.
+     *
+     * @param patientId the id of the patient that should be visually marked as current; if {@code null}, the only
+     *            linked patient (if there is exactly one) is marked
+     * @return this transformer, for chaining
+     */
+    public SvgTransformer highlightCurrentPatient(String patientId)
+    {
+        this.highlight = true;
+        this.highlightPatientId = patientId;
+        return this;
+    }
+
+    /**
+     * Removes the link and label for the given patient.
+     *
+     * @param patientId id of the patient whose link should be removed
+     * @return this transformer, for chaining
+     */
+    public SvgTransformer removeLink(String patientId)
+    {
+        this.removedPatientId = patientId;
+        return this;
+    }
+
+    /**
+     * Applies all the configured edits to the given SVG.
+     *
+     * @param svg the SVG to transform, may be {@code null}
+     * @return the transformed SVG
+     * @throws XMLStreamException if the SVG is not well-formed XML
+     */
+    public String transform(String svg) throws XMLStreamException
+    {
+        if (StringUtils.isBlank(svg) || !(this.highlight || this.width > 0 || this.height > 0
+            || this.removedPatientId != null)) {
+            return svg;
+        }
+        LinkScan links = scanLinks(svg);
+
+        StringWriter result = new StringWriter(svg.length());
+        XMLEventReader reader = INPUT_FACTORY.createXMLEventReader(new StringReader(svg));
+        XMLEventWriter writer = OUTPUT_FACTORY.createXMLEventWriter(result);
+        try {
+            copy(reader, writer, links);
+            writer.flush();
+        } finally {
+            reader.close();
+            writer.close();
+        }
+        return result.toString();
+    }
+
+    private void copy(XMLEventReader reader, XMLEventWriter writer, LinkScan links) throws XMLStreamException
+    {
+        CopyState state = new CopyState();
+        while (reader.hasNext()) {
+            XMLEvent event = reader.nextEvent();
+            if (event.isStartDocument() || event.isEndDocument()) {
+                // the SVG is embedded in other documents, no XML declaration should be written
+                continue;
+            }
+            if (state.skipDepth > 0) {
+                skip(event, state);
+            } else if (event.isStartElement()) {
+                StartElement element = event.asStartElement();
+                List<Attribute> attributes = transformStartElement(element, links, state);
+                if (state.skipDepth > 0) {
+                    continue;
+                } else if (attributes == null) {
+                    writer.add(element);
+                } else {
+                    writer.add(EVENT_FACTORY.createStartElement(element.getName(), attributes.iterator(),
+                        element.getNamespaces()));
+                }
+            } else {
+                writer.add(event);
+            }
+        }
+    }
+
+    private void skip(XMLEvent event, CopyState state)
+    {
+        if (event.isStartElement()) {
+            state.skipDepth++;
+            // keep link numbering in sync with the scan, which sees all the links
+            state.linkIndex += LINK_TAG.equals(event.asStartElement().getName().getLocalPart()) ? 1 : 0;
+        } else if (event.isEndElement()) {
+            state.skipDepth--;
+        }
+    }
+
+    /**
+     * Computes the new attributes of an element.
+     *
+     * @return the new attributes, or {@code null} if the element is to be copied unchanged
+     */
+    private List<Attribute> transformStartElement(StartElement element, LinkScan links, CopyState state)
+    {
+        String name = element.getName().getLocalPart();
+        if (!state.rootSeen) {
+            state.rootSeen = true;
+            return SVG_TAG.equals(name) ? resize(element) : null;
+        } else if (LINK_TAG.equals(name)) {
+            if (links.removedLinks.contains(state.linkIndex++)) {
+                state.skipDepth = 1;
+            }
+            return null;
+        } else if (TEXT_TAG.equals(name)) {
+            return shiftText(element, links.removedNodeIds);
+        } else if (this.highlight && isNodeShape(element)) {
+            return styleShape(element, links, state);
+        }
+        return null;
+    }
+
+    private List<Attribute> styleShape(StartElement shape, LinkScan links, CopyState state)
+    {
+        // not ideal, but will likely work fine for a long time - removing stroke from every shape
+        List<Attribute> attributes = removeAttribute(shape, STROKE_WIDTH_ATTR);
+        Double strokeWidth = null;
+        if (!state.probandStyled && "true".equals(getAttribute(shape, PROBAND_ATTR))) {
+            state.probandStyled = true;
+            strokeWidth = PROBAND_STROKE_WIDTH;
+        }
+        if (!state.currentStyled && links.currentNodeId != null
+            && links.currentNodeId.equalsIgnoreCase(getShapeNodeId(shape))) {
+            state.currentStyled = true;
+            strokeWidth = CURRENT_PATIENT_STROKE_WIDTH;
+        }
+        if (strokeWidth != null) {
+            attributes.add(EVENT_FACTORY.createAttribute(STROKE_WIDTH_ATTR, strokeWidth.toString()));
+        }
+        return attributes;
+    }
+
+    /**
+     * Read-only pass over the SVG, collecting the links that must be removed and the node of the current patient.
+     */
+    private LinkScan scanLinks(String svg) throws XMLStreamException
+    {
+        LinkScan scan = new LinkScan();
+        if (!this.highlight && this.removedPatientId == null) {
+            return scan;
+        }
+
+        List<String> highlightedNodes = new ArrayList<>(1);
+        XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(new StringReader(svg));
+        try {
+            int linkIndex = 0;
+            int currentLink = 0;
+            int linkDepth = 0;
+            String linkPatientId = null;
+            String linkNodeId = null;
+            while (reader.hasNext()) {
+                int eventType = reader.next();
+                if (eventType == XMLStreamConstants.START_ELEMENT) {
+                    boolean isLink = LINK_TAG.equals(reader.getLocalName());
+                    if (linkDepth > 0) {
+                        linkDepth++;
+                    } else if (isLink) {
+                        linkDepth = 1;
+                        currentLink = linkIndex;
+                        linkPatientId = getPatientId(reader);
+                        linkNodeId = null;
+                    }
+                    linkIndex += isLink ? 1 : 0;
+                    if (linkDepth > 0 && linkNodeId == null) {
+                        linkNodeId = getNodeId(reader);
+                    }
+                } else if (eventType == XMLStreamConstants.END_ELEMENT && linkDepth > 0 && --linkDepth == 0
+                    && linkNodeId != null) {
+                    addLink(scan, currentLink, linkPatientId, linkNodeId, highlightedNodes);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        // the current node is only known if exactly one node links to the highlighted patient
+        if (highlightedNodes.size() == 1) {
+            scan.currentNodeId = highlightedNodes.get(0);
+        }
+        return scan;
+    }
+
+    private void addLink(LinkScan scan, int linkIndex, String patientId, String nodeId, List<String> highlightedNodes)
+    {
+        if (this.highlight
+            && (this.highlightPatientId == null || this.highlightPatientId.equalsIgnoreCase(patientId))) {
+            highlightedNodes.add(nodeId);
+        }
+        if (this.removedPatientId != null && this.removedPatientId.equalsIgnoreCase(patientId)) {
+            scan.removedLinks.add(linkIndex);
+            scan.removedNodeIds.add(nodeId);
+        }
+    }
+
+    private List<Attribute> resize(StartElement root)
+    {
+        List<Attribute> attributes = new ArrayList<>();
+        Iterator<?> it = root.getAttributes();
+        while (it.hasNext()) {
+            Attribute attribute = (Attribute) it.next();
+            String name = attribute.getName().getLocalPart();
+            if (this.width > 0 && WIDTH_ATTR.equals(name) && isNumber(attribute.getValue())) {
+                attribute = EVENT_FACTORY.createAttribute(attribute.getName(), String.valueOf(this.width));
+            } else if (this.height > 0 && HEIGHT_ATTR.equals(name) && isNumber(attribute.getValue())) {
+                attribute = EVENT_FACTORY.createAttribute(attribute.getName(), String.valueOf(this.height));
+            }
+            attributes.add(attribute);
+        }
+        return attributes;
+    }
+
+    private List<Attribute> shiftText(StartElement text, Set<String> removedNodeIds)
+    {
+        if (removedNodeIds.isEmpty()) {
+            return null;
+        }
+        String nodeId = parseNodeId(getAttribute(text, NODE_ID_ATTR), 0);
+        if (nodeId == null || !removedNodeIds.contains(nodeId)) {
+            return null;
+        }
+        List<Attribute> attributes = new ArrayList<>();
+        Iterator<?> it = text.getAttributes();
+        while (it.hasNext()) {
+            Attribute attribute = (Attribute) it.next();
+            if (Y_ATTR.equals(attribute.getName().getLocalPart())) {
+                // shift up labels below the removed link
+                Double y = Double.parseDouble(attribute.getValue()) - SVG_LINK_HEIGHT_IN_PIXELS;
+                attribute = EVENT_FACTORY.createAttribute(attribute.getName(), y.toString());
+            }
+            attributes.add(attribute);
+        }
+        return attributes;
+    }
+
+    private static List<Attribute> removeAttribute(StartElement element, String name)
+    {
+        List<Attribute> attributes = new ArrayList<>();
+        Iterator<?> it = element.getAttributes();
+        while (it.hasNext()) {
+            Attribute attribute = (Attribute) it.next();
+            if (!name.equals(attribute.getName().getLocalPart())) {
+                attributes.add(attribute);
+            }
+        }
+        return attributes;
+    }
+
+    private static boolean isNodeShape(StartElement element)
+    {
+        String name = element.getName().getLocalPart();
+        return ("rect".equals(name) || "circle".equals(name)) && getShapeNodeId(element) != null;
+    }
+
+    /**
+     * Returns the node id of a shape, taken from the first attribute containing a {@code node-shape-} token.
+     */
+    private static String getShapeNodeId(StartElement element)
+    {
+        Iterator<?> it = element.getAttributes();
+        while (it.hasNext()) {
+            String value = ((Attribute) it.next()).getValue();
+            int tokenStart = value.indexOf(NODE_SHAPE_TOKEN);
+            if (tokenStart != -1) {
+                String nodeId = parseNodeId(value, tokenStart + NODE_SHAPE_TOKEN.length());
+                return nodeId == null ? StringUtils.EMPTY : nodeId;
+            }
+        }
+        return null;
+    }
+
+    private static String getAttribute(StartElement element, String name)
+    {
+        Iterator<?> it = element.getAttributes();
+        while (it.hasNext()) {
+            Attribute attribute = (Attribute) it.next();
+            if (name.equals(attribute.getName().getLocalPart())) {
+                return attribute.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static String getPatientId(XMLStreamReader reader)
+    {
+        for (int i = 0; i < reader.getAttributeCount(); ++i) {
+            if (HREF_ATTR.equals(reader.getAttributeLocalName(i))) {
+                Matcher linkMatch = PATIENT_PAGE_LINK_PATTERN.matcher(reader.getAttributeValue(i));
+                if (linkMatch.find()) {
+                    return linkMatch.group(1);
+                }
+            }
+        }
+        return StringUtils.EMPTY;
+    }
+
+    private static String getNodeId(XMLStreamReader reader)
+    {
+        for (int i = 0; i < reader.getAttributeCount(); ++i) {
+            if (NODE_ID_ATTR.equals(reader.getAttributeLocalName(i))) {
+                return parseNodeId(reader.getAttributeValue(i), 0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the numeric node id starting at the given position.
+     *
+     * @return the node id, or {@code null} if there are no digits at that position
+     */
+    private static String parseNodeId(String value, int start)
+    {
+        if (value == null) {
+            return null;
+        }
+        int end = start;
+        while (end < value.length() && Character.isDigit(value.charAt(end))) {
+            end++;
+        }
+        return end > start ? value.substring(start, end) : null;
+    }
+
+    private static boolean isNumber(String value)
+    {
+        return NUMBER_PATTERN.matcher(value).matches();
+    }
+
+    /** The progress of the copy pass. */
+    private static final class CopyState
+    {
+        /** Index, in document order, of the next {@code <a>} element. */
+        private int linkIndex;
+
+        /** Depth inside an element being removed, 0 if not inside one. */
+        private int skipDepth;
+
+        private boolean rootSeen;
+
+        private boolean probandStyled;
+
+        private boolean currentStyled;
+    }
+
+    /** The outcome of the link scan. */
+    private static final class LinkScan
+    {
+        /** Indexes, in document order, of the {@code <a>} elements to drop. */
+        private final Set<Integer> removedLinks = new HashSet<>();
+
+        /** The pedigree node ids of the removed links. */
+        private final Set<String> removedNodeIds = new HashSet<>();
+
+        /** The pedigree node id of the current patient, if any. */
+        private String currentNodeId;
+    }
+}
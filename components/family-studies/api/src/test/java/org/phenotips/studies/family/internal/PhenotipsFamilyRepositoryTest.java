@@ -0,0 +1,276 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.studies.family.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.data.PatientWritePolicy;
+import org.phenotips.security.authorization.AuthorizationService;
+import org.phenotips.studies.family.Family;
+import org.phenotips.studies.family.FamilyRepository;
+import org.phenotips.studies.family.Pedigree;
+import org.phenotips.studies.family.PedigreeProcessor;
+import org.phenotips.studies.family.exceptions.PTInternalErrorException;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+import org.xwiki.users.User;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.inject.Provider;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.store.XWikiCacheStore;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the transactional pedigree update of {@link PhenotipsFamilyRepository}.
+ *
+ * @version $Id$
+ */
+public class PhenotipsFamilyRepositoryTest
+{
+    private static final String EXISTING_MEMBER = "P0000001";
+
+    private static final String NEW_MEMBER = "P0000002";
+
+    private static final String SAVE_COMMENT = "Updated family from saved pedigree";
+
+    @Rule
+    public final MockitoComponentMockingRule<FamilyRepository> mocker =
+        new MockitoComponentMockingRule<>(PhenotipsFamilyRepository.class);
+
+    @Mock
+    private XWikiContext context;
+
+    @Mock
+    private XWiki xwiki;
+
+    @Mock
+    private XWikiHibernateStore hibernateStore;
+
+    @Mock
+    private XWikiCacheStore cacheStore;
+
+    @Mock
+    private Cache<XWikiDocument> documentCache;
+
+    @Mock
+    private Cache<Boolean> existsCache;
+
+    @Mock
+    private User user;
+
+    @Mock
+    private Family family;
+
+    @Mock
+    private XWikiDocument familyDocument;
+
+    @Mock
+    private Pedigree oldPedigree;
+
+    @Mock
+    private Pedigree pedigree;
+
+    @Mock
+    private Patient existingMember;
+
+    @Mock
+    private XWikiDocument existingMemberDocument;
+
+    @Mock
+    private Patient newMember;
+
+    @Mock
+    private XWikiDocument newMemberDocument;
+
+    private JSONObject existingMemberJSON = new JSONObject().put("id", EXISTING_MEMBER);
+
+    private JSONObject newMemberJSON = new JSONObject().put("id", NEW_MEMBER);
+
+    @Before
+    public void setUp() throws Exception
+    {
+        MockitoAnnotations.initMocks(this);
+
+        Provider<XWikiContext> contextProvider = this.mocker.getInstance(XWikiContext.TYPE_PROVIDER);
+        when(contextProvider.get()).thenReturn(this.context);
+        when(this.context.getWiki()).thenReturn(this.xwiki);
+        when(this.xwiki.getHibernateStore()).thenReturn(this.hibernateStore);
+        when(this.hibernateStore.beginTransaction(this.context)).thenReturn(true);
+        when(this.xwiki.getStore()).thenReturn(this.cacheStore);
+        when(this.cacheStore.getCache()).thenReturn(this.documentCache);
+        when(this.cacheStore.getPageExistCache()).thenReturn(this.existsCache);
+        when(this.cacheStore.getKey(any(XWikiDocument.class), same(this.context))).thenAnswer(
+            invocation -> ((XWikiDocument) invocation.getArguments()[0]).getDocumentReference().toString());
+
+        AuthorizationService authorizationService = this.mocker.getInstance(AuthorizationService.class);
+        when(authorizationService.hasAccess(any(User.class), any(Right.class), any(DocumentReference.class)))
+            .thenReturn(true);
+
+        mockDocument(this.familyDocument, new DocumentReference("xwiki", "Families", "FAM0000001"));
+        when(this.familyDocument.getXObject(Family.CLASS_REFERENCE)).thenReturn(Mockito.mock(BaseObject.class));
+        when(this.familyDocument.getXObject(Pedigree.CLASS_REFERENCE)).thenReturn(Mockito.mock(BaseObject.class));
+        when(this.family.getId()).thenReturn("FAM0000001");
+        when(this.family.getDocumentReference()).thenReturn(this.familyDocument.getDocumentReference());
+        when(this.family.getXDocument()).thenReturn(this.familyDocument);
+        when(this.family.getMembersIds()).thenReturn(new ArrayList<>(Arrays.asList(EXISTING_MEMBER)));
+        when(this.family.getPedigree()).thenReturn(this.oldPedigree);
+        when(this.family.getExternalId()).thenReturn("Smith family");
+
+        when(this.pedigree.extractIds()).thenReturn(Arrays.asList(EXISTING_MEMBER, NEW_MEMBER));
+        when(this.pedigree.getData()).thenReturn(new JSONObject());
+        PedigreeProcessor converter = this.mocker.getInstance(PedigreeProcessor.class);
+        when(converter.convert(this.pedigree)).thenReturn(Arrays.asList(this.existingMemberJSON, this.newMemberJSON));
+
+        PatientRepository patients = this.mocker.getInstance(PatientRepository.class);
+        mockPatient(this.existingMember, this.existingMemberDocument, EXISTING_MEMBER, patients);
+        mockPatient(this.newMember, this.newMemberDocument, NEW_MEMBER, patients);
+        when(this.newMemberDocument.getXObject(Family.REFERENCE_CLASS_REFERENCE, true, this.context))
+            .thenReturn(Mockito.mock(BaseObject.class));
+    }
+
+    @Test
+    public void allDocumentsAreSavedOnceInTheSameTransaction() throws Exception
+    {
+        this.mocker.getComponentUnderTest().setPedigree(this.family, this.pedigree, this.user);
+
+        verify(this.existingMember).applyJSON(this.existingMemberJSON, PatientWritePolicy.UPDATE);
+        verify(this.newMember).applyJSON(this.newMemberJSON, PatientWritePolicy.UPDATE);
+        verify(this.existingMember, never()).updateFromJSON(any(JSONObject.class));
+        verify(this.xwiki, never()).saveDocument(any(XWikiDocument.class), any(String.class),
+            any(XWikiContext.class));
+        verify(this.cacheStore, never()).saveXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class));
+
+        InOrder order = Mockito.inOrder(this.xwiki, this.hibernateStore);
+        order.verify(this.hibernateStore).beginTransaction(this.context);
+        order.verify(this.xwiki).saveDocument(this.existingMemberDocument, SAVE_COMMENT, false, this.context);
+        order.verify(this.xwiki).saveDocument(this.newMemberDocument, SAVE_COMMENT, false, this.context);
+        order.verify(this.xwiki).saveDocument(this.familyDocument, SAVE_COMMENT, false, this.context);
+        order.verify(this.hibernateStore).endTransaction(this.context, true);
+        verify(this.xwiki, times(3)).saveDocument(any(XWikiDocument.class), any(String.class), anyBoolean(),
+            any(XWikiContext.class));
+
+        verify(this.documentCache, never()).remove(any(String.class));
+        Assert.assertEquals(Arrays.asList(EXISTING_MEMBER, NEW_MEMBER), this.family.getMembersIds());
+    }
+
+    @Test
+    public void failedSaveRollsBackAndEvictsTouchedDocuments() throws Exception
+    {
+        doThrow(new XWikiException()).when(this.xwiki).saveDocument(this.familyDocument, SAVE_COMMENT, false,
+            this.context);
+
+        try {
+            this.mocker.getComponentUnderTest().setPedigree(this.family, this.pedigree, this.user);
+            Assert.fail("The pedigree update should have failed");
+        } catch (PTInternalErrorException ex) {
+            // Expected
+        }
+
+        verify(this.hibernateStore).endTransaction(this.context, false);
+        verify(this.hibernateStore, never()).endTransaction(this.context, true);
+        verifyEvicted(this.existingMemberDocument, this.newMemberDocument, this.familyDocument);
+    }
+
+    @Test
+    public void failedPatientUpdateIsReportedAndRolledBack() throws Exception
+    {
+        doThrow(new IllegalStateException("Invalid data")).when(this.newMember).applyJSON(this.newMemberJSON,
+            PatientWritePolicy.UPDATE);
+
+        try {
+            this.mocker.getComponentUnderTest().setPedigree(this.family, this.pedigree, this.user);
+            Assert.fail("The pedigree update should have failed");
+        } catch (PTInternalErrorException ex) {
+            // Expected
+        }
+
+        verify(this.xwiki, never()).saveDocument(any(XWikiDocument.class), any(String.class), anyBoolean(),
+            any(XWikiContext.class));
+        verify(this.hibernateStore).endTransaction(this.context, false);
+        verifyEvicted(this.existingMemberDocument, this.newMemberDocument, this.familyDocument);
+    }
+
+    @Test
+    public void failedCommitIsReportedAndEvictsTouchedDocuments() throws Exception
+    {
+        doThrow(new IllegalStateException("Connection lost")).when(this.hibernateStore)
+            .endTransaction(this.context, true);
+
+        try {
+            this.mocker.getComponentUnderTest().setPedigree(this.family, this.pedigree, this.user);
+            Assert.fail("The pedigree update should have failed");
+        } catch (PTInternalErrorException ex) {
+            // Expected
+        }
+
+        verifyEvicted(this.existingMemberDocument, this.newMemberDocument, this.familyDocument);
+    }
+
+    private void verifyEvicted(XWikiDocument... documents)
+    {
+        for (XWikiDocument document : documents) {
+            String key = document.getDocumentReference().toString();
+            verify(this.documentCache).remove(key);
+            verify(this.existsCache).remove(key);
+        }
+    }
+
+    private void mockPatient(Patient patient, XWikiDocument document, String id, PatientRepository patients)
+    {
+        mockDocument(document, new DocumentReference("xwiki", "data", id));
+        when(patient.getId()).thenReturn(id);
+        when(patient.getDocumentReference()).thenReturn(document.getDocumentReference());
+        when(patient.getXDocument()).thenReturn(document);
+        when(patients.get(id)).thenReturn(patient);
+    }
+
+    private void mockDocument(XWikiDocument document, DocumentReference reference)
+    {
+        when(document.getDocumentReference()).thenReturn(reference);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.studies.family.internal;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link SvgTransformer}.
+ *
+ * @version $Id$
+ */
+public class SvgTransformerTest
+{
+    private static final String SVG = "<svg xmlns=\"http://www.w3.org/2000/svg\" "
+        + "xmlns:xlink=\"http://www.w3.org/1999/xlink\" width=\"400\" height=\"300\">"
+        + "<rect class=\"node-shape-1\" isProband=\"true\" stroke-width=\"1\"></rect>"
+        + "<circle class=\"node-shape-2\" stroke-width=\"1\"></circle>"
+        + "<a xlink:href=\"/bin/P0000002\" pedigreeNodeID=\"2\"><text>P0000002</text></a>"
+        + "<text pedigreeNodeID=\"2\" y=\"100\">name</text></svg>";
+
+    private static final String PATIENT_ID = "P0000002";
+
+    private static final String LINK = "xlink:href=\"/bin/P0000002\"";
+
+    @Test
+    public void unchangedWhenNoEditsRequested() throws XMLStreamException
+    {
+        Assert.assertSame(SVG, new SvgTransformer().transform(SVG));
+        Assert.assertNull(new SvgTransformer().setSize(10, 10).transform(null));
+    }
+
+    @Test
+    public void sizeIsUpdated() throws XMLStreamException
+    {
+        String result = new SvgTransformer().setSize(200, 0).transform(SVG);
+        Assert.assertTrue(result.contains("width=\"200\""));
+        Assert.assertTrue(result.contains("height=\"300\""));
+        Assert.assertFalse(result.startsWith("<?xml"));
+    }
+
+    @Test
+    public void probandAndCurrentPatientAreHighlighted() throws XMLStreamException
+    {
+        String result = new SvgTransformer().highlightCurrentPatient(PATIENT_ID).transform(SVG);
+        Assert.assertTrue(result.matches(".*<rect[^>]*stroke-width=\"2.0\".*"));
+        Assert.assertTrue(result.matches(".*<circle[^>]*stroke-width=\"5.0\".*"));
+        Assert.assertFalse(result.contains("stroke-width=\"1\""));
+        Assert.assertTrue(result.contains(LINK));
+    }
+
+    @Test
+    public void otherPatientsAreNotHighlighted() throws XMLStreamException
+    {
+        String result = new SvgTransformer().highlightCurrentPatient("P0000003").transform(SVG);
+        Assert.assertTrue(result.matches(".*<rect[^>]*stroke-width=\"2.0\".*"));
+        Assert.assertFalse(result.matches(".*<circle[^>]*stroke-width.*"));
+    }
+
+    @Test
+    public void linkIsRemovedAndLabelShifted() throws XMLStreamException
+    {
+        String result = new SvgTransformer().removeLink(PATIENT_ID).transform(SVG);
+        Assert.assertFalse(result.contains(LINK));
+        Assert.assertFalse(result.contains(">P0000002<"));
+        Assert.assertTrue(result.contains("y=\"78.0\""));
+        Assert.assertTrue(result.contains("stroke-width=\"1\""));
+    }
+
+    @Test
+    public void absoluteLinksAreRecognized() throws XMLStreamException
+    {
+        String absoluteLink = "xlink:href=\"http://phenotips.example.org:8080/bin/data/P0000002?vr=1\"";
+        String svg = SVG.replace(LINK, absoluteLink);
+
+        String result = new SvgTransformer().highlightCurrentPatient(PATIENT_ID).transform(svg);
+        Assert.assertTrue(result.matches(".*<circle[^>]*stroke-width=\"5.0\".*"));
+
+        result = new SvgTransformer().removeLink(PATIENT_ID).transform(svg);
+        Assert.assertFalse(result.contains(absoluteLink));
+        Assert.assertFalse(result.contains(">P0000002<"));
+    }
+
+    @Test
+    public void relativeLinksWithDotsAreRecognized() throws XMLStreamException
+    {
+        String relativeLink = "xlink:href=\"../bin/data-v2/P0000002\"";
+        String result = new SvgTransformer().removeLink(PATIENT_ID).transform(SVG.replace(LINK, relativeLink));
+        Assert.assertFalse(result.contains(relativeLink));
+    }
+
+    @Test
+    public void linksToOtherPatientsAreKept() throws XMLStreamException
+    {
+        String otherLink = "xlink:href=\"/bin/P00000021\"";
+        String result = new SvgTransformer().removeLink(PATIENT_ID).transform(SVG.replace(LINK, otherLink));
+        Assert.assertTrue(result.contains(otherLink));
+    }
+
+    @Test(expected = XMLStreamException.class)
+    public void malformedSvgIsRejected() throws XMLStreamException
+    {
+        new SvgTransformer().setSize(10, 10).transform("<svg width=\"1\"><rect></svg>");
+    }
+}
@@ -17,7 +17,9 @@
  */
 package org.phenotips.studies.family.rest.internal;
 
+import org.phenotips.data.Patient;
 import org.phenotips.rest.Autolinker;
+import org.phenotips.rest.VersionedResponses;
 import org.phenotips.security.authorization.AuthorizationService;
 import org.phenotips.studies.family.Family;
 import org.phenotips.studies.family.FamilyRepository;
@@ -30,17 +32,24 @@
 import org.xwiki.users.User;
 import org.xwiki.users.UserManager;
 
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
-import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
 import org.json.JSONObject;
 import org.slf4j.Logger;
 
+import com.xpn.xwiki.doc.XWikiDocument;
+
 /**
  * Default implementation for {@link FamilyResource} using XWiki's support for REST resources.
  *
@@ -72,6 +81,13 @@ public class DefaultFamilyResourceImpl extends XWikiResource implements FamilyRe
     @Inject
     private Provider<Autolinker> autolinker;
 
+    @Inject
+    private VersionedResponses responses;
+
+    /** The current request, used for answering conditional requests. */
+    @Context
+    private Request request;
+
     @Override
     public Response getFamily(String id)
     {
@@ -86,9 +102,27 @@ public Response getFamily(String id)
             this.logger.error("View access denied to user [{}] on family record [{}]", currentUser, id);
             return Response.status(Status.FORBIDDEN).build();
         }
-        JSONObject json = family.toJSON();
-        json.put("links", this.autolinker.get().forResource(getClass(), this.uriInfo).build());
-        return Response.ok(json, MediaType.APPLICATION_JSON_TYPE).build();
+        // The representation includes data from the members' records, and depends on the user's access to them
+        List<Object> version = new ArrayList<>();
+        version.add(FamilyResource.class.getName());
+        version.add(currentUser != null ? currentUser.getId() : null);
+        version.add(this.uriInfo.getBaseUri());
+        Date lastModified = addVersion(family.getXDocument(), version, null);
+        for (Patient member : family.getMembers()) {
+            lastModified = addVersion(member.getXDocument(), version, lastModified);
+        }
+        return this.responses.getResponse(this.request, lastModified, () -> {
+            JSONObject json = family.toJSON();
+            json.put("links", this.autolinker.get().forResource(getClass(), this.uriInfo).build());
+            return json;
+        }, version.toArray());
+    }
+
+    private Date addVersion(XWikiDocument document, List<Object> version, Date lastModified)
+    {
+        version.add(document.getDocumentReference());
+        version.add(document.getVersion());
+        return lastModified == null || lastModified.before(document.getDate()) ? document.getDate() : lastModified;
     }
 
     @Override
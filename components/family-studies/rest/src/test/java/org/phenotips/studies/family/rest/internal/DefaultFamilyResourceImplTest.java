@@ -17,6 +17,9 @@
  */
 package org.phenotips.studies.family.rest.internal;
 
+import org.phenotips.data.Patient;
+import org.phenotips.rest.VersionedResponses;
+import org.phenotips.security.authorization.AuthorizationService;
 import org.phenotips.studies.family.Family;
 import org.phenotips.studies.family.FamilyRepository;
 import org.phenotips.studies.family.FamilyTools;
@@ -24,17 +27,25 @@
 
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.ReflectionUtils;
 import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.security.authorization.Right;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 import org.xwiki.users.User;
 import org.xwiki.users.UserManager;
 
 import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.function.Supplier;
 
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.UriInfo;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -44,7 +55,10 @@
 import org.mockito.MockitoAnnotations;
 
 import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
@@ -97,6 +111,33 @@ public void setUp() throws ComponentLookupException, URISyntaxException
         when(this.familyRepository.get(FAMILY_ID)).thenReturn(this.family);
     }
 
+    @Test
+    public void getFamilyIsVersionedByFamilyAndMembersDocuments() throws ComponentLookupException
+    {
+        AuthorizationService access = this.mocker.getInstance(AuthorizationService.class);
+        DocumentReference familyReference = new DocumentReference("xwiki", "Families", FAMILY_ID);
+        DocumentReference memberReference = new DocumentReference("xwiki", "data", "P0000001");
+        when(this.family.getDocumentReference()).thenReturn(familyReference);
+        when(access.hasAccess(this.currentUser, Right.VIEW, familyReference)).thenReturn(true);
+        when(this.currentUser.getId()).thenReturn("xwiki:XWiki.padams");
+
+        XWikiDocument familyDocument = mockDocument(familyReference, "2.1", new Date(1000));
+        when(this.family.getXDocument()).thenReturn(familyDocument);
+        Patient member = mock(Patient.class);
+        XWikiDocument memberDocument = mockDocument(memberReference, "5.1", new Date(2000));
+        when(member.getXDocument()).thenReturn(memberDocument);
+        when(this.family.getMembers()).thenReturn(Arrays.asList(member));
+
+        ReflectionUtils.setFieldValue(this.resource, "uriInfo", mock(UriInfo.class));
+
+        this.resource.getFamily(FAMILY_ID);
+
+        VersionedResponses responses = this.mocker.getInstance(VersionedResponses.class);
+        verify(responses).getResponse(any(Request.class), eq(new Date(2000)), any(Supplier.class),
+            eq(FamilyResource.class.getName()), eq("xwiki:XWiki.padams"), any(), eq(familyReference), eq("2.1"),
+            eq(memberReference), eq("5.1"));
+    }
+
     @Test
     public void deleteFamilyIgnoresMissingFamily()
     {
@@ -140,4 +181,13 @@ public void deleteFamilyReportsServerErrorAfterFailure() throws WebApplicationEx
         verify(this.familyTools).deleteFamily(FAMILY_ID, false);
         Assert.assertEquals(Status.INTERNAL_SERVER_ERROR.getStatusCode(), response.getStatus());
     }
+
+    private XWikiDocument mockDocument(DocumentReference reference, String version, Date date)
+    {
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getDocumentReference()).thenReturn(reference);
+        when(document.getVersion()).thenReturn(version);
+        when(document.getDate()).thenReturn(date);
+        return document;
+    }
 }
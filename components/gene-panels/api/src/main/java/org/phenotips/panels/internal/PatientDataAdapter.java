@@ -25,6 +25,7 @@
 import org.phenotips.vocabulary.VocabularyManager;
 import org.phenotips.vocabulary.VocabularyTerm;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -263,8 +264,13 @@ private void addTermsFromFeatures(
             @Nonnull final Set<VocabularyTerm> retrievedPresentTerms,
             @Nonnull final Set<VocabularyTerm> retrievedAbsentTerms)
         {
+            final List<String> termIds = new ArrayList<>(features.size());
             for (final Feature feature : features) {
-                final VocabularyTerm term = this.vocabularyManager.resolveTerm(feature.getValue());
+                termIds.add(feature.getValue());
+            }
+            final Map<String, VocabularyTerm> terms = this.vocabularyManager.resolveTerms(termIds);
+            for (final Feature feature : features) {
+                final VocabularyTerm term = terms.get(feature.getValue());
                 if (term != null) {
                     if (feature.isPresent()) {
                         retrievedPresentTerms.add(term);
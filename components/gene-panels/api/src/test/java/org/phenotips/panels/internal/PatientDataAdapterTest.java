@@ -32,8 +32,11 @@
 import org.xwiki.component.util.ReflectionUtils;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.inject.Provider;
@@ -41,6 +44,7 @@
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -200,6 +204,7 @@ public void setUp() throws Exception
         when(this.vocabularyManager.resolveTerm(POS_FEATURE_1_ID)).thenReturn(this.positiveTerm1);
         when(this.vocabularyManager.resolveTerm(POS_FEATURE_2_ID)).thenReturn(this.positiveTerm2);
         when(this.vocabularyManager.resolveTerm(NEG_FEATURE_1_ID)).thenReturn(this.negativeTerm1);
+        resolveTermsOneByOne(this.vocabularyManager);
         when(this.positiveFeature1.isPresent()).thenReturn(true);
         when(this.positiveFeature2.isPresent()).thenReturn(true);
         when(this.negativeFeature1.isPresent()).thenReturn(false);
@@ -282,4 +287,22 @@ private Gene mockGene(String id, String status)
         when(result.getStatus()).thenReturn(status);
         return result;
     }
+
+    /**
+     * Makes the mocked vocabulary manager resolve batches of terms using the individually mocked terms.
+     */
+    @SuppressWarnings("unchecked")
+    private void resolveTermsOneByOne(final VocabularyManager vocabularyManager)
+    {
+        when(vocabularyManager.resolveTerms(Matchers.anyCollectionOf(String.class))).thenAnswer(invocation -> {
+            Map<String, VocabularyTerm> result = new LinkedHashMap<>();
+            for (String termId : (Collection<String>) invocation.getArguments()[0]) {
+                VocabularyTerm term = vocabularyManager.resolveTerm(termId);
+                if (term != null) {
+                    result.put(termId, term);
+                }
+            }
+            return result;
+        });
+    }
 }
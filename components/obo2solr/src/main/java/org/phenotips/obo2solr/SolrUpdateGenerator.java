@@ -19,11 +19,19 @@
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,17 +41,21 @@
     private static final String TERM_MARKER = "[Term]";
 
     /** Not all entities are terms prompted by the presence of a {@link #TERM_MARKER} */
-    private static final String ENTITY_SEPARATION_REGEX = "^\\[[a-zA-Z]+\\]$";
+    private static final Pattern ENTITY_SEPARATION_PATTERN = Pattern.compile("^\\[[a-zA-Z]+\\]$");
 
-    private static final String FIELD_NAME_VALUE_SEPARATOR = "\\s*:\\s+";
+    private static final Pattern FIELD_NAME_VALUE_SEPARATOR = Pattern.compile("\\s*:\\s+");
 
-    private int counter;
+    private static final Pattern QUOTED_VALUE_PATTERN = Pattern.compile("^\"(.+)\"\\s*?(?:[A-Z]+|\\[).*");
 
-    private TermData crtTerm = new TermData();
+    private static final Pattern VALUE_MODIFIERS_PATTERN = Pattern.compile("\\s+\\{.*$");
 
-    private Map<String, TermData> data = new LinkedHashMap<>();
+    private static final Pattern HPO_REFERENCE_PATTERN = Pattern.compile("^(HP:\\d{7}) ! .*$");
 
-    private Map<String, Double> fieldSelection;
+    private static final String FIRST_GROUP = "$1";
+
+    private static final String HEADER_ID = "HEADER_INFO";
+
+    private static final String VERSION_FIELD_NAME = "version";
 
     private Logger logger = LoggerFactory.getLogger(this.getClass());
 
@@ -60,86 +72,138 @@ public Map<String, TermData> transform(String ontologyUrl, Map<String, Double> f
 
     public Map<String, TermData> transform(URL input, Map<String, Double> fieldSelection)
     {
-        this.fieldSelection = fieldSelection;
+        Map<String, TermData> data = new LinkedHashMap<>();
+        transform(input, fieldSelection, term -> data.put(term.getId(), term));
+        return data;
+    }
+
+    /**
+     * Parses an OBO file and passes each term to the provided consumer, as soon as the term is complete, instead of
+     * gathering all the terms in memory. If the {@link TermData#TERM_CATEGORY_FIELD_NAME term category} is selected,
+     * the file is read twice: once to build the compact {@link TermGraph is_a hierarchy}, and once to emit the terms
+     * with all their ancestors as categories.
+     *
+     * @param input the location of the OBO file
+     * @param fieldSelection the fields to extract, or an empty map to extract all the fields
+     * @param consumer receives each term, in the order they appear in the file; the header information is passed
+     *            as a term with the {@code HEADER_INFO} identifier
+     * @return {@code true} if the whole file was successfully processed, {@code false} otherwise
+     * @since 1.4
+     */
+    public boolean transform(URL input, Map<String, Double> fieldSelection, Consumer<TermData> consumer)
+    {
+        if (!isFieldSelected(fieldSelection, TermData.TERM_CATEGORY_FIELD_NAME)) {
+            try (InputStream in = input.openStream()) {
+                parse(in, fieldSelection, consumer);
+                return true;
+            } catch (IOException ex) {
+                this.logger.error("IOException: {}", ex.getMessage());
+                return false;
+            }
+        }
+
+        Path localCopy = null;
         try {
-            BufferedReader in = new BufferedReader(new InputStreamReader(input.openConnection().getInputStream()));
-            String line;
-            this.counter = 0;
-
-            /*
-             * When encountering a separator that is not a term separator, all data should be skipped until a term
-             * separator is encountered again
-             */
-            boolean skip = false;
-            while ((line = in.readLine()) != null) {
-                if (line.trim().matches(ENTITY_SEPARATION_REGEX)) {
-                    if (this.counter > 0) {
-                        storeCrtTerm();
-                    }
-                    // Overridden below
-                    skip = true;
-                }
-                if (line.trim().equalsIgnoreCase(TERM_MARKER)) {
-                    ++this.counter;
-                    skip = false;
-                    continue;
-                }
-                if (!skip) {
-                    String[] pieces = line.split(FIELD_NAME_VALUE_SEPARATOR, 2);
-                    if (pieces.length != 2) {
-                        continue;
-                    }
-                    if (pieces[0].trim().equals("data-version")) {
-                        this.crtTerm.addTo("version", pieces[1]);
-                        this.crtTerm.addTo(TermData.ID_FIELD_NAME, "HEADER_INFO");
-                        this.counter++;
-                    }
-                    loadField(pieces[0], pieces[1]);
-                }
+            localCopy = Files.createTempFile("obo2solr", ".obo");
+            try (InputStream in = input.openStream()) {
+                Files.copy(in, localCopy, StandardCopyOption.REPLACE_EXISTING);
             }
-            if (this.counter > 0) {
-                storeCrtTerm();
+
+            TermGraph graph = new TermGraph();
+            Map<String, Double> hierarchyFields = new HashMap<>();
+            hierarchyFields.put(TermData.ID_FIELD_NAME, null);
+            hierarchyFields.put(TermData.PARENT_FIELD_NAME, null);
+            try (InputStream in = Files.newInputStream(localCopy)) {
+                parse(in, hierarchyFields,
+                    term -> graph.addTerm(term.getId(), term.get(TermData.TERM_CATEGORY_FIELD_NAME)));
             }
-            if (isFieldSelected(TermData.TERM_CATEGORY_FIELD_NAME)) {
-                propagateAncestors();
+            this.logger.debug("Loaded the hierarchy of [{}] terms", graph.size());
+
+            try (InputStream in = Files.newInputStream(localCopy)) {
+                parse(in, fieldSelection, term -> {
+                    term.put(TermData.TERM_CATEGORY_FIELD_NAME, graph.getAncestors(term.getId()));
+                    consumer.accept(term);
+                });
             }
-        } catch (NullPointerException ex) {
-            this.logger.error("NullPointer: {}", ex.getMessage());
+            return true;
         } catch (IOException ex) {
             this.logger.error("IOException: {}", ex.getMessage());
+            return false;
         } finally {
-            this.fieldSelection = null;
+            if (localCopy != null) {
+                try {
+                    Files.deleteIfExists(localCopy);
+                } catch (IOException ex) {
+                    this.logger.warn("Failed to delete temporary file [{}]: {}", localCopy, ex.getMessage());
+                }
+            }
         }
-        return this.data;
     }
 
-    private void storeCrtTerm()
+    private void parse(InputStream input, Map<String, Double> fieldSelection, Consumer<TermData> consumer)
+        throws IOException
     {
-        if (this.crtTerm.getId() != null) {
-            this.data.put(this.crtTerm.getId(), this.crtTerm);
+        BufferedReader in = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        String line;
+        TermData crtTerm = new TermData();
+        boolean inHeader = true;
+
+        /*
+         * When encountering a separator that is not a term separator, all data should be skipped until a term
+         * separator is encountered again
+         */
+        boolean skip = false;
+        while ((line = in.readLine()) != null) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("[") && ENTITY_SEPARATION_PATTERN.matcher(trimmed).matches()) {
+                store(crtTerm, consumer);
+                crtTerm = new TermData();
+                inHeader = false;
+                skip = !TERM_MARKER.equalsIgnoreCase(trimmed);
+                continue;
+            }
+            if (skip) {
+                continue;
+            }
+            String[] pieces = FIELD_NAME_VALUE_SEPARATOR.split(line, 2);
+            if (pieces.length != 2) {
+                continue;
+            }
+            if (inHeader && "data-version".equals(pieces[0].trim())) {
+                crtTerm.addTo(VERSION_FIELD_NAME, pieces[1]);
+                crtTerm.addTo(TermData.ID_FIELD_NAME, HEADER_ID);
+            }
+            if (isFieldSelected(fieldSelection, pieces[0])) {
+                crtTerm.addTo(pieces[0], cleanValue(pieces[1]));
+            }
         }
-        this.crtTerm = new TermData();
+        store(crtTerm, consumer);
     }
 
-    private boolean isFieldSelected(String name)
+    private void store(TermData term, Consumer<TermData> consumer)
     {
-        return this.fieldSelection.isEmpty() || this.fieldSelection.containsKey(name);
+        if (term.getId() != null) {
+            consumer.accept(term);
+        }
     }
 
-    private void loadField(String name, String value)
+    private boolean isFieldSelected(Map<String, Double> fieldSelection, String name)
     {
-        if (!(isFieldSelected(name))) {
-            return;
-        }
-        this.crtTerm.addTo(name, value.replaceFirst("^\"(.+)\"\\s*?(?:[A-Z]+|\\[).*", "$1")
-            .replaceFirst("\\s+\\{.*$", "").replaceFirst("^(HP:\\d{7}) ! .*$", "$1").replace("\\\"", "\""));
+        return fieldSelection.isEmpty() || fieldSelection.containsKey(name);
     }
 
-    private void propagateAncestors()
+    private String cleanValue(String value)
     {
-        for (String id : this.data.keySet()) {
-            TermData term = this.data.get(id);
-            term.expandTermCategories(this.data);
+        String result = value;
+        if (result.startsWith("\"")) {
+            result = QUOTED_VALUE_PATTERN.matcher(result).replaceFirst(FIRST_GROUP);
+        }
+        if (result.indexOf('{') >= 0) {
+            result = VALUE_MODIFIERS_PATTERN.matcher(result).replaceFirst("");
+        }
+        if (result.startsWith("HP:")) {
+            result = HPO_REFERENCE_PATTERN.matcher(result).replaceFirst(FIRST_GROUP);
         }
+        return result.replace("\\\"", "\"");
     }
 }
@@ -25,6 +25,7 @@
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.regex.Pattern;
 
 public class TermData extends SetMap<String, String>
 {
@@ -38,6 +39,8 @@ public class TermData extends SetMap<String, String>
 
     public static final String PARENT_ID_REGEX = "^(HP\\:[0-9]{7})\\s*!\\s*.*";
 
+    private static final Pattern PARENT_ID_PATTERN = Pattern.compile(PARENT_ID_REGEX);
+
     private String id;
 
     @Override
@@ -58,7 +61,7 @@ public boolean addTo(String key, String value)
         if (ID_FIELD_NAME.equals(key)) {
             this.id = value;
         } else if (PARENT_FIELD_NAME.equals(key)) {
-            this.addTo(TERM_CATEGORY_FIELD_NAME, value.replaceAll(PARENT_ID_REGEX, "$1"));
+            this.addTo(TERM_CATEGORY_FIELD_NAME, getParentId(value));
         }
         return super.addTo(key, value);
     }
@@ -91,7 +94,7 @@ public void expandTermCategories(Map<String, TermData> data)
                 continue;
             }
             for (String parentTermId : data.get(nextTermId).get(PARENT_FIELD_NAME)) {
-                parentTermId = parentTermId.replaceAll(PARENT_ID_REGEX, "$1");
+                parentTermId = getParentId(parentTermId);
                 if (!result.contains(parentTermId) && !front.contains(parentTermId)) {
                     front.add(parentTermId);
                 }
@@ -99,4 +102,9 @@ public void expandTermCategories(Map<String, TermData> data)
         }
         this.put(TERM_CATEGORY_FIELD_NAME, result);
     }
+
+    private static String getParentId(String value)
+    {
+        return PARENT_ID_PATTERN.matcher(value).replaceAll("$1");
+    }
 }
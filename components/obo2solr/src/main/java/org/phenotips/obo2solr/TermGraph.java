@@ -0,0 +1,141 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.obo2solr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact representation of the {@code is_a} hierarchy of an ontology, where each term is identified by an integer
+ * index and only holds the indexes of its direct parents. Used for computing the ancestors of each term without
+ * keeping all the term data in memory.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+public class TermGraph
+{
+    private static final int[] NO_PARENTS = new int[0];
+
+    private final Map<String, Integer> indexes = new HashMap<>();
+
+    private final List<String> ids = new ArrayList<>();
+
+    private int[][] parents = new int[1024][];
+
+    private int[] visited = new int[0];
+
+    private int[] queue = new int[0];
+
+    private int generation;
+
+    /**
+     * Registers a term and its direct parents. Parents don't have to be registered beforehand.
+     *
+     * @param id the identifier of the term
+     * @param parentIds the identifiers of the direct parents of the term, may be {@code null}
+     */
+    public void addTerm(String id, Collection<String> parentIds)
+    {
+        int index = indexOf(id);
+        if (parentIds == null || parentIds.isEmpty()) {
+            return;
+        }
+        int[] parentIndexes = new int[parentIds.size()];
+        int i = 0;
+        for (String parentId : parentIds) {
+            parentIndexes[i++] = indexOf(parentId);
+        }
+        this.parents[index] = parentIndexes;
+    }
+
+    /**
+     * Lists the term itself and all of its ancestors, in breadth-first order. Parents that are not known terms are
+     * included, but not expanded further.
+     *
+     * @param id the identifier of the term
+     * @return an ordered set of term identifiers, starting with the requested term
+     */
+    public Set<String> getAncestors(String id)
+    {
+        Integer start = this.indexes.get(id);
+        Set<String> result = new LinkedHashSet<>();
+        result.add(id);
+        if (start == null) {
+            return result;
+        }
+        if (this.visited.length < this.ids.size()) {
+            this.visited = Arrays.copyOf(this.visited, this.ids.size());
+            this.queue = new int[this.ids.size()];
+        }
+        ++this.generation;
+        this.visited[start] = this.generation;
+        int head = 0;
+        int tail = 0;
+        this.queue[tail++] = start;
+        while (head < tail) {
+            int crt = this.queue[head++];
+            if (crt != start) {
+                result.add(this.ids.get(crt));
+            }
+            for (int parent : getParents(crt)) {
+                if (this.visited[parent] != this.generation) {
+                    this.visited[parent] = this.generation;
+                    this.queue[tail++] = parent;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The number of terms known to this graph, including parents that were referenced but not registered.
+     *
+     * @return a positive number, or {@code 0} if the graph is empty
+     */
+    public int size()
+    {
+        return this.ids.size();
+    }
+
+    private int[] getParents(int index)
+    {
+        int[] result = this.parents[index];
+        return result == null ? NO_PARENTS : result;
+    }
+
+    private int indexOf(String id)
+    {
+        Integer index = this.indexes.get(id);
+        if (index == null) {
+            index = this.ids.size();
+            this.indexes.put(id, index);
+            this.ids.add(id);
+            if (index >= this.parents.length) {
+                this.parents = Arrays.copyOf(this.parents, this.parents.length * 2);
+            }
+        }
+        return index;
+    }
+}
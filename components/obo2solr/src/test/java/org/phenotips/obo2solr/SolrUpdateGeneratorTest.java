@@ -0,0 +1,130 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.obo2solr;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the streaming parser in {@link SolrUpdateGenerator}, using a small OBO file.
+ *
+ * @version $Id$
+ */
+public class SolrUpdateGeneratorTest
+{
+    private final URL source = getClass().getResource("/test.obo");
+
+    @Test
+    public void termsAreStreamedInFileOrder()
+    {
+        List<String> ids = new ArrayList<>();
+        Assert.assertTrue(new SolrUpdateGenerator().transform(this.source, Collections.<String, Double>emptyMap(),
+            term -> ids.add(term.getId())));
+
+        // the header comes first, and the Typedef stanza is skipped
+        Assert.assertEquals(Arrays.asList("HEADER_INFO", "HP:0000001", "HP:0000118", "HP:0000707", "HP:0000152",
+            "HP:0000252"), ids);
+    }
+
+    @Test
+    public void termCategoriesContainAllAncestors()
+    {
+        Map<String, TermData> terms = parse(Collections.<String, Double>emptyMap());
+
+        Assert.assertEquals(
+            Arrays.asList("HP:0000252", "HP:0000152", "HP:0000707", "HP:9999999", "HP:0000118", "HP:0000001"),
+            new ArrayList<>(terms.get("HP:0000252").get(TermData.TERM_CATEGORY_FIELD_NAME)));
+        Assert.assertEquals(Arrays.asList("HP:0000707", "HP:0000118", "HP:0000001"),
+            new ArrayList<>(terms.get("HP:0000707").get(TermData.TERM_CATEGORY_FIELD_NAME)));
+        Assert.assertEquals(Collections.singletonList("HP:0000001"),
+            new ArrayList<>(terms.get("HP:0000001").get(TermData.TERM_CATEGORY_FIELD_NAME)));
+    }
+
+    @Test
+    public void fieldValuesAreCleaned()
+    {
+        Map<String, TermData> terms = parse(Collections.<String, Double>emptyMap());
+
+        TermData microcephaly = terms.get("HP:0000252");
+        Assert.assertEquals(Collections.singletonList("Microcephaly"), new ArrayList<>(microcephaly.get("name")));
+        Assert.assertEquals(Collections.singletonList("HP:0005489"), new ArrayList<>(microcephaly.get("alt_id")));
+        Assert.assertEquals(Collections.singletonList("Small head"), new ArrayList<>(microcephaly.get("synonym")));
+        Assert.assertEquals(Collections.singletonList("UMLS:C0025958"), new ArrayList<>(microcephaly.get("xref")));
+        Assert.assertEquals(Arrays.asList("HP:0000152", "HP:0000707", "HP:9999999"),
+            new ArrayList<>(microcephaly.get(TermData.PARENT_FIELD_NAME)));
+        Assert.assertEquals(Collections.singletonList("A phenotypic abnormality."),
+            new ArrayList<>(terms.get("HP:0000118").get("def")));
+    }
+
+    @Test
+    public void headerHoldsTheVersion()
+    {
+        TermData header = parse(Collections.<String, Double>emptyMap()).get("HEADER_INFO");
+
+        Assert.assertEquals(Collections.singletonList("releases/2017-01-01"), new ArrayList<>(header.get("version")));
+    }
+
+    @Test
+    public void onlySelectedFieldsAreExtracted()
+    {
+        Map<String, Double> selection = new HashMap<>();
+        selection.put(TermData.ID_FIELD_NAME, null);
+        selection.put("name", null);
+
+        TermData microcephaly = parse(selection).get("HP:0000252");
+
+        Assert.assertEquals(Arrays.asList(TermData.ID_FIELD_NAME, "name"),
+            new ArrayList<>(microcephaly.keySet()));
+    }
+
+    @Test
+    public void mapTransformReturnsTheStreamedTerms()
+    {
+        Map<String, TermData> streamed = parse(Collections.<String, Double>emptyMap());
+        Map<String, TermData> collected =
+            new SolrUpdateGenerator().transform(this.source, Collections.<String, Double>emptyMap());
+
+        Assert.assertEquals(streamed, collected);
+        Assert.assertEquals(new ArrayList<>(streamed.keySet()), new ArrayList<>(collected.keySet()));
+    }
+
+    @Test
+    public void unreadableSourceFails() throws Exception
+    {
+        Assert.assertFalse(new SolrUpdateGenerator().transform(new URL(this.source, "missing.obo"),
+            Collections.<String, Double>emptyMap(), term -> Assert.fail()));
+        Assert.assertNull(new SolrUpdateGenerator().transform("not a URL", Collections.<String, Double>emptyMap()));
+    }
+
+    private Map<String, TermData> parse(Map<String, Double> fieldSelection)
+    {
+        Map<String, TermData> terms = new LinkedHashMap<>();
+        Assert.assertTrue(new SolrUpdateGenerator().transform(this.source, fieldSelection,
+            term -> terms.put(term.getId(), term)));
+        return terms;
+    }
+}
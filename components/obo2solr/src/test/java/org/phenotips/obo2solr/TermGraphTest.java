@@ -0,0 +1,98 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.obo2solr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link TermGraph}.
+ *
+ * @version $Id$
+ */
+public class TermGraphTest
+{
+    @Test
+    public void ancestorsAreListedBreadthFirstStartingWithTheTerm()
+    {
+        TermGraph graph = new TermGraph();
+        graph.addTerm("root", null);
+        graph.addTerm("a", Collections.singletonList("root"));
+        graph.addTerm("b", Collections.singletonList("root"));
+        graph.addTerm("c", Arrays.asList("a", "b"));
+        graph.addTerm("d", Collections.singletonList("c"));
+
+        Assert.assertEquals(Arrays.asList("d", "c", "a", "b", "root"), new ArrayList<>(graph.getAncestors("d")));
+        Assert.assertEquals(Arrays.asList("c", "a", "b", "root"), new ArrayList<>(graph.getAncestors("c")));
+        Assert.assertEquals(Collections.singletonList("root"), new ArrayList<>(graph.getAncestors("root")));
+        Assert.assertEquals(5, graph.size());
+    }
+
+    @Test
+    public void parentsCanBeRegisteredAfterTheirChildren()
+    {
+        TermGraph graph = new TermGraph();
+        graph.addTerm("child", Collections.singletonList("parent"));
+        graph.addTerm("parent", Collections.singletonList("grandparent"));
+
+        Assert.assertEquals(Arrays.asList("child", "parent", "grandparent"),
+            new ArrayList<>(graph.getAncestors("child")));
+    }
+
+    @Test
+    public void unknownParentsAreIncludedButNotExpanded()
+    {
+        TermGraph graph = new TermGraph();
+        graph.addTerm("term", Arrays.asList("known", "unknown"));
+        graph.addTerm("known", null);
+
+        Assert.assertEquals(Arrays.asList("term", "known", "unknown"), new ArrayList<>(graph.getAncestors("term")));
+        Assert.assertEquals(Collections.singletonList("unknown"), new ArrayList<>(graph.getAncestors("unknown")));
+        Assert.assertEquals(Collections.singletonList("missing"), new ArrayList<>(graph.getAncestors("missing")));
+    }
+
+    @Test
+    public void cyclesDoNotPreventTermination()
+    {
+        TermGraph graph = new TermGraph();
+        graph.addTerm("a", Collections.singletonList("b"));
+        graph.addTerm("b", Collections.singletonList("a"));
+
+        Assert.assertEquals(Arrays.asList("a", "b"), new ArrayList<>(graph.getAncestors("a")));
+    }
+
+    @Test
+    public void largeGraphsAreSupported()
+    {
+        TermGraph graph = new TermGraph();
+        graph.addTerm("t0", null);
+        for (int i = 1; i < 5000; ++i) {
+            graph.addTerm("t" + i, Collections.singletonList("t" + (i - 1)));
+        }
+
+        Assert.assertEquals(5000, graph.size());
+        Assert.assertEquals(5000, graph.getAncestors("t4999").size());
+        // Repeated queries reuse the internal buffers
+        Assert.assertEquals(3, graph.getAncestors("t2").size());
+        Assert.assertEquals(5000, graph.getAncestors("t4999").size());
+    }
+}
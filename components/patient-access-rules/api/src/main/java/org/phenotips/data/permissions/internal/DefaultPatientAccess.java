@@ -18,8 +18,8 @@
 package org.phenotips.data.permissions.internal;
 
 import org.phenotips.data.Patient;
-
 import org.phenotips.data.permissions.PatientAccess;
+import org.phenotips.security.authorization.AuthorizationDecisionCache;
 
 /**
  * @version $Id$
@@ -31,7 +31,25 @@ public class DefaultPatientAccess extends DefaultEntityAccess implements Patient
     public DefaultPatientAccess(Patient patient, EntityAccessHelper helper, EntityAccessManager accessManager,
         EntityVisibilityManager visibilityManager)
     {
-        super(patient, helper, accessManager, visibilityManager);
+        this(patient, helper, accessManager, visibilityManager, null);
+    }
+
+    /**
+     * Constructor which also takes a {@code cache} where the computed access levels are remembered for the duration of
+     * the current request, and which is invalidated whenever the access rules are changed through this object.
+     *
+     * @param patient the patient of interest
+     * @param helper the {@link EntityAccessHelper} object
+     * @param accessManager the {@link EntityAccessManager access manager}
+     * @param visibilityManager the {@link EntityVisibilityManager visibility manager}
+     * @param cache the {@link AuthorizationDecisionCache decision cache}, may be {@code null} if access levels
+     *            shouldn't be cached
+     * @since 1.4
+     */
+    public DefaultPatientAccess(Patient patient, EntityAccessHelper helper, EntityAccessManager accessManager,
+        EntityVisibilityManager visibilityManager, AuthorizationDecisionCache cache)
+    {
+        super(patient, helper, accessManager, visibilityManager, cache);
         this.patient = patient;
     }
 
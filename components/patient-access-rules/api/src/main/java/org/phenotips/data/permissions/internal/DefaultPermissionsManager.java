@@ -24,6 +24,7 @@
 import org.phenotips.data.permissions.PermissionsConfiguration;
 import org.phenotips.data.permissions.PermissionsManager;
 import org.phenotips.data.permissions.Visibility;
+import org.phenotips.security.authorization.AuthorizationDecisionCache;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentLookupException;
@@ -65,6 +66,9 @@ public class DefaultPermissionsManager implements PermissionsManager
     @Inject
     private EntityVisibilityManager visibilityManager;
 
+    @Inject
+    private AuthorizationDecisionCache decisionCache;
+
     @Override
     public Collection<Visibility> listVisibilityOptions()
     {
@@ -104,7 +108,8 @@ public AccessLevel resolveAccessLevel(String name)
     @Override
     public PatientAccess getPatientAccess(Patient targetPatient)
     {
-        return new DefaultPatientAccess(targetPatient, getHelper(), this.accessManager, this.visibilityManager);
+        return new DefaultPatientAccess(targetPatient, getHelper(), this.accessManager, this.visibilityManager,
+            this.decisionCache);
     }
 
     @Override
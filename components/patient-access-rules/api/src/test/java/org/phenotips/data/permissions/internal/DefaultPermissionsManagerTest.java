@@ -19,6 +19,7 @@
 
 import org.phenotips.data.Patient;
 import org.phenotips.data.permissions.AccessLevel;
+import org.phenotips.data.permissions.Collaborator;
 import org.phenotips.data.permissions.EntityPermissionsManager;
 import org.phenotips.data.permissions.PatientAccess;
 import org.phenotips.data.permissions.PermissionsConfiguration;
@@ -31,23 +32,31 @@
 import org.phenotips.data.permissions.internal.access.ViewAccessLevel;
 import org.phenotips.data.permissions.internal.visibility.MockVisibility;
 import org.phenotips.data.permissions.internal.visibility.PrivateVisibility;
+import org.phenotips.security.authorization.AuthorizationDecisionCache;
 
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.function.Supplier;
 
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -228,6 +237,49 @@ public void getPatientAccessWithMissingHelper() throws ComponentLookupException
         Assert.assertTrue(result instanceof DefaultPatientAccess);
     }
 
+    /** The access returned by {@link PermissionsManager#getPatientAccess(Patient)} remembers access levels. */
+    @Test
+    public void getPatientAccessUsesTheDecisionCache() throws ComponentLookupException
+    {
+        AuthorizationDecisionCache cache = this.mocker.getInstance(AuthorizationDecisionCache.class);
+        Patient patient = mock(Patient.class);
+        DocumentReference patientReference = new DocumentReference("wiki", "data", "P0000001");
+        when(patient.getDocumentReference()).thenReturn(patientReference);
+        DocumentReference user = new DocumentReference("wiki", "XWiki", "padams");
+        when(cache.get(eq(Arrays.asList("accessLevel", user, patientReference)), any(Supplier.class)))
+            .thenReturn(this.edit);
+
+        PatientAccess result = this.mocker.getComponentUnderTest().getPatientAccess(patient);
+
+        Assert.assertSame(this.edit, result.getAccessLevel(user));
+    }
+
+    /** Changing access rules through {@link PermissionsManager#getPatientAccess(Patient)} invalidates the cache. */
+    @Test
+    public void patientAccessSettersInvalidateTheDecisionCache() throws ComponentLookupException
+    {
+        AuthorizationDecisionCache cache = this.mocker.getInstance(AuthorizationDecisionCache.class);
+        EntityAccessManager accessManager = this.mocker.getInstance(EntityAccessManager.class);
+        EntityVisibilityManager visibilityManager = this.mocker.getInstance(EntityVisibilityManager.class);
+        Patient patient = mock(Patient.class);
+        DocumentReference user = new DocumentReference("wiki", "XWiki", "padams");
+        Collaborator collaborator = mock(Collaborator.class);
+        when(accessManager.setOwner(patient, user)).thenReturn(true);
+        when(visibilityManager.setVisibility(patient, this.publicVisibility)).thenReturn(true);
+        when(accessManager.setCollaborators(patient, Collections.singleton(collaborator))).thenReturn(true);
+        when(accessManager.addCollaborator(eq(patient), any(Collaborator.class))).thenReturn(true);
+        when(accessManager.removeCollaborator(patient, collaborator)).thenReturn(true);
+        PatientAccess access = this.mocker.getComponentUnderTest().getPatientAccess(patient);
+
+        Assert.assertTrue(access.setOwner(user));
+        Assert.assertTrue(access.setVisibility(this.publicVisibility));
+        Assert.assertTrue(access.updateCollaborators(Collections.singleton(collaborator)));
+        Assert.assertTrue(access.addCollaborator(user, this.edit));
+        Assert.assertTrue(access.removeCollaborator(collaborator));
+
+        verify(cache, times(5)).invalidate();
+    }
+
     @Test
     public void filterCollectionByVisibilityWithEmptyInputReturnsEmptyCollection() throws ComponentLookupException
     {
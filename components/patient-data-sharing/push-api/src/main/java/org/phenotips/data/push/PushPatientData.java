@@ -19,10 +19,13 @@
 package org.phenotips.data.push;
 
 import org.phenotips.data.Patient;
+import org.phenotips.data.securestorage.PatientPushedToInfo;
 
 import org.xwiki.component.annotation.Role;
 import org.xwiki.stability.Unstable;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
 
 import org.json.JSONObject;
@@ -92,6 +95,36 @@ PushServerSendPatientResponse sendPatient(Patient patient, Set<String> exportFie
         String groupName, String remoteGUID, String remoteServerIdentifier, String userName, String password,
         String user_token);
 
+    /**
+     * Submits several patients to the specified remote server, in gzip-compressed batches of several patients per
+     * request, with a bounded number of concurrent requests. A patient previously pushed to the same server is updated
+     * using the remote GUID recorded in its previous push information, and if the field hashes of the previous push
+     * are known, only the fields which changed since then are sent.
+     * <p>
+     * If the remote server does not support batch pushes, patients are sent one by one as with
+     * {@link #sendPatient(Patient, Set, JSONObject, String, String, String, String, String, String)}.
+     *
+     * @param patients local patients to be pushed to the remote server
+     * @param exportFields patient fields to be pushed. All other fields will be omitted.
+     * @param patientState JSON containing different categories of patient state, such as granted consents, applied to
+     *            all the patients
+     * @param groupName group name (optional, can be {@code null})
+     * @param previousPushes information about the last push of each patient to the same server, keyed by local patient
+     *            ID; patients never pushed before are not present in the map
+     * @param remoteServerIdentifier identifier of the remote server, as configured in the {@code name} property of a
+     *            {@code PhenoTips.PushPatientServer} object
+     * @param userName user name on the remote server
+     * @param password user password on the remote server. Ignored if user_token is not null.
+     * @param userToken passwordless-login token provided by the remote server on the last successful login (optional,
+     *            can be {@code null})
+     * @return the server response for each patient, keyed by local patient ID, in the order of the input; patients for
+     *         which no response was received from the server are mapped to {@code null}
+     * @since 1.4
+     */
+    Map<String, PushServerSendPatientResponse> sendPatients(Collection<Patient> patients, Set<String> exportFields,
+        JSONObject patientState, String groupName, Map<String, PatientPushedToInfo> previousPushes,
+        String remoteServerIdentifier, String userName, String password, String userToken);
+
     /**
      * Gets the remote patient ID and URL for viewing the remote patient.
      * <p>
@@ -151,6 +151,28 @@ PushServerSendPatientResponse sendPatient(String patientID, String exportFieldLi
     PushServerSendPatientResponse sendPatient(String patientID, String exportFieldListJSON, String patientState,
         String groupName, String remoteGUID, String remoteServerIdentifier);
 
+    /**
+     * Pushes several patients to the specified remote server, using the previously stored remote user name and login
+     * token to authenticate. Patients previously pushed to the same server are updated in place, sending only the
+     * fields which changed since the last push when possible; other patients are created anew. Servers supporting the
+     * batch push protocol receive the patients in compressed batches, other servers receive one patient per request.
+     *
+     * @param patientIDsJSON local patients to be pushed, as a string representing a JSON array of patient IDs
+     * @param exportFieldListJSON patient fields to be pushed, as a string representing a JSON array, or {@code null}
+     *            to push all available fields
+     * @param patientState a JSON encoded as a {@link String}, containing (meta) information about the state of the
+     *            patients' records, applied to all the patients
+     * @param groupName group name (optional, can be {@code null})
+     * @param remoteServerIdentifier identifier of the remote server, as configured in the {@code name} property of a
+     *            {@code PhenoTips.PushPatientServer} object
+     * @return the server response for each patient, keyed by local patient ID, in the order of the input; patients
+     *         that cannot be accessed get an "action failed" response, and patients for which no response was
+     *         received from the server are mapped to {@code null}
+     * @since 1.4
+     */
+    Map<String, PushServerSendPatientResponse> sendPatients(String patientIDsJSON, String exportFieldListJSON,
+        String patientState, String groupName, String remoteServerIdentifier);
+
     /**
      * @param remoteServerIdentifier
      * @param remotePatientGUID
@@ -24,18 +24,38 @@
 import org.phenotips.data.push.PushServerConfigurationResponse;
 import org.phenotips.data.push.PushServerGetPatientIDResponse;
 import org.phenotips.data.push.PushServerSendPatientResponse;
+import org.phenotips.data.securestorage.PatientPushedToInfo;
 import org.phenotips.data.shareprotocol.ShareProtocol;
 import org.phenotips.data.shareprotocol.ShareProtocol.Incompatibility;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
 import org.xwiki.model.reference.DocumentReference;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
@@ -50,7 +70,9 @@
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicNameValuePair;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 
@@ -68,7 +90,7 @@
  */
 @Component
 @Singleton
-public class DefaultPushPatientData implements PushPatientData
+public class DefaultPushPatientData implements PushPatientData, Disposable
 {
     /** Server configuration ID property name within the PushPatientServer class. */
     public static final String PUSH_SERVER_CONFIG_ID_PROPERTY_NAME = "name";
@@ -93,6 +115,15 @@ public class DefaultPushPatientData implements PushPatientData
 
     private static final String XWIKI_RAW_OUTPUT_VALUE = "plain";
 
+    /** The maximum number of patients sent in one batch push request. */
+    private static final int BATCH_SIZE = 50;
+
+    /** The maximum number of concurrent requests sent to one remote server. */
+    private static final int MAX_CONCURRENT_REQUESTS_PER_SERVER = 4;
+
+    /** The maximum number of pooled connections across all remote servers. */
+    private static final int MAX_CONNECTIONS = 20;
+
     /** Logging helper object. */
     @Inject
     private Logger logger;
@@ -100,12 +131,48 @@ public class DefaultPushPatientData implements PushPatientData
     @Inject
     private Provider<XWikiContext> xcontextProvider;
 
-    /** HTTP client used for communicating with the remote server. */
-    private final CloseableHttpClient client = HttpClients.createSystem();
+    /** HTTP client used for communicating with the remote server, reusing keep-alive connections. */
+    private final CloseableHttpClient client = createClient();
+
+    /**
+     * Sends batch push requests in the background, shared by all the pushes. Each push only has up to
+     * {@link #MAX_CONCURRENT_REQUESTS_PER_SERVER} requests in flight, so the pool doesn't need more threads than
+     * pooled connections.
+     */
+    private final ExecutorService executor = createExecutor();
 
     /** A cache of known protocol versions for various server */
     private Map<String, String> protocolVersionsCache = new HashMap<>();
 
+    private static CloseableHttpClient createClient()
+    {
+        PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+        connections.setMaxTotal(MAX_CONNECTIONS);
+        connections.setDefaultMaxPerRoute(MAX_CONCURRENT_REQUESTS_PER_SERVER);
+        return HttpClients.custom().useSystemProperties().setConnectionManager(connections).build();
+    }
+
+    private static ExecutorService createExecutor()
+    {
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(MAX_CONNECTIONS, task -> {
+            Thread thread = new Thread(task, "Patient push sender " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.executor.shutdownNow();
+        try {
+            this.client.close();
+        } catch (IOException ex) {
+            this.logger.warn("Failed to close the push HTTP client: {}", ex.getMessage());
+        }
+    }
+
     /**
      * Return the the URL of the specified remote PhenoTips instance.
      *
@@ -283,31 +350,7 @@ public PushServerSendPatientResponse sendPatient(Patient patient, Set<String> ex
             List<NameValuePair> data =
                 generateRequestData(ShareProtocol.CLIENT_POST_ACTIONKEY_VALUE_PUSH, userName, password, userToken,
                     serverProtocolVersion);
-            if (exportFields != null) {
-                // Version information is required in the JSON; when exportFields is null everything is included anyway
-                exportFields.add(VersionsController.getEnablingFieldName());
-            }
-
-            // for compatibility with servers running older versions of PhenoTips:
-            //
-            // if the target server is known to support only old versions of push protocol, replace
-            // those fields which are not compatible with compatible alternatives (to trigger old serializers)
-            if (this.protocolVersionsCache.containsKey(remoteServerIdentifier)) {
-                if (ShareProtocol.INCOMPATIBILITIES_IN_OLD_PROTOCOL_VERSIONS.containsKey(serverProtocolVersion)) {
-                    this.logger.warn("Using old serializers for protocol version [{}] to push data to server [{}]",
-                        serverProtocolVersion, remoteServerIdentifier);
-                    List<ShareProtocol.Incompatibility> incompatibilitiesList =
-                        ShareProtocol.INCOMPATIBILITIES_IN_OLD_PROTOCOL_VERSIONS.get(serverProtocolVersion);
-                    for (Incompatibility incompat : incompatibilitiesList) {
-                        if (exportFields.contains(incompat.getCurrentFieldName())) {
-                            exportFields.remove(incompat.getCurrentFieldName());
-                            if (!StringUtils.isEmpty(incompat.getDeprecatedFieldName())) {
-                                exportFields.add(incompat.getDeprecatedFieldName());
-                            }
-                        }
-                    }
-                }
-            }
+            prepareExportFields(exportFields, remoteServerIdentifier, serverProtocolVersion);
 
             String patientJSON = patient.toJSON(exportFields).toString();
             this.logger.debug("Sending patient JSON: [{}]", patientJSON);
@@ -349,6 +392,214 @@ public PushServerSendPatientResponse sendPatient(Patient patient, Set<String> ex
         return null;
     }
 
+    private void prepareExportFields(Set<String> exportFields, String remoteServerIdentifier,
+        String serverProtocolVersion)
+    {
+        if (exportFields != null) {
+            // Version information is required in the JSON; when exportFields is null everything is included anyway
+            exportFields.add(VersionsController.getEnablingFieldName());
+        }
+
+        // for compatibility with servers running older versions of PhenoTips:
+        //
+        // if the target server is known to support only old versions of push protocol, replace
+        // those fields which are not compatible with compatible alternatives (to trigger old serializers)
+        if (this.protocolVersionsCache.containsKey(remoteServerIdentifier)) {
+            if (ShareProtocol.INCOMPATIBILITIES_IN_OLD_PROTOCOL_VERSIONS.containsKey(serverProtocolVersion)) {
+                this.logger.warn("Using old serializers for protocol version [{}] to push data to server [{}]",
+                    serverProtocolVersion, remoteServerIdentifier);
+                List<ShareProtocol.Incompatibility> incompatibilitiesList =
+                    ShareProtocol.INCOMPATIBILITIES_IN_OLD_PROTOCOL_VERSIONS.get(serverProtocolVersion);
+                for (Incompatibility incompat : incompatibilitiesList) {
+                    if (exportFields.contains(incompat.getCurrentFieldName())) {
+                        exportFields.remove(incompat.getCurrentFieldName());
+                        if (!StringUtils.isEmpty(incompat.getDeprecatedFieldName())) {
+                            exportFields.add(incompat.getDeprecatedFieldName());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public Map<String, PushServerSendPatientResponse> sendPatients(Collection<Patient> patients,
+        Set<String> exportFields, JSONObject patientState, String groupName,
+        Map<String, PatientPushedToInfo> previousPushes, String remoteServerIdentifier, String userName,
+        String password, String userToken)
+    {
+        this.logger.info("Pushing [{}] patients to server: [{}]", patients.size(), remoteServerIdentifier);
+
+        String serverProtocolVersion = this.getProtocolVersionForPushingToServer(remoteServerIdentifier);
+        if (!ShareProtocol.BATCH_PUSH_PROTOCOL_VERSIONS.contains(serverProtocolVersion)) {
+            return sendPatientsOneByOne(patients, exportFields, patientState, groupName, previousPushes,
+                remoteServerIdentifier, userName, password, userToken);
+        }
+        prepareExportFields(exportFields, remoteServerIdentifier, serverProtocolVersion);
+
+        Map<String, PushServerSendPatientResponse> result = new LinkedHashMap<>();
+        List<Future<List<PushServerSendPatientResponse>>> responses = new ArrayList<>();
+        List<List<String>> batches = new ArrayList<>();
+        for (Patient patient : patients) {
+            result.put(patient.getId(), null);
+        }
+
+        try {
+            // patients are serialized on the current thread, since that needs the request context,
+            // while the previous batches are being sent
+            Iterator<Patient> patientIterator = patients.iterator();
+            while (patientIterator.hasNext()) {
+                if (responses.size() >= MAX_CONCURRENT_REQUESTS_PER_SERVER) {
+                    // don't get ahead of the requests still being sent
+                    responses.get(responses.size() - MAX_CONCURRENT_REQUESTS_PER_SERVER).get();
+                }
+                List<String> batchIds = new ArrayList<>(BATCH_SIZE);
+                List<String> batchHashes = new ArrayList<>(BATCH_SIZE);
+                JSONArray batch = new JSONArray();
+                while (patientIterator.hasNext() && batch.length() < BATCH_SIZE) {
+                    Patient patient = patientIterator.next();
+                    batchIds.add(patient.getId());
+                    batch.put(generateBatchEntry(patient, exportFields, patientState,
+                        previousPushes.get(patient.getId()), batchHashes));
+                }
+
+                List<NameValuePair> data = generateRequestData(ShareProtocol.CLIENT_POST_ACTIONKEY_VALUE_PUSH_BATCH,
+                    userName, password, userToken, serverProtocolVersion);
+                data.add(new BasicNameValuePair(ShareProtocol.CLIENT_POST_KEY_NAME_PATIENTS_BATCH, compress(batch)));
+                if (groupName != null) {
+                    data.add(new BasicNameValuePair(ShareProtocol.CLIENT_POST_KEY_NAME_GROUPNAME, groupName));
+                }
+                HttpPost method = generateRequest(remoteServerIdentifier, data);
+                if (method == null) {
+                    return result;
+                }
+                batches.add(batchIds);
+                responses.add(this.executor.submit(() -> executeBatch(method, batchHashes)));
+            }
+
+            for (Future<List<PushServerSendPatientResponse>> response : responses) {
+                response.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            this.logger.error("Failed to push patients: {}", ex.getMessage(), ex);
+        } finally {
+            for (int i = 0; i < responses.size(); ++i) {
+                // if the push failed, stop sending the remaining batches, but keep the results of those already sent,
+                // since the remote server did store them
+                if (!responses.get(i).cancel(true)) {
+                    collectBatch(batches.get(i), responses.get(i), result);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Records the responses of a completed batch.
+     *
+     * @param batchIds the identifiers of the patients in the batch, in the order they were sent
+     * @param response the completed batch request
+     * @param result collects the responses, keyed by patient identifier
+     */
+    private void collectBatch(List<String> batchIds, Future<List<PushServerSendPatientResponse>> response,
+        Map<String, PushServerSendPatientResponse> result)
+    {
+        try {
+            List<PushServerSendPatientResponse> batchResponses = response.get();
+            for (int j = 0; j < batchIds.size() && j < batchResponses.size(); ++j) {
+                result.put(batchIds.get(j), batchResponses.get(j));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            this.logger.error("Failed to push patient batch: {}", ex.getMessage(), ex);
+        }
+    }
+
+    private Map<String, PushServerSendPatientResponse> sendPatientsOneByOne(Collection<Patient> patients,
+        Set<String> exportFields, JSONObject patientState, String groupName,
+        Map<String, PatientPushedToInfo> previousPushes, String remoteServerIdentifier, String userName,
+        String password, String userToken)
+    {
+        Map<String, PushServerSendPatientResponse> result = new LinkedHashMap<>();
+        for (Patient patient : patients) {
+            PatientPushedToInfo previousPush = previousPushes.get(patient.getId());
+            result.put(patient.getId(), sendPatient(patient, exportFields == null ? null : new HashSet<>(exportFields),
+                patientState, groupName, previousPush == null ? null : previousPush.getRemotePatientGUID(),
+                remoteServerIdentifier, userName, password, userToken));
+        }
+        return result;
+    }
+
+    /**
+     * Serializes one patient as a batch entry, sending only the changed fields if the previous push is known.
+     *
+     * @param hashes collects the hashes of the complete patient JSON
+     */
+    private JSONObject generateBatchEntry(Patient patient, Set<String> exportFields, JSONObject patientState,
+        PatientPushedToInfo previousPush, List<String> hashes)
+    {
+        JSONObject patientJSON = patient.toJSON(exportFields);
+        JSONObject fieldHashes = PatientPushDelta.hashFields(patientJSON);
+        hashes.add(fieldHashes.toString());
+
+        JSONObject entry = new JSONObject();
+        String remoteGUID = previousPush == null ? null : previousPush.getRemotePatientGUID();
+        JSONObject delta = null;
+        if (remoteGUID != null) {
+            entry.put(ShareProtocol.CLIENT_BATCH_KEY_NAME_GUID, remoteGUID);
+            delta = PatientPushDelta.getDelta(patientJSON, fieldHashes, previousPush.getPushedFieldHashes());
+        }
+        entry.put(ShareProtocol.CLIENT_BATCH_KEY_NAME_DELTA, delta != null);
+        entry.put(ShareProtocol.CLIENT_BATCH_KEY_NAME_PATIENTJSON, delta != null ? delta : patientJSON);
+        if (patientState != null) {
+            entry.put(ShareProtocol.CLIENT_BATCH_KEY_NAME_PATIENTSTATE, patientState);
+        }
+        this.logger.debug("Sending patient [{}] as a {} update", patient.getId(), delta != null ? "delta" : "full");
+        return entry;
+    }
+
+    private String compress(JSONArray batch) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(bytes), StandardCharsets.UTF_8)) {
+            batch.write(writer);
+        }
+        return Base64.getUrlEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * Sends one batch request and splits the response into individual patient responses.
+     *
+     * @return the responses, in the same order as the batch entries, or an empty list if no valid response was
+     *         received
+     */
+    private List<PushServerSendPatientResponse> executeBatch(HttpPost method, List<String> hashes)
+    {
+        List<PushServerSendPatientResponse> result = new ArrayList<>(hashes.size());
+        try (CloseableHttpResponse httpResponse = this.client.execute(method)) {
+            this.logger.trace("Batch push HTTP return code: {}", httpResponse.getStatusLine().getStatusCode());
+
+            String response = IOUtils.toString(httpResponse.getEntity().getContent(), Consts.UTF_8);
+            this.logger.trace("RESPONSE FROM SERVER: {}", response);
+            JSONObject responseJSON = new JSONObject(response);
+
+            JSONArray results = responseJSON.optJSONArray(ShareProtocol.SERVER_JSON_PUSH_KEY_NAME_BATCH_RESULTS);
+            for (int i = 0; i < hashes.size(); ++i) {
+                JSONObject patientResponse = results == null ? responseJSON : results.optJSONObject(i);
+                result.add(patientResponse == null ? null
+                    : new DefaultPushServerSendPatientResponse(patientResponse, hashes.get(i)));
+            }
+        } catch (Exception ex) {
+            this.logger.error("Failed to push patient batch: {}", ex.getMessage(), ex);
+        } finally {
+            method.releaseConnection();
+        }
+        return result;
+    }
+
     @Override
     public PushServerGetPatientIDResponse getPatientURL(String remoteServerIdentifier, String remoteGUID,
         String userName, String password, String userToken)
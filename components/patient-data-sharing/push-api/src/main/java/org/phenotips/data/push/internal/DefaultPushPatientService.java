@@ -38,7 +38,9 @@
 import org.xwiki.security.authorization.Right;
 import org.xwiki.users.UserManager;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -351,6 +353,69 @@ public PushServerSendPatientResponse sendPatient(String patientID, String export
         return response;
     }
 
+    @Override
+    public Map<String, PushServerSendPatientResponse> sendPatients(String patientIDsJSON, String exportFieldListJSON,
+        String patientState, String groupName, String remoteServerIdentifier)
+    {
+        Map<String, PushServerSendPatientResponse> result = new LinkedHashMap<>();
+        Set<String> patientIDs = parseJSONArrayIntoSet(patientIDsJSON);
+        if (patientIDs == null) {
+            return result;
+        }
+        RemoteLoginData storedData = getStoredData(remoteServerIdentifier);
+        boolean loggedIn =
+            storedData != null && storedData.getRemoteUserName() != null && storedData.getLoginToken() != null;
+
+        List<Patient> patients = new ArrayList<>(patientIDs.size());
+        for (String patientID : patientIDs) {
+            Patient patient = getPatientByID(patientID, "push");
+            if (patient == null) {
+                result.put(patientID,
+                    new DefaultPushServerSendPatientResponse(DefaultPushServerResponse.generateActionFailedJSON()));
+            } else if (!loggedIn) {
+                result.put(patientID, new DefaultPushServerSendPatientResponse(
+                    DefaultPushServerResponse.generateIncorrectCredentialsJSON()));
+            } else {
+                patients.add(patient);
+            }
+        }
+        if (patients.isEmpty()) {
+            return result;
+        }
+        List<String> localIDs = new ArrayList<>(patients.size());
+        for (Patient patient : patients) {
+            localIDs.add(patient.getId());
+        }
+        Map<String, PatientPushedToInfo> previousPushes =
+            this.storageManager.getPatientPushInfo(localIDs, remoteServerIdentifier);
+
+        Map<String, PushServerSendPatientResponse> responses = this.internalService.sendPatients(patients,
+            parseJSONArrayIntoSet(exportFieldListJSON), this.parsePatientStateToJSON(patientState), groupName,
+            previousPushes, remoteServerIdentifier, storedData.getRemoteUserName(), null, storedData.getLoginToken());
+
+        List<PatientPushedToInfo> pushes = new ArrayList<>(responses.size());
+        for (Map.Entry<String, PushServerSendPatientResponse> response : responses.entrySet()) {
+            PushServerSendPatientResponse patientResponse = response.getValue();
+            if (patientResponse == null) {
+                patientResponse =
+                    new DefaultPushServerSendPatientResponse(DefaultPushServerResponse.generateActionFailedJSON());
+            } else if (patientResponse.isSuccessful()) {
+                PatientPushedToInfo push = new PatientPushedToInfo(response.getKey(), remoteServerIdentifier,
+                    patientResponse.getRemotePatientGUID(), patientResponse.getRemotePatientID(),
+                    patientResponse.getRemotePatientURL());
+                if (patientResponse instanceof DefaultPushServerSendPatientResponse) {
+                    push.setPushedFieldHashes(
+                        ((DefaultPushServerSendPatientResponse) patientResponse).getPushedFieldHashes());
+                }
+                pushes.add(push);
+            }
+            result.put(response.getKey(), patientResponse);
+        }
+        // Record the whole push history in a single transaction
+        this.storageManager.storePatientPushInfo(pushes);
+        return result;
+    }
+
     @Override
     public String getRemoteUsername(String remoteServerIdentifier)
     {
@@ -25,11 +25,29 @@
 public class DefaultPushServerSendPatientResponse extends DefaultPushServerGetPatientIDResponse implements
     PushServerSendPatientResponse
 {
+    /** Hashes of the patient fields sent in the request which triggered this response, if known. */
+    private String pushedFieldHashes;
+
     DefaultPushServerSendPatientResponse(JSONObject serverResponse)
     {
         super(serverResponse);
     }
 
+    DefaultPushServerSendPatientResponse(JSONObject serverResponse, String pushedFieldHashes)
+    {
+        super(serverResponse);
+        this.pushedFieldHashes = pushedFieldHashes;
+    }
+
+    /**
+     * @return a JSON map of the complete set of patient fields on the remote server after this push to hashes of their
+     *         values, or {@code null} if not known
+     */
+    String getPushedFieldHashes()
+    {
+        return this.pushedFieldHashes;
+    }
+
     @Override
     public boolean isActionFailed_incorrectGroup()
     {
@@ -0,0 +1,148 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.push.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Computes field-level differences between a patient JSON and the one sent in the previous push, based on hashes of
+ * the top-level field values recorded after each successful batch push.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+final class PatientPushDelta
+{
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    private PatientPushDelta()
+    {
+        // Utility class
+    }
+
+    /**
+     * Computes the hashes of all the top-level fields of a patient JSON.
+     *
+     * @param patientJSON the patient JSON, as pushed
+     * @return a JSON map of field names to hashes of their values
+     */
+    static JSONObject hashFields(JSONObject patientJSON)
+    {
+        JSONObject result = new JSONObject();
+        for (String key : patientJSON.keySet()) {
+            StringBuilder canonical = new StringBuilder();
+            appendCanonical(patientJSON.get(key), canonical);
+            result.put(key, hash(canonical.toString()));
+        }
+        return result;
+    }
+
+    /**
+     * Computes the part of the patient JSON which changed since the previous push. Fields removed since the last push
+     * cannot be expressed as a delta update, since absent fields are left untouched by the remote server, so a full
+     * push is needed in that case.
+     *
+     * @param patientJSON the complete patient JSON that would be pushed now
+     * @param currentHashes the field hashes of {@code patientJSON}, as computed by {@link #hashFields(JSONObject)}
+     * @param previousHashes the field hashes stored after the previous push, may be {@code null}
+     * @return a JSON holding only the changed fields, or {@code null} if a full push is required
+     */
+    static JSONObject getDelta(JSONObject patientJSON, JSONObject currentHashes, String previousHashes)
+    {
+        if (StringUtils.isBlank(previousHashes)) {
+            return null;
+        }
+        JSONObject previous;
+        try {
+            previous = new JSONObject(previousHashes);
+        } catch (JSONException ex) {
+            return null;
+        }
+        for (String key : previous.keySet()) {
+            if (!currentHashes.has(key)) {
+                return null;
+            }
+        }
+        JSONObject delta = new JSONObject();
+        for (String key : currentHashes.keySet()) {
+            if (!currentHashes.getString(key).equals(previous.optString(key, null))) {
+                delta.put(key, patientJSON.get(key));
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * Serializes a JSON value with the keys of all the objects sorted, since the key order of {@link JSONObject} isn't
+     * stable, and the same value must always get the same hash.
+     *
+     * @param value the value to serialize
+     * @param output where to write the serialized value
+     */
+    private static void appendCanonical(Object value, StringBuilder output)
+    {
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            List<String> keys = new ArrayList<>(object.keySet());
+            Collections.sort(keys);
+            output.append('{');
+            for (String key : keys) {
+                if (output.charAt(output.length() - 1) != '{') {
+                    output.append(',');
+                }
+                output.append(JSONObject.quote(key)).append(':');
+                appendCanonical(object.get(key), output);
+            }
+            output.append('}');
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            output.append('[');
+            for (int i = 0; i < array.length(); ++i) {
+                if (i > 0) {
+                    output.append(',');
+                }
+                appendCanonical(array.get(i), output);
+            }
+            output.append(']');
+        } else {
+            output.append(JSONObject.valueToString(value));
+        }
+    }
+
+    private static String hash(String value)
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+            return Base64.getEncoder().encodeToString(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException ex) {
+            // SHA-256 is required to be supported by all JVMs
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -110,6 +110,13 @@ public PushServerSendPatientResponse sendPatient(String patientID, String export
             remoteGUID, remoteServerIdentifier, remoteUserName, password);
     }
 
+    public Map<String, PushServerSendPatientResponse> sendPatients(String patientIDsJSON, String exportFieldListJSON,
+        String patientState, String groupName, String remoteServerIdentifier)
+    {
+        return this.internalService.sendPatients(patientIDsJSON, exportFieldListJSON, patientState, groupName,
+            remoteServerIdentifier);
+    }
+
     public PushServerGetPatientIDResponse getPatientURL(String remoteServerIdentifier, String remotePatientGUID)
     {
         return this.internalService.getPatientURL(remoteServerIdentifier, remotePatientGUID);
@@ -0,0 +1,85 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.push.internal;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link PatientPushDelta} helper.
+ *
+ * @version $Id$
+ */
+public class PatientPushDeltaTest
+{
+    private static final String SEX = "sex";
+
+    private static final String FEATURES = "features";
+
+    @Test
+    public void onlyChangedFieldsAreIncluded()
+    {
+        JSONObject previous = new JSONObject().put(SEX, "M").put(FEATURES, "[]");
+        JSONObject current = new JSONObject().put(SEX, "M").put(FEATURES, "[HP:0000118]").put("notes", "x");
+        JSONObject currentHashes = PatientPushDelta.hashFields(current);
+
+        JSONObject delta =
+            PatientPushDelta.getDelta(current, currentHashes, PatientPushDelta.hashFields(previous).toString());
+
+        Assert.assertEquals(2, delta.length());
+        Assert.assertFalse(delta.has(SEX));
+        Assert.assertEquals("[HP:0000118]", delta.get(FEATURES));
+    }
+
+    @Test
+    public void fullPushNeededWhenFieldsAreRemovedOrHistoryIsMissing()
+    {
+        JSONObject previous = new JSONObject().put(SEX, "M").put(FEATURES, "[]");
+        JSONObject current = new JSONObject().put(SEX, "M");
+        JSONObject currentHashes = PatientPushDelta.hashFields(current);
+
+        Assert.assertNull(
+            PatientPushDelta.getDelta(current, currentHashes, PatientPushDelta.hashFields(previous).toString()));
+        Assert.assertNull(PatientPushDelta.getDelta(current, currentHashes, null));
+        Assert.assertNull(PatientPushDelta.getDelta(current, currentHashes, "not json"));
+    }
+
+    @Test
+    public void unchangedPatientHasEmptyDelta()
+    {
+        JSONObject current = new JSONObject().put(SEX, "F");
+        JSONObject currentHashes = PatientPushDelta.hashFields(current);
+
+        Assert.assertEquals(0, PatientPushDelta.getDelta(current, currentHashes, currentHashes.toString()).length());
+    }
+
+    @Test
+    public void keyOrderDoesNotChangeTheHashes()
+    {
+        // "Aa" and "BB" have the same hash code, so they are listed in insertion order
+        JSONObject first = new JSONObject().put("Aa", 1).put("BB", 2);
+        JSONObject second = new JSONObject().put("BB", 2).put("Aa", 1);
+        Assert.assertNotEquals(first.toString(), second.toString());
+
+        JSONObject firstHashes = PatientPushDelta.hashFields(new JSONObject().put(FEATURES, first));
+        JSONObject secondHashes = PatientPushDelta.hashFields(new JSONObject().put(FEATURES, second));
+
+        Assert.assertEquals(firstHashes.getString(FEATURES), secondHashes.getString(FEATURES));
+    }
+}
@@ -116,6 +116,24 @@
      */
     JSONObject receivePatient();
 
+    /**
+     * Receives a batch of patients, each of which either updates an existing patient or creates a new patient, the
+     * same way {@link #receivePatient()} does.
+     * <p>
+     * Requires a valid username and credentials to be supplied in the request, which are validated the same way
+     * {@code getConfiguration()} does, and returns the same {@code JSONObject} in case of any problems. The group, if
+     * provided, applies to all the patients in the batch.
+     * <p>
+     * If the batch could be read, {@code success} is set to {@code true}, and {@code batch_results} holds a JSON array
+     * with one response per batch entry, in the same order as the entries, each one in the format returned by
+     * {@link #receivePatient()}.
+     *
+     * @return {@code JSONObject} with {@code success} set to {@code true} if the batch was processed, and set to
+     *         {@code false} in case of any failures
+     * @since 1.4
+     */
+    JSONObject receivePatients();
+
     /**
      * Returns the URL of the patient object with the given GUID. Requires a valid username and credentials to be
      * supplied in the request, which are validated the same way {@code getConfiguration()} does, and returns the same
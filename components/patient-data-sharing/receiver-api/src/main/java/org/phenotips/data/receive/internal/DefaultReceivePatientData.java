@@ -20,6 +20,7 @@
 import org.phenotips.Constants;
 import org.phenotips.configuration.RecordConfigurationManager;
 import org.phenotips.consents.internal.ConsentAuthorizer;
+import org.phenotips.consents.Consent;
 import org.phenotips.consents.ConsentManager;
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientRepository;
@@ -45,14 +46,21 @@
 import org.xwiki.users.User;
 import org.xwiki.users.UserManager;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.security.Principal;
 import java.security.SecureRandom;
+import java.util.Base64;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -95,6 +103,9 @@ public class DefaultReceivePatientData implements ReceivePatientData
 
     private final static String SERVER_CONFIG_USER_TOKEN_EXPIRE_PROPERTY_NAME = "user_token_life_in_days";
 
+    /** The maximum size of a decompressed patient batch, rejecting batches which would exhaust the memory. */
+    private final static int MAX_DECOMPRESSED_BATCH_SIZE = 64 * 1024 * 1024;
+
     /** used for secure user login token generation */
     private SecureRandom secureRandomGenerator = new SecureRandom();
 
@@ -562,91 +573,266 @@ public JSONObject receivePatient()
             Set<String> consentIds = null;
             String patientStateRaw = request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_PATIENTSTATE);
             if (patientStateRaw != null) {
-                consentIds = extractConsents(patientStateRaw);
-                // there should not be any consent updates if consents are not enabled
-                if (!consentIds.isEmpty() && !this.consentAuthorizer.consentsGloballyEnabled()) {
-                    // reject, as a non-malicious user would never arrive to this execution point
-                    return this.generateFailedActionResponse();
-                }
+                consentIds = extractConsents(this.patientStateToJson(patientStateRaw));
             }
-
-            boolean requireConsents =
-                areConsentsRequired(request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_PROTOCOLVER));
-            if (requireConsents) {
-                boolean consentAuthorized = this.consentAuthorizer.authorizeInteraction(consentIds);
-                if (!consentAuthorized) {
-                    this.logger.error("Rejecting patient data from {} - not all required consents have been given",
-                        request.getRemoteAddr());
-                    return this.generateFailedActionResponse(ShareProtocol.SERVER_JSON_KEY_NAME_ERROR_MISSINGCONSENT);
-                }
+            JSONObject consentsFailure = checkConsents(consentIds, request);
+            if (consentsFailure != null) {
+                return consentsFailure;
             }
 
             String patientJSON = URLDecoder.decode(patientJSONRaw, XWiki.DEFAULT_ENCODING);
             this.logger.debug("Received patient JSON: [{}]", patientJSON);
 
-            Patient affectedPatient;
+            return importPatient(new JSONObject(patientJSON), consentIds,
+                request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_GUID), userName, groupName, context);
+        } catch (Exception ex) {
+            this.logger.error("Error importing patient [{}] {}", ex.getMessage(), ex);
+            return this.generateFailedActionResponse();
+        }
+    }
 
-            // if GUID is present in the request attempt to update an existing patient
-            // (or fail if GUID is invalid or the patient is not created/authored by the user)
-            String guid = request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_GUID);
-            User user = this.userManager.getUser(userName);
-            context.setUserReference(user.getProfileDocument());
+    @Override
+    public JSONObject receivePatients()
+    {
+        try {
+            XWikiContext context = getXContext();
+            XWikiRequest request = context.getRequest();
 
-            if (guid != null) {
-                affectedPatient = getPatientByGUID(guid);
-                if (affectedPatient == null) {
-                    return generateFailedActionResponse(ShareProtocol.SERVER_JSON_KEY_NAME_ERROR_INCORRECTGUID);
-                }
-                if (!userCanAccessPatient(userName, affectedPatient)) {
-                    return generateFailedActionResponse(ShareProtocol.SERVER_JSON_KEY_NAME_ERROR_GUIDACCESSDENIED);
-                }
-                this.logger.warn("Loaded existing patient [{}] successfully", affectedPatient.getId());
-            } else {
+            this.logger.warn("Push patient batch request from remote [{}]", request.getRemoteAddr());
 
-                affectedPatient = this.patientRepository.create(user.getProfileDocument());
-                if (affectedPatient == null) {
-                    this.logger.error("Can not create new patient");
-                    return generateFailedActionResponse();
-                }
+            LoginResult loginResult = validateLogin(request, context);
+            if (loginResult.isFailed()) {
+                return loginResult.getFailedLoginDetails();
+            }
+            if (!ShareProtocol.BATCH_PUSH_PROTOCOL_VERSIONS.contains(
+                request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_PROTOCOLVER))) {
+                return unsupportedeActionResponse();
+            }
 
-                XWikiDocument doc = affectedPatient.getXDocument();
-                doc.setAuthorReference(user.getProfileDocument());
-
-                // assign ownership to group (if provided) or to the user, and set access rights
-                if (groupName != null) {
-                    Group group = this.groupManager.getGroup(groupName);
-                    this.permissionManager.getEntityAccess(affectedPatient).setOwner(group.getReference());
-                    this.permissionManager.getEntityAccess(affectedPatient).addCollaborator(user.getProfileDocument(),
-                        this.permissionManager.resolveAccessLevel("manage"));
-                } else {
-                    this.permissionManager.getEntityAccess(affectedPatient).setOwner(user.getProfileDocument());
-                }
+            String userName = loginResult.getAuthorizedUsername();
+            String groupName = request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_GROUPNAME);
+            if (groupName != null && !isValidUserGroup(userName, groupName)) {
+                this.logger.warn("Incorrect group name provided by {}", request.getRemoteAddr());
+                return generateFailedActionResponse(ShareProtocol.SERVER_JSON_KEY_NAME_ERROR_INCORRECTGROUP);
+            }
 
-                this.logger.warn("Created new patient successfully");
+            String batchRaw = request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_PATIENTS_BATCH);
+            if (batchRaw == null) {
+                this.logger.error("No patient batch provided by {})", request.getRemoteAddr());
+                return generateFailedActionResponse();
             }
 
-            JSONObject patientData = new JSONObject(patientJSON);
-            affectedPatient.updateFromJSON(patientData);
+            JSONArray results = new JSONArray();
+            for (Object entry : decodeBatch(batchRaw)) {
+                JSONObject entryJSON = (entry instanceof JSONObject) ? (JSONObject) entry : new JSONObject();
+                results.put(receiveBatchEntry(entryJSON, userName, groupName, request, context));
+            }
+            this.logger.warn("Processed a batch of [{}] patients", results.length());
+
+            JSONObject response = generateSuccessfulResponse();
+            response.put(ShareProtocol.SERVER_JSON_PUSH_KEY_NAME_BATCH_RESULTS, results);
+            return response;
+        } catch (Exception ex) {
+            this.logger.error("Error importing patient batch [{}] {}", ex.getMessage(), ex);
+            return this.generateFailedActionResponse();
+        }
+    }
+
+    /**
+     * Decodes a batch of patients, as sent in the {@link ShareProtocol#CLIENT_POST_KEY_NAME_PATIENTS_BATCH} field.
+     *
+     * @throws IOException if the batch is not valid gzip data, or if it decompresses to more than
+     *             {@link #MAX_DECOMPRESSED_BATCH_SIZE} bytes
+     */
+    private JSONArray decodeBatch(String batchRaw) throws IOException
+    {
+        byte[] compressed = Base64.getUrlDecoder().decode(batchRaw);
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream(compressed.length * 4);
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (decompressed.size() + read > MAX_DECOMPRESSED_BATCH_SIZE) {
+                    throw new IOException("Decompressed patient batch exceeds " + MAX_DECOMPRESSED_BATCH_SIZE
+                        + " bytes");
+                }
+                decompressed.write(buffer, 0, read);
+            }
+        }
+        return new JSONArray(new String(decompressed.toByteArray(), StandardCharsets.UTF_8));
+    }
 
-            if (consentIds != null) {
-                this.consentManager.setPatientConsents(affectedPatient, consentIds);
+    private JSONObject receiveBatchEntry(JSONObject entry, String userName, String groupName, XWikiRequest request,
+        XWikiContext context)
+    {
+        try {
+            JSONObject patientJSON = entry.optJSONObject(ShareProtocol.CLIENT_BATCH_KEY_NAME_PATIENTJSON);
+            if (patientJSON == null) {
+                return generateFailedActionResponse();
             }
 
-            this.logger.warn("Updated patient successfully");
+            Set<String> consentIds = null;
+            JSONObject patientState = entry.optJSONObject(ShareProtocol.CLIENT_BATCH_KEY_NAME_PATIENTSTATE);
+            if (patientState != null) {
+                consentIds = extractConsents(patientState);
+            }
+            JSONObject consentsFailure = checkConsents(consentIds, request);
+            if (consentsFailure != null) {
+                return consentsFailure;
+            }
 
-            // store separately from the patient object
-            BaseObject serverConfig = getSourceServerConfiguration(request.getRemoteAddr(), context);
-            String sourceServerName = getRemoteServerName(serverConfig, request);
-            String patientGUID = getPatientGUID(affectedPatient);
-            this.storageManager.storePatientSourceServerInfo(patientGUID, sourceServerName);
+            String guid = entry.optString(ShareProtocol.CLIENT_BATCH_KEY_NAME_GUID, null);
+            boolean delta = entry.optBoolean(ShareProtocol.CLIENT_BATCH_KEY_NAME_DELTA);
+            if (guid == null && delta) {
+                // a delta can only be applied on top of an existing patient
+                return generateFailedActionResponse(ShareProtocol.SERVER_JSON_KEY_NAME_ERROR_INCORRECTGUID);
+            }
 
-            return generateSuccessfulResponseWithPatientIDs(affectedPatient, context);
+            return importPatient(patientJSON, consentIds, guid, userName, groupName, context,
+                delta && patientJSON.length() == 0);
         } catch (Exception ex) {
-            this.logger.error("Error importing patient [{}] {}", ex.getMessage(), ex);
+            this.logger.error("Error importing patient from batch [{}] {}", ex.getMessage(), ex);
             return this.generateFailedActionResponse();
         }
     }
 
+    /**
+     * Checks that the received consents are acceptable.
+     *
+     * @return a failure response if the consents are not acceptable, {@code null} otherwise
+     */
+    private JSONObject checkConsents(Set<String> consentIds, XWikiRequest request)
+    {
+        // there should not be any consent updates if consents are not enabled
+        if (consentIds != null && !consentIds.isEmpty() && !this.consentAuthorizer.consentsGloballyEnabled()) {
+            // reject, as a non-malicious user would never arrive to this execution point
+            return this.generateFailedActionResponse();
+        }
+
+        boolean requireConsents =
+            areConsentsRequired(request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_PROTOCOLVER));
+        if (requireConsents) {
+            boolean consentAuthorized = this.consentAuthorizer.authorizeInteraction(consentIds);
+            if (!consentAuthorized) {
+                this.logger.error("Rejecting patient data from {} - not all required consents have been given",
+                    request.getRemoteAddr());
+                return this.generateFailedActionResponse(ShareProtocol.SERVER_JSON_KEY_NAME_ERROR_MISSINGCONSENT);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates a new patient, or updates the existing patient with the given GUID, using the received data.
+     *
+     * @return the response to send back for this patient
+     */
+    private JSONObject importPatient(JSONObject patientData, Set<String> consentIds, String guid, String userName,
+        String groupName, XWikiContext context)
+    {
+        return importPatient(patientData, consentIds, guid, userName, groupName, context, false);
+    }
+
+    /**
+     * Creates a new patient, or updates the existing patient with the given GUID, using the received data.
+     *
+     * @param unchanged {@code true} if the client sent an empty delta, in which case the patient is only saved if its
+     *            consents changed
+     * @return the response to send back for this patient
+     */
+    private JSONObject importPatient(JSONObject patientData, Set<String> consentIds, String guid, String userName,
+        String groupName, XWikiContext context, boolean unchanged)
+    {
+        XWikiRequest request = context.getRequest();
+        Patient affectedPatient;
+
+        // if GUID is present in the request attempt to update an existing patient
+        // (or fail if GUID is invalid or the patient is not created/authored by the user)
+        User user = this.userManager.getUser(userName);
+        context.setUserReference(user.getProfileDocument());
+
+        if (guid != null) {
+            affectedPatient = getPatientByGUID(guid);
+            if (affectedPatient == null) {
+                return generateFailedActionResponse(ShareProtocol.SERVER_JSON_KEY_NAME_ERROR_INCORRECTGUID);
+            }
+            if (!userCanAccessPatient(userName, affectedPatient)) {
+                return generateFailedActionResponse(ShareProtocol.SERVER_JSON_KEY_NAME_ERROR_GUIDACCESSDENIED);
+            }
+            this.logger.warn("Loaded existing patient [{}] successfully", affectedPatient.getId());
+        } else {
+
+            affectedPatient = this.patientRepository.create(user.getProfileDocument());
+            if (affectedPatient == null) {
+                this.logger.error("Can not create new patient");
+                return generateFailedActionResponse();
+            }
+
+            XWikiDocument doc = affectedPatient.getXDocument();
+            doc.setAuthorReference(user.getProfileDocument());
+
+            // assign ownership to group (if provided) or to the user, and set access rights
+            if (groupName != null) {
+                Group group = this.groupManager.getGroup(groupName);
+                this.permissionManager.getEntityAccess(affectedPatient).setOwner(group.getReference());
+                this.permissionManager.getEntityAccess(affectedPatient).addCollaborator(user.getProfileDocument(),
+                    this.permissionManager.resolveAccessLevel("manage"));
+            } else {
+                this.permissionManager.getEntityAccess(affectedPatient).setOwner(user.getProfileDocument());
+            }
+
+            this.logger.warn("Created new patient successfully");
+        }
+
+        if (unchanged) {
+            this.logger.debug("No changes received for patient [{}]", affectedPatient.getId());
+        } else {
+            affectedPatient.updateFromJSON(patientData);
+        }
+
+        if (consentIds != null && (!unchanged || consentsChanged(affectedPatient, consentIds))) {
+            this.consentManager.setPatientConsents(affectedPatient, consentIds);
+        }
+
+        this.logger.warn("Updated patient successfully");
+
+        // store separately from the patient object
+        BaseObject serverConfig = getSourceServerConfiguration(request.getRemoteAddr(), context);
+        String sourceServerName = getRemoteServerName(serverConfig, request);
+        String patientGUID = getPatientGUID(affectedPatient);
+        this.storageManager.storePatientSourceServerInfo(patientGUID, sourceServerName);
+
+        return generateSuccessfulResponseWithPatientIDs(affectedPatient, context);
+    }
+
+    /**
+     * Checks if the consents granted for a patient differ from the received ones.
+     *
+     * @return {@code false} if exactly the received valid consents are already granted, {@code true} otherwise
+     */
+    private boolean consentsChanged(Patient patient, Set<String> consentIds)
+    {
+        Set<Consent> all = this.consentManager.getAllConsentsForPatient(patient);
+        Set<Consent> missing = this.consentManager.getMissingConsentsForPatient(patient);
+        if (all == null || missing == null) {
+            return true;
+        }
+        Set<String> granted = new HashSet<>();
+        for (Consent consent : all) {
+            granted.add(consent.getId());
+        }
+        for (Consent consent : missing) {
+            granted.remove(consent.getId());
+        }
+        Set<String> received = new HashSet<>();
+        for (String consentId : consentIds) {
+            if (this.consentManager.isValidConsentId(consentId)) {
+                received.add(consentId);
+            }
+        }
+        return !granted.equals(received);
+    }
+
     private boolean areConsentsRequired(String clientProtocolVersion)
     {
         if (!ShareProtocol.ALLOW_NO_CONSENTS_PROTOCOL_VERSIONS.contains(clientProtocolVersion)) {
@@ -662,14 +848,13 @@ private boolean areConsentsRequired(String clientProtocolVersion)
     }
 
     /**
-     * Exctacts the list of granted consents from a request
+     * Exctacts the list of granted consents from a patient state
      *
-     * @param rawPatientState patient state JSON string directly from the {@link Request} object
+     * @param patientState patient state JSON, may be {@code null}
      */
-    private Set<String> extractConsents(String rawPatientState)
+    private Set<String> extractConsents(JSONObject patientState)
     {
         Set<String> consents = new HashSet<>();
-        JSONObject patientState = this.patientStateToJson(rawPatientState);
         if (patientState != null) {
             try {
                 JSONArray consentsJson =
@@ -0,0 +1,299 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.receive.internal;
+
+import org.phenotips.consents.internal.ConsentAuthorizer;
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.data.permissions.EntityAccess;
+import org.phenotips.data.permissions.EntityPermissionsManager;
+import org.phenotips.data.receive.ReceivePatientData;
+import org.phenotips.data.securestorage.SecureStorageManager;
+import org.phenotips.data.shareprotocol.ShareProtocol;
+
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+import org.xwiki.users.User;
+import org.xwiki.users.UserManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.user.api.XWikiAuthService;
+import com.xpn.xwiki.web.XWikiRequest;
+
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the batch push handling in {@link DefaultReceivePatientData}.
+ *
+ * @version $Id$
+ */
+public class DefaultReceivePatientDataTest
+{
+    private static final String USER_NAME = "padams";
+
+    private static final String REMOTE_ADDRESS = "127.0.0.1";
+
+    @Rule
+    public final MockitoComponentMockingRule<ReceivePatientData> mocker =
+        new MockitoComponentMockingRule<>(DefaultReceivePatientData.class);
+
+    @Mock
+    private XWikiContext context;
+
+    @Mock
+    private XWikiRequest request;
+
+    @Mock
+    private XWiki xwiki;
+
+    @Mock
+    private User user;
+
+    private DocumentReference userProfile = new DocumentReference("xwiki", "XWiki", USER_NAME);
+
+    private PatientRepository repository;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        MockitoAnnotations.initMocks(this);
+
+        Execution execution = this.mocker.getInstance(Execution.class);
+        ExecutionContext executionContext = Mockito.mock(ExecutionContext.class);
+        when(execution.getContext()).thenReturn(executionContext);
+        when(executionContext.getProperty(XWikiContext.EXECUTIONCONTEXT_KEY)).thenReturn(this.context);
+        when(this.context.getRequest()).thenReturn(this.request);
+        when(this.context.getWiki()).thenReturn(this.xwiki);
+        when(this.context.getWikiId()).thenReturn("xwiki");
+
+        when(this.request.getRemoteAddr()).thenReturn(REMOTE_ADDRESS);
+        when(this.request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_PROTOCOLVER))
+            .thenReturn(ShareProtocol.CURRENT_PUSH_PROTOCOL_VERSION);
+        when(this.request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_USERNAME)).thenReturn(USER_NAME);
+        when(this.request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_PASSWORD)).thenReturn("secret");
+
+        XWikiAuthService authService = Mockito.mock(XWikiAuthService.class);
+        when(this.xwiki.getAuthService()).thenReturn(authService);
+        when(authService.authenticate(USER_NAME, "secret", this.context)).thenReturn(Mockito.mock(Principal.class));
+        when(this.xwiki.getDocument(Matchers.any(DocumentReference.class), Matchers.same(this.context)))
+            .thenReturn(Mockito.mock(XWikiDocument.class));
+
+        UserManager userManager = this.mocker.getInstance(UserManager.class);
+        when(userManager.getUser(USER_NAME)).thenReturn(this.user);
+        when(this.user.getProfileDocument()).thenReturn(this.userProfile);
+
+        ConsentAuthorizer consentAuthorizer = this.mocker.getInstance(ConsentAuthorizer.class);
+        when(consentAuthorizer.authorizeInteraction(Matchers.<Set<String>>any())).thenReturn(true);
+
+        EntityPermissionsManager permissions = this.mocker.getInstance(EntityPermissionsManager.class);
+        when(permissions.getEntityAccess(Matchers.any(Patient.class))).thenReturn(Mockito.mock(EntityAccess.class));
+
+        QueryManager queryManager = this.mocker.getInstance(QueryManager.class);
+        Query query = Mockito.mock(Query.class);
+        when(queryManager.createQuery(Matchers.anyString(), Matchers.eq(Query.XWQL))).thenReturn(query);
+        when(query.bindValue(Matchers.anyString(), Matchers.any())).thenReturn(query);
+        when(query.execute()).thenReturn(Collections.emptyList());
+
+        this.repository = this.mocker.getInstance(PatientRepository.class);
+    }
+
+    @Test
+    public void batchEntriesAreImportedAndReportedInOrder() throws Exception
+    {
+        Patient first = mockNewPatient("P0000001", "guid-1");
+        Patient second = mockNewPatient("P0000002", "guid-2");
+        when(this.repository.create(this.userProfile)).thenReturn(first, second);
+
+        JSONObject firstJSON = new JSONObject().put("external_id", "first");
+        JSONObject secondJSON = new JSONObject().put("external_id", "second");
+        setBatch(new JSONArray().put(entry(firstJSON)).put(entry(secondJSON)));
+
+        JSONObject response = this.mocker.getComponentUnderTest().receivePatients();
+
+        Assert.assertTrue(response.getBoolean(ShareProtocol.SERVER_JSON_KEY_NAME_SUCCESS));
+        JSONArray results = response.getJSONArray(ShareProtocol.SERVER_JSON_PUSH_KEY_NAME_BATCH_RESULTS);
+        Assert.assertEquals(2, results.length());
+        Assert.assertEquals("P0000001",
+            results.getJSONObject(0).getString(ShareProtocol.SERVER_JSON_PUSH_KEY_NAME_PATIENTID));
+        Assert.assertEquals("guid-2",
+            results.getJSONObject(1).getString(ShareProtocol.SERVER_JSON_PUSH_KEY_NAME_PATIENTGUID));
+        Mockito.verify(first).updateFromJSON(Matchers.argThat(new JSONMatcher(firstJSON)));
+        Mockito.verify(second).updateFromJSON(Matchers.argThat(new JSONMatcher(secondJSON)));
+
+        SecureStorageManager storage = this.mocker.getInstance(SecureStorageManager.class);
+        Mockito.verify(storage).storePatientSourceServerInfo("guid-1", REMOTE_ADDRESS);
+        Mockito.verify(storage).storePatientSourceServerInfo("guid-2", REMOTE_ADDRESS);
+    }
+
+    @Test
+    public void deltaWithoutGUIDIsRejectedWithoutAffectingOtherEntries() throws Exception
+    {
+        Patient created = mockNewPatient("P0000003", "guid-3");
+        when(this.repository.create(this.userProfile)).thenReturn(created);
+
+        JSONObject delta = entry(new JSONObject().put("sex", "F")).put(ShareProtocol.CLIENT_BATCH_KEY_NAME_DELTA, true);
+        setBatch(new JSONArray().put(delta).put(entry(new JSONObject().put("sex", "M"))));
+
+        JSONObject response = this.mocker.getComponentUnderTest().receivePatients();
+
+        Assert.assertTrue(response.getBoolean(ShareProtocol.SERVER_JSON_KEY_NAME_SUCCESS));
+        JSONArray results = response.getJSONArray(ShareProtocol.SERVER_JSON_PUSH_KEY_NAME_BATCH_RESULTS);
+        Assert.assertEquals(2, results.length());
+        Assert.assertFalse(results.getJSONObject(0).getBoolean(ShareProtocol.SERVER_JSON_KEY_NAME_SUCCESS));
+        Assert.assertTrue(results.getJSONObject(0).getBoolean(ShareProtocol.SERVER_JSON_KEY_NAME_ERROR_INCORRECTGUID));
+        Assert.assertTrue(results.getJSONObject(1).getBoolean(ShareProtocol.SERVER_JSON_KEY_NAME_SUCCESS));
+        Mockito.verify(this.repository, Mockito.times(1)).create(this.userProfile);
+    }
+
+    @Test
+    public void deltaForUnknownGUIDIsRejectedWithoutCreatingPatients() throws Exception
+    {
+        JSONObject delta = entry(new JSONObject().put("sex", "F"))
+            .put(ShareProtocol.CLIENT_BATCH_KEY_NAME_GUID, "unknown")
+            .put(ShareProtocol.CLIENT_BATCH_KEY_NAME_DELTA, true);
+        setBatch(new JSONArray().put(delta));
+
+        JSONObject response = this.mocker.getComponentUnderTest().receivePatients();
+
+        JSONObject result =
+            response.getJSONArray(ShareProtocol.SERVER_JSON_PUSH_KEY_NAME_BATCH_RESULTS).getJSONObject(0);
+        Assert.assertTrue(result.getBoolean(ShareProtocol.SERVER_JSON_KEY_NAME_ERROR_INCORRECTGUID));
+        Mockito.verify(this.repository, Mockito.never()).create(Matchers.any(DocumentReference.class));
+    }
+
+    @Test
+    public void entryWithoutPatientDataFails() throws Exception
+    {
+        setBatch(new JSONArray().put(new JSONObject()).put("not an object"));
+
+        JSONObject response = this.mocker.getComponentUnderTest().receivePatients();
+
+        JSONArray results = response.getJSONArray(ShareProtocol.SERVER_JSON_PUSH_KEY_NAME_BATCH_RESULTS);
+        Assert.assertEquals(2, results.length());
+        Assert.assertTrue(results.getJSONObject(0).getBoolean(ShareProtocol.SERVER_JSON_KEY_NAME_ERROR_ACTIONFAILED));
+        Assert.assertTrue(results.getJSONObject(1).getBoolean(ShareProtocol.SERVER_JSON_KEY_NAME_ERROR_ACTIONFAILED));
+    }
+
+    @Test
+    public void oversizedBatchIsRejected() throws Exception
+    {
+        // highly compressible data which decompresses to more than the accepted batch size
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            byte[] spaces = new byte[1024 * 1024];
+            Arrays.fill(spaces, (byte) ' ');
+            for (int i = 0; i < 65; ++i) {
+                out.write(spaces);
+            }
+        }
+        when(this.request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_PATIENTS_BATCH))
+            .thenReturn(Base64.getUrlEncoder().encodeToString(compressed.toByteArray()));
+
+        JSONObject response = this.mocker.getComponentUnderTest().receivePatients();
+
+        Assert.assertFalse(response.getBoolean(ShareProtocol.SERVER_JSON_KEY_NAME_SUCCESS));
+        Assert.assertTrue(response.getBoolean(ShareProtocol.SERVER_JSON_KEY_NAME_ERROR_ACTIONFAILED));
+        Mockito.verify(this.repository, Mockito.never()).create(Matchers.any(DocumentReference.class));
+    }
+
+    @Test
+    public void batchIsRejectedForOlderProtocolVersions() throws Exception
+    {
+        when(this.request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_PROTOCOLVER))
+            .thenReturn(ShareProtocol.VERSION_1_4);
+        setBatch(new JSONArray().put(entry(new JSONObject())));
+
+        JSONObject response = this.mocker.getComponentUnderTest().receivePatients();
+
+        Assert.assertTrue(response.getBoolean(ShareProtocol.SERVER_JSON_KEY_NAME_ERROR_UNSUPPORTEDOP));
+        Mockito.verify(this.repository, Mockito.never()).create(Matchers.any(DocumentReference.class));
+    }
+
+    private Patient mockNewPatient(String id, String guid) throws Exception
+    {
+        Patient patient = Mockito.mock(Patient.class);
+        XWikiDocument doc = Mockito.mock(XWikiDocument.class);
+        BaseObject patientObject = Mockito.mock(BaseObject.class);
+        when(patient.getId()).thenReturn(id);
+        when(patient.getXDocument()).thenReturn(doc);
+        when(doc.getXObject(Patient.CLASS_REFERENCE)).thenReturn(patientObject);
+        when(doc.getURL("view", this.context)).thenReturn("/" + id);
+        when(patientObject.getGuid()).thenReturn(guid);
+        return patient;
+    }
+
+    private JSONObject entry(JSONObject patientJSON)
+    {
+        return new JSONObject().put(ShareProtocol.CLIENT_BATCH_KEY_NAME_PATIENTJSON, patientJSON);
+    }
+
+    private void setBatch(JSONArray batch) throws IOException
+    {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        when(this.request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_PATIENTS_BATCH))
+            .thenReturn(Base64.getUrlEncoder().encodeToString(compressed.toByteArray()));
+    }
+
+    private static final class JSONMatcher extends ArgumentMatcher<JSONObject>
+    {
+        private final JSONObject expected;
+
+        JSONMatcher(JSONObject expected)
+        {
+            this.expected = expected;
+        }
+
+        @Override
+        public boolean matches(Object argument)
+        {
+            return argument instanceof JSONObject && ((JSONObject) argument).similar(this.expected);
+        }
+    }
+}
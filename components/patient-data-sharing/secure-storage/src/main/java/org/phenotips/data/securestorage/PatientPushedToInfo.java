@@ -23,6 +23,7 @@
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Lob;
 
 /**
  * Stores information about previous pushes of patient data to a given remote server.
@@ -56,6 +57,10 @@
 
     private String remotePatientGUID; // supposedly never changes; nullable: in case remote server does not provide a GUID
 
+    @Lob
+    private String pushedFieldHashes; // JSON map of patient JSON field names to a hash of the values pushed last time;
+    // nullable: in case the last push was not a batch push, which does not support delta updates
+
     /** Default constructor used by Hibernate. */
     protected PatientPushedToInfo()
     {
@@ -76,6 +81,15 @@ public PatientPushedToInfo(String patientID, String remoteServerName,
         this.setLastPushTimeToNow();
     }
 
+    /**
+     * @return the identifier of the local patient that was pushed
+     * @since 1.4
+     */
+    public String getLocalPatientID()
+    {
+        return this.localPatientID;
+    }
+
     public String getRemoteServerName()
     {
         return this.remoteServerName;
@@ -126,4 +140,23 @@ public void setRemotePatientURL(String remotePatientURL)
     {
         this.remotePatientURL = remotePatientURL;
     }
+
+    /**
+     * @return a JSON map of field names to hashes of the values sent in the last push, or {@code null} if not known
+     * @since 1.4
+     */
+    public String getPushedFieldHashes()
+    {
+        return this.pushedFieldHashes;
+    }
+
+    /**
+     * @param pushedFieldHashes a JSON map of field names to hashes of the values sent in the last push, may be
+     *            {@code null}
+     * @since 1.4
+     */
+    public void setPushedFieldHashes(String pushedFieldHashes)
+    {
+        this.pushedFieldHashes = pushedFieldHashes;
+    }
 }
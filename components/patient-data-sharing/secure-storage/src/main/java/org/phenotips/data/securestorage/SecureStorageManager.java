@@ -19,6 +19,9 @@
 
 import org.xwiki.component.annotation.Role;
 
+import java.util.Collection;
+import java.util.Map;
+
 /**
  * Used to store data in a way inaccessible from any of the wiki pages by regular users without programming rights.
  * <p>
@@ -52,8 +55,39 @@
     void storePatientPushInfo(String localPatientID, String remoteServerName,
         String remotePatientGUID, String remotePatientID, String remotePatientURL);
 
+    /**
+     * Same as {@link #storePatientPushInfo(String, String, String, String, String)}, also recording hashes of the
+     * pushed field values, used for computing delta updates for the next push.
+     *
+     * @since 1.4
+     */
+    void storePatientPushInfo(String localPatientID, String remoteServerName,
+        String remotePatientGUID, String remotePatientID, String remotePatientURL, String pushedFieldHashes);
+
+    /**
+     * Batch version of {@link #storePatientPushInfo(String, String, String, String, String, String)}, storing the push
+     * information of several patients in a single transaction. Existing records for the same patient and server are
+     * updated, the others are created.
+     *
+     * @param pushes the new push information, built with the public {@link PatientPushedToInfo} constructor
+     * @since 1.4
+     */
+    void storePatientPushInfo(Collection<PatientPushedToInfo> pushes);
+
     void deletePatientPushInfo(String localPatientID);
 
     // null if never pushed to the given server
     PatientPushedToInfo getPatientPushInfo(String localPatientID, String remoteServerName);
+
+    /**
+     * Batch version of {@link #getPatientPushInfo(String, String)}, looking up the push history of several patients
+     * at once.
+     *
+     * @param localPatientIDs the identifiers of the local patients of interest
+     * @param remoteServerName the remote server of interest
+     * @return a map from local patient identifiers to their push information, only containing the patients previously
+     *         pushed to the given server; may be empty, but not {@code null}
+     * @since 1.4
+     */
+    Map<String, PatientPushedToInfo> getPatientPushInfo(Collection<String> localPatientIDs, String remoteServerName);
 }
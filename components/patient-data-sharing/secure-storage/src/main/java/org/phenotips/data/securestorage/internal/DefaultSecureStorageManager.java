@@ -25,6 +25,22 @@
 
 import org.xwiki.component.annotation.Component;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -38,7 +54,11 @@
 import com.xpn.xwiki.store.hibernate.HibernateSessionFactory;
 
 /**
- * Default implementation using Hibernate
+ * Default implementation using Hibernate. Each public operation, including the batch operations on the push history,
+ * uses a single session and, for updates, a single transaction. Login tokens and patient source servers are looked up
+ * for every pushed or received patient, so they are kept in small read-through caches, which are invalidated whenever
+ * the corresponding data is stored or removed through this manager, the only way of changing it. Cached instances
+ * are shared between callers and must not be modified; updates are always applied to a freshly loaded instance.
  *
  * @version $Id$
  * @since 1.0M10
@@ -51,6 +71,20 @@ public class DefaultSecureStorageManager implements SecureStorageManager
     private static final String HQL_DELETE_ALL_PUSH_HISTRY_FOR_LOCAL_PATIENT =
         "delete PatientPushedToInfo where localPatientID = :localId";
 
+    /** A query used to delete all the local tokens issued to the given source server. */
+    private static final String HQL_DELETE_ALL_LOCAL_TOKENS_FOR_SERVER =
+        "delete LocalLoginToken where sourceServerName = :serverName";
+
+    private static final String LOCAL_PATIENT_ID = "localPatientID";
+
+    private static final String REMOTE_SERVER_NAME = "remoteServerName";
+
+    /** The maximum number of entries in each cache, past which the cache is emptied. */
+    private static final int MAX_CACHE_SIZE = 1000;
+
+    /** The maximum number of patients handled at once by batch operations, to keep queries and sessions small. */
+    private static final int BATCH_SIZE = 500;
+
     /** Handles persistence. */
     @Inject
     private HibernateSessionFactory sessionFactory;
@@ -59,26 +93,32 @@ public class DefaultSecureStorageManager implements SecureStorageManager
     @Inject
     private Logger logger;
 
+    /** Remote login data, keyed by local user name and remote server name; empty values mark missing data. */
+    private final Map<List<String>, Optional<RemoteLoginData>> remoteLoginCache = new ConcurrentHashMap<>();
+
+    /** Local login tokens, keyed by user name and source server name; empty values mark missing tokens. */
+    private final Map<List<String>, Optional<LocalLoginToken>> localTokenCache = new ConcurrentHashMap<>();
+
+    /** Source servers, keyed by patient GUID; empty values mark local patients. */
+    private final Map<String, Optional<PatientSourceServerInfo>> sourceServerCache = new ConcurrentHashMap<>();
+
     @Override
     public void removeRemoteLoginData(String localUserName, String serverName)
     {
-        RemoteLoginData existing = getRemoteLoginData(localUserName, serverName);
-        if (existing != null) {
-            Session session = this.sessionFactory.getSessionFactory().openSession();
-            Transaction t = session.beginTransaction();
-            try {
-                t.begin();
-                this.logger.info("Removing stored token for [{}@{}]", localUserName, serverName);
-                session.delete(existing);
-                t.commit();
-            } catch (HibernateException ex) {
-                this.logger.error("Error removing stored token for [{}@{}]: [{}]", localUserName, serverName, ex);
-                if (t != null) {
-                    t.rollback();
+        if (localUserName == null || serverName == null) {
+            return;
+        }
+
+        try {
+            update(session -> {
+                RemoteLoginData existing = findRemoteLoginData(session, localUserName, serverName);
+                if (existing != null) {
+                    this.logger.info("Removing stored token for [{}@{}]", localUserName, serverName);
+                    session.delete(existing);
                 }
-            } finally {
-                session.close();
-            }
+            }, "Error removing stored token for [{}@{}]: [{}]", localUserName, serverName);
+        } finally {
+            this.remoteLoginCache.remove(Arrays.asList(localUserName, serverName));
         }
     }
 
@@ -86,63 +126,45 @@ public void removeRemoteLoginData(String localUserName, String serverName)
     public void storeRemoteLoginData(String localUserName, String serverName,
         String remoteUserName, String remoteLoginToken)
     {
-        RemoteLoginData existing = getRemoteLoginData(localUserName, serverName);
-
-        Session session = this.sessionFactory.getSessionFactory().openSession();
-        Transaction t = session.beginTransaction();
         try {
-            t.begin();
-            if (existing != null)
-            {
-                // this.logger.debug("DEBUG: Updating token");
-                existing.setRemoteUserName(remoteUserName);
-                existing.setLoginToken(remoteLoginToken);
-                session.update(existing);
-            }
-            else
-            {
-                // this.logger.debug("DEBUG: Saving new token");
-                session.save(new RemoteLoginData(localUserName, serverName, remoteUserName, remoteLoginToken));
-            }
-            t.commit();
-        } catch (HibernateException ex) {
-            this.logger.error("Error storing remote login for [{}@{}]: [{}]", localUserName, serverName, ex);
-            if (t != null) {
-                t.rollback();
-            }
+            update(session -> {
+                // Cached instances are shared, so only a freshly loaded instance may be modified
+                RemoteLoginData existing = findRemoteLoginData(session, localUserName, serverName);
+                if (existing != null) {
+                    existing.setRemoteUserName(remoteUserName);
+                    existing.setLoginToken(remoteLoginToken);
+                    session.update(existing);
+                } else {
+                    session.save(new RemoteLoginData(localUserName, serverName, remoteUserName, remoteLoginToken));
+                }
+            }, "Error storing remote login for [{}@{}]: [{}]", localUserName, serverName);
         } finally {
-            session.close();
+            if (localUserName != null && serverName != null) {
+                this.remoteLoginCache.remove(Arrays.asList(localUserName, serverName));
+            }
         }
     }
 
     @Override
     public void storeLocalLoginToken(String userName, String sourceServerName, String loginToken)
     {
-        LocalLoginToken existing = getLocalLoginToken(userName, sourceServerName);
-
-        Session session = this.sessionFactory.getSessionFactory().openSession();
-        Transaction t = session.beginTransaction();
         try {
-            t.begin();
-            if (existing != null)
-            {
-                this.logger.info("Updating token for [{}@{}]", userName, sourceServerName);
-                existing.setLoginToken(loginToken);
-                session.update(existing);
-            }
-            else
-            {
-                this.logger.info("Saving new token for [{}@{}]", userName, sourceServerName);
-                session.save(new LocalLoginToken(userName, sourceServerName, loginToken));
-            }
-            t.commit();
-        } catch (HibernateException ex) {
-            this.logger.error("Error storing local login token for [{}@{}]: [{}]", userName, sourceServerName, ex);
-            if (t != null) {
-                t.rollback();
-            }
+            update(session -> {
+                // Cached instances are shared, so only a freshly loaded instance may be modified
+                LocalLoginToken existing = findLocalLoginToken(session, userName, sourceServerName);
+                if (existing != null) {
+                    this.logger.info("Updating token for [{}@{}]", userName, sourceServerName);
+                    existing.setLoginToken(loginToken);
+                    session.update(existing);
+                } else {
+                    this.logger.info("Saving new token for [{}@{}]", userName, sourceServerName);
+                    session.save(new LocalLoginToken(userName, sourceServerName, loginToken));
+                }
+            }, "Error storing local login token for [{}@{}]: [{}]", userName, sourceServerName);
         } finally {
-            session.close();
+            if (userName != null && sourceServerName != null) {
+                this.localTokenCache.remove(Arrays.asList(userName, sourceServerName));
+            }
         }
     }
 
@@ -153,27 +175,15 @@ public RemoteLoginData getRemoteLoginData(String localUserName, String serverNam
             return null;
         }
 
-        Session session = this.sessionFactory.getSessionFactory().openSession();
-        try {
-            RemoteLoginData data = (RemoteLoginData) session.createCriteria(RemoteLoginData.class)
-                .add(Restrictions.eq("localUserName", localUserName))
-                .add(Restrictions.eq("serverName", serverName))
-                .uniqueResult();
-
+        return getCached(this.remoteLoginCache, Arrays.asList(localUserName, serverName), () -> query(session -> {
+            RemoteLoginData data = findRemoteLoginData(session, localUserName, serverName);
             if (data == null) {
-                this.logger.info("Remote login token not found or more than one found for [{}@{}]", localUserName,
-                    serverName);
-                return null;
+                this.logger.info("Remote login token not found for [{}@{}]", localUserName, serverName);
+            } else {
+                this.logger.debug("Token found for [{}@{}]", localUserName, serverName);
             }
-
-            this.logger.debug("Token found for [{}@{}]", localUserName, serverName);
-            return data;
-        } catch (HibernateException ex) {
-            this.logger.error("Error getting remote login token for [{}@{}]: [{}]", localUserName, serverName, ex);
-        } finally {
-            session.close();
-        }
-        return null;
+            return Optional.ofNullable(data);
+        }, "Error getting remote login token for [{}@{}]: [{}]", localUserName, serverName));
     }
 
     @Override
@@ -183,33 +193,31 @@ public LocalLoginToken getLocalLoginToken(String userName, String sourceServerNa
             return null;
         }
 
-        Session session = this.sessionFactory.getSessionFactory().openSession();
-        try {
-            LocalLoginToken data = (LocalLoginToken) session.createCriteria(LocalLoginToken.class)
-                .add(Restrictions.eq("localUserName", userName))
-                .add(Restrictions.eq("sourceServerName", sourceServerName))
-                .uniqueResult();
-
+        return getCached(this.localTokenCache, Arrays.asList(userName, sourceServerName), () -> query(session -> {
+            LocalLoginToken data = findLocalLoginToken(session, userName, sourceServerName);
             if (data == null) {
-                this.logger
-                    .info("Local token not found or more than one found for [{}@{}]", userName, sourceServerName);
-                return null;
+                this.logger.info("Local token not found for [{}@{}]", userName, sourceServerName);
             }
-
-            // this.logger.debug("Local token found for [{}@{}]", userName, sourceServerName);
-            return data;
-        } catch (HibernateException ex) {
-            this.logger.error("Error getting local login token for [{}@{}]: [{}]", userName, sourceServerName, ex);
-        } finally {
-            session.close();
-        }
-        return null;
+            return Optional.ofNullable(data);
+        }, "Error getting local login token for [{}@{}]: [{}]", userName, sourceServerName));
     }
 
     @Override
     public void removeAllLocalTokens(String sourceServerName)
     {
-        throw new RuntimeException();
+        if (sourceServerName == null) {
+            return;
+        }
+
+        try {
+            update(session -> {
+                Query query = session.createQuery(HQL_DELETE_ALL_LOCAL_TOKENS_FOR_SERVER);
+                query.setParameter("serverName", sourceServerName);
+                this.logger.info("Removed [{}] local tokens issued to [{}]", query.executeUpdate(), sourceServerName);
+            }, "Error removing local tokens issued to [{}]: [{}]", sourceServerName);
+        } finally {
+            this.localTokenCache.keySet().removeIf(key -> sourceServerName.equals(key.get(1)));
+        }
     }
 
     @Override
@@ -217,27 +225,19 @@ public void storePatientSourceServerInfo(String patientGUID, String sourceServer
     {
         PatientSourceServerInfo existing = getPatientSourceServerInfo(patientGUID);
 
-        if (existing != null)
-        {
+        if (existing != null) {
             if (!existing.getSourceServerName().equals(sourceServerName)) {
                 this.logger.warn("Multiple servers pushing the same patient: "
                     + "remote server is already defined as {} and is different from {}",
                     existing.getSourceServerName(), sourceServerName);
             }
-        }
-        else
-        {
-            Session session = this.sessionFactory.getSessionFactory().openSession();
-            Transaction t = session.beginTransaction();
+        } else if (patientGUID != null) {
+            this.logger.info("Saving remote source server for [{}] = [{}]", patientGUID, sourceServerName);
             try {
-                t.begin();
-                this.logger.info("Saving remote source server for [{}] = [{}]", patientGUID, sourceServerName);
-                session.save(new PatientSourceServerInfo(patientGUID, sourceServerName));
-                t.commit();
-            } catch (HibernateException ex) {
-                this.logger.error("Error saving remote soource server for [{}]: [{}]", patientGUID, ex);
+                update(session -> session.save(new PatientSourceServerInfo(patientGUID, sourceServerName)),
+                    "Error saving remote source server for [{}]: [{}]", patientGUID);
             } finally {
-                session.close();
+                this.sourceServerCache.remove(patientGUID);
             }
         }
     }
@@ -245,52 +245,79 @@ public void storePatientSourceServerInfo(String patientGUID, String sourceServer
     @Override
     public PatientSourceServerInfo getPatientSourceServerInfo(String patientGUID)
     {
-        Session session = this.sessionFactory.getSessionFactory().openSession();
-        PatientSourceServerInfo data = (PatientSourceServerInfo) session.createCriteria(PatientSourceServerInfo.class)
-            .add(Restrictions.eq("patientGUID", patientGUID))
-            .uniqueResult();
-
-        if (data == null) {
-            this.logger.debug("No remote source server defined for [{}]", patientGUID);
+        if (patientGUID == null) {
             return null;
         }
 
-        this.logger.debug("Remote source server found for [{}]: [{}]", patientGUID, data.getSourceServerName());
-        return data;
+        return getCached(this.sourceServerCache, patientGUID, () -> query(session -> {
+            PatientSourceServerInfo data =
+                (PatientSourceServerInfo) session.createCriteria(PatientSourceServerInfo.class)
+                    .add(Restrictions.eq("patientGUID", patientGUID))
+                    .uniqueResult();
+
+            if (data == null) {
+                this.logger.debug("No remote source server defined for [{}]", patientGUID);
+            } else {
+                this.logger.debug("Remote source server found for [{}]: [{}]", patientGUID,
+                    data.getSourceServerName());
+            }
+            return Optional.ofNullable(data);
+        }, "Error getting remote source server for [{}]: [{}]", patientGUID));
     }
 
     @Override
     public void storePatientPushInfo(String localPatientID, String remoteServerName,
         String remotePatientGUID, String remotePatientID, String remotePatientURL)
+    {
+        storePatientPushInfo(localPatientID, remoteServerName, remotePatientGUID, remotePatientID, remotePatientURL,
+            null);
+    }
+
+    @Override
+    public void storePatientPushInfo(String localPatientID, String remoteServerName,
+        String remotePatientGUID, String remotePatientID, String remotePatientURL, String pushedFieldHashes)
     {
         if (localPatientID == null || remoteServerName == null) {
             return;
         }
 
-        PatientPushedToInfo existing = getPatientPushInfo(localPatientID, remoteServerName);
-
-        Session session = this.sessionFactory.getSessionFactory().openSession();
-        Transaction t = session.beginTransaction();
-        t.begin();
+        PatientPushedToInfo info = new PatientPushedToInfo(localPatientID, remoteServerName,
+            remotePatientGUID, remotePatientID, remotePatientURL);
+        info.setPushedFieldHashes(pushedFieldHashes);
+        storePatientPushInfo(Collections.singletonList(info));
+    }
 
-        if (existing != null)
-        {
-            this.logger.debug("Updating patient push info for [{}]: [{}@{}] -> [{}@{}]", localPatientID,
-                existing.getRemotePatientID(), existing.getRemoteServerName(), remotePatientID, remoteServerName);
-            existing.setLastPushTimeToNow();
-            existing.setRemotePatientID(remotePatientID);
-            existing.setRemotePatientGUID(remotePatientGUID);
-            existing.setRemotePatientURL(remotePatientURL);
-            session.update(existing);
+    @Override
+    public void storePatientPushInfo(Collection<PatientPushedToInfo> pushes)
+    {
+        if (pushes == null || pushes.isEmpty()) {
+            return;
         }
-        else
-        {
-            this.logger.debug("Saving new patient push info [{}]: [{}@{}]", localPatientID,
-                remotePatientID, remoteServerName);
-            session.save(new PatientPushedToInfo(localPatientID, remoteServerName,
-                remotePatientGUID, remotePatientID, remotePatientURL));
+
+        // Group the pushes by server, so that existing records can be retrieved with one query per batch
+        Map<String, Map<String, PatientPushedToInfo>> pushesByServer = new LinkedHashMap<>();
+        for (PatientPushedToInfo push : pushes) {
+            if (push != null && push.getLocalPatientID() != null && push.getRemoteServerName() != null) {
+                pushesByServer.computeIfAbsent(push.getRemoteServerName(), k -> new LinkedHashMap<>())
+                    .put(push.getLocalPatientID(), push);
+            }
         }
-        t.commit();
+
+        update(session -> {
+            for (Map.Entry<String, Map<String, PatientPushedToInfo>> serverPushes : pushesByServer.entrySet()) {
+                List<String> ids = new ArrayList<>(serverPushes.getValue().keySet());
+                for (int start = 0; start < ids.size(); start += BATCH_SIZE) {
+                    List<String> batch = ids.subList(start, Math.min(start + BATCH_SIZE, ids.size()));
+                    Map<String, PatientPushedToInfo> existing = findPushInfo(session, batch, serverPushes.getKey());
+                    for (String id : batch) {
+                        storePatientPushInfo(session, serverPushes.getValue().get(id), existing.get(id));
+                    }
+                    // Write this batch and detach its records, so that large pushes don't fill the session
+                    session.flush();
+                    session.clear();
+                }
+            }
+        }, "Error storing push history for [{}] patients: [{}]", pushes.size());
     }
 
     @Override
@@ -300,18 +327,14 @@ public void deletePatientPushInfo(String localPatientID)
             return;
         }
 
-        Session session = this.sessionFactory.getSessionFactory().openSession();
-        Transaction t = session.beginTransaction();
-        t.begin();
-
-        Query query = session.createQuery(HQL_DELETE_ALL_PUSH_HISTRY_FOR_LOCAL_PATIENT);
-        query.setParameter("localId", localPatientID);
-        int numDeleted = query.executeUpdate();
-
-        this.logger.debug("Removed all [{}] stored push history records for local patient with ID [{}]",
-            numDeleted, localPatientID);
+        update(session -> {
+            Query query = session.createQuery(HQL_DELETE_ALL_PUSH_HISTRY_FOR_LOCAL_PATIENT);
+            query.setParameter("localId", localPatientID);
+            int numDeleted = query.executeUpdate();
 
-        t.commit();
+            this.logger.debug("Removed all [{}] stored push history records for local patient with ID [{}]",
+                numDeleted, localPatientID);
+        }, "Error removing push history for local patient with ID [{}]: [{}]", localPatientID);
     }
 
     @Override
@@ -321,19 +344,190 @@ public PatientPushedToInfo getPatientPushInfo(String localPatientID, String remo
             return null;
         }
 
-        Session session = this.sessionFactory.getSessionFactory().openSession();
-        PatientPushedToInfo data = (PatientPushedToInfo) session.createCriteria(PatientPushedToInfo.class)
-            .add(Restrictions.eq("localPatientID", localPatientID))
-            .add(Restrictions.eq("remoteServerName", remoteServerName))
+        return query(session -> {
+            PatientPushedToInfo data = (PatientPushedToInfo) session.createCriteria(PatientPushedToInfo.class)
+                .add(Restrictions.eq(LOCAL_PATIENT_ID, localPatientID))
+                .add(Restrictions.eq(REMOTE_SERVER_NAME, remoteServerName))
+                .uniqueResult();
+
+            if (data == null) {
+                this.logger.debug("Never pushed [{}] to [{}]", localPatientID, remoteServerName);
+            } else {
+                this.logger.debug("[{}] was previously pushed to [{}@{}]", localPatientID, data.getRemotePatientID(),
+                    remoteServerName);
+            }
+            return data;
+        }, "Error getting push history of [{}] to [{}]: [{}]", localPatientID, remoteServerName);
+    }
+
+    @Override
+    public Map<String, PatientPushedToInfo> getPatientPushInfo(Collection<String> localPatientIDs,
+        String remoteServerName)
+    {
+        Map<String, PatientPushedToInfo> result = new HashMap<>();
+        if (localPatientIDs == null || localPatientIDs.isEmpty() || remoteServerName == null) {
+            return result;
+        }
+
+        Set<String> uniqueIDs = new LinkedHashSet<>(localPatientIDs);
+        uniqueIDs.remove(null);
+        List<String> ids = new ArrayList<>(uniqueIDs);
+        Map<String, PatientPushedToInfo> found = query(session -> {
+            Map<String, PatientPushedToInfo> data = new HashMap<>();
+            for (int start = 0; start < ids.size(); start += BATCH_SIZE) {
+                data.putAll(findPushInfo(session, ids.subList(start, Math.min(start + BATCH_SIZE, ids.size())),
+                    remoteServerName));
+            }
+            return data;
+        }, "Error getting push history of [{}] patients to [{}]: [{}]", ids.size(), remoteServerName);
+        if (found != null) {
+            result.putAll(found);
+        }
+        return result;
+    }
+
+    private RemoteLoginData findRemoteLoginData(Session session, String localUserName, String serverName)
+    {
+        return (RemoteLoginData) session.createCriteria(RemoteLoginData.class)
+            .add(Restrictions.eq("localUserName", localUserName))
+            .add(Restrictions.eq("serverName", serverName))
             .uniqueResult();
+    }
 
-        if (data == null) {
-            this.logger.debug("Never pushed [{}] to [{}]", localPatientID, remoteServerName);
-            return null;
+    private LocalLoginToken findLocalLoginToken(Session session, String userName, String sourceServerName)
+    {
+        return (LocalLoginToken) session.createCriteria(LocalLoginToken.class)
+            .add(Restrictions.eq("localUserName", userName))
+            .add(Restrictions.eq("sourceServerName", sourceServerName))
+            .uniqueResult();
+    }
+
+    /**
+     * Updates an existing push record, or creates a new one, within an already open transaction.
+     *
+     * @param session the current session
+     * @param push the new push information
+     * @param existing the existing record for the same patient and server, attached to {@code session}, if any
+     */
+    private void storePatientPushInfo(Session session, PatientPushedToInfo push, PatientPushedToInfo existing)
+    {
+        if (existing != null) {
+            this.logger.debug("Updating patient push info for [{}]: [{}@{}] -> [{}@{}]", push.getLocalPatientID(),
+                existing.getRemotePatientID(), existing.getRemoteServerName(), push.getRemotePatientID(),
+                push.getRemoteServerName());
+            existing.setLastPushTimeToNow();
+            existing.setRemotePatientID(push.getRemotePatientID());
+            existing.setRemotePatientGUID(push.getRemotePatientGUID());
+            existing.setRemotePatientURL(push.getRemotePatientURL());
+            existing.setPushedFieldHashes(push.getPushedFieldHashes());
+            session.update(existing);
+        } else {
+            this.logger.debug("Saving new patient push info [{}]: [{}@{}]", push.getLocalPatientID(),
+                push.getRemotePatientID(), push.getRemoteServerName());
+            session.save(push);
         }
+    }
 
-        this.logger.debug("[{}] was previously pushed to [{}@{}]", localPatientID, data.getRemotePatientID(),
-            remoteServerName);
-        return data;
+    /**
+     * Retrieves the push records of several patients to a server with a single query.
+     *
+     * @param session the current session
+     * @param localPatientIDs the identifiers of the local patients, at most {@link #BATCH_SIZE}
+     * @param remoteServerName the remote server
+     * @return the found records, keyed by local patient identifier
+     */
+    private Map<String, PatientPushedToInfo> findPushInfo(Session session, Collection<String> localPatientIDs,
+        String remoteServerName)
+    {
+        @SuppressWarnings("unchecked")
+        List<PatientPushedToInfo> records = session.createCriteria(PatientPushedToInfo.class)
+            .add(Restrictions.in(LOCAL_PATIENT_ID, localPatientIDs))
+            .add(Restrictions.eq(REMOTE_SERVER_NAME, remoteServerName))
+            .list();
+        Map<String, PatientPushedToInfo> result = new HashMap<>();
+        for (PatientPushedToInfo record : records) {
+            result.put(record.getLocalPatientID(), record);
+        }
+        return result;
+    }
+
+    /**
+     * Looks up a value in a cache, loading and remembering it if needed. Failed loads are not remembered.
+     *
+     * @param cache the cache to use
+     * @param key the key of the value
+     * @param loader loads the value, returns {@code null} if loading failed, or an empty optional if there's no value
+     * @return the value, or {@code null} if there's no value or loading it failed
+     */
+    private <K, V> V getCached(Map<K, Optional<V>> cache, K key, Supplier<Optional<V>> loader)
+    {
+        Optional<V> result = cache.get(key);
+        if (result == null) {
+            result = loader.get();
+            if (result == null) {
+                return null;
+            }
+            if (cache.size() >= MAX_CACHE_SIZE) {
+                cache.clear();
+            }
+            cache.put(key, result);
+        }
+        return result.orElse(null);
+    }
+
+    /**
+     * Runs a read operation in a new session.
+     *
+     * @param operation the operation to run
+     * @param errorMessage the message to log if the operation fails, with the exception as the last parameter
+     * @param parameters the parameters of the error message
+     * @return the result of the operation, or {@code null} if it failed
+     */
+    private <T> T query(Function<Session, T> operation, String errorMessage, Object... parameters)
+    {
+        Session session = this.sessionFactory.getSessionFactory().openSession();
+        try {
+            return operation.apply(session);
+        } catch (HibernateException ex) {
+            logError(errorMessage, parameters, ex);
+        } finally {
+            session.close();
+        }
+        return null;
+    }
+
+    /**
+     * Runs a write operation in a new session and transaction, rolling back the transaction if the operation fails.
+     *
+     * @param operation the operation to run
+     * @param errorMessage the message to log if the operation fails, with the exception as the last parameter
+     * @param parameters the parameters of the error message
+     * @return {@code true} if the operation was successful, {@code false} otherwise
+     */
+    private boolean update(Consumer<Session> operation, String errorMessage, Object... parameters)
+    {
+        Session session = this.sessionFactory.getSessionFactory().openSession();
+        Transaction t = null;
+        try {
+            t = session.beginTransaction();
+            operation.accept(session);
+            t.commit();
+            return true;
+        } catch (HibernateException ex) {
+            logError(errorMessage, parameters, ex);
+            if (t != null) {
+                t.rollback();
+            }
+        } finally {
+            session.close();
+        }
+        return false;
+    }
+
+    private void logError(String message, Object[] parameters, Exception ex)
+    {
+        Object[] arguments = Arrays.copyOf(parameters, parameters.length + 1);
+        arguments[parameters.length] = ex;
+        this.logger.error(message, arguments);
     }
 }
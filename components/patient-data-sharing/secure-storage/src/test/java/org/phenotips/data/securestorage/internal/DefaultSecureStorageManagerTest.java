@@ -0,0 +1,309 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.securestorage.internal;
+
+import org.phenotips.data.securestorage.LocalLoginToken;
+import org.phenotips.data.securestorage.PatientPushedToInfo;
+import org.phenotips.data.securestorage.PatientSourceServerInfo;
+import org.phenotips.data.securestorage.RemoteLoginData;
+import org.phenotips.data.securestorage.SecureStorageManager;
+
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.Criteria;
+import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.classic.Session;
+import org.hibernate.criterion.Criterion;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.xpn.xwiki.store.hibernate.HibernateSessionFactory;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link DefaultSecureStorageManager} component.
+ *
+ * @version $Id$
+ */
+public class DefaultSecureStorageManagerTest
+{
+    private static final String USER = "xwiki:XWiki.Admin";
+
+    private static final String SERVER = "remote";
+
+    @Rule
+    public final MockitoComponentMockingRule<SecureStorageManager> mocker =
+        new MockitoComponentMockingRule<>(DefaultSecureStorageManager.class);
+
+    @Mock
+    private SessionFactory sessionFactory;
+
+    @Mock
+    private Session session;
+
+    @Mock
+    private Transaction transaction;
+
+    @Mock
+    private Criteria remoteLoginCriteria;
+
+    @Mock
+    private Criteria localTokenCriteria;
+
+    @Mock
+    private Criteria sourceServerCriteria;
+
+    @Mock
+    private Criteria pushCriteria;
+
+    private SecureStorageManager manager;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        MockitoAnnotations.initMocks(this);
+        HibernateSessionFactory hsf = this.mocker.getInstance(HibernateSessionFactory.class);
+        when(hsf.getSessionFactory()).thenReturn(this.sessionFactory);
+        when(this.sessionFactory.openSession()).thenReturn(this.session);
+        when(this.session.beginTransaction()).thenReturn(this.transaction);
+        when(this.session.createCriteria(RemoteLoginData.class)).thenReturn(this.remoteLoginCriteria);
+        when(this.session.createCriteria(LocalLoginToken.class)).thenReturn(this.localTokenCriteria);
+        when(this.session.createCriteria(PatientSourceServerInfo.class)).thenReturn(this.sourceServerCriteria);
+        when(this.session.createCriteria(PatientPushedToInfo.class)).thenReturn(this.pushCriteria);
+        for (Criteria criteria : Arrays.asList(this.remoteLoginCriteria, this.localTokenCriteria,
+            this.sourceServerCriteria, this.pushCriteria)) {
+            when(criteria.add(any(Criterion.class))).thenReturn(criteria);
+        }
+        this.manager = this.mocker.getComponentUnderTest();
+    }
+
+    @Test
+    public void remoteLoginDataIsCached()
+    {
+        RemoteLoginData data = new RemoteLoginData(USER, SERVER, "remoteUser", "token");
+        when(this.remoteLoginCriteria.uniqueResult()).thenReturn(data);
+
+        Assert.assertSame(data, this.manager.getRemoteLoginData(USER, SERVER));
+        Assert.assertSame(data, this.manager.getRemoteLoginData(USER, SERVER));
+
+        verify(this.remoteLoginCriteria, times(1)).uniqueResult();
+    }
+
+    @Test
+    public void missingDataIsCached()
+    {
+        Assert.assertNull(this.manager.getLocalLoginToken(USER, SERVER));
+        Assert.assertNull(this.manager.getLocalLoginToken(USER, SERVER));
+        Assert.assertNull(this.manager.getPatientSourceServerInfo("guid"));
+        Assert.assertNull(this.manager.getPatientSourceServerInfo("guid"));
+
+        verify(this.localTokenCriteria, times(1)).uniqueResult();
+        verify(this.sourceServerCriteria, times(1)).uniqueResult();
+    }
+
+    @Test
+    public void failedLookupsAreNotCached()
+    {
+        LocalLoginToken token = new LocalLoginToken(USER, SERVER, "token");
+        when(this.localTokenCriteria.uniqueResult()).thenThrow(new HibernateException("failed")).thenReturn(token);
+
+        Assert.assertNull(this.manager.getLocalLoginToken(USER, SERVER));
+        Assert.assertSame(token, this.manager.getLocalLoginToken(USER, SERVER));
+        Assert.assertSame(token, this.manager.getLocalLoginToken(USER, SERVER));
+
+        verify(this.localTokenCriteria, times(2)).uniqueResult();
+    }
+
+    @Test
+    public void storingRemoteLoginDataUpdatesAFreshInstanceAndInvalidatesTheCache()
+    {
+        RemoteLoginData cached = new RemoteLoginData(USER, SERVER, "remoteUser", "token");
+        RemoteLoginData fresh = new RemoteLoginData(USER, SERVER, "remoteUser", "token");
+        RemoteLoginData updated = new RemoteLoginData(USER, SERVER, "otherUser", "newToken");
+        when(this.remoteLoginCriteria.uniqueResult()).thenReturn(cached, fresh, updated);
+        Assert.assertSame(cached, this.manager.getRemoteLoginData(USER, SERVER));
+
+        this.manager.storeRemoteLoginData(USER, SERVER, "otherUser", "newToken");
+
+        Assert.assertEquals("remoteUser", cached.getRemoteUserName());
+        Assert.assertEquals("token", cached.getLoginToken());
+        Assert.assertEquals("otherUser", fresh.getRemoteUserName());
+        Assert.assertEquals("newToken", fresh.getLoginToken());
+        verify(this.session).update(fresh);
+        verify(this.transaction).commit();
+        Assert.assertSame(updated, this.manager.getRemoteLoginData(USER, SERVER));
+    }
+
+    @Test
+    public void storingNewRemoteLoginDataSavesIt()
+    {
+        Assert.assertNull(this.manager.getRemoteLoginData(USER, SERVER));
+
+        this.manager.storeRemoteLoginData(USER, SERVER, "remoteUser", "token");
+
+        verify(this.session).save(any(RemoteLoginData.class));
+        verify(this.session, never()).update(any());
+        // The cached missing value was dropped
+        this.manager.getRemoteLoginData(USER, SERVER);
+        verify(this.remoteLoginCriteria, times(3)).uniqueResult();
+    }
+
+    @Test
+    public void failedTokenUpdatesDontAffectTheCachedInstance()
+    {
+        LocalLoginToken cached = new LocalLoginToken(USER, SERVER, "token");
+        LocalLoginToken fresh = new LocalLoginToken(USER, SERVER, "token");
+        when(this.localTokenCriteria.uniqueResult()).thenReturn(cached, fresh, cached);
+        doThrow(new HibernateException("failed")).when(this.transaction).commit();
+        Assert.assertSame(cached, this.manager.getLocalLoginToken(USER, SERVER));
+
+        this.manager.storeLocalLoginToken(USER, SERVER, "newToken");
+
+        Assert.assertEquals("token", cached.getLoginToken());
+        verify(this.session).update(fresh);
+        verify(this.transaction).rollback();
+        Assert.assertSame(cached, this.manager.getLocalLoginToken(USER, SERVER));
+        verify(this.localTokenCriteria, times(3)).uniqueResult();
+    }
+
+    @Test
+    public void removingRemoteLoginDataDeletesAFreshInstanceAndInvalidatesTheCache()
+    {
+        RemoteLoginData cached = new RemoteLoginData(USER, SERVER, "remoteUser", "token");
+        RemoteLoginData fresh = new RemoteLoginData(USER, SERVER, "remoteUser", "token");
+        when(this.remoteLoginCriteria.uniqueResult()).thenReturn(cached, fresh, null);
+        this.manager.getRemoteLoginData(USER, SERVER);
+
+        this.manager.removeRemoteLoginData(USER, SERVER);
+
+        verify(this.session).delete(fresh);
+        Assert.assertNull(this.manager.getRemoteLoginData(USER, SERVER));
+    }
+
+    @Test
+    public void removingLocalTokensOfAServerOnlyInvalidatesItsTokens()
+    {
+        Query query = mock(Query.class);
+        when(this.session.createQuery(any(String.class))).thenReturn(query);
+        when(this.localTokenCriteria.uniqueResult()).thenReturn(new LocalLoginToken(USER, SERVER, "token"),
+            new LocalLoginToken(USER, "other", "token"), null);
+        this.manager.getLocalLoginToken(USER, SERVER);
+        this.manager.getLocalLoginToken(USER, "other");
+
+        this.manager.removeAllLocalTokens(SERVER);
+
+        verify(query).setParameter("serverName", SERVER);
+        verify(query).executeUpdate();
+        Assert.assertNull(this.manager.getLocalLoginToken(USER, SERVER));
+        Assert.assertNotNull(this.manager.getLocalLoginToken(USER, "other"));
+        verify(this.localTokenCriteria, times(3)).uniqueResult();
+    }
+
+    @Test
+    public void storingTheSourceServerInvalidatesTheCache()
+    {
+        PatientSourceServerInfo info = new PatientSourceServerInfo("guid", SERVER);
+        when(this.sourceServerCriteria.uniqueResult()).thenReturn(null, info);
+        Assert.assertNull(this.manager.getPatientSourceServerInfo("guid"));
+
+        this.manager.storePatientSourceServerInfo("guid", SERVER);
+
+        verify(this.session).save(any(PatientSourceServerInfo.class));
+        Assert.assertSame(info, this.manager.getPatientSourceServerInfo("guid"));
+        Assert.assertSame(info, this.manager.getPatientSourceServerInfo("guid"));
+        verify(this.sourceServerCriteria, times(2)).uniqueResult();
+    }
+
+    @Test
+    public void batchStorageUpdatesExistingRecordsAndSavesNewOnes()
+    {
+        PatientPushedToInfo existing = new PatientPushedToInfo("P1", SERVER, "oldGuid", "R1", "oldUrl");
+        when(this.pushCriteria.list()).thenReturn(Collections.singletonList(existing));
+        PatientPushedToInfo update = new PatientPushedToInfo("P1", SERVER, "guid1", "R11", "url1");
+        update.setPushedFieldHashes("{}");
+        PatientPushedToInfo created = new PatientPushedToInfo("P2", SERVER, "guid2", "R2", "url2");
+
+        this.manager.storePatientPushInfo(Arrays.asList(update, null, created));
+
+        // One query for the whole batch, in a single transaction
+        verify(this.pushCriteria, times(1)).list();
+        verify(this.session, times(1)).beginTransaction();
+        verify(this.transaction).commit();
+        verify(this.session).update(existing);
+        verify(this.session).save(created);
+        verify(this.session, never()).save(update);
+        Assert.assertEquals("guid1", existing.getRemotePatientGUID());
+        Assert.assertEquals("R11", existing.getRemotePatientID());
+        Assert.assertEquals("url1", existing.getRemotePatientURL());
+        Assert.assertEquals("{}", existing.getPushedFieldHashes());
+    }
+
+    @Test
+    public void largeBatchesAreSplit()
+    {
+        List<PatientPushedToInfo> pushes = new ArrayList<>();
+        for (int i = 0; i < 501; ++i) {
+            pushes.add(new PatientPushedToInfo("P" + i, SERVER, null, "R" + i, null));
+        }
+        pushes.add(new PatientPushedToInfo("P0", "other", null, "R0", null));
+
+        this.manager.storePatientPushInfo(pushes);
+
+        // Two batches for the first server, one for the other
+        verify(this.pushCriteria, times(3)).list();
+        verify(this.session, times(3)).flush();
+        verify(this.session, times(3)).clear();
+        verify(this.session, times(502)).save(any(PatientPushedToInfo.class));
+        verify(this.session, times(1)).beginTransaction();
+        verify(this.transaction).commit();
+    }
+
+    @Test
+    public void batchRetrievalReturnsFoundRecords()
+    {
+        PatientPushedToInfo p1 = new PatientPushedToInfo("P1", SERVER, null, "R1", null);
+        when(this.pushCriteria.list()).thenReturn(Collections.singletonList(p1));
+
+        Map<String, PatientPushedToInfo> result =
+            this.manager.getPatientPushInfo(Arrays.asList("P1", "P2", "P1", null), SERVER);
+
+        Assert.assertEquals(1, result.size());
+        Assert.assertSame(p1, result.get("P1"));
+        verify(this.pushCriteria, times(1)).list();
+    }
+}
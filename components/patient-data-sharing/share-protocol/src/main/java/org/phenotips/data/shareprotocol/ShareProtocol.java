@@ -50,11 +50,17 @@
     /** version 1.4: shift from single Pubmed ID value to multiple Pubmed IDs */
     public static final String VERSION_1_4 = "1.4";
 
-    public static final String CURRENT_PUSH_PROTOCOL_VERSION = VERSION_1_4;
+    /** version 1.5: gzip-compressed multi-patient batch pushes, with optional field-level delta updates */
+    public static final String VERSION_1_5 = "1.5";
+
+    public static final String CURRENT_PUSH_PROTOCOL_VERSION = VERSION_1_5;
 
     // list of protocol versions that the current server can read data from
     public static final List<String> COMPATIBLE_CLIENT_PROTOCOL_VERSIONS =
-        Arrays.asList(VERSION_1, VERSION_1_1, VERSION_1_2, VERSION_1_3, VERSION_1_4);
+        Arrays.asList(VERSION_1, VERSION_1_1, VERSION_1_2, VERSION_1_3, VERSION_1_4, VERSION_1_5);
+
+    // list of protocol versions which support the PUSH_BATCH action
+    public static final List<String> BATCH_PUSH_PROTOCOL_VERSIONS = Arrays.asList(VERSION_1_5);
 
     // list of versions which can push even if required consents have not been checked
     public static final List<String> ALLOW_NO_CONSENTS_PROTOCOL_VERSIONS = Arrays.asList(VERSION_1);
@@ -96,7 +102,7 @@
     // Those are listed explicitly because there is no way to tell if a version is old or new
     // unless it is explicitly listed
     public static final List<String> COMPATIBLE_OLD_SERVER_PROTOCOL_VERSIONS =
-        Arrays.asList(VERSION_1, VERSION_1_1, VERSION_1_2, VERSION_1_3);
+        Arrays.asList(VERSION_1, VERSION_1_1, VERSION_1_2, VERSION_1_3, VERSION_1_4);
 
     // =========================================================================
 
@@ -127,6 +133,8 @@
                                                                                      // the patient object with the
                                                                                      // given GUID
 
+    public static final String CLIENT_POST_ACTIONKEY_VALUE_PUSH_BATCH = "push_batch"; // push several patients at once
+
     // for the PUSH action the following fields must be set:
     public static final String CLIENT_POST_KEY_NAME_PATIENTJSON = "patient_json";
 
@@ -151,6 +159,23 @@
 
     // for the GETURL action the String CLIENT_POST_KEY_NAME_GUID key must be set
 
+    // for the PUSH_BATCH action the following field must be set, and GROUPNAME may be set (it applies to all patients):
+    public static final String CLIENT_POST_KEY_NAME_PATIENTS_BATCH = "patients_batch"; // a base64url-encoded,
+                                                                                       // gzip-compressed UTF-8 JSON
+                                                                                       // array of batch entries
+
+    // each batch entry is a JSON object with the following keys; PATIENTJSON and PATIENTSTATE hold JSON objects
+    // (not URL-encoded strings) and GUID is optional, with the same meaning as for the PUSH action
+    public static final String CLIENT_BATCH_KEY_NAME_PATIENTJSON = CLIENT_POST_KEY_NAME_PATIENTJSON;
+
+    public static final String CLIENT_BATCH_KEY_NAME_PATIENTSTATE = CLIENT_POST_KEY_NAME_PATIENTSTATE;
+
+    public static final String CLIENT_BATCH_KEY_NAME_GUID = CLIENT_POST_KEY_NAME_GUID;
+
+    public static final String CLIENT_BATCH_KEY_NAME_DELTA = "delta"; // optional, if `true` then PATIENTJSON only
+                                                                      // contains the fields changed since the last
+                                                                      // push, and GUID must be set
+
     // =========================================================================
 
     // every server response JSON will include the following fields:
@@ -246,6 +271,10 @@
                                                                                        // and/or to update the patient
                                                                                        // later
 
+    // response to a PUSH_BATCH action request will include the following field (iff login was successful), holding
+    // a JSON array with one PUSH response per batch entry, in the same order as the request entries:
+    public static final String SERVER_JSON_PUSH_KEY_NAME_BATCH_RESULTS = "batch_results";
+
     /**
      * Helper class describing an incompatibility between serializers in two different PhenoTips versions. An
      * incommpatibility is described in terms of a "controlling field name" which triggers (part of) a serializer when
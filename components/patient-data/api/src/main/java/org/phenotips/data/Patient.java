@@ -138,4 +138,18 @@ public interface Patient extends PrimaryEntity
      * @param policy the {@link PatientWritePolicy} according to which the patient should be updated; must not be null
      */
     void updateFromJSON(JSONObject json, PatientWritePolicy policy);
+
+    /**
+     * Update the patient document in memory according to the specified {@code policy}, using the provided json object,
+     * without saving it. Unlike {@link #updateFromJSON(JSONObject, PatientWritePolicy)}, failures are reported instead
+     * of being logged and ignored, and the caller is responsible for saving the patient document, for example as part
+     * of a larger transaction.
+     *
+     * @param json JSON object containing patient data
+     * @param policy the {@link PatientWritePolicy} according to which the patient should be updated; must not be null
+     * @throws IllegalStateException if some of the data could not be updated
+     * @throws UnsupportedOperationException if this patient cannot be updated
+     * @since 1.4
+     */
+    void applyJSON(JSONObject json, PatientWritePolicy policy);
 }
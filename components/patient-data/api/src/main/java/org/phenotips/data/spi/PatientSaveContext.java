@@ -0,0 +1,281 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.spi;
+
+import org.phenotips.data.Patient;
+
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.stability.Unstable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
+import com.xpn.xwiki.objects.PropertyInterface;
+
+/**
+ * The shared state of a patient record being processed by the {@link PatientSaveStage save stages}. Objects are
+ * looked up in the document only once, and stages can share other computed data, such as resolved vocabulary terms,
+ * through {@link #computeIfAbsent(String, Supplier)}. Stages should add and remove objects through this context, so
+ * that the shared view stays in sync with the document.
+ * <p>
+ * A context is only used by the thread saving the document, and is not thread safe.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Unstable("New SPI introduced in 1.4")
+public class PatientSaveContext
+{
+    /** The patient being saved. */
+    private final Patient patient;
+
+    /** The document being saved. */
+    private final XWikiDocument document;
+
+    /** The current XWiki context. */
+    private final XWikiContext xcontext;
+
+    /** The non-null objects of each class, looked up on demand. */
+    private final Map<EntityReference, List<BaseObject>> objects = new HashMap<>();
+
+    /** Data shared between stages. */
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    /** The main patient object, looked up on demand. */
+    private BaseObject patientObject;
+
+    /**
+     * Simple constructor passing all the required information.
+     *
+     * @param patient the patient being saved
+     * @param document the document being saved
+     * @param xcontext the current XWiki context
+     */
+    public PatientSaveContext(Patient patient, XWikiDocument document, XWikiContext xcontext)
+    {
+        this.patient = patient;
+        this.document = document;
+        this.xcontext = xcontext;
+    }
+
+    /**
+     * The patient being saved.
+     *
+     * @return the patient, as it was loaded from the document being saved
+     */
+    public Patient getPatient()
+    {
+        return this.patient;
+    }
+
+    /**
+     * The document being saved.
+     *
+     * @return the document, which can be modified by the stages
+     */
+    public XWikiDocument getDocument()
+    {
+        return this.document;
+    }
+
+    /**
+     * The current XWiki context.
+     *
+     * @return the context
+     */
+    public XWikiContext getXContext()
+    {
+        return this.xcontext;
+    }
+
+    /**
+     * The main object holding the patient data.
+     *
+     * @return the {@link Patient#CLASS_REFERENCE patient object}, or {@code null} if the document doesn't have one
+     */
+    public BaseObject getPatientObject()
+    {
+        if (this.patientObject == null) {
+            this.patientObject = this.document.getXObject(Patient.CLASS_REFERENCE);
+        }
+        return this.patientObject;
+    }
+
+    /**
+     * The patient object as it was in the previously saved version of the document, useful for computing what changed.
+     *
+     * @return the previous {@link Patient#CLASS_REFERENCE patient object}, or {@code null} if this is a new document
+     *         or if it didn't have a patient object
+     */
+    public BaseObject getPreviousPatientObject()
+    {
+        XWikiDocument previous = getPreviousDocument();
+        return previous == null ? null : previous.getXObject(Patient.CLASS_REFERENCE);
+    }
+
+    /**
+     * Lists the objects of a class attached to the document.
+     *
+     * @param classReference the class of interest
+     * @return an unmodifiable list, without {@code null} entries, possibly empty
+     */
+    public List<BaseObject> getObjects(EntityReference classReference)
+    {
+        List<BaseObject> result = this.objects.get(classReference);
+        if (result == null) {
+            result = Collections.unmodifiableList(nonNull(this.document.getXObjects(classReference)));
+            this.objects.put(classReference, result);
+        }
+        return result;
+    }
+
+    /**
+     * Adds a new object to the document.
+     *
+     * @param classReference the class of the new object
+     * @return the new object
+     * @throws XWikiException if the class cannot be loaded
+     */
+    public BaseObject newObject(EntityReference classReference) throws XWikiException
+    {
+        BaseObject result = this.document.newXObject(classReference, this.xcontext);
+        this.objects.remove(classReference);
+        return result;
+    }
+
+    /**
+     * Removes an object from the document.
+     *
+     * @param object the object to remove
+     */
+    public void removeObject(BaseObject object)
+    {
+        this.document.removeXObject(object);
+        // The object may have been listed under a differently written reference, forget all the lookups
+        this.objects.clear();
+    }
+
+    /**
+     * Removes all the objects of a class from the document.
+     *
+     * @param classReference the class of the objects to remove
+     */
+    public void removeObjects(EntityReference classReference)
+    {
+        this.document.removeXObjects(classReference);
+        this.objects.clear();
+    }
+
+    /**
+     * Checks if any of the listed properties of the {@link #getPatientObject() patient object} differ from the
+     * previously saved version of the document. Missing properties, empty values and empty lists are considered
+     * equivalent.
+     *
+     * @param properties the names of the properties to check
+     * @return {@code true} if at least one of the properties changed, or if this is a new document
+     */
+    public boolean hasChanged(String... properties)
+    {
+        XWikiDocument previous = getPreviousDocument();
+        if (previous == null) {
+            return true;
+        }
+        BaseObject current = getPatientObject();
+        BaseObject old = getPreviousPatientObject();
+        for (String property : properties) {
+            if (!Objects.equals(getValue(current, property), getValue(old, property))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the objects of a class differ from the previously saved version of the document.
+     *
+     * @param classReference the class of interest
+     * @return {@code true} if objects of that class were added, removed or modified, or if this is a new document
+     */
+    public boolean hasChanged(EntityReference classReference)
+    {
+        XWikiDocument previous = getPreviousDocument();
+        return previous == null
+            || !getObjects(classReference).equals(nonNull(previous.getXObjects(classReference)));
+    }
+
+    /**
+     * Retrieves data shared between stages, computing it the first time it is needed.
+     *
+     * @param key the name of the data
+     * @param supplier computes the data if it isn't available yet
+     * @param <T> the type of the data
+     * @return the shared data
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T computeIfAbsent(String key, Supplier<T> supplier)
+    {
+        return (T) this.attributes.computeIfAbsent(key, k -> supplier.get());
+    }
+
+    private XWikiDocument getPreviousDocument()
+    {
+        XWikiDocument previous = this.document.getOriginalDocument();
+        return previous == null || previous.isNew() ? null : previous;
+    }
+
+    private static Object getValue(BaseObject object, String property)
+    {
+        if (object == null) {
+            return null;
+        }
+        PropertyInterface field = object.getField(property);
+        Object value = field instanceof BaseProperty ? ((BaseProperty<?>) field).getValue() : null;
+        if (value instanceof Collection && ((Collection<?>) value).isEmpty()
+            || value instanceof String && StringUtils.isEmpty((String) value)) {
+            return null;
+        }
+        return value;
+    }
+
+    private static List<BaseObject> nonNull(List<BaseObject> objects)
+    {
+        List<BaseObject> result = new ArrayList<>();
+        if (objects != null) {
+            for (BaseObject object : objects) {
+                if (object != null) {
+                    result.add(object);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.spi;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+/**
+ * A step of the processing performed on a patient record right before it is saved, such as cleaning up empty objects
+ * or computing derived fields. All the stages are invoked, in the order of their {@link #getPriority() priority}, on
+ * the same {@link PatientSaveContext}, which gives them a shared view of the patient document, so that each stage
+ * doesn't have to look up and parse the same objects again. The hint of the component is used as the name of the
+ * stage.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Unstable("New SPI introduced in 1.4")
+@Role
+public interface PatientSaveStage
+{
+    /**
+     * The priority of this stage. Stages with a lower priority will be invoked before stages with a higher priority. It
+     * is recommended that the returned values be in the [0..1000] range.
+     *
+     * @return a positive number
+     */
+    int getPriority();
+
+    /**
+     * Checks whether this stage has anything to do for the record being saved, for example because the fields it
+     * uses as input {@link PatientSaveContext#hasChanged(String...) have changed}. Stages which aren't affected are
+     * skipped.
+     *
+     * @param context the record being saved
+     * @return {@code true} if {@link #process(PatientSaveContext)} must be invoked, {@code false} otherwise
+     */
+    default boolean isAffected(PatientSaveContext context)
+    {
+        return true;
+    }
+
+    /**
+     * Processes the record being saved, modifying the document as needed.
+     *
+     * @param context the record being saved
+     */
+    void process(PatientSaveContext context);
+}
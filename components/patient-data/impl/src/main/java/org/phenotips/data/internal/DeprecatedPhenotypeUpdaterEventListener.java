@@ -17,94 +17,126 @@
  */
 package org.phenotips.data.internal;
 
-import org.phenotips.data.Patient;
-import org.phenotips.data.events.PatientChangingEvent;
+import org.phenotips.Constants;
+import org.phenotips.data.spi.PatientSaveContext;
+import org.phenotips.data.spi.PatientSaveStage;
 import org.phenotips.vocabulary.VocabularyManager;
 import org.phenotips.vocabulary.VocabularyTerm;
+import org.phenotips.vocabulary.VocabularyVersionRegistry;
 
 import org.xwiki.component.annotation.Component;
-import org.xwiki.context.Execution;
-import org.xwiki.observation.AbstractEventListener;
-import org.xwiki.observation.event.Event;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.EntityReference;
 
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
-import com.xpn.xwiki.XWikiContext;
-import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.objects.DBStringListProperty;
 
 /**
- * Listens for patient records being changed, and before the action takes place, iterates over all the HPO terms and
- * replaces the deprecated ones with their updated ID.
+ * Before a patient record is saved, iterates over the HPO terms and replaces the deprecated ones with their updated ID.
+ * Terms can only become deprecated when a vocabulary is updated, so if the vocabulary versions recorded in the patient
+ * are still current, only the newly added terms are checked.
  *
  * @version $Id$
  */
 @Component
 @Named("deprecated-phenotype-updater")
 @Singleton
-public class DeprecatedPhenotypeUpdaterEventListener extends AbstractEventListener
+public class DeprecatedPhenotypeUpdaterEventListener implements PatientSaveStage
 {
+    /** The class where the versions of the vocabularies used in a patient record are stored. */
+    private static final EntityReference VERSION_CLASS_REFERENCE = new EntityReference("OntologyVersionClass",
+        EntityType.DOCUMENT, Constants.CODE_SPACE_REFERENCE);
+
     @Inject
     private VocabularyManager vocabularyManager;
 
+    /** Provides the current vocabulary versions. */
     @Inject
-    private Execution execution;
-
-    /** The list of field names which might contain deprecated terms. */
-    private final Set<String> fieldsToFix;
+    private VocabularyVersionRegistry versions;
 
-    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
-    public DeprecatedPhenotypeUpdaterEventListener()
+    @Override
+    public int getPriority()
     {
-        super("deprecated-phenotype-updater", new PatientChangingEvent());
-
-        this.fieldsToFix = new HashSet<>();
-        this.fieldsToFix.add("phenotype");
-        this.fieldsToFix.add("extended_phenotype");
-        this.fieldsToFix.add("negative_phenotype");
-        this.fieldsToFix.add("extended_negative_phenotype");
-        this.fieldsToFix.add("prenatal_phenotype");
-        this.fieldsToFix.add("extended_prenatal_phenotype");
-        this.fieldsToFix.add("negative_prenatal_phenotype");
-        this.fieldsToFix.add("extended_negative_prenatal_phenotype");
+        return 100;
     }
 
     @Override
-    public void onEvent(Event event, Object source, Object data)
+    public boolean isAffected(PatientSaveContext context)
     {
-        XWikiDocument doc = (XWikiDocument) source;
-        BaseObject patientObject = doc.getXObject(Patient.CLASS_REFERENCE);
+        return context.getPatientObject() != null && (context.hasChanged(PhenotypeTermsResolver.PHENOTYPE_PROPERTIES
+            .toArray(new String[PhenotypeTermsResolver.PHENOTYPE_PROPERTIES.size()])) || vocabulariesChanged(context));
+    }
 
-        if (patientObject != null) {
-            XWikiContext context = (XWikiContext) this.execution.getContext().getProperty("xwikicontext");
-            for (String field : this.fieldsToFix) {
-                DBStringListProperty currentTermList = (DBStringListProperty) patientObject.getField(field);
-                if (currentTermList == null) {
-                    continue;
-                }
-                List<String> terms = currentTermList.getList();
-                Set<String> correctSet = new LinkedHashSet<>();
-                for (String term : terms) {
-                    VocabularyTerm properTerm = this.vocabularyManager.resolveTerm(term);
-                    if (properTerm != null) {
-                        correctSet.add(properTerm.getId());
-                    } else {
-                        correctSet.add(term);
-                    }
+    @Override
+    public void process(PatientSaveContext context)
+    {
+        BaseObject patientObject = context.getPatientObject();
+        if (patientObject == null) {
+            return;
+        }
+        boolean checkAll = vocabulariesChanged(context);
+        for (String field : PhenotypeTermsResolver.PHENOTYPE_PROPERTIES) {
+            DBStringListProperty currentTermList = (DBStringListProperty) patientObject.getField(field);
+            if (currentTermList == null) {
+                continue;
+            }
+            List<String> terms = currentTermList.getList();
+            Map<String, VocabularyTerm> resolvedTerms = PhenotypeTermsResolver.getTerms(context,
+                this.vocabularyManager, checkAll ? terms : PhenotypeTermsResolver.getAddedTerms(context, field));
+            Set<String> correctSet = new LinkedHashSet<>();
+            for (String term : terms) {
+                VocabularyTerm properTerm = resolvedTerms.get(term);
+                if (properTerm != null) {
+                    correctSet.add(properTerm.getId());
+                } else {
+                    correctSet.add(term);
                 }
+            }
+            if (!terms.equals(new LinkedList<>(correctSet))) {
                 List<String> correctList = new LinkedList<>();
                 correctList.addAll(correctSet);
-                patientObject.set(field, correctList, context);
+                patientObject.set(field, correctList, context.getXContext());
             }
         }
     }
+
+    /**
+     * Checks if any vocabulary was updated since the record was last saved, by comparing the vocabulary versions
+     * recorded in the patient with the current versions.
+     *
+     * @param context the record being saved
+     * @return {@code true} if the recorded versions are missing or outdated
+     */
+    private boolean vocabulariesChanged(PatientSaveContext context)
+    {
+        Boolean result = context.computeIfAbsent("vocabulariesChanged", () -> {
+            Map<String, String> recorded = new HashMap<>();
+            for (BaseObject version : context.getObjects(VERSION_CLASS_REFERENCE)) {
+                String name = version.getStringValue("name");
+                if (name != null) {
+                    recorded.put(name.toLowerCase(Locale.ROOT), version.getStringValue("version"));
+                }
+            }
+            for (Map.Entry<String, String> current : this.versions.getVersions().entrySet()) {
+                if (!Objects.equals(current.getValue(), recorded.get(current.getKey().toLowerCase(Locale.ROOT)))) {
+                    return Boolean.TRUE;
+                }
+            }
+            return Boolean.FALSE;
+        });
+        return result;
+    }
 }
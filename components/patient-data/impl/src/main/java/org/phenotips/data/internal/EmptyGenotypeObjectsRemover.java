@@ -19,16 +19,14 @@
 
 import org.phenotips.Constants;
 import org.phenotips.data.Gene;
-import org.phenotips.data.events.PatientChangingEvent;
+import org.phenotips.data.spi.PatientSaveContext;
+import org.phenotips.data.spi.PatientSaveStage;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.EntityReference;
-import org.xwiki.observation.AbstractEventListener;
-import org.xwiki.observation.event.Event;
 
 import java.util.List;
-import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -37,7 +35,6 @@
 
 import org.apache.commons.lang3.StringUtils;
 
-import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
 
 /**
@@ -50,7 +47,7 @@
 @Component
 @Named("empty-genotype-objects-remover")
 @Singleton
-public class EmptyGenotypeObjectsRemover extends AbstractEventListener
+public class EmptyGenotypeObjectsRemover implements PatientSaveStage
 {
     private static final EntityReference VARIANT_CLASS_REFERENCE = new EntityReference("GeneVariantClass",
         EntityType.DOCUMENT, Constants.CODE_SPACE_REFERENCE);
@@ -59,44 +56,49 @@ public class EmptyGenotypeObjectsRemover extends AbstractEventListener
 
     private static final String VARIANT_KEY = "cdna";
 
-    /**
-     * Default constructor, sets up the listener name and the list of events to subscribe to.
-     */
-    public EmptyGenotypeObjectsRemover()
+    @Override
+    public int getPriority()
+    {
+        return 510;
+    }
+
+    @Override
+    public boolean isAffected(PatientSaveContext context)
     {
-        super("empty-genotype-objects-remover", new PatientChangingEvent());
+        return context.hasChanged(Gene.GENE_CLASS) || context.hasChanged(VARIANT_CLASS_REFERENCE);
     }
 
     @Override
-    public void onEvent(Event event, Object source, Object data)
+    public void process(PatientSaveContext context)
     {
-        XWikiDocument doc = (XWikiDocument) source;
-        List<BaseObject> geneXWikiObjects = doc.getXObjects(Gene.GENE_CLASS);
-        List<BaseObject> variantXWikiObjects = doc.getXObjects(VARIANT_CLASS_REFERENCE);
+        List<BaseObject> geneXWikiObjects = context.getObjects(Gene.GENE_CLASS);
+        List<BaseObject> variantXWikiObjects = context.getObjects(VARIANT_CLASS_REFERENCE);
 
-        if (geneXWikiObjects == null || geneXWikiObjects.isEmpty()) {
+        if (geneXWikiObjects.isEmpty()) {
             // Delete all variants
-            doc.removeXObjects(VARIANT_CLASS_REFERENCE);
+            if (!variantXWikiObjects.isEmpty()) {
+                context.removeObjects(VARIANT_CLASS_REFERENCE);
+            }
             return;
         }
 
         // Remove gene object from the document if key "gene" field is empty
-        geneXWikiObjects.stream().filter(Objects::nonNull)
+        geneXWikiObjects.stream()
             .filter(gene -> StringUtils.isBlank(gene.getStringValue(GENE_KEY)))
-            .forEach(gene -> doc.removeXObject(gene));
+            .forEach(gene -> context.removeObject(gene));
 
-        if (variantXWikiObjects == null || variantXWikiObjects.isEmpty()) {
+        if (variantXWikiObjects.isEmpty()) {
             // Nothing else to remove
             return;
         }
         // Get list of patient genes
-        Set<String> genes = geneXWikiObjects.stream().filter(Objects::nonNull)
+        Set<String> genes = geneXWikiObjects.stream()
             .map(gene -> gene.getStringValue(GENE_KEY)).collect(Collectors.toSet());
 
         // Remove variants without CDNA, or which belonging to a gene not set for the patient
-        variantXWikiObjects.stream().filter(Objects::nonNull)
+        variantXWikiObjects.stream()
             .filter(variant -> StringUtils.isBlank(variant.getStringValue(VARIANT_KEY))
                 || !genes.contains(variant.getStringValue(GENE_KEY)))
-            .forEach(variant -> doc.removeXObject(variant));
+            .forEach(variant -> context.removeObject(variant));
     }
 }
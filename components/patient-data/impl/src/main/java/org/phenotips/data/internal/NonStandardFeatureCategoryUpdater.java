@@ -18,17 +18,14 @@
 package org.phenotips.data.internal;
 
 import org.phenotips.Constants;
-import org.phenotips.data.Patient;
-import org.phenotips.data.events.PatientChangingEvent;
+import org.phenotips.data.spi.PatientSaveContext;
+import org.phenotips.data.spi.PatientSaveStage;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.container.Container;
 import org.xwiki.container.servlet.ServletRequest;
-import org.xwiki.context.Execution;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.EntityReference;
-import org.xwiki.observation.AbstractEventListener;
-import org.xwiki.observation.event.Event;
 
 import java.text.MessageFormat;
 import java.util.Arrays;
@@ -40,7 +37,6 @@
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
-import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.objects.classes.BaseClass;
 
@@ -52,7 +48,7 @@
 @Component
 @Named("phenotype-category-updater")
 @Singleton
-public class NonStandardFeatureCategoryUpdater extends AbstractEventListener
+public class NonStandardFeatureCategoryUpdater implements PatientSaveStage
 {
     /** The name of the class where the mapping between phenotypes and categories is stored. */
     private static final EntityReference CATEGORY_CLASS_REFERENCE = new EntityReference("PhenotypeCategoryClass",
@@ -67,33 +63,31 @@ public class NonStandardFeatureCategoryUpdater extends AbstractEventListener
     /** The name of the mapping class property where the target category is stored. */
     private static final String CATEGORY_PROPETY_NAME = "target_property_category";
 
-    @Inject
-    private Execution execution;
-
     /** Needed for getting access to the request. */
     @Inject
     private Container container;
 
-    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
-    public NonStandardFeatureCategoryUpdater()
+    @Override
+    public int getPriority()
     {
-        super("phenotype-category-updater", new PatientChangingEvent());
+        return 300;
     }
 
     @Override
-    public void onEvent(Event event, Object source, Object data)
+    public boolean isAffected(PatientSaveContext context)
     {
-        if (this.container.getRequest() == null) {
-            // Not a browser request, no custom categories, nothing to do
-            return;
-        }
-        XWikiContext context = (XWikiContext) this.execution.getContext().getProperty("xwikicontext");
-        XWikiDocument doc = (XWikiDocument) source;
+        // Not a browser request, no custom categories, nothing to do
+        return this.container.getRequest() != null;
+    }
 
-        BaseObject patientRecordObj = doc.getXObject(Patient.CLASS_REFERENCE);
+    @Override
+    public void process(PatientSaveContext saveContext)
+    {
+        BaseObject patientRecordObj = saveContext.getPatientObject();
         if (patientRecordObj == null) {
             return;
         }
+        XWikiContext context = saveContext.getXContext();
         BaseClass patientRecordClass = patientRecordObj.getXClass(context);
 
         for (String targetPropertyName : patientRecordClass.getPropertyList()) {
@@ -108,7 +102,7 @@ public void onEvent(Event event, Object source, Object data)
                         getParameter(targetPropertyName + "__suggested__" + phenotype.replaceAll("[^a-zA-Z0-9_]+", "_")
                             + "__category", patientRecordObj.getNumber());
                     if (category != null && !category.isEmpty()) {
-                        storeCategory(phenotype, category, targetPropertyName, doc, context);
+                        storeCategory(phenotype, category, targetPropertyName, saveContext);
                     }
                 }
             }
@@ -121,13 +115,12 @@ public void onEvent(Event event, Object source, Object data)
      * @param phenotype the free-text phenotype value found in the request
      * @param category the specified category where the phenotype belongs
      * @param targetPropertyName the name of the phenotype property where the {@code phenotype} was specified
-     * @param doc the patient sheet
-     * @param context the current execution context
+     * @param context the patient record being saved
      */
-    private void storeCategory(String phenotype, List<String> category, String targetPropertyName, XWikiDocument doc,
-        XWikiContext context)
+    private void storeCategory(String phenotype, List<String> category, String targetPropertyName,
+        PatientSaveContext context)
     {
-        BaseObject targetMappingObject = findCategoryObject(phenotype, targetPropertyName, doc, context);
+        BaseObject targetMappingObject = findCategoryObject(phenotype, targetPropertyName, context);
         targetMappingObject.setStringValue(NAME_PROPETY_NAME, targetPropertyName);
         targetMappingObject.setStringValue(VALUE_PROPETY_NAME, phenotype);
         targetMappingObject.setDBStringListValue(CATEGORY_PROPETY_NAME, category);
@@ -139,28 +132,22 @@ private void storeCategory(String phenotype, List<String> category, String targe
      *
      * @param phenotype the free-text phenotype value found in the request
      * @param targetPropertyName the name of the phenotype property where the {@code phenotype} was specified
-     * @param doc the patient sheet
-     * @param context the current execution context
+     * @param context the patient record being saved
      * @return the target XObject
      */
-    private BaseObject findCategoryObject(String phenotype, String targetPropertyName, XWikiDocument doc,
-        XWikiContext context)
+    private BaseObject findCategoryObject(String phenotype, String targetPropertyName, PatientSaveContext context)
     {
         BaseObject targetMappingObject = null;
         try {
-            List<BaseObject> existingObjects = doc.getXObjects(CATEGORY_CLASS_REFERENCE);
-            if (existingObjects != null) {
-                for (BaseObject mappingObject : existingObjects) {
-                    if (mappingObject != null
-                        && targetPropertyName.equals(mappingObject.getStringValue(NAME_PROPETY_NAME))
-                        && phenotype.equals(mappingObject.getStringValue(VALUE_PROPETY_NAME))) {
-                        targetMappingObject = mappingObject;
-                        break;
-                    }
+            for (BaseObject mappingObject : context.getObjects(CATEGORY_CLASS_REFERENCE)) {
+                if (targetPropertyName.equals(mappingObject.getStringValue(NAME_PROPETY_NAME))
+                    && phenotype.equals(mappingObject.getStringValue(VALUE_PROPETY_NAME))) {
+                    targetMappingObject = mappingObject;
+                    break;
                 }
             }
             if (targetMappingObject == null) {
-                targetMappingObject = doc.newXObject(CATEGORY_CLASS_REFERENCE, context);
+                targetMappingObject = context.newObject(CATEGORY_CLASS_REFERENCE);
             }
         } catch (XWikiException ex) {
             // Storage error, shouldn't happen
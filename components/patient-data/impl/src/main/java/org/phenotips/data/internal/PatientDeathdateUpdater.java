@@ -17,17 +17,14 @@
  */
 package org.phenotips.data.internal;
 
-import org.phenotips.data.Patient;
-import org.phenotips.data.events.PatientChangingEvent;
+import org.phenotips.data.spi.PatientSaveContext;
+import org.phenotips.data.spi.PatientSaveStage;
 
 import org.xwiki.component.annotation.Component;
-import org.xwiki.observation.AbstractEventListener;
-import org.xwiki.observation.event.Event;
 
 import javax.inject.Named;
 import javax.inject.Singleton;
 
-import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
 
 /**
@@ -38,27 +35,37 @@
 @Component
 @Named("patient-deathdate-updater")
 @Singleton
-public class PatientDeathdateUpdater extends AbstractEventListener
+public class PatientDeathdateUpdater implements PatientSaveStage
 {
-    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
-    public PatientDeathdateUpdater()
+    private static final String LIFE_STATUS = "life_status";
+
+    private static final String DATE_OF_DEATH = "date_of_death";
+
+    private static final String DATE_OF_DEATH_ENTERED = "date_of_death_entered";
+
+    @Override
+    public int getPriority()
     {
-        super("patient-deathdate-updater", new PatientChangingEvent());
+        return 700;
     }
 
     @Override
-    public void onEvent(Event event, Object source, Object data)
+    public boolean isAffected(PatientSaveContext context)
     {
-        XWikiDocument doc = (XWikiDocument) source;
+        return context.hasChanged(LIFE_STATUS, DATE_OF_DEATH, DATE_OF_DEATH_ENTERED);
+    }
 
-        BaseObject patientRecordObj = doc.getXObject(Patient.CLASS_REFERENCE);
+    @Override
+    public void process(PatientSaveContext context)
+    {
+        BaseObject patientRecordObj = context.getPatientObject();
         if (patientRecordObj == null) {
             // No patient, nothing to do
             return;
         }
-        if (("alive").equals(patientRecordObj.getStringValue("life_status"))) {
-            patientRecordObj.setDateValue("date_of_death", null);
-            patientRecordObj.setStringValue("date_of_death_entered", null);
+        if (("alive").equals(patientRecordObj.getStringValue(LIFE_STATUS))) {
+            patientRecordObj.setDateValue(DATE_OF_DEATH, null);
+            patientRecordObj.setStringValue(DATE_OF_DEATH_ENTERED, null);
         }
     }
 }
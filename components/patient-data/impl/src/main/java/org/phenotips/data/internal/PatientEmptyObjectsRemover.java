@@ -18,16 +18,14 @@
 package org.phenotips.data.internal;
 
 import org.phenotips.Constants;
-import org.phenotips.data.events.PatientChangingEvent;
+import org.phenotips.data.spi.PatientSaveContext;
+import org.phenotips.data.spi.PatientSaveStage;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.EntityReference;
-import org.xwiki.observation.AbstractEventListener;
-import org.xwiki.observation.event.Event;
 
 import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
 
 import javax.inject.Named;
@@ -35,7 +33,6 @@
 
 import org.apache.commons.lang3.StringUtils;
 
-import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.objects.BaseStringProperty;
 
@@ -49,7 +46,7 @@
 @Component
 @Named("empty-objects-remover")
 @Singleton
-public class PatientEmptyObjectsRemover extends AbstractEventListener
+public class PatientEmptyObjectsRemover implements PatientSaveStage
 {
     private static final EntityReference GENE_CLASS_REFERENCE = new EntityReference("GeneClass",
         EntityType.DOCUMENT, Constants.CODE_SPACE_REFERENCE);
@@ -61,35 +58,33 @@ public class PatientEmptyObjectsRemover extends AbstractEventListener
 
     private static final String VARIANT_KEY = "cdna";
 
-    /**
-     * Default constructor, sets up the listener name and the list of events to subscribe to.
-     */
-    public PatientEmptyObjectsRemover()
-    {
-        super("empty-objects-remover", new PatientChangingEvent());
+    private static final Map<String, EntityReference> REFS = new LinkedHashMap<>();
+
+    static {
+        REFS.put(GENE_KEY, GENE_CLASS_REFERENCE);
+        REFS.put(VARIANT_KEY, VARIANT_CLASS_REFERENCE);
     }
 
     @Override
-    public void onEvent(Event event, Object source, Object data)
+    public int getPriority()
     {
-        XWikiDocument doc = (XWikiDocument) source;
+        return 500;
+    }
 
-        Map<String, EntityReference> refs = new LinkedHashMap<>();
-        refs.put(GENE_KEY, GENE_CLASS_REFERENCE);
-        refs.put(VARIANT_KEY, VARIANT_CLASS_REFERENCE);
+    @Override
+    public boolean isAffected(PatientSaveContext context)
+    {
+        return context.hasChanged(GENE_CLASS_REFERENCE) || context.hasChanged(VARIANT_CLASS_REFERENCE);
+    }
 
-        for (String key : refs.keySet()) {
-            List<BaseObject> xWikiObjects = doc.getXObjects(refs.get(key));
-            if (xWikiObjects == null || xWikiObjects.isEmpty()) {
-                continue;
-            }
-            for (BaseObject object : xWikiObjects) {
-                if (object == null) {
-                    continue;
-                }
-                BaseStringProperty field = (BaseStringProperty) object.getField(key);
+    @Override
+    public void process(PatientSaveContext context)
+    {
+        for (Map.Entry<String, EntityReference> ref : REFS.entrySet()) {
+            for (BaseObject object : context.getObjects(ref.getValue())) {
+                BaseStringProperty field = (BaseStringProperty) object.getField(ref.getKey());
                 if (field == null || StringUtils.isEmpty(field.getValue())) {
-                    doc.removeXObject(object);
+                    context.removeObject(object);
                 }
             }
         }
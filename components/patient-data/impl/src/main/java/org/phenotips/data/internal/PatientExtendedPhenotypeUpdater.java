@@ -17,17 +17,20 @@
  */
 package org.phenotips.data.internal;
 
-import org.phenotips.data.Patient;
-import org.phenotips.data.events.PatientChangingEvent;
+import org.phenotips.data.spi.PatientSaveContext;
+import org.phenotips.data.spi.PatientSaveStage;
 import org.phenotips.vocabulary.VocabularyManager;
-import org.phenotips.vocabulary.VocabularyTerm;
+import org.phenotips.vocabulary.VocabularyVersionRegistry;
 
 import org.xwiki.component.annotation.Component;
-import org.xwiki.observation.AbstractEventListener;
-import org.xwiki.observation.event.Event;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -35,42 +38,108 @@
 import javax.inject.Named;
 import javax.inject.Singleton;
 
-import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
 
 /**
- * Update the extended_*_phenotype aggregated properties whenever the phenotypes change.
+ * Update the extended_*_phenotype aggregated properties whenever the phenotypes change. Instead of rebuilding the
+ * extended phenotypes from scratch, only the differences from the previously saved version of the record are applied:
+ * the ancestors of the added phenotypes are merged in, and the ancestors of the removed phenotypes are dropped, unless
+ * they are still the ancestor of a remaining phenotype. Ancestors are taken from the {@link PhenotypeAncestorIndex}, so
+ * only the phenotypes never seen before have to be resolved in the vocabulary. The version of HPO used is stored in the
+ * record, and when the vocabulary is reindexed with a different version, the extended phenotypes are computed again
+ * from scratch on the next save, since the previously stored ancestors may no longer be accurate.
  *
  * @version $Id$
  */
 @Component
 @Named("patient-extended-phenotype-updater")
 @Singleton
-public class PatientExtendedPhenotypeUpdater extends AbstractEventListener
+public class PatientExtendedPhenotypeUpdater implements PatientSaveStage
 {
+    /** The base phenotype fields, mapped to the extended fields computed from them. */
+    private static final Map<String, String> FIELDS = new LinkedHashMap<>();
+
+    static {
+        FIELDS.put("phenotype", "extended_phenotype");
+        FIELDS.put("prenatal_phenotype", "extended_prenatal_phenotype");
+        FIELDS.put("negative_phenotype", "extended_negative_phenotype");
+        FIELDS.put("negative_prenatal_phenotype", "extended_negative_prenatal_phenotype");
+    }
+
+    /** The property storing the version of HPO used for computing the extended phenotypes. */
+    private static final String VERSION_FIELD = "extended_phenotype_version";
+
+    /** The vocabulary used for the phenotypes. */
+    private static final String HPO = "hpo";
+
     /** Needed for accessing the feature ontologies. */
     @Inject
     private VocabularyManager vocabularyManager;
 
-    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
-    public PatientExtendedPhenotypeUpdater()
+    /** Remembers the ancestors of the terms already seen. */
+    @Inject
+    private PhenotypeAncestorIndex ancestorIndex;
+
+    /** Provides the current version of HPO. */
+    @Inject
+    private VocabularyVersionRegistry versions;
+
+    @Override
+    public int getPriority()
     {
-        super("patient-extended-phenotype-updater", new PatientChangingEvent());
+        return 200;
     }
 
     @Override
-    public void onEvent(Event event, Object source, Object data)
+    public boolean isAffected(PatientSaveContext context)
     {
-        XWikiDocument doc = (XWikiDocument) source;
+        BaseObject patientRecordObj = context.getPatientObject();
+        if (patientRecordObj == null) {
+            return false;
+        }
+        if (context.hasChanged(FIELDS.keySet().toArray(new String[FIELDS.size()]))) {
+            return true;
+        }
+        if (isOutdated(patientRecordObj)) {
+            return true;
+        }
+        // Extended fields missing for existing phenotypes, for example in records imported without them
+        for (Map.Entry<String, String> field : FIELDS.entrySet()) {
+            if (!patientRecordObj.getListValue(field.getKey()).isEmpty()
+                && patientRecordObj.getListValue(field.getValue()).isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        BaseObject patientRecordObj = doc.getXObject(Patient.CLASS_REFERENCE);
+    @Override
+    public void process(PatientSaveContext context)
+    {
+        BaseObject patientRecordObj = context.getPatientObject();
         if (patientRecordObj == null) {
             return;
         }
-        updateField("phenotype", "extended_phenotype", patientRecordObj);
-        updateField("prenatal_phenotype", "extended_prenatal_phenotype", patientRecordObj);
-        updateField("negative_phenotype", "extended_negative_phenotype", patientRecordObj);
-        updateField("negative_prenatal_phenotype", "extended_negative_prenatal_phenotype", patientRecordObj);
+        boolean outdated = isOutdated(patientRecordObj);
+        for (Map.Entry<String, String> field : FIELDS.entrySet()) {
+            updateField(field.getKey(), field.getValue(), outdated, context);
+        }
+        if (outdated) {
+            patientRecordObj.setStringValue(VERSION_FIELD, this.versions.getVersion(HPO));
+        }
+    }
+
+    /**
+     * Checks if the extended phenotypes stored in a record were computed using a different version of HPO than the one
+     * currently available. If the current version is not known, the stored extended phenotypes are trusted.
+     *
+     * @param patientRecordObj the patient object being saved
+     * @return {@code true} if the extended phenotypes must be computed again from scratch
+     */
+    private boolean isOutdated(BaseObject patientRecordObj)
+    {
+        String currentVersion = this.versions.getVersion(HPO);
+        return currentVersion != null && !currentVersion.equals(patientRecordObj.getStringValue(VERSION_FIELD));
     }
 
     /**
@@ -78,26 +147,94 @@ public void onEvent(Event event, Object source, Object data)
      *
      * @param baseFieldName the name of the field holding the basic list of phenotypes
      * @param extendedFieldName the name of the target field that will hold the extended list of phenotypes
-     * @param patientRecordObj the object to update
+     * @param recompute whether to ignore the previously stored extended phenotypes and compute everything again
+     * @param context the record being saved
      */
-    private void updateField(String baseFieldName, String extendedFieldName, BaseObject patientRecordObj)
+    private void updateField(String baseFieldName, String extendedFieldName, boolean recompute,
+        PatientSaveContext context)
     {
-        @SuppressWarnings("unchecked")
-        List<String> phenotypes = patientRecordObj.getListValue(baseFieldName);
-        Set<String> extendedPhenotypes = new TreeSet<>();
-        Set<String> sortedPhenotypes = new TreeSet<>();
-        for (String phenotype : phenotypes) {
-            sortedPhenotypes.add(phenotype);
-            VocabularyTerm phenotypeTerm = this.vocabularyManager.resolveTerm(phenotype);
-            if (phenotypeTerm != null) {
-                for (VocabularyTerm term : phenotypeTerm.getAncestorsAndSelf()) {
-                    extendedPhenotypes.add(term.getId());
+        BaseObject patientRecordObj = context.getPatientObject();
+        BaseObject previousObj = context.getPreviousPatientObject();
+        Set<String> phenotypes = new TreeSet<>(PhenotypeTermsResolver.getValues(patientRecordObj, baseFieldName));
+        Set<String> previousPhenotypes =
+            new TreeSet<>(PhenotypeTermsResolver.getValues(previousObj, baseFieldName));
+        List<String> previousExtended = PhenotypeTermsResolver.getValues(previousObj, extendedFieldName);
+
+        Set<String> extendedPhenotypes;
+        if (recompute || previousObj == null || previousExtended.isEmpty() && !previousPhenotypes.isEmpty()) {
+            // Nothing to start from, compute everything
+            extendedPhenotypes = new TreeSet<>();
+            for (Set<String> ancestors : getAncestors(phenotypes, context).values()) {
+                extendedPhenotypes.addAll(ancestors);
+            }
+        } else {
+            extendedPhenotypes = new TreeSet<>(previousExtended);
+            applyChanges(extendedPhenotypes, previousPhenotypes, phenotypes, context);
+        }
+
+        setIfChanged(patientRecordObj, extendedFieldName, new ArrayList<>(extendedPhenotypes));
+        setIfChanged(patientRecordObj, baseFieldName, new ArrayList<>(phenotypes));
+    }
+
+    /**
+     * Updates a set of extended phenotypes according to the changes in the base phenotypes.
+     *
+     * @param extendedPhenotypes the previous extended phenotypes, will be updated
+     * @param previousPhenotypes the previous base phenotypes
+     * @param phenotypes the current base phenotypes
+     * @param context the record being saved
+     */
+    private void applyChanges(Set<String> extendedPhenotypes, Set<String> previousPhenotypes, Set<String> phenotypes,
+        PatientSaveContext context)
+    {
+        Set<String> removed = new HashSet<>(previousPhenotypes);
+        removed.removeAll(phenotypes);
+        Set<String> added = new HashSet<>(phenotypes);
+        added.removeAll(previousPhenotypes);
+
+        if (!removed.isEmpty()) {
+            Set<String> kept = new HashSet<>(phenotypes);
+            kept.removeAll(added);
+            Set<String> involved = new HashSet<>(removed);
+            involved.addAll(kept);
+            Map<String, Set<String>> ancestors = getAncestors(involved, context);
+            // Count, for each ancestor of a removed phenotype, how many remaining phenotypes still have it
+            Map<String, Integer> references = new HashMap<>();
+            for (String phenotype : removed) {
+                for (String ancestor : ancestors.get(phenotype)) {
+                    references.put(ancestor, 0);
+                }
+            }
+            for (String phenotype : kept) {
+                for (String ancestor : ancestors.get(phenotype)) {
+                    references.computeIfPresent(ancestor, (key, count) -> count + 1);
+                }
+            }
+            for (Map.Entry<String, Integer> reference : references.entrySet()) {
+                if (reference.getValue() == 0) {
+                    extendedPhenotypes.remove(reference.getKey());
                 }
-            } else {
-                extendedPhenotypes.add(phenotype);
             }
         }
-        patientRecordObj.setDBStringListValue(extendedFieldName, new ArrayList<>(extendedPhenotypes));
-        patientRecordObj.setDBStringListValue(baseFieldName, new ArrayList<>(sortedPhenotypes));
+
+        for (Set<String> ancestors : getAncestors(added, context).values()) {
+            extendedPhenotypes.addAll(ancestors);
+        }
+    }
+
+    private Map<String, Set<String>> getAncestors(Collection<String> phenotypes, PatientSaveContext context)
+    {
+        if (phenotypes.isEmpty()) {
+            return new HashMap<>();
+        }
+        return this.ancestorIndex.getAncestorsAndSelf(phenotypes,
+            missing -> PhenotypeTermsResolver.getTerms(context, this.vocabularyManager, missing));
+    }
+
+    private void setIfChanged(BaseObject object, String property, List<String> values)
+    {
+        if (!values.equals(PhenotypeTermsResolver.getValues(object, property))) {
+            object.setDBStringListValue(property, values);
+        }
     }
 }
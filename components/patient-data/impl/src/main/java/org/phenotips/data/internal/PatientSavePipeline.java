@@ -0,0 +1,155 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.events.PatientChangingEvent;
+import org.phenotips.data.spi.PatientSaveContext;
+import org.phenotips.data.spi.PatientSaveStage;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Runs all the {@link PatientSaveStage patient save stages}, in the order of their priority, on a patient record right
+ * before it is saved. All the stages share the same {@link PatientSaveContext}, so the patient document is only
+ * traversed once for each object class, and stages which aren't affected by the changes being saved are skipped. A
+ * failing stage doesn't prevent the following stages from running.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Component
+@Named("patient-save-pipeline")
+@Singleton
+public class PatientSavePipeline extends AbstractEventListener
+{
+    /** Saves taking longer than this, in milliseconds, are reported with the time spent in each stage. */
+    private static final long SLOW_SAVE_THRESHOLD = 500;
+
+    /** Logging helper object. */
+    @Inject
+    private Logger logger;
+
+    /** Used for looking up the available stages, including the ones registered by installed extensions. */
+    @Inject
+    @Named("context")
+    private Provider<ComponentManager> componentManager;
+
+    /** Provides access to the current context. */
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
+    public PatientSavePipeline()
+    {
+        super("patient-save-pipeline", new PatientChangingEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument doc = (XWikiDocument) source;
+        PatientSaveContext context =
+            new PatientSaveContext(((PatientChangingEvent) event).getPatient(), doc, this.xcontextProvider.get());
+        if (context.getPatientObject() == null) {
+            return;
+        }
+
+        StringBuilder timings = new StringBuilder();
+        long start = System.nanoTime();
+        for (Map.Entry<String, PatientSaveStage> stage : getStages()) {
+            long stageStart = System.nanoTime();
+            String outcome = runStage(stage.getKey(), stage.getValue(), context);
+            timings.append(' ').append(stage.getKey()).append('=')
+                .append(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - stageStart)).append("us").append(outcome);
+        }
+        long total = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        if (total > SLOW_SAVE_THRESHOLD) {
+            this.logger.info("Processing patient [{}] before saving took {}ms:{}", doc.getDocumentReference(), total,
+                timings);
+        } else {
+            this.logger.debug("Processing patient [{}] before saving took {}ms:{}", doc.getDocumentReference(), total,
+                timings);
+        }
+    }
+
+    /**
+     * Runs one stage, if it is affected by the changes being saved.
+     *
+     * @param name the name of the stage
+     * @param stage the stage to run
+     * @param context the record being saved
+     * @return an empty string if the stage was run, or a short marker if it was skipped or failed
+     */
+    private String runStage(String name, PatientSaveStage stage, PatientSaveContext context)
+    {
+        try {
+            if (!stage.isAffected(context)) {
+                return " (skipped)";
+            }
+            stage.process(context);
+            return "";
+        } catch (RuntimeException ex) {
+            this.logger.warn("Patient save stage [{}] failed for [{}]: {}", name,
+                context.getDocument().getDocumentReference(), ex.getMessage(), ex);
+            return " (failed)";
+        }
+    }
+
+    /**
+     * Lists the available stages, sorted by priority, then by name.
+     *
+     * @return a list of named stages, possibly empty
+     */
+    private List<Map.Entry<String, PatientSaveStage>> getStages()
+    {
+        try {
+            List<Map.Entry<String, PatientSaveStage>> result =
+                new ArrayList<>(this.componentManager.get().<PatientSaveStage>getInstanceMap(PatientSaveStage.class)
+                    .entrySet());
+            Collections.sort(result, (a, b) -> {
+                int comparison = Integer.compare(a.getValue().getPriority(), b.getValue().getPriority());
+                return comparison != 0 ? comparison : a.getKey().compareTo(b.getKey());
+            });
+            return result;
+        } catch (ComponentLookupException ex) {
+            this.logger.error("Failed to look up patient save stages: {}", ex.getMessage(), ex);
+            return Collections.emptyList();
+        }
+    }
+}
@@ -26,6 +26,7 @@
 import org.phenotips.data.PatientDataController;
 import org.phenotips.data.PatientWritePolicy;
 import org.phenotips.entities.spi.AbstractPrimaryEntity;
+import org.phenotips.vocabulary.VocabularyManager;
 
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.model.EntityType;
@@ -34,12 +35,16 @@
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.json.JSONObject;
 import org.slf4j.Logger;
@@ -48,6 +53,7 @@
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
 
 /**
  * Implementation of patient data based on the XWiki data model, where patient data is represented by properties in
@@ -71,6 +77,12 @@ public class PhenoTipsPatient extends AbstractPrimaryEntity implements Patient
     /** This is the name sent from the All Patients' JSON export field selection UI. */
     protected static final String PARAM_KEY_REFERRER = "referrer";
 
+    /**
+     * Values that look like vocabulary term identifiers, for example {@code HP:0002066}; the prefix must also be a
+     * known vocabulary, since document references and URLs have the same form.
+     */
+    private static final Pattern TERM_ID_PATTERN = Pattern.compile("^([A-Za-z][\\w-]*):\\S+$");
+
     /** Logging helper object. */
     private Logger logger = LoggerFactory.getLogger(PhenoTipsPatient.class);
 
@@ -80,6 +92,9 @@ public class PhenoTipsPatient extends AbstractPrimaryEntity implements Patient
     /** Extra data that can be plugged into the patient record. */
     private Map<String, PatientData<?>> extraData = new TreeMap<>();
 
+    /** Whether the vocabulary terms referenced in this record were already fetched. */
+    private boolean termsPrefetched;
+
     /**
      * Constructor that copies the data from an XDocument.
      *
@@ -134,6 +149,62 @@ private void readPatientData(String name)
         }
     }
 
+    /**
+     * Fetches all the vocabulary terms referenced in this record at once, before the data controllers resolve them one
+     * by one, so that they will be served from the vocabularies' caches instead of requiring a lookup for each term.
+     * This is only done when all the data is serialized; accessing just one type of data, for example the identifiers,
+     * shouldn't trigger lookups for all the terms in the record.
+     */
+    private void prefetchTerms()
+    {
+        if (this.termsPrefetched) {
+            return;
+        }
+        this.termsPrefetched = true;
+        VocabularyManager vocabularyManager;
+        try {
+            vocabularyManager =
+                ComponentManagerRegistry.getContextComponentManager().getInstance(VocabularyManager.class);
+        } catch (ComponentLookupException ex) {
+            this.logger.debug("Vocabularies not available, terms not prefetched");
+            return;
+        }
+        Set<String> termIds = new LinkedHashSet<>();
+        Map<String, Boolean> knownPrefixes = new HashMap<>();
+        for (List<BaseObject> objects : this.document.getXObjects().values()) {
+            for (BaseObject object : objects) {
+                if (object == null) {
+                    continue;
+                }
+                for (Object field : object.getFieldList()) {
+                    if (field instanceof BaseProperty) {
+                        collectTermIds(((BaseProperty<?>) field).getValue(), termIds, knownPrefixes,
+                            vocabularyManager);
+                    }
+                }
+            }
+        }
+        if (!termIds.isEmpty()) {
+            vocabularyManager.resolveTerms(termIds);
+        }
+    }
+
+    private void collectTermIds(Object value, Set<String> termIds, Map<String, Boolean> knownPrefixes,
+        VocabularyManager vocabularyManager)
+    {
+        if (value instanceof String) {
+            Matcher termId = TERM_ID_PATTERN.matcher((String) value);
+            if (termId.matches()
+                && knownPrefixes.computeIfAbsent(termId.group(1), vocabularyManager::hasVocabulary)) {
+                termIds.add((String) value);
+            }
+        } else if (value instanceof Collection) {
+            for (Object item : (Collection<?>) value) {
+                collectTermIds(item, termIds, knownPrefixes, vocabularyManager);
+            }
+        }
+    }
+
     private boolean isFieldIncluded(Collection<String> selectedFields, String fieldName)
     {
         return (selectedFields == null || selectedFields.contains(fieldName));
@@ -215,6 +286,7 @@ public JSONObject toJSON(Collection<String> selectedFields)
             result.put(JSON_KEY_REPORTER, getReporter().getName());
         }
 
+        prefetchTerms();
         for (PatientDataController<?> serializer : this.serializers.values()) {
             serializer.writeJSON(this, result, selectedFields);
         }
@@ -238,32 +310,11 @@ public void updateFromJSON(JSONObject json, PatientWritePolicy policy)
         try {
             // TODO: Check versions and throw if versions mismatch if necessary
 
-            XWikiContext context = getXContext();
-
-            BaseObject data = this.document.getXObject(CLASS_REFERENCE);
-            if (data == null) {
+            if (!updateData(json, policy, false)) {
                 return;
             }
 
-            for (PatientDataController<?> serializer : this.serializers.values()) {
-                try {
-                    PatientData<?> patientData = serializer.readJSON(json);
-                    if (patientData != null || PatientWritePolicy.REPLACE.equals(policy)) {
-                        this.extraData.put(patientData != null ? patientData.getName() : serializer.getName(),
-                            patientData);
-                        serializer.save(this, policy);
-                        this.logger.info("Successfully updated patient form JSON using serializer [{}]",
-                            serializer.getName());
-                    }
-                } catch (UnsupportedOperationException ex) {
-                    this.logger.debug("Unable to update patient from JSON using serializer [{}]: not supported",
-                        serializer.getName());
-                } catch (Exception ex) {
-                    this.logger.error("Failed to update patient data from JSON using serializer [{}]: {}",
-                        serializer.getName(), ex.getMessage(), ex);
-                }
-            }
-
+            XWikiContext context = getXContext();
             this.document.setAuthorReference(context.getUserReference());
             context.getWiki().saveDocument(this.document, "Updated from JSON", true, context);
         } catch (Exception ex) {
@@ -271,6 +322,56 @@ public void updateFromJSON(JSONObject json, PatientWritePolicy policy)
         }
     }
 
+    @Override
+    public void applyJSON(JSONObject json, PatientWritePolicy policy)
+    {
+        if (json.length() > 0) {
+            updateData(json, policy, true);
+        }
+    }
+
+    /**
+     * Updates the patient document in memory using all the serializers able to read the provided JSON.
+     *
+     * @param json JSON object containing patient data
+     * @param policy the {@link PatientWritePolicy} according to which the patient should be updated
+     * @param strict if {@code true}, a failing serializer stops the update with an exception, otherwise the failure is
+     *            logged and the other serializers are still used
+     * @return {@code false} if the document doesn't hold patient data, {@code true} otherwise
+     * @throws IllegalStateException if a serializer fails in strict mode
+     */
+    private boolean updateData(JSONObject json, PatientWritePolicy policy, boolean strict)
+    {
+        BaseObject data = this.document.getXObject(CLASS_REFERENCE);
+        if (data == null) {
+            return false;
+        }
+
+        for (PatientDataController<?> serializer : this.serializers.values()) {
+            try {
+                PatientData<?> patientData = serializer.readJSON(json);
+                if (patientData != null || PatientWritePolicy.REPLACE.equals(policy)) {
+                    this.extraData.put(patientData != null ? patientData.getName() : serializer.getName(),
+                        patientData);
+                    serializer.save(this, policy);
+                    this.logger.info("Successfully updated patient form JSON using serializer [{}]",
+                        serializer.getName());
+                }
+            } catch (UnsupportedOperationException ex) {
+                this.logger.debug("Unable to update patient from JSON using serializer [{}]: not supported",
+                    serializer.getName());
+            } catch (Exception ex) {
+                if (strict) {
+                    throw new IllegalStateException("Failed to update patient data from JSON using serializer ["
+                        + serializer.getName() + "]: " + ex.getMessage(), ex);
+                }
+                this.logger.error("Failed to update patient data from JSON using serializer [{}]: {}",
+                    serializer.getName(), ex.getMessage(), ex);
+            }
+        }
+        return true;
+    }
+
     @Override
     public String toString()
     {
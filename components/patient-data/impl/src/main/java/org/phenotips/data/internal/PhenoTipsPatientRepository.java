@@ -115,24 +115,14 @@ public synchronized Patient create(DocumentReference creator)
             XWikiContext context = this.xcontextProvider.get();
             Patient patient = super.create(creator);
             XWikiDocument doc = patient.getXDocument();
-            doc.getXObject(Patient.CLASS_REFERENCE).setLongValue("identifier",
-                Integer.parseInt(patient.getId().replaceAll("\\D++", "")));
+            setIdentifier(patient);
             if (creator != null) {
                 doc.setCreatorReference(creator);
                 doc.setAuthorReference(creator);
                 doc.setContentAuthorReference(creator);
             }
             context.getWiki().saveDocument(doc, context);
-            for (PatientRecordInitializer initializer : this.initializers.get()) {
-                try {
-                    initializer.initialize(patient);
-                } catch (Exception ex) {
-                    // Initializers shouldn't block the creation of a new patient, especially since the new patient
-                    // has already been saved...
-                    this.logger.warn("Patient initializer [{}] failed: {}", initializer.getClass().getName(),
-                        ex.getMessage(), ex);
-                }
-            }
+            runInitializers(patient);
             return patient;
         } catch (Exception ex) {
             this.logger.warn("Failed to create patient: {}", ex.getMessage(), ex);
@@ -140,6 +130,21 @@ public synchronized Patient create(DocumentReference creator)
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The numeric identifier is set and the {@link PatientRecordInitializer initializers} are run before the provided
+     * data is applied, as when an empty patient is created and then updated, so that the data can override any default
+     * values set by the initializers.
+     * </p>
+     */
+    @Override
+    protected void initializeNewEntity(Patient patient)
+    {
+        setIdentifier(patient);
+        runInitializers(patient);
+    }
+
     @Override
     public boolean deletePatient(String id)
     {
@@ -151,6 +156,25 @@ public boolean deletePatient(String id)
         return this.delete(patient);
     }
 
+    private void setIdentifier(Patient patient)
+    {
+        patient.getXDocument().getXObject(Patient.CLASS_REFERENCE).setLongValue("identifier",
+            Integer.parseInt(patient.getId().replaceAll("\\D++", "")));
+    }
+
+    private void runInitializers(Patient patient)
+    {
+        for (PatientRecordInitializer initializer : this.initializers.get()) {
+            try {
+                initializer.initialize(patient);
+            } catch (Exception ex) {
+                // Initializers shouldn't block the creation of a new patient
+                this.logger.warn("Patient initializer [{}] failed: {}", initializer.getClass().getName(),
+                    ex.getMessage(), ex);
+            }
+        }
+    }
+
     @Override
     protected long getLastUsedId()
     {
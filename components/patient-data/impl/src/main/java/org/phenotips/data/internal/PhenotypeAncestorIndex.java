@@ -0,0 +1,106 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import org.xwiki.component.annotation.Component;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import javax.inject.Singleton;
+
+/**
+ * In-memory index of the ancestors of phenotype terms, so that computing the extended phenotypes of a patient doesn't
+ * have to look up and walk the vocabulary again for terms already seen. Only the identifiers of the ancestors are kept.
+ * The index is {@link #clear() cleared} whenever a vocabulary is updated.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Component(roles = { PhenotypeAncestorIndex.class })
+@Singleton
+public class PhenotypeAncestorIndex
+{
+    /** The maximum number of indexed terms; larger than the number of phenotypes in HPO. */
+    private static final int MAX_SIZE = 50000;
+
+    /** The identifiers of the ancestors of each term, including the term itself. */
+    private final ConcurrentMap<String, Set<String>> ancestors = new ConcurrentHashMap<>();
+
+    /**
+     * Lists the ancestors of several terms, resolving in one batch the terms that aren't indexed yet.
+     *
+     * @param termIds the identifiers of the terms of interest
+     * @param resolver resolves, in one batch, the terms that aren't indexed yet
+     * @return the identifiers of the ancestors of each requested term, including the term itself; unknown terms only
+     *         have themselves as ancestors
+     */
+    public Map<String, Set<String>> getAncestorsAndSelf(Collection<String> termIds,
+        Function<Collection<String>, Map<String, VocabularyTerm>> resolver)
+    {
+        Map<String, Set<String>> result = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        for (String termId : termIds) {
+            Set<String> termAncestors = this.ancestors.get(termId);
+            if (termAncestors != null) {
+                result.put(termId, termAncestors);
+            } else {
+                missing.add(termId);
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+
+        Map<String, VocabularyTerm> resolved = resolver.apply(missing);
+        if (this.ancestors.size() + missing.size() > MAX_SIZE) {
+            this.ancestors.clear();
+        }
+        for (String termId : missing) {
+            VocabularyTerm term = resolved.get(termId);
+            if (term == null) {
+                // Free text or an unavailable vocabulary, don't remember it
+                result.put(termId, Collections.singleton(termId));
+                continue;
+            }
+            Set<String> termAncestors = new LinkedHashSet<>();
+            for (VocabularyTerm ancestor : term.getAncestorsAndSelf()) {
+                termAncestors.add(ancestor.getId());
+            }
+            termAncestors = Collections.unmodifiableSet(termAncestors);
+            this.ancestors.put(termId, termAncestors);
+            result.put(termId, termAncestors);
+        }
+        return result;
+    }
+
+    /** Forgets all the indexed terms. */
+    public void clear()
+    {
+        this.ancestors.clear();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.spi.PatientSaveContext;
+import org.phenotips.vocabulary.VocabularyManager;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Resolves the phenotype terms needed by the {@link org.phenotips.data.spi.PatientSaveStage save stages}, sharing the
+ * resolved terms between stages, so that each identifier is looked up at most once while saving a patient record.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+final class PhenotypeTermsResolver
+{
+    /** The names of the patient properties holding phenotype identifiers. */
+    static final List<String> PHENOTYPE_PROPERTIES = Collections.unmodifiableList(Arrays.asList("phenotype",
+        "extended_phenotype", "negative_phenotype", "extended_negative_phenotype", "prenatal_phenotype",
+        "extended_prenatal_phenotype", "negative_prenatal_phenotype", "extended_negative_prenatal_phenotype"));
+
+    /** The key under which the resolved terms are stored in the save context. */
+    private static final String KEY = "phenotypeTerms";
+
+    private PhenotypeTermsResolver()
+    {
+        // Utility class, no instances
+    }
+
+    /**
+     * Resolves phenotype terms, in one batch for all the identifiers that weren't already requested by a previous
+     * stage. Since identifiers may be updated by a stage, the terms are available both under the requested identifier,
+     * and under their current identifier.
+     *
+     * @param context the record being saved
+     * @param vocabularyManager used for resolving the terms
+     * @param termIds the identifiers to resolve
+     * @return all the terms resolved so far while saving this record, keyed by identifier; unknown terms are not
+     *         included
+     */
+    static Map<String, VocabularyTerm> getTerms(PatientSaveContext context, VocabularyManager vocabularyManager,
+        Collection<String> termIds)
+    {
+        ResolvedTerms resolved = context.computeIfAbsent(KEY, ResolvedTerms::new);
+        Set<String> missing = new LinkedHashSet<>(termIds);
+        missing.removeAll(resolved.requested);
+        if (!missing.isEmpty()) {
+            resolved.requested.addAll(missing);
+            for (Map.Entry<String, VocabularyTerm> term : vocabularyManager.resolveTerms(missing).entrySet()) {
+                resolved.terms.put(term.getKey(), term.getValue());
+                if (term.getValue().getId() != null) {
+                    resolved.terms.putIfAbsent(term.getValue().getId(), term.getValue());
+                }
+            }
+        }
+        return Collections.unmodifiableMap(resolved.terms);
+    }
+
+    /**
+     * Lists the phenotype identifiers of a property which weren't present in the previously saved version of the
+     * record.
+     *
+     * @param context the record being saved
+     * @param property the name of the property to check
+     * @return the new identifiers, or all the current identifiers if this is a new record; may be empty
+     */
+    static Set<String> getAddedTerms(PatientSaveContext context, String property)
+    {
+        Set<String> result = new LinkedHashSet<>(getValues(context.getPatientObject(), property));
+        result.removeAll(getValues(context.getPreviousPatientObject(), property));
+        return result;
+    }
+
+    /**
+     * Reads the identifiers stored in a property.
+     *
+     * @param object the object to read from, may be {@code null}
+     * @param property the name of the property to read
+     * @return the stored identifiers, may be empty
+     */
+    @SuppressWarnings("unchecked")
+    static List<String> getValues(BaseObject object, String property)
+    {
+        return object == null ? Collections.<String>emptyList() : object.getListValue(property);
+    }
+
+    /** The terms resolved while saving a record. */
+    private static final class ResolvedTerms
+    {
+        private final Set<String> requested = new HashSet<>();
+
+        private final Map<String, VocabularyTerm> terms = new HashMap<>();
+    }
+}
@@ -93,6 +93,18 @@ public void updateFromJSON(JSONObject json, PatientWritePolicy policy)
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Disallow updates for read-only patients.
+     *
+     * @param json a JSON object
+     * @param policy the policy according to which the patient should be updated
+     */
+    @Override
+    public void applyJSON(JSONObject json, PatientWritePolicy policy)
+    {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public String getExternalId()
     {
@@ -39,6 +39,8 @@
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.json.JSONObject;
+
 /**
  * Secure implementation of patient data access service using XWiki as the storage backend.
  *
@@ -83,6 +85,14 @@ public Patient create(DocumentReference creator)
         return create(this.userManager.getUser(this.serializer.serialize(creator)));
     }
 
+    @Override
+    public Patient create(JSONObject data, DocumentReference creator)
+    {
+        User user = this.userManager.getUser(this.serializer.serialize(creator));
+        checkCreateAccess(user);
+        return createSecurePatient(this.internalService.create(data, user != null ? user.getProfileDocument() : null));
+    }
+
     @Override
     public Patient get(String id)
     {
@@ -136,12 +146,17 @@ public Patient load(DocumentModelBridge document) throws IllegalArgumentExceptio
      */
     private Patient create(User creator)
     {
-        if (this.access.hasAccess(creator, Right.EDIT,
+        checkCreateAccess(creator);
+        Patient patient = this.internalService.create(creator != null ? creator.getProfileDocument() : null);
+        return createSecurePatient(patient);
+    }
+
+    private void checkCreateAccess(User creator)
+    {
+        if (!this.access.hasAccess(creator, Right.EDIT,
             this.currentResolver.resolve(Patient.DEFAULT_DATA_SPACE, EntityType.SPACE))) {
-            Patient patient = this.internalService.create(creator != null ? creator.getProfileDocument() : null);
-            return createSecurePatient(patient);
+            throw new SecurityException("User not authorized to create new patients");
         }
-        throw new SecurityException("User not authorized to create new patients");
     }
 
     /**
@@ -18,25 +18,18 @@
 package org.phenotips.data.internal;
 
 import org.phenotips.Constants;
-import org.phenotips.data.events.PatientChangingEvent;
+import org.phenotips.data.spi.PatientSaveContext;
+import org.phenotips.data.spi.PatientSaveStage;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.EntityReference;
-import org.xwiki.observation.AbstractEventListener;
-import org.xwiki.observation.event.Event;
-
-import java.util.List;
-import java.util.Objects;
 
 import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.apache.commons.lang3.StringUtils;
 
-import com.xpn.xwiki.doc.XWikiDocument;
-import com.xpn.xwiki.objects.BaseObject;
-
 /**
  * Cleans up leading and trailing spaces and ensures the prefix "c." is lowercase in variants' cDNA field.
  *
@@ -46,32 +39,29 @@
 @Component
 @Named("cdna-cleanup-event-listener")
 @Singleton
-public class VariantCdnaCleanupEventListener extends AbstractEventListener
+public class VariantCdnaCleanupEventListener implements PatientSaveStage
 {
     private static final EntityReference VARIANT_CLASS_REFERENCE = new EntityReference("GeneVariantClass",
         EntityType.DOCUMENT, Constants.CODE_SPACE_REFERENCE);
 
     private static final String VARIANT_KEY = "cdna";
 
-    /**
-     * Default constructor, sets up the listener name and the list of events to subscribe to.
-     */
-    public VariantCdnaCleanupEventListener()
+    @Override
+    public int getPriority()
     {
-        super("cdna-cleanup-event-listener", new PatientChangingEvent());
+        return 400;
     }
 
     @Override
-    public void onEvent(Event event, Object source, Object data)
+    public boolean isAffected(PatientSaveContext context)
     {
-        XWikiDocument doc = (XWikiDocument) source;
-        List<BaseObject> variantXWikiObjects = doc.getXObjects(VARIANT_CLASS_REFERENCE);
-
-        if (variantXWikiObjects == null || variantXWikiObjects.isEmpty()) {
-            return;
-        }
+        return context.hasChanged(VARIANT_CLASS_REFERENCE);
+    }
 
-        variantXWikiObjects.stream().filter(Objects::nonNull)
+    @Override
+    public void process(PatientSaveContext context)
+    {
+        context.getObjects(VARIANT_CLASS_REFERENCE).stream()
             .filter(variant -> !StringUtils.isBlank(variant.getStringValue(VARIANT_KEY)))
             .forEach(variant -> {
                 String cdna = variant.getStringValue(VARIANT_KEY).trim().replaceFirst("^C\\.", "c.");
@@ -33,6 +33,8 @@
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -81,6 +83,9 @@
     @Inject
     private Provider<XWikiContext> contextProvider;
 
+    /** How each property is handled, computed once from the controller's field lists. */
+    private volatile FieldTable fieldTable;
+
     @Override
     @SuppressWarnings("unchecked")
     public PatientData<T> load(Patient patient)
@@ -92,13 +97,14 @@ public PatientData<T> load(Patient patient)
                 return null;
             }
             Map<String, T> result = new LinkedHashMap<>();
-            for (String propertyName : getProperties()) {
+            for (Field property : getFields().values()) {
+                String propertyName = property.name;
                 BaseProperty<ObjectPropertyReference> field =
                     (BaseProperty<ObjectPropertyReference>) data.getField(propertyName);
                 if (field != null) {
                     Object propertyValue = field.getValue();
                     /* If the controller only works with codes, store the Vocabulary Instances rather than Strings */
-                    if (getCodeFields().contains(propertyName) && isCodeFieldsOnly()) {
+                    if (property.type == FieldType.TERMS) {
                         List<VocabularyProperty> propertyValuesList = new LinkedList<>();
                         List<String> terms = (List<String>) propertyValue;
                         for (String termId : terms) {
@@ -132,8 +138,9 @@ public void writeJSON(Patient patient, JSONObject json, Collection<String> selec
         while (iterator.hasNext()) {
             Map.Entry<String, T> item = iterator.next();
             String itemKey = item.getKey();
-            Object formattedValue = format(itemKey, item.getValue());
-            if (selectedFieldNames == null || selectedFieldNames.contains(getControllingFieldName(item.getKey()))) {
+            Field field = getField(itemKey);
+            if (selectedFieldNames == null || selectedFieldNames.contains(field.controllingField)) {
+                Object formattedValue = format(field, item.getValue());
                 if (container == null) {
                     // put() is placed here because we want to create the property iff at least one field is set/enabled
                     json.put(jsonPropertyName, new JSONObject());
@@ -144,6 +151,45 @@ public void writeJSON(Patient patient, JSONObject json, Collection<String> selec
         }
     }
 
+    /**
+     * Lists the properties managed by this controller, along with how each one must be handled. This is computed only
+     * once, since the field lists and the data type of a controller don't change.
+     *
+     * @return an ordered, unmodifiable map from property names to their descriptors, in the order returned by
+     *         {@link #getProperties()}
+     */
+    private Map<String, Field> getFields()
+    {
+        return getFieldTable().fields;
+    }
+
+    /**
+     * Finds the descriptor of a property, which may also be a property not listed in {@link #getProperties()} if the
+     * data was created programmatically.
+     *
+     * @param property the name of the property
+     * @return the property descriptor
+     */
+    private Field getField(String property)
+    {
+        FieldTable table = getFieldTable();
+        Field result = table.fields.get(property);
+        if (result == null) {
+            result = table.createField(property);
+        }
+        return result;
+    }
+
+    private FieldTable getFieldTable()
+    {
+        FieldTable result = this.fieldTable;
+        if (result == null) {
+            result = new FieldTable();
+            this.fieldTable = result;
+        }
+        return result;
+    }
+
     /**
      * @return name of controlling field which is responsible for export fields grouping
      */
@@ -183,19 +229,19 @@ protected boolean isCodeFieldsOnly()
     /**
      * Checks if a the value needs to be formatted and then calls the appropriate function.
      *
-     * @param key the key under which the value will be stored in JSON
+     * @param field the descriptor of the property being serialized
      * @param value the value which possibly needs to be formatted
      * @return the formatted object or the original value
      */
     @SuppressWarnings("unchecked")
-    private Object format(String key, Object value)
+    private Object format(Field field, Object value)
     {
         if (value == null || "Unknown".equals(value)) {
             return JSONObject.NULL;
         }
-        if (getBooleanFields().contains(key)) {
+        if (field.type == FieldType.BOOLEAN) {
             return booleanConvert(value.toString());
-        } else if (getCodeFields().contains(key)) {
+        } else if (field.type.isCode()) {
             return codeToHumanReadable((List<T>) value);
         } else {
             return value;
@@ -203,13 +249,13 @@ private Object format(String key, Object value)
     }
 
     /** For converting JSON into internal representation. */
-    private Object inverseFormat(String key, Object value)
+    private Object inverseFormat(Field field, Object value)
     {
         if (value != null && !value.equals(null)) {
             try {
-                if (this.getBooleanFields().contains(key)) {
+                if (field.type == FieldType.BOOLEAN) {
                     return value;
-                } else if (this.getCodeFields().contains(key)) {
+                } else if (field.type.isCode()) {
                     LinkedList<VocabularyProperty> terms = new LinkedList<>();
                     for (Object termJson : (JSONArray) value) {
                         VocabularyProperty term = new QuickVocabularyProperty((JSONObject) termJson);
@@ -317,7 +363,7 @@ public void save(@Nonnull final Patient patient, @Nonnull final PatientWritePoli
             final PatientData<T> data = patient.getData(this.getName());
             if (data == null) {
                 if (PatientWritePolicy.REPLACE.equals(policy)) {
-                    getProperties().forEach(propertyName -> dataHolder.set(propertyName, null, context));
+                    getFields().keySet().forEach(propertyName -> dataHolder.set(propertyName, null, context));
                 }
             } else {
                 if (!data.isNamed()) {
@@ -357,29 +403,30 @@ private void saveControllerData(
             propertyFilter = PatientWritePolicy.REPLACE.equals(policy) ? p -> true : data::containsKey;
             storedData = null;
         }
-        getProperties().stream()
-            .filter(propertyFilter)
-            .forEach(property -> saveDataForProperty(property, dataHolder, data, storedData, context));
+        getFields().values().stream()
+            .filter(field -> propertyFilter.test(field.name))
+            .forEach(field -> saveDataForProperty(field, dataHolder, data, storedData, context));
     }
 
     /**
      * Saves the data provided for some property.
      *
-     * @param propertyName the name of the property of interest
+     * @param field the descriptor of the property of interest
      * @param dataHolder the {@link BaseObject}
      * @param data the new {@link PatientData} to store
      * @param storedData the {@link PatientData} already stored in patient
      * @param context the {@link XWikiContext} object
      */
     private void saveDataForProperty(
-        @Nonnull final String propertyName,
+        @Nonnull final Field field,
         @Nonnull final BaseObject dataHolder,
         @Nonnull final PatientData<T> data,
         @Nullable final PatientData<T> storedData,
         @Nonnull final XWikiContext context)
     {
+        final String propertyName = field.name;
         final Object propertyValue = data.get(propertyName);
-        if (getCodeFields().contains(propertyName) && isCodeFieldsOnly()) {
+        if (field.type == FieldType.TERMS) {
             final Object storedPropertyValue = storedData != null ? storedData.get(propertyName) : null;
             @SuppressWarnings("unchecked")
             final List<VocabularyProperty> storedTerms = (List<VocabularyProperty>) storedPropertyValue;
@@ -443,11 +490,11 @@ public PatientData<T> readJSON(JSONObject json)
         if (container == null) {
             return null;
         }
-        for (String propertyName : getProperties()) {
-            if (container.has(propertyName)) {
+        for (Field field : getFields().values()) {
+            if (container.has(field.name)) {
                 @SuppressWarnings("unchecked")
-                T value = (T) this.inverseFormat(propertyName, container.get(propertyName));
-                result.put(propertyName, value);
+                T value = (T) this.inverseFormat(field, container.get(field.name));
+                result.put(field.name, value);
             }
         }
         return new DictionaryPatientData<>(getName(), result);
@@ -470,6 +517,76 @@ protected EntityReference getXClassReference()
         return Patient.CLASS_REFERENCE;
     }
 
+    /** The different ways in which a property is converted to and from JSON and XObject values. */
+    private enum FieldType
+    {
+        /** Stored and serialized as is. */
+        PLAIN,
+        /** Stored as {@code 0} or {@code 1}, serialized as a boolean. */
+        BOOLEAN,
+        /** A list of vocabulary codes, stored as strings and serialized as labeled terms. */
+        CODES,
+        /** A list of vocabulary codes, held in memory as {@link VocabularyProperty} objects. */
+        TERMS;
+
+        boolean isCode()
+        {
+            return this == CODES || this == TERMS;
+        }
+    }
+
+    /** Describes how a property managed by this controller is handled. */
+    private static final class Field
+    {
+        /** The name of the property, also used as the key in the JSON. */
+        private final String name;
+
+        private final FieldType type;
+
+        /** The name of the field which controls whether this property is exported. */
+        private final String controllingField;
+
+        Field(String name, FieldType type, String controllingField)
+        {
+            this.name = name;
+            this.type = type;
+            this.controllingField = controllingField;
+        }
+    }
+
+    /** The descriptors of the properties managed by this controller, and the field lists they were built from. */
+    private final class FieldTable
+    {
+        private final Set<String> booleanFields = new HashSet<>(getBooleanFields());
+
+        private final Set<String> codeFields = new HashSet<>(getCodeFields());
+
+        private final boolean codeFieldsOnly = isCodeFieldsOnly();
+
+        /** Descriptors of the properties listed in {@link #getProperties()}, in that order. */
+        private final Map<String, Field> fields;
+
+        FieldTable()
+        {
+            Map<String, Field> result = new LinkedHashMap<>();
+            for (String property : getProperties()) {
+                result.put(property, createField(property));
+            }
+            this.fields = Collections.unmodifiableMap(result);
+        }
+
+        Field createField(String property)
+        {
+            FieldType type = FieldType.PLAIN;
+            if (this.booleanFields.contains(property)) {
+                type = FieldType.BOOLEAN;
+            } else if (this.codeFields.contains(property)) {
+                type = this.codeFieldsOnly ? FieldType.TERMS : FieldType.CODES;
+            }
+            return new Field(property, type, getControllingFieldName(property));
+        }
+    }
+
     /**
      * There exists no class currently that would be able to covert a vocabulary code into a human readable format given
      * only a code string. Considering that there is a need for such functionality, there are 3 options: copy the code
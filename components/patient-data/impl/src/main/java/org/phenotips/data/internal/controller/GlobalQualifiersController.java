@@ -101,19 +101,32 @@ public PatientData<List<VocabularyTerm>> load(Patient patient)
             if (data == null) {
                 return null;
             }
-            Map<String, List<VocabularyTerm>> result = new LinkedHashMap<>();
+            Map<String, List<String>> termIds = new LinkedHashMap<>();
             for (String propertyName : getProperties()) {
                 PropertyInterface propertyValue = data.get(propertyName);
-                List<VocabularyTerm> holder = new LinkedList<>();
+                List<String> ids = new LinkedList<>();
                 if (propertyValue instanceof StringProperty) {
-                    String propertyValueString = ((StringProperty) propertyValue).getValue();
-                    addTerms(propertyValueString, holder);
+                    addTermId(((StringProperty) propertyValue).getValue(), ids);
                 } else if (propertyValue instanceof ListProperty) {
                     for (String item : ((ListProperty) propertyValue).getList()) {
-                        addTerms(item, holder);
+                        addTermId(item, ids);
                     }
                 }
-                result.put(propertyName, holder);
+                termIds.put(propertyName, ids);
+            }
+            // Resolve the terms for all the properties at once
+            Map<String, VocabularyTerm> terms = this.vocabularyManager.resolveTerms(
+                termIds.values().stream().flatMap(List::stream).collect(Collectors.toList()));
+            Map<String, List<VocabularyTerm>> result = new LinkedHashMap<>();
+            for (Entry<String, List<String>> property : termIds.entrySet()) {
+                List<VocabularyTerm> holder = new LinkedList<>();
+                for (String termId : property.getValue()) {
+                    VocabularyTerm term = terms.get(termId);
+                    if (term != null) {
+                        holder.add(term);
+                    }
+                }
+                result.put(property.getKey(), holder);
             }
             return new DictionaryPatientData<>(DATA_NAME, result);
         } catch (Exception e) {
@@ -329,16 +342,20 @@ public PatientData<List<VocabularyTerm>> readJSON(JSONObject json)
             for (String property : this.getProperties()) {
                 JSONArray elements = json.optJSONArray(property);
                 if (elements != null) {
-                    List<VocabularyTerm> propertyTerms = new LinkedList<>();
+                    List<String> termIds = new LinkedList<>();
                     Iterator<Object> elementsIterator = elements.iterator();
                     while (elementsIterator.hasNext()) {
                         JSONObject element = (JSONObject) elementsIterator.next();
                         String termId = element.optString(ID_NAME);
                         if (termId != null) {
-                            VocabularyTerm term = this.vocabularyManager.resolveTerm(termId);
-                            propertyTerms.add(term);
+                            termIds.add(termId);
                         }
                     }
+                    Map<String, VocabularyTerm> terms = this.vocabularyManager.resolveTerms(termIds);
+                    List<VocabularyTerm> propertyTerms = new LinkedList<>();
+                    for (String termId : termIds) {
+                        propertyTerms.add(terms.get(termId));
+                    }
                     result.put(property, propertyTerms);
                 } else {
                     result.put(property, null);
@@ -362,13 +379,10 @@ protected List<String> getProperties()
         return Arrays.asList("global_age_of_onset", "global_mode_of_inheritance");
     }
 
-    private void addTerms(String item, List<VocabularyTerm> holder)
+    private void addTermId(String item, List<String> holder)
     {
         if (StringUtils.isNotBlank(item)) {
-            VocabularyTerm term = this.vocabularyManager.resolveTerm(item);
-            if (term != null) {
-                holder.add(term);
-            }
+            holder.add(item);
         }
     }
 }
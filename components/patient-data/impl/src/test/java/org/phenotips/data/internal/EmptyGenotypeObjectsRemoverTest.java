@@ -19,11 +19,12 @@
 
 import org.phenotips.Constants;
 import org.phenotips.data.Gene;
+import org.phenotips.data.spi.PatientSaveContext;
+import org.phenotips.data.spi.PatientSaveStage;
 
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.EntityReference;
-import org.xwiki.observation.EventListener;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import java.util.Arrays;
@@ -58,7 +59,7 @@
     private static final String VARIANT_KEY = "cdna";
 
     @Rule
-    public MockitoComponentMockingRule<EventListener> mocker =
+    public MockitoComponentMockingRule<PatientSaveStage> mocker =
         new MockitoComponentMockingRule<>(EmptyGenotypeObjectsRemover.class);
 
     @Mock
@@ -95,7 +96,7 @@ public void emptyGenesRemovedTest() throws XWikiException
         when(this.gene1.getStringValue(GENE_KEY)).thenReturn("");
         when(this.gene2.getStringValue(GENE_KEY)).thenReturn("BRCA1");
 
-        this.patientEmptyObjectsRemover.onEvent(null, this.xWikiDocument, null);
+        this.patientEmptyObjectsRemover.process(new PatientSaveContext(null, this.xWikiDocument, this.context));
 
         verify(this.xWikiDocument).removeXObject(this.gene1);
         verify(this.xWikiDocument, Mockito.never()).removeXObject(this.gene2);
@@ -109,7 +110,7 @@ public void nullGeneObjectsAreIgnored() throws XWikiException
         when(this.gene1.getStringValue(GENE_KEY)).thenReturn("BRCA1");
         when(this.gene2.getStringValue(GENE_KEY)).thenReturn("");
 
-        this.patientEmptyObjectsRemover.onEvent(null, this.xWikiDocument, null);
+        this.patientEmptyObjectsRemover.process(new PatientSaveContext(null, this.xWikiDocument, this.context));
 
         verify(this.xWikiDocument, never()).removeXObject(this.gene1);
         verify(this.xWikiDocument).removeXObject(this.gene2);
@@ -121,7 +122,7 @@ public void ignoresEmptyDocuments() throws XWikiException
         when(this.xWikiDocument.getXObjects(Gene.GENE_CLASS)).thenReturn(Collections.emptyList());
         when(this.xWikiDocument.getXObjects(VARIANT_CLASS_REFERENCE)).thenReturn(Collections.emptyList());
 
-        this.patientEmptyObjectsRemover.onEvent(null, this.xWikiDocument, null);
+        this.patientEmptyObjectsRemover.process(new PatientSaveContext(null, this.xWikiDocument, this.context));
 
         verify(this.xWikiDocument, never()).removeXObject((BaseObject) anyObject());
     }
@@ -133,7 +134,7 @@ public void noGenesDeletesAllVariants()
         when(this.xWikiDocument.getXObjects(VARIANT_CLASS_REFERENCE))
             .thenReturn(Arrays.asList(this.variant1, this.variant2));
 
-        this.patientEmptyObjectsRemover.onEvent(null, this.xWikiDocument, null);
+        this.patientEmptyObjectsRemover.process(new PatientSaveContext(null, this.xWikiDocument, this.context));
 
         verify(this.xWikiDocument).removeXObjects(VARIANT_CLASS_REFERENCE);
     }
@@ -145,7 +146,7 @@ public void emptyGenesDeletesAllVariants()
         when(this.xWikiDocument.getXObjects(VARIANT_CLASS_REFERENCE))
             .thenReturn(Arrays.asList(this.variant1, this.variant2));
 
-        this.patientEmptyObjectsRemover.onEvent(null, this.xWikiDocument, null);
+        this.patientEmptyObjectsRemover.process(new PatientSaveContext(null, this.xWikiDocument, this.context));
 
         verify(this.xWikiDocument).removeXObjects(VARIANT_CLASS_REFERENCE);
     }
@@ -160,7 +161,7 @@ public void emptyVariantsAreRemoved()
         when(this.variant1.getStringValue(VARIANT_KEY)).thenReturn("cdna");
         when(this.variant2.getStringValue(VARIANT_KEY)).thenReturn("");
 
-        this.patientEmptyObjectsRemover.onEvent(null, this.xWikiDocument, null);
+        this.patientEmptyObjectsRemover.process(new PatientSaveContext(null, this.xWikiDocument, this.context));
 
         verify(this.xWikiDocument, never()).removeXObject(this.variant1);
         verify(this.xWikiDocument).removeXObject(this.variant2);
@@ -179,7 +180,7 @@ public void variantsForUnsetGenesAreRemoved()
         when(this.variant2.getStringValue(GENE_KEY)).thenReturn("BRCA3");
         when(this.variant2.getStringValue(VARIANT_KEY)).thenReturn("cdna");
 
-        this.patientEmptyObjectsRemover.onEvent(null, this.xWikiDocument, null);
+        this.patientEmptyObjectsRemover.process(new PatientSaveContext(null, this.xWikiDocument, this.context));
 
         verify(this.xWikiDocument, never()).removeXObject(this.variant1);
         verify(this.xWikiDocument).removeXObject(this.variant2);
@@ -195,7 +196,7 @@ public void nullVariantObjectsAreIgnored()
         when(this.variant1.getStringValue(VARIANT_KEY)).thenReturn("cdna");
         when(this.variant2.getStringValue(VARIANT_KEY)).thenReturn("");
 
-        this.patientEmptyObjectsRemover.onEvent(null, this.xWikiDocument, null);
+        this.patientEmptyObjectsRemover.process(new PatientSaveContext(null, this.xWikiDocument, this.context));
 
         verify(this.xWikiDocument, never()).removeXObject(this.variant1);
         verify(this.xWikiDocument).removeXObject(this.variant2);
@@ -18,11 +18,10 @@
 package org.phenotips.data.internal;
 
 import org.phenotips.data.Patient;
-import org.phenotips.data.events.PatientChangingEvent;
+import org.phenotips.data.spi.PatientSaveContext;
+import org.phenotips.data.spi.PatientSaveStage;
 
 import org.xwiki.component.manager.ComponentLookupException;
-import org.xwiki.observation.EventListener;
-import org.xwiki.observation.event.Event;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import java.util.Date;
@@ -37,14 +36,12 @@
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
 
-import static org.hamcrest.Matchers.hasItem;
-import static org.hamcrest.Matchers.isA;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.verifyNoMoreInteractions;
 
 /**
  * Test for the {@link PatientDeathdateUpdater} component.
@@ -53,22 +50,16 @@
 {
 
     @Rule
-    public MockitoComponentMockingRule<EventListener> mocker =
-        new MockitoComponentMockingRule<EventListener>(PatientDeathdateUpdater.class);
-
-    @Mock
-    private Object data;
+    public MockitoComponentMockingRule<PatientSaveStage> mocker =
+        new MockitoComponentMockingRule<PatientSaveStage>(PatientDeathdateUpdater.class);
 
     @Mock
     private XWikiDocument source;
 
-    @Mock
-    private Event event;
-
     @Mock
     private BaseObject patientRecordObj;
 
-    private final String eventListenerName = "patient-deathdate-updater";
+    private PatientSaveContext context;
 
     private final String lifeStatus = "life_status";
 
@@ -82,22 +73,38 @@ public void setUp() throws ComponentLookupException
         MockitoAnnotations.initMocks(this);
 
         doReturn(this.patientRecordObj).when(this.source).getXObject(Patient.CLASS_REFERENCE);
+        this.context = new PatientSaveContext(null, this.source, null);
+    }
+
+    @Test
+    public void runsAfterTheOtherPatientDataStages() throws ComponentLookupException
+    {
+        Assert.assertTrue(this.mocker.getComponentUnderTest().getPriority() > 500);
     }
 
     @Test
-    public void checkConstruction() throws ComponentLookupException
+    public void isAffectedByNewDocuments() throws ComponentLookupException
     {
-        PatientDeathdateUpdater testInstance = (PatientDeathdateUpdater) this.mocker.getComponentUnderTest();
-        Assert.assertEquals(this.eventListenerName, testInstance.getName());
-        Assert.assertThat(testInstance.getEvents(), hasItem(isA(PatientChangingEvent.class)));
+        Assert.assertTrue(this.mocker.getComponentUnderTest().isAffected(this.context));
+    }
+
+    @Test
+    public void isNotAffectedWhenLifeStatusIsUnchanged() throws ComponentLookupException
+    {
+        XWikiDocument previous = mock(XWikiDocument.class);
+        BaseObject previousObj = mock(BaseObject.class);
+        doReturn(previous).when(this.source).getOriginalDocument();
+        doReturn(previousObj).when(previous).getXObject(Patient.CLASS_REFERENCE);
+
+        Assert.assertFalse(this.mocker.getComponentUnderTest().isAffected(this.context));
     }
 
     @Test
     public void returnsNormallyWhenPatientDoesNotHavePatientClass() throws ComponentLookupException
     {
         doReturn(null).when(this.source).getXObject(Patient.CLASS_REFERENCE);
-        this.mocker.getComponentUnderTest().onEvent(this.event, this.source, this.data);
-        verifyNoMoreInteractions(this.data);
+        this.mocker.getComponentUnderTest().process(this.context);
+        verify(this.patientRecordObj, never()).setDateValue(anyString(), any(Date.class));
     }
 
     @Test
@@ -105,7 +112,7 @@ public void dateValuesAreNotSetWhenRequestReturnsDeceased() throws ComponentLook
     {
         doReturn("deceased").when(this.patientRecordObj).getStringValue(this.lifeStatus);
 
-        this.mocker.getComponentUnderTest().onEvent(this.event, this.source, this.data);
+        this.mocker.getComponentUnderTest().process(this.context);
 
         verify(this.patientRecordObj, never()).setDateValue(anyString(), any(Date.class));
     }
@@ -115,7 +122,7 @@ public void dateValuesAreSetWhenRequestReturnsAlive() throws ComponentLookupExce
     {
         doReturn("alive").when(this.patientRecordObj).getStringValue(this.lifeStatus);
 
-        this.mocker.getComponentUnderTest().onEvent(this.event, this.source, this.data);
+        this.mocker.getComponentUnderTest().process(this.context);
 
         verify(this.patientRecordObj).setDateValue(this.dateOfDeath, null);
         verify(this.patientRecordObj).setStringValue(this.dateOfDeathEntered, null);
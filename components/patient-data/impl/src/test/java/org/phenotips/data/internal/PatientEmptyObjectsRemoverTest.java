@@ -17,15 +17,17 @@
  */
 package org.phenotips.data.internal;
 
+import org.phenotips.data.spi.PatientSaveContext;
+import org.phenotips.data.spi.PatientSaveStage;
+
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.model.reference.EntityReference;
-import org.xwiki.observation.EventListener;
-import org.xwiki.observation.event.Event;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import java.util.ArrayList;
 import java.util.List;
 
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -52,8 +54,8 @@
 {
 
     @Rule
-    public MockitoComponentMockingRule<EventListener> mocker =
-        new MockitoComponentMockingRule<EventListener>(PatientEmptyObjectsRemover.class);
+    public MockitoComponentMockingRule<PatientSaveStage> mocker =
+        new MockitoComponentMockingRule<PatientSaveStage>(PatientEmptyObjectsRemover.class);
 
     @Mock
     private XWikiContext context;
@@ -91,7 +93,7 @@ public void emptyObjectRemovedTest() throws XWikiException
         doReturn(property).when(objTwo).getField(anyString());
         doReturn("").when(property).getValue();
 
-        this.patientEmptyObjectsRemover.onEvent(mock(Event.class), this.xWikiDocument, mock(Object.class));
+        this.patientEmptyObjectsRemover.process(new PatientSaveContext(null, this.xWikiDocument, this.context));
         verify(this.xWikiDocument, times(4)).removeXObject((BaseObject) anyObject());
     }
 
@@ -106,16 +108,32 @@ public void onEventIgnoresNullObjectsTest() throws XWikiException
         doReturn(property).when(obj).getField(anyString());
         doReturn("").when(property).getValue();
 
-        this.patientEmptyObjectsRemover.onEvent(mock(Event.class), this.xWikiDocument, mock(Object.class));
+        this.patientEmptyObjectsRemover.process(new PatientSaveContext(null, this.xWikiDocument, this.context));
         verify(this.xWikiDocument, times(2)).removeXObject((BaseObject) anyObject());
     }
 
     @Test
     public void onEventIgnoresEmptyListTest() throws XWikiException
     {
-        this.xWikiObjects = null;
+        doReturn(null).when(this.xWikiDocument).getXObjects(any(EntityReference.class));
 
-        this.patientEmptyObjectsRemover.onEvent(mock(Event.class), this.xWikiDocument, mock(Object.class));
+        this.patientEmptyObjectsRemover.process(new PatientSaveContext(null, this.xWikiDocument, this.context));
         verify(this.xWikiDocument, never()).removeXObject((BaseObject) anyObject());
     }
+
+    @Test
+    public void isNotAffectedWhenGenesAndVariantsAreUnchanged() throws XWikiException
+    {
+        XWikiDocument previous = mock(XWikiDocument.class);
+        doReturn(previous).when(this.xWikiDocument).getOriginalDocument();
+        doReturn(this.xWikiObjects).when(previous).getXObjects(any(EntityReference.class));
+
+        Assert.assertFalse(
+            this.patientEmptyObjectsRemover.isAffected(new PatientSaveContext(null, this.xWikiDocument, this.context)));
+
+        this.xWikiObjects.add(mock(BaseObject.class));
+        doReturn(new ArrayList<>()).when(previous).getXObjects(any(EntityReference.class));
+        Assert.assertTrue(
+            this.patientEmptyObjectsRemover.isAffected(new PatientSaveContext(null, this.xWikiDocument, this.context)));
+    }
 }
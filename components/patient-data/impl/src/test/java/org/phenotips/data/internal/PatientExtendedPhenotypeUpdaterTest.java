@@ -0,0 +1,242 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.spi.PatientSaveContext;
+import org.phenotips.data.spi.PatientSaveStage;
+import org.phenotips.vocabulary.VocabularyManager;
+import org.phenotips.vocabulary.VocabularyTerm;
+import org.phenotips.vocabulary.VocabularyVersionRegistry;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link PatientExtendedPhenotypeUpdater} component.
+ *
+ * @version $Id$
+ */
+public class PatientExtendedPhenotypeUpdaterTest
+{
+    private static final String PHENOTYPE = "phenotype";
+
+    private static final String EXTENDED_PHENOTYPE = "extended_phenotype";
+
+    private static final String VERSION = "extended_phenotype_version";
+
+    private static final String ROOT = "HP:0000118";
+
+    private static final String PARENT = "HP:0000707";
+
+    private static final String CHILD1 = "HP:0001250";
+
+    private static final String CHILD2 = "HP:0002133";
+
+    private static final String OTHER = "HP:0000478";
+
+    @Rule
+    public MockitoComponentMockingRule<PatientSaveStage> mocker =
+        new MockitoComponentMockingRule<PatientSaveStage>(PatientExtendedPhenotypeUpdater.class);
+
+    @Mock
+    private XWikiDocument doc;
+
+    @Mock
+    private XWikiDocument previousDoc;
+
+    private BaseObject patientObject = new BaseObject();
+
+    private BaseObject previousObject = new BaseObject();
+
+    private VocabularyManager vocabularyManager;
+
+    private final Map<String, VocabularyTerm> terms = new HashMap<>();
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws ComponentLookupException
+    {
+        MockitoAnnotations.initMocks(this);
+        doReturn(this.patientObject).when(this.doc).getXObject(Patient.CLASS_REFERENCE);
+        doReturn(this.previousObject).when(this.previousDoc).getXObject(Patient.CLASS_REFERENCE);
+
+        VocabularyTerm root = addTerm(ROOT);
+        VocabularyTerm parent = addTerm(PARENT, root);
+        addTerm(CHILD1, parent, root);
+        addTerm(CHILD2, parent, root);
+        addTerm(OTHER, root);
+
+        this.vocabularyManager = this.mocker.getInstance(VocabularyManager.class);
+        when(this.vocabularyManager.resolveTerms(Matchers.anyCollectionOf(String.class))).thenAnswer(invocation -> {
+            Map<String, VocabularyTerm> result = new HashMap<>();
+            for (Object id : (Collection<?>) invocation.getArguments()[0]) {
+                if (this.terms.containsKey(id)) {
+                    result.put((String) id, this.terms.get(id));
+                }
+            }
+            return result;
+        });
+
+        PhenotypeAncestorIndex realIndex = new PhenotypeAncestorIndex();
+        PhenotypeAncestorIndex index = this.mocker.getInstance(PhenotypeAncestorIndex.class);
+        when(index.getAncestorsAndSelf(Matchers.anyCollectionOf(String.class), any(Function.class)))
+            .thenAnswer(invocation -> realIndex.getAncestorsAndSelf(
+                (Collection<String>) invocation.getArguments()[0],
+                (Function<Collection<String>, Map<String, VocabularyTerm>>) invocation.getArguments()[1]));
+    }
+
+    @Test
+    public void extendedPhenotypesAreComputedForNewRecords() throws ComponentLookupException
+    {
+        this.patientObject.setDBStringListValue(PHENOTYPE, Arrays.asList(CHILD1, "free text"));
+
+        process();
+
+        Assert.assertEquals(Arrays.asList(ROOT, PARENT, CHILD1, "free text"),
+            this.patientObject.getListValue(EXTENDED_PHENOTYPE));
+    }
+
+    @Test
+    public void onlyAddedPhenotypesAreResolved() throws ComponentLookupException
+    {
+        withPrevious(Arrays.asList(CHILD1), Arrays.asList(ROOT, PARENT, CHILD1));
+        this.patientObject.setDBStringListValue(PHENOTYPE, Arrays.asList(CHILD1, OTHER));
+
+        process();
+
+        Assert.assertEquals(Arrays.asList(ROOT, OTHER, PARENT, CHILD1),
+            this.patientObject.getListValue(EXTENDED_PHENOTYPE));
+        verify(this.vocabularyManager).resolveTerms(new LinkedHashSet<>(Collections.singletonList(OTHER)));
+    }
+
+    @Test
+    public void ancestorsOfRemovedPhenotypesAreKeptOnlyIfStillReferenced() throws ComponentLookupException
+    {
+        withPrevious(Arrays.asList(CHILD1, CHILD2, OTHER), Arrays.asList(ROOT, OTHER, PARENT, CHILD1, CHILD2));
+        this.patientObject.setDBStringListValue(PHENOTYPE, Arrays.asList(CHILD1, OTHER));
+
+        process();
+        Assert.assertEquals(Arrays.asList(ROOT, OTHER, PARENT, CHILD1),
+            this.patientObject.getListValue(EXTENDED_PHENOTYPE));
+
+        withPrevious(Arrays.asList(CHILD1, OTHER), Arrays.asList(ROOT, OTHER, PARENT, CHILD1));
+        this.patientObject.setDBStringListValue(PHENOTYPE, Arrays.asList(OTHER));
+
+        process();
+        Assert.assertEquals(Arrays.asList(ROOT, OTHER), this.patientObject.getListValue(EXTENDED_PHENOTYPE));
+    }
+
+    @Test
+    public void unchangedPhenotypesAreNotResolved() throws ComponentLookupException
+    {
+        withPrevious(Arrays.asList(CHILD1), Arrays.asList(ROOT, PARENT, CHILD1));
+        this.patientObject.setDBStringListValue(PHENOTYPE, Arrays.asList(CHILD1));
+
+        process();
+
+        Assert.assertEquals(Arrays.asList(ROOT, PARENT, CHILD1), this.patientObject.getListValue(EXTENDED_PHENOTYPE));
+        verify(this.vocabularyManager, never()).resolveTerms(Matchers.anyCollectionOf(String.class));
+    }
+
+    @Test
+    public void extendedPhenotypesAreRecomputedWhenTheVocabularyVersionChanges() throws ComponentLookupException
+    {
+        // The stored extended phenotypes were computed before PARENT was added to the hierarchy
+        withPrevious(Arrays.asList(CHILD1), Arrays.asList(ROOT, CHILD1));
+        this.previousObject.setStringValue(VERSION, "2016-01-01");
+        this.patientObject.setStringValue(VERSION, "2016-01-01");
+        this.patientObject.setDBStringListValue(PHENOTYPE, Arrays.asList(CHILD1));
+        when(this.mocker.getInstance(VocabularyVersionRegistry.class).getVersion("hpo")).thenReturn("2017-01-01");
+
+        Assert.assertTrue(this.mocker.getComponentUnderTest().isAffected(new PatientSaveContext(null, this.doc, null)));
+        process();
+
+        Assert.assertEquals(Arrays.asList(ROOT, PARENT, CHILD1), this.patientObject.getListValue(EXTENDED_PHENOTYPE));
+        Assert.assertEquals("2017-01-01", this.patientObject.getStringValue(VERSION));
+    }
+
+    @Test
+    public void sameVocabularyVersionDoesNotCauseRecomputation() throws ComponentLookupException
+    {
+        withPrevious(Arrays.asList(CHILD1), Arrays.asList(ROOT, PARENT, CHILD1));
+        this.previousObject.setStringValue(VERSION, "2017-01-01");
+        this.patientObject.setStringValue(VERSION, "2017-01-01");
+        this.patientObject.setDBStringListValue(PHENOTYPE, Arrays.asList(CHILD1));
+        this.patientObject.setDBStringListValue(EXTENDED_PHENOTYPE, Arrays.asList(ROOT, PARENT, CHILD1));
+        when(this.mocker.getInstance(VocabularyVersionRegistry.class).getVersion("hpo")).thenReturn("2017-01-01");
+
+        Assert.assertFalse(
+            this.mocker.getComponentUnderTest().isAffected(new PatientSaveContext(null, this.doc, null)));
+        process();
+
+        verify(this.vocabularyManager, never()).resolveTerms(Matchers.anyCollectionOf(String.class));
+    }
+
+    private void withPrevious(List<String> phenotypes, List<String> extended)
+    {
+        doReturn(this.previousDoc).when(this.doc).getOriginalDocument();
+        this.previousObject.setDBStringListValue(PHENOTYPE, phenotypes);
+        this.previousObject.setDBStringListValue(EXTENDED_PHENOTYPE, extended);
+    }
+
+    private void process() throws ComponentLookupException
+    {
+        this.mocker.getComponentUnderTest().process(new PatientSaveContext(null, this.doc, null));
+    }
+
+    private VocabularyTerm addTerm(String id, VocabularyTerm... ancestors)
+    {
+        VocabularyTerm term = mock(VocabularyTerm.class);
+        when(term.getId()).thenReturn(id);
+        Set<VocabularyTerm> ancestorsAndSelf = new LinkedHashSet<>();
+        ancestorsAndSelf.add(term);
+        ancestorsAndSelf.addAll(Arrays.asList(ancestors));
+        when(term.getAncestorsAndSelf()).thenReturn(ancestorsAndSelf);
+        this.terms.put(id, term);
+        return term;
+    }
+}
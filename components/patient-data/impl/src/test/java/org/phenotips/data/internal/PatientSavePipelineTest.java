@@ -0,0 +1,222 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.events.PatientChangingEvent;
+import org.phenotips.data.spi.PatientSaveContext;
+import org.phenotips.data.spi.PatientSaveStage;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.observation.EventListener;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Provider;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.isA;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests for the {@link PatientSavePipeline} component.
+ *
+ * @version $Id$
+ */
+public class PatientSavePipelineTest
+{
+    @Rule
+    public MockitoComponentMockingRule<EventListener> mocker =
+        new MockitoComponentMockingRule<EventListener>(PatientSavePipeline.class);
+
+    @Mock
+    private Patient patient;
+
+    @Mock
+    private XWikiDocument doc;
+
+    @Mock
+    private BaseObject patientObject;
+
+    @Mock
+    private ComponentManager componentManager;
+
+    private final Map<String, PatientSaveStage> stages = new LinkedHashMap<>();
+
+    private final List<String> invoked = new ArrayList<>();
+
+    @Before
+    public void setUp() throws ComponentLookupException
+    {
+        MockitoAnnotations.initMocks(this);
+        Provider<ComponentManager> cmProvider =
+            this.mocker.getInstance(new DefaultParameterizedType(null, Provider.class, ComponentManager.class),
+                "context");
+        doReturn(this.componentManager).when(cmProvider).get();
+        doReturn(this.stages).when(this.componentManager).getInstanceMap(PatientSaveStage.class);
+        doReturn(this.patientObject).when(this.doc).getXObject(Patient.CLASS_REFERENCE);
+    }
+
+    @Test
+    public void listensForPatientChangingEvents() throws ComponentLookupException
+    {
+        EventListener listener = this.mocker.getComponentUnderTest();
+        Assert.assertEquals("patient-save-pipeline", listener.getName());
+        Assert.assertThat(listener.getEvents(), hasItem(isA(PatientChangingEvent.class)));
+    }
+
+    @Test
+    public void stagesAreInvokedInPriorityOrder() throws ComponentLookupException
+    {
+        this.stages.put("c", new RecordingStage("c", 20, true));
+        this.stages.put("b", new RecordingStage("b", 10, true));
+        this.stages.put("a", new RecordingStage("a", 20, true));
+
+        fire();
+
+        Assert.assertEquals(Arrays.asList("b", "a", "c"), this.invoked);
+    }
+
+    @Test
+    public void unaffectedStagesAreSkipped() throws ComponentLookupException
+    {
+        this.stages.put("skipped", new RecordingStage("skipped", 10, false));
+        this.stages.put("run", new RecordingStage("run", 20, true));
+
+        fire();
+
+        Assert.assertEquals(Collections.singletonList("run"), this.invoked);
+    }
+
+    @Test
+    public void failingStagesDoNotStopThePipeline() throws ComponentLookupException
+    {
+        PatientSaveStage failing = mock(PatientSaveStage.class);
+        doReturn(true).when(failing).isAffected(any(PatientSaveContext.class));
+        doThrow(new IllegalStateException("failed")).when(failing).process(any(PatientSaveContext.class));
+        this.stages.put("failing", failing);
+        this.stages.put("run", new RecordingStage("run", 20, true));
+
+        fire();
+
+        Assert.assertEquals(Collections.singletonList("run"), this.invoked);
+    }
+
+    @Test
+    public void stagesShareTheSameContext() throws ComponentLookupException
+    {
+        List<PatientSaveContext> contexts = new ArrayList<>();
+        this.stages.put("first", new RecordingStage("first", 10, true)
+        {
+            @Override
+            public void process(PatientSaveContext context)
+            {
+                contexts.add(context);
+            }
+        });
+        this.stages.put("second", new RecordingStage("second", 20, true)
+        {
+            @Override
+            public void process(PatientSaveContext context)
+            {
+                contexts.add(context);
+            }
+        });
+
+        fire();
+
+        Assert.assertEquals(2, contexts.size());
+        Assert.assertSame(contexts.get(0), contexts.get(1));
+        Assert.assertSame(this.patient, contexts.get(0).getPatient());
+        Assert.assertSame(this.doc, contexts.get(0).getDocument());
+    }
+
+    @Test
+    public void documentsWithoutPatientObjectsAreIgnored() throws ComponentLookupException
+    {
+        doReturn(null).when(this.doc).getXObject(Patient.CLASS_REFERENCE);
+        PatientSaveStage stage = mock(PatientSaveStage.class);
+        this.stages.put("stage", stage);
+
+        fire();
+
+        verify(stage, never()).process(any(PatientSaveContext.class));
+    }
+
+    private void fire() throws ComponentLookupException
+    {
+        this.mocker.getComponentUnderTest().onEvent(new PatientChangingEvent(this.patient, null), this.doc, null);
+    }
+
+    private class RecordingStage implements PatientSaveStage
+    {
+        private final String name;
+
+        private final int priority;
+
+        private final boolean affected;
+
+        RecordingStage(String name, int priority, boolean affected)
+        {
+            this.name = name;
+            this.priority = priority;
+            this.affected = affected;
+        }
+
+        @Override
+        public int getPriority()
+        {
+            return this.priority;
+        }
+
+        @Override
+        public boolean isAffected(PatientSaveContext context)
+        {
+            return this.affected;
+        }
+
+        @Override
+        public void process(PatientSaveContext context)
+        {
+            PatientSavePipelineTest.this.invoked.add(this.name);
+        }
+    }
+}
@@ -32,7 +32,9 @@
 import org.xwiki.model.reference.EntityReference;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -43,6 +45,7 @@
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
@@ -118,6 +121,7 @@ public void setup() throws ComponentLookupException
         when(this.hp0012211.getId()).thenReturn(HP0012211);
         when(this.hp0012211.getName()).thenReturn("Abnormal renal physiology");
         when(this.vm.resolveTerm(HP0012211)).thenReturn(this.hp0012211);
+        resolveTermsOneByOne(this.vm);
     }
 
     @Test
@@ -642,4 +646,22 @@ public void noCategoriesWithNullObjectList() throws XWikiException
 
         Assert.assertFalse(new PhenoTipsFeature(doc, prop, HP0000100).toJSON().has("categories"));
     }
+
+    /**
+     * Makes the mocked vocabulary manager resolve batches of terms using the individually mocked terms.
+     */
+    @SuppressWarnings("unchecked")
+    private void resolveTermsOneByOne(final VocabularyManager vm)
+    {
+        when(vm.resolveTerms(Matchers.anyCollectionOf(String.class))).thenAnswer(invocation -> {
+            Map<String, VocabularyTerm> result = new LinkedHashMap<>();
+            for (String termId : (Collection<String>) invocation.getArguments()[0]) {
+                VocabularyTerm term = vm.resolveTerm(termId);
+                if (term != null) {
+                    result.put(termId, term);
+                }
+            }
+            return result;
+        });
+    }
 }
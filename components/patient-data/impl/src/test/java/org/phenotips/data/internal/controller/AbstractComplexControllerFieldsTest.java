@@ -0,0 +1,348 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal.controller;
+
+import org.phenotips.components.ComponentManagerRegistry;
+import org.phenotips.data.DictionaryPatientData;
+import org.phenotips.data.Patient;
+import org.phenotips.data.VocabularyProperty;
+import org.phenotips.vocabulary.VocabularyManager;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.reference.ObjectPropertyReference;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Provider;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
+import net.jcip.annotations.NotThreadSafe;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the field descriptors cached by {@link AbstractComplexController}: the field lists are only read once, and
+ * each kind of field is still converted correctly between JSON, memory and XObjects.
+ *
+ * @version $Id$
+ */
+@NotThreadSafe
+public class AbstractComplexControllerFieldsTest
+{
+    private static final String NAME = "name";
+
+    private static final String FLAG = "flag";
+
+    private static final String CODES = "codes";
+
+    private static final String TERMS = "terms";
+
+    private static final String EXTRA_FLAG = "extraFlag";
+
+    private static final String ID = "id";
+
+    private static final String LABEL = "label";
+
+    @Mock
+    private Patient patient;
+
+    @Mock
+    private XWikiDocument doc;
+
+    @Mock
+    private BaseObject xobject;
+
+    @Mock
+    private XWikiContext xcontext;
+
+    @Mock
+    private Provider<XWikiContext> contextProvider;
+
+    @Mock
+    private Provider<ComponentManager> cmProvider;
+
+    @Mock
+    private ComponentManager contextComponentManager;
+
+    @Mock
+    private VocabularyManager vocabularyManager;
+
+    /** The values stored in the mocked XObject. */
+    private Map<String, Object> stored = new HashMap<>();
+
+    private MixedController mixed = new MixedController();
+
+    private TermsController terms = new TermsController();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        MockitoAnnotations.initMocks(this);
+
+        when(this.contextProvider.get()).thenReturn(this.xcontext);
+        for (AbstractComplexController<?> controller : Arrays.asList(this.mixed, this.terms)) {
+            ReflectionUtils.setFieldValue(controller, "contextProvider", this.contextProvider);
+            ReflectionUtils.setFieldValue(controller, "logger", mock(Logger.class));
+        }
+
+        doReturn(this.doc).when(this.patient).getXDocument();
+        doReturn(this.xobject).when(this.doc).getXObject(Patient.CLASS_REFERENCE);
+        doReturn(this.xobject).when(this.doc).getXObject(Patient.CLASS_REFERENCE, true, this.xcontext);
+        doAnswer(invocation -> this.stored.put((String) invocation.getArguments()[0],
+            invocation.getArguments()[1])).when(this.xobject).set(anyString(), any(), any(XWikiContext.class));
+        doAnswer(invocation -> {
+            String property = (String) invocation.getArguments()[0];
+            if (!this.stored.containsKey(property)) {
+                return null;
+            }
+            Object value = this.stored.get(property);
+            return new BaseProperty<ObjectPropertyReference>()
+            {
+                @Override
+                public Object getValue()
+                {
+                    return value;
+                }
+            };
+        }).when(this.xobject).getField(anyString());
+
+        ReflectionUtils.setFieldValue(new ComponentManagerRegistry(), "cmProvider", this.cmProvider);
+        doReturn(this.contextComponentManager).when(this.cmProvider).get();
+        doReturn(this.vocabularyManager).when(this.contextComponentManager).getInstance(VocabularyManager.class);
+        VocabularyTerm term = mock(VocabularyTerm.class);
+        doReturn("Abnormality of the nose").when(term).getName();
+        doReturn(term).when(this.vocabularyManager).resolveTerm("HP:0000366");
+    }
+
+    @Test
+    public void booleanPlainAndCodeFieldsRoundTrip()
+    {
+        JSONObject input = new JSONObject().put(MixedController.DATA_NAME, new JSONObject()
+            .put(NAME, "Some name")
+            .put(FLAG, true)
+            .put(CODES, new JSONArray().put(new JSONObject().put(ID, "HP:0000366").put(LABEL, "Nose"))));
+
+        JSONObject output = roundTrip(this.mixed, input);
+
+        Assert.assertEquals("Some name", this.stored.get(NAME));
+        Assert.assertEquals(1, this.stored.get(FLAG));
+        Assert.assertTrue(input.similar(output));
+    }
+
+    @Test
+    public void falseBooleansRoundTrip()
+    {
+        JSONObject input = new JSONObject().put(MixedController.DATA_NAME, new JSONObject().put(FLAG, false));
+
+        JSONObject output = roundTrip(this.mixed, input);
+
+        Assert.assertEquals(0, this.stored.get(FLAG));
+        Assert.assertTrue(input.similar(output));
+    }
+
+    @Test
+    public void storedCodesAreLabeled()
+    {
+        this.stored.put(CODES, Collections.singletonList("HP:0000366"));
+        doReturn(this.mixed.load(this.patient)).when(this.patient).getData(MixedController.DATA_NAME);
+        JSONObject output = new JSONObject();
+
+        this.mixed.writeJSON(this.patient, output);
+
+        JSONObject term = output.getJSONObject(MixedController.DATA_NAME).getJSONArray(CODES).getJSONObject(0);
+        Assert.assertEquals("HP:0000366", term.getString(ID));
+        Assert.assertEquals("Abnormality of the nose", term.getString(LABEL));
+    }
+
+    @Test
+    public void termsRoundTripAndAreStoredAsIdentifiers()
+    {
+        JSONObject input = new JSONObject().put(TermsController.DATA_NAME, new JSONObject()
+            .put(TERMS, new JSONArray().put(new JSONObject().put(ID, "HP:0000366"))));
+
+        JSONObject output = roundTrip(this.terms, input);
+
+        Assert.assertEquals(Collections.singletonList("HP:0000366"), this.stored.get(TERMS));
+        // The label is looked up when the stored identifier is loaded again
+        JSONObject term = output.getJSONObject(TermsController.DATA_NAME).getJSONArray(TERMS).getJSONObject(0);
+        Assert.assertEquals("HP:0000366", term.getString(ID));
+        Assert.assertEquals("Abnormality of the nose", term.getString(LABEL));
+    }
+
+    @Test
+    public void fieldListsAreOnlyReadOnce()
+    {
+        JSONObject input = new JSONObject().put(MixedController.DATA_NAME, new JSONObject()
+            .put(NAME, "Some name").put(FLAG, true));
+
+        roundTrip(this.mixed, input);
+        roundTrip(this.mixed, input);
+
+        Assert.assertEquals(1, this.mixed.booleanFieldsCalls);
+        Assert.assertEquals(1, this.mixed.codeFieldsCalls);
+        Assert.assertEquals(1, this.mixed.propertiesCalls);
+    }
+
+    @Test
+    public void unlistedPropertiesUseTheCachedFieldLists()
+    {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put(FLAG, "0");
+        values.put(EXTRA_FLAG, "1");
+        doReturn(new DictionaryPatientData<>(MixedController.DATA_NAME, values)).when(this.patient)
+            .getData(MixedController.DATA_NAME);
+        JSONObject output = new JSONObject();
+
+        this.mixed.writeJSON(this.patient, output);
+        this.mixed.writeJSON(this.patient, output);
+
+        JSONObject container = output.getJSONObject(MixedController.DATA_NAME);
+        Assert.assertEquals(false, container.get(FLAG));
+        Assert.assertEquals(true, container.get(EXTRA_FLAG));
+        Assert.assertEquals(1, this.mixed.booleanFieldsCalls);
+        Assert.assertEquals(1, this.mixed.codeFieldsCalls);
+    }
+
+    /**
+     * Reads some JSON into a patient, saves it, loads it back, and serializes it again.
+     *
+     * @param controller the controller to use
+     * @param input the JSON to read
+     * @return the serialized loaded data
+     */
+    private JSONObject roundTrip(AbstractComplexController<?> controller, JSONObject input)
+    {
+        doReturn(controller.readJSON(input)).when(this.patient).getData(controller.getName());
+        controller.save(this.patient);
+        doReturn(controller.load(this.patient)).when(this.patient).getData(controller.getName());
+        JSONObject output = new JSONObject();
+        controller.writeJSON(this.patient, output);
+        return output;
+    }
+
+    /** A controller with a plain field, boolean fields and a code field, counting how often its lists are read. */
+    private static final class MixedController extends AbstractComplexController<Object>
+    {
+        private static final String DATA_NAME = "mixed";
+
+        private int booleanFieldsCalls;
+
+        private int codeFieldsCalls;
+
+        private int propertiesCalls;
+
+        @Override
+        protected List<String> getBooleanFields()
+        {
+            this.booleanFieldsCalls++;
+            return Arrays.asList(FLAG, EXTRA_FLAG);
+        }
+
+        @Override
+        protected List<String> getCodeFields()
+        {
+            this.codeFieldsCalls++;
+            return Collections.singletonList(CODES);
+        }
+
+        @Override
+        protected List<String> getProperties()
+        {
+            this.propertiesCalls++;
+            return Arrays.asList(NAME, FLAG, CODES);
+        }
+
+        @Override
+        protected String getJsonPropertyName()
+        {
+            return DATA_NAME;
+        }
+
+        @Override
+        public String getName()
+        {
+            return DATA_NAME;
+        }
+    }
+
+    /** A controller holding only vocabulary terms. */
+    private static final class TermsController extends AbstractComplexController<List<VocabularyProperty>>
+    {
+        private static final String DATA_NAME = "termsOnly";
+
+        @Override
+        protected List<String> getBooleanFields()
+        {
+            return Collections.emptyList();
+        }
+
+        @Override
+        protected List<String> getCodeFields()
+        {
+            return getProperties();
+        }
+
+        @Override
+        protected List<String> getProperties()
+        {
+            return Collections.singletonList(TERMS);
+        }
+
+        @Override
+        protected String getJsonPropertyName()
+        {
+            return DATA_NAME;
+        }
+
+        @Override
+        public String getName()
+        {
+            return DATA_NAME;
+        }
+
+        @Override
+        protected boolean isCodeFieldsOnly()
+        {
+            return true;
+        }
+    }
+}
@@ -30,8 +30,10 @@
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -140,6 +142,7 @@ public void setUp() throws Exception
         when(vocabularyManager.resolveTerm(GONOSOMAL)).thenReturn(this.gonosomalTerm);
         when(this.mitochondrialTerm.getId()).thenReturn(MITOCHONDRIAL);
         when(vocabularyManager.resolveTerm(MITOCHONDRIAL)).thenReturn(this.mitochondrialTerm);
+        resolveTermsOneByOne(vocabularyManager);
 
         when(this.data.getXClass(this.xWikiContext)).thenReturn(this.patientClass);
         StringClass onsetClass = mock(StringClass.class);
@@ -478,4 +481,22 @@ private PatientData<List<VocabularyTerm>> setupMockPatientData(VocabularyTerm on
     {
         return new DictionaryPatientData<>(this.tested.getName(), setupMockPatientDataMap(onset, inheritance));
     }
+
+    /**
+     * Makes the mocked vocabulary manager resolve batches of terms using the individually mocked terms.
+     */
+    @SuppressWarnings("unchecked")
+    private void resolveTermsOneByOne(final VocabularyManager vocabularyManager)
+    {
+        when(vocabularyManager.resolveTerms(Matchers.anyCollectionOf(String.class))).thenAnswer(invocation -> {
+            Map<String, VocabularyTerm> result = new LinkedHashMap<>();
+            for (String termId : (Collection<String>) invocation.getArguments()[0]) {
+                VocabularyTerm term = vocabularyManager.resolveTerm(termId);
+                if (term != null) {
+                    result.put(termId, term);
+                }
+            }
+            return result;
+        });
+    }
 }
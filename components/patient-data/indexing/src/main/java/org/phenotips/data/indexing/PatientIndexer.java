@@ -22,6 +22,8 @@
 import org.xwiki.component.annotation.Role;
 import org.xwiki.stability.Unstable;
 
+import java.util.Collection;
+
 /**
  * API for indexing patient data in a search engine.
  *
@@ -32,6 +34,15 @@
 @Role
 public interface PatientIndexer
 {
+    /**
+     * Name of an {@link org.xwiki.context.ExecutionContext execution context} property which, when set to
+     * {@code true}, disables the automatic indexing of patients as they are modified. Used by bulk operations, which
+     * {@link #index(Collection) index all the modified patients at once} at the end.
+     *
+     * @since 1.4
+     */
+    String DEFER_INDEXING = "phenotips.patientIndexer.deferred";
+
     /**
      * Add (or update) a patient to the index.
      *
@@ -39,6 +50,21 @@
      */
     void index(Patient patient);
 
+    /**
+     * Add (or update) several patients to the index, at once. The default implementation indexes each patient
+     * separately.
+     *
+     * @param patients the patients to index
+     * @since 1.4
+     */
+    @Unstable("New API introduced in 1.4")
+    default void index(Collection<Patient> patients)
+    {
+        for (Patient patient : patients) {
+            index(patient);
+        }
+    }
+
     /**
      * Delete from the index a patient.
      *
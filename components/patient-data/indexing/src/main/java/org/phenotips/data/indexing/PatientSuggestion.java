@@ -0,0 +1,82 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.indexing;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.stability.Unstable;
+
+/**
+ * The summary of a patient, as found in the patient index, holding just what's needed for sorting suggestions and
+ * checking access rights without loading the whole patient record.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Unstable("New API introduced in 1.4")
+public class PatientSuggestion
+{
+    private final DocumentReference document;
+
+    private final String id;
+
+    private final String externalId;
+
+    /**
+     * Simple constructor.
+     *
+     * @param document the document where the patient is stored
+     * @param id the internal identifier of the patient
+     * @param externalId the external identifier of the patient, may be {@code null}
+     */
+    public PatientSuggestion(DocumentReference document, String id, String externalId)
+    {
+        this.document = document;
+        this.id = id;
+        this.externalId = externalId;
+    }
+
+    /**
+     * The document where the patient is stored.
+     *
+     * @return a document reference
+     */
+    public DocumentReference getDocumentReference()
+    {
+        return this.document;
+    }
+
+    /**
+     * The internal identifier of the patient.
+     *
+     * @return the patient identifier, for example {@code P0000123}
+     */
+    public String getId()
+    {
+        return this.id;
+    }
+
+    /**
+     * The external identifier of the patient, if any.
+     *
+     * @return the external identifier, or {@code null}
+     */
+    public String getExternalId()
+    {
+        return this.externalId;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.indexing;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.stability.Unstable;
+
+import java.util.List;
+
+/**
+ * Searches patients matching a partial identifier or name, for suggesting patients as the user types. Matching is
+ * done against n-grams of the identifiers and names stored in the patient index by the {@link PatientIndexer}, and the
+ * results are restricted to the patients on which the current user may have the requested right, according to the
+ * access rules indexed together with each patient. Since rights can also be granted outside the patient's access
+ * rules, the results are a superset of the accessible patients, and each returned record must still be checked.
+ * Patient names are searched, but not returned, so that they can only be read from records that passed this check.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Unstable("New API introduced in 1.4")
+@Role
+public interface PatientSuggestionIndex
+{
+    /**
+     * The maximum length of the indexed n-grams. Only this many characters from the start of a longer input are
+     * searched, so the results may include patients that match the beginning of the input, but not all of it.
+     */
+    int MAX_MATCHED_LENGTH = 30;
+
+    /**
+     * Searches for patients matching the input. The whole input must be found, ignoring case, anywhere in the internal
+     * or external identifier of the patient or, if names are included, in the patient's first or last name. Inputs
+     * longer than {@link #MAX_MATCHED_LENGTH} are truncated, and the returned patients must be checked against the
+     * whole input.
+     *
+     * @param input the text typed by the user
+     * @param includeNames whether the patient names should be searched as well
+     * @param requiredRight the right that the current user must have on the returned patients
+     * @param orderField the field used for sorting, either {@code eid} for the external identifier or {@code id} for
+     *            the internal identifier, which is also the default
+     * @param order the sort order, either {@code asc}, the default, or {@code desc}
+     * @param start the index of the first result to return, for paging
+     * @param count the maximum number of results to return
+     * @return the matching patients, may be empty if nothing matches or the index cannot be queried
+     */
+    List<PatientSuggestion> suggest(String input, boolean includeNames, Right requiredRight, String orderField,
+        String order, int start, int count);
+}
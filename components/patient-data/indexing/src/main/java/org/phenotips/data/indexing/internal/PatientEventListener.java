@@ -24,6 +24,8 @@
 import org.phenotips.data.indexing.PatientIndexer;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
 import org.xwiki.observation.AbstractEventListener;
 import org.xwiki.observation.event.Event;
 
@@ -46,6 +48,10 @@ public class PatientEventListener extends AbstractEventListener
     @Inject
     private PatientIndexer indexer;
 
+    /** Used for checking if indexing is deferred in the current execution. */
+    @Inject
+    private Execution execution;
+
     /** Default constructor, sets up the listener name and the list of events to subscribe to. */
     public PatientEventListener()
     {
@@ -58,8 +64,14 @@ public void onEvent(final Event event, final Object source, final Object data)
         Patient patient = ((PatientEvent) event).getPatient();
         if (event instanceof PatientDeletedEvent) {
             this.indexer.delete(patient);
-        } else if (patient != null) {
+        } else if (patient != null && !isIndexingDeferred()) {
             this.indexer.index(patient);
         }
     }
+
+    private boolean isIndexingDeferred()
+    {
+        ExecutionContext context = this.execution.getContext();
+        return context != null && Boolean.TRUE.equals(context.getProperty(PatientIndexer.DEFER_INDEXING));
+    }
 }
@@ -0,0 +1,46 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+
+package org.phenotips.data.indexing.internal;
+
+import org.xwiki.component.annotation.Component;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import com.xpn.xwiki.store.migration.XWikiDBVersion;
+
+/**
+ * Migration triggering the reindexing of all patients after the identifiers, names and access rights of patients were
+ * added to the Solr patient index, for suggesting patients. The reindexing itself is the same as the one performed by
+ * {@link R74695PhenoTips4004DataMigration}, only the version differs.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Component
+@Named("R74696-patient-suggestions")
+@Singleton
+public class R74696PatientSuggestionFieldsDataMigration extends R74695PhenoTips4004DataMigration
+{
+    @Override
+    public XWikiDBVersion getVersion()
+    {
+        return new XWikiDBVersion(74696);
+    }
+}
@@ -23,7 +23,12 @@
 import org.phenotips.data.PatientData;
 import org.phenotips.data.PatientRepository;
 import org.phenotips.data.indexing.PatientIndexer;
+import org.phenotips.data.permissions.AccessLevel;
+import org.phenotips.data.permissions.Collaborator;
+import org.phenotips.data.permissions.EntityAccess;
 import org.phenotips.data.permissions.EntityPermissionsManager;
+import org.phenotips.data.permissions.Owner;
+import org.phenotips.data.permissions.Visibility;
 import org.phenotips.vocabulary.SolrCoreContainerHandler;
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyTerm;
@@ -35,9 +40,13 @@
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.Right;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -61,12 +70,22 @@
 @Singleton
 public class SolrPatientIndexer implements PatientIndexer, Initializable
 {
+    /** Prefix of the fields listing the users and groups having a specific right on the patient. */
+    static final String ACCESS_FIELD_PREFIX = "access_";
+
+    /** Principal standing for all users, for rights granted by the visibility of the patient. */
+    static final String EVERYBODY = "*";
+
     private static final String GENES_KEY = "genes";
 
     private static final String SOLR_FIELD_CANDIDATE_GENES = "candidate_genes";
 
     private static final String SOLR_GENE_STATUS_FIELD_POSTFIX = "_genes";
 
+    private static final String FIRST_NAME = "first_name";
+
+    private static final String LAST_NAME = "last_name";
+
     /** Logging helper object. */
     @Inject
     private Logger logger;
@@ -108,6 +127,24 @@ public void index(Patient patient)
         this.internalIndex(patient, true);
     }
 
+    @Override
+    public void index(Collection<Patient> patients)
+    {
+        if (patients == null || patients.isEmpty()) {
+            return;
+        }
+        for (Patient patient : patients) {
+            if (patient != null) {
+                this.internalIndex(patient, false);
+            }
+        }
+        try {
+            this.server.commit();
+        } catch (SolrServerException | IOException ex) {
+            this.logger.warn("Failed to commit indexed patients: {}", ex.getMessage());
+        }
+    }
+
     private void internalIndex(Patient patient, boolean commit)
     {
         SolrInputDocument input = new SolrInputDocument();
@@ -137,9 +174,13 @@ private void internalIndex(Patient patient, boolean commit)
             }
         }
 
-        input.setField("visibility", this.permissions.getEntityAccess(patient).getVisibility().getName());
-        input.setField("accessLevel", this.permissions.getEntityAccess(patient).getVisibility().getPermissiveness());
+        EntityAccess access = this.permissions.getEntityAccess(patient);
+        Visibility visibility = access.getVisibility();
+        input.setField("visibility", visibility.getName());
+        input.setField("accessLevel", visibility.getPermissiveness());
 
+        addSummary(input, patient);
+        addAccessRights(input, access, visibility);
         addGenes(input, patient);
 
         try {
@@ -188,6 +229,72 @@ public void reindex()
         }
     }
 
+    /**
+     * Indexes the identifiers and names of the patient, used for suggesting patients.
+     *
+     * @param input the Solr document being built
+     * @param patient the patient being indexed
+     */
+    private void addSummary(SolrInputDocument input, Patient patient)
+    {
+        setFieldIfNotBlank(input, "id", patient.getId());
+        setFieldIfNotBlank(input, "external_id", patient.getExternalId());
+        PatientData<String> names = patient.getData("patientName");
+        if (names != null) {
+            setFieldIfNotBlank(input, FIRST_NAME, names.get(FIRST_NAME));
+            setFieldIfNotBlank(input, LAST_NAME, names.get(LAST_NAME));
+        }
+    }
+
+    /**
+     * Indexes, for each right granted by an access level, the users and groups having that right on the patient, so
+     * that searches can be restricted to the patients accessible to the current user. The owner has all the rights,
+     * collaborators have the rights of their access level and of all the lower levels, and everybody has the rights
+     * granted by the visibility of the patient, which is represented by {@link #EVERYBODY}. Records without an owner,
+     * created by guests, are accessible to everybody.
+     *
+     * @param input the Solr document being built
+     * @param access the access rules of the patient being indexed
+     * @param visibility the already resolved visibility of the patient
+     */
+    private void addAccessRights(SolrInputDocument input, EntityAccess access, Visibility visibility)
+    {
+        AccessLevel publicAccess = visibility.getDefaultAccessLevel();
+        Owner owner = access.getOwner();
+        Collection<Collaborator> collaborators = access.getCollaborators();
+        for (AccessLevel level : this.permissions.listAllAccessLevels()) {
+            Right right = level.getGrantedRight();
+            if (right == null || Right.ILLEGAL.equals(right)) {
+                continue;
+            }
+            Set<String> principals = new LinkedHashSet<>();
+            if (owner == null || owner.getUser() == null) {
+                principals.add(EVERYBODY);
+            } else {
+                principals.add(this.referenceSerializer.serialize(owner.getUser()));
+            }
+            for (Collaborator collaborator : collaborators) {
+                if (collaborator.getUser() != null && collaborator.getAccessLevel() != null
+                    && collaborator.getAccessLevel().compareTo(level) >= 0) {
+                    principals.add(this.referenceSerializer.serialize(collaborator.getUser()));
+                }
+            }
+            if (publicAccess != null && publicAccess.compareTo(level) >= 0) {
+                principals.add(EVERYBODY);
+            }
+            for (String principal : principals) {
+                input.addField(ACCESS_FIELD_PREFIX + right.getName(), principal);
+            }
+        }
+    }
+
+    private void setFieldIfNotBlank(SolrInputDocument input, String field, String value)
+    {
+        if (StringUtils.isNotBlank(value)) {
+            input.setField(field, value);
+        }
+    }
+
     private void addGenes(SolrInputDocument input, Patient patient)
     {
         PatientData<Gene> data = patient.getData(GENES_KEY);
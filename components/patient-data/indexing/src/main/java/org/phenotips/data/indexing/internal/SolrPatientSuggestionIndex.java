@@ -0,0 +1,220 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.indexing.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.indexing.PatientSuggestion;
+import org.phenotips.data.indexing.PatientSuggestionIndex;
+import org.phenotips.data.permissions.AccessLevel;
+import org.phenotips.data.permissions.EntityPermissionsManager;
+import org.phenotips.groups.Group;
+import org.phenotips.groups.GroupManager;
+import org.phenotips.security.authorization.AuthorizationService;
+import org.phenotips.vocabulary.SolrCoreContainerHandler;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.users.User;
+import org.xwiki.users.UserManager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrException;
+import org.slf4j.Logger;
+
+/**
+ * Suggests patients using the n-gram fields of the local patients Solr core, filled in by {@link SolrPatientIndexer}.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Component
+@Singleton
+public class SolrPatientSuggestionIndex implements PatientSuggestionIndex, Initializable
+{
+    private static final String DOCUMENT = "document";
+
+    private static final String ID = "id";
+
+    private static final String EXTERNAL_ID = "external_id";
+
+    private static final String OR = " OR ";
+
+    /** Logging helper object. */
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private SolrCoreContainerHandler cores;
+
+    /** The Solr server instance used. */
+    private SolrClient server;
+
+    @Inject
+    private UserManager users;
+
+    @Inject
+    private GroupManager groups;
+
+    @Inject
+    private AuthorizationService access;
+
+    @Inject
+    private EntityPermissionsManager permissions;
+
+    @Inject
+    private EntityReferenceSerializer<String> referenceSerializer;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> documentResolver;
+
+    /** Fills in missing reference fields with those from the current context document to create a full reference. */
+    @Inject
+    @Named("current")
+    private EntityReferenceResolver<EntityReference> currentResolver;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.server = new EmbeddedSolrServer(this.cores.getContainer(), "patients");
+    }
+
+    @Override
+    public List<PatientSuggestion> suggest(String input, boolean includeNames, Right requiredRight, String orderField,
+        String order, int start, int count)
+    {
+        String text = StringUtils.trim(input);
+        if (StringUtils.isEmpty(text) || count <= 0) {
+            return Collections.emptyList();
+        }
+
+        SolrQuery query = new SolrQuery(getMatchQuery(text, includeNames));
+        query.addFilterQuery("-" + ID + ":PatientTemplate");
+        String accessFilter = getAccessFilter(requiredRight);
+        if (accessFilter != null) {
+            query.addFilterQuery(accessFilter);
+        }
+        query.setFields(DOCUMENT, ID, EXTERNAL_ID);
+        query.setSort("eid".equals(orderField) ? EXTERNAL_ID : ID,
+            "desc".equals(order) ? SolrQuery.ORDER.desc : SolrQuery.ORDER.asc);
+        query.setStart(start);
+        query.setRows(count);
+
+        try {
+            List<PatientSuggestion> result = new ArrayList<>(count);
+            for (SolrDocument doc : this.server.query(query).getResults()) {
+                result.add(new PatientSuggestion(
+                    this.documentResolver.resolve((String) doc.getFieldValue(DOCUMENT)),
+                    (String) doc.getFieldValue(ID), (String) doc.getFieldValue(EXTERNAL_ID)));
+            }
+            return result;
+        } catch (SolrServerException | SolrException ex) {
+            this.logger.warn("Failed to search patients: {}", ex.getMessage());
+        } catch (IOException ex) {
+            this.logger.warn("Error occurred while searching patients: {}", ex.getMessage());
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * The input must be found anywhere in an identifier or, if allowed, in the first or last name. Only n-grams up to
+     * {@link #MAX_MATCHED_LENGTH} characters are indexed, so longer inputs are cut to that length.
+     *
+     * @param text the text typed by the user, trimmed
+     * @param includeNames whether the names should be searched
+     * @return a Solr query
+     */
+    private String getMatchQuery(String text, boolean includeNames)
+    {
+        String escapedText = ClientUtils.escapeQueryChars(StringUtils.left(text, MAX_MATCHED_LENGTH).trim());
+        StringBuilder result = new StringBuilder("id_suggest:").append(escapedText);
+        if (includeNames) {
+            result.append(OR).append("name_suggest:").append(escapedText);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Restricts the results to patients where the right is granted to everybody, to the current user, or to one of the
+     * user's groups. Only the rights coming from the patient's own access rules are indexed. Administrators, and users
+     * that are granted the right on the whole patient data space through the wiki rights, directly or through their
+     * groups, may have access to patients not listed in the index, so their results are not restricted, leaving it to
+     * the caller to check each returned record. Rights that aren't granted by any access level aren't indexed, so they
+     * cannot be used for filtering either.
+     *
+     * @param right the required right
+     * @return a Solr filter query, or {@code null} if the results shouldn't be filtered
+     */
+    private String getAccessFilter(Right right)
+    {
+        if (right == null || !isIndexed(right)) {
+            return null;
+        }
+        User user = this.users.getCurrentUser();
+        EntityReference dataSpace = this.currentResolver.resolve(Patient.DEFAULT_DATA_SPACE, EntityType.SPACE);
+        if (this.access.hasAccess(user, Right.ADMIN, dataSpace) || this.access.hasAccess(user, right, dataSpace)) {
+            return null;
+        }
+
+        StringBuilder principals = new StringBuilder(ClientUtils.escapeQueryChars(SolrPatientIndexer.EVERYBODY));
+        if (user != null && user.getProfileDocument() != null) {
+            appendPrincipal(principals, user.getProfileDocument());
+            for (Group group : this.groups.getGroupsForUser(user)) {
+                appendPrincipal(principals, group.getReference());
+            }
+        }
+        return SolrPatientIndexer.ACCESS_FIELD_PREFIX + right.getName() + ":(" + principals + ")";
+    }
+
+    private void appendPrincipal(StringBuilder principals, EntityReference principal)
+    {
+        principals.append(OR).append(ClientUtils.escapeQueryChars(this.referenceSerializer.serialize(principal)));
+    }
+
+    private boolean isIndexed(Right right)
+    {
+        for (AccessLevel level : this.permissions.listAllAccessLevels()) {
+            if (right.equals(level.getGrantedRight())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -23,6 +23,8 @@
 import org.phenotips.data.indexing.PatientIndexer;
 
 import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
 import org.xwiki.observation.EventListener;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
@@ -32,9 +34,12 @@
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class PatientEventListenerTest
 {
@@ -79,4 +84,30 @@ public void indexPatientTest()
         this.eventListener.onEvent(patientEvent, mock(Object.class), mock(Object.class));
         verify(this.patientIndexer).index(this.patient);
     }
+
+    @Test
+    public void indexingIsSkippedWhenDeferred() throws ComponentLookupException
+    {
+        ExecutionContext context = new ExecutionContext();
+        context.setProperty(PatientIndexer.DEFER_INDEXING, Boolean.TRUE);
+        when(this.mocker.<Execution>getInstance(Execution.class).getContext()).thenReturn(context);
+        PatientEvent patientEvent = mock(PatientEvent.class);
+        doReturn(this.patient).when(patientEvent).getPatient();
+
+        this.eventListener.onEvent(patientEvent, mock(Object.class), mock(Object.class));
+        verify(this.patientIndexer, never()).index(any(Patient.class));
+    }
+
+    @Test
+    public void deletionIsNotDeferred() throws ComponentLookupException
+    {
+        ExecutionContext context = new ExecutionContext();
+        context.setProperty(PatientIndexer.DEFER_INDEXING, Boolean.TRUE);
+        when(this.mocker.<Execution>getInstance(Execution.class).getContext()).thenReturn(context);
+        PatientEvent patientDeleteEvent = mock(PatientDeletedEvent.class);
+        doReturn(this.patient).when(patientDeleteEvent).getPatient();
+
+        this.eventListener.onEvent(patientDeleteEvent, mock(Object.class), mock(Object.class));
+        verify(this.patientIndexer).delete(this.patient);
+    }
 }
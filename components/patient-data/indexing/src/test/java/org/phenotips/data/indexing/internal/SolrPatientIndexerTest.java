@@ -19,16 +19,22 @@
 
 import org.phenotips.components.ComponentManagerRegistry;
 import org.phenotips.data.Feature;
+import org.phenotips.data.DictionaryPatientData;
 import org.phenotips.data.Gene;
 import org.phenotips.data.IndexedPatientData;
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientData;
 import org.phenotips.data.PatientRepository;
 import org.phenotips.data.indexing.PatientIndexer;
+import org.phenotips.data.permissions.AccessLevel;
+import org.phenotips.data.permissions.Collaborator;
 import org.phenotips.data.permissions.EntityAccess;
 import org.phenotips.data.permissions.EntityPermissionsManager;
+import org.phenotips.data.permissions.Owner;
 import org.phenotips.data.permissions.Visibility;
 import org.phenotips.data.permissions.internal.DefaultEntityAccess;
+import org.phenotips.data.permissions.internal.access.EditAccessLevel;
+import org.phenotips.data.permissions.internal.access.ViewAccessLevel;
 import org.phenotips.data.permissions.internal.visibility.PublicVisibility;
 import org.phenotips.vocabulary.SolrCoreContainerHandler;
 import org.phenotips.vocabulary.Vocabulary;
@@ -50,9 +56,11 @@
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.inject.Provider;
@@ -84,6 +92,7 @@
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -234,6 +243,83 @@ public void indexDefaultPhenotypeBehaviourTest() throws IOException, SolrServerE
         Assert.assertEquals(5, inputDoc.getFieldValues("extended_phenotype").size());
     }
 
+    @Test
+    public void indexSummaryAndAccessRightsTest() throws IOException, SolrServerException
+    {
+        EntityAccess entityAccess = mock(DefaultEntityAccess.class);
+        AccessLevel view = new ViewAccessLevel();
+        AccessLevel edit = new EditAccessLevel();
+        Visibility patientVisibility = mock(Visibility.class);
+        when(patientVisibility.getName()).thenReturn("public");
+        when(patientVisibility.getDefaultAccessLevel()).thenReturn(view);
+        when(this.permissions.listAllAccessLevels()).thenReturn(Arrays.asList(view, edit));
+
+        DocumentReference ownerReference = new DocumentReference("wiki", "XWiki", "owner");
+        DocumentReference collaboratorReference = new DocumentReference("wiki", "XWiki", "collaborator");
+        EntityReferenceSerializer<String> referenceSerializer =
+            this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING);
+        when(referenceSerializer.serialize(ownerReference)).thenReturn("wiki:XWiki.owner");
+        when(referenceSerializer.serialize(collaboratorReference)).thenReturn("wiki:XWiki.collaborator");
+        Owner owner = mock(Owner.class);
+        when(owner.getUser()).thenReturn(ownerReference);
+        Collaborator collaborator = mock(Collaborator.class);
+        when(collaborator.getUser()).thenReturn(collaboratorReference);
+        when(collaborator.getAccessLevel()).thenReturn(view);
+        doReturn(owner).when(entityAccess).getOwner();
+        doReturn(Collections.singletonList(collaborator)).when(entityAccess).getCollaborators();
+        doReturn(entityAccess).when(this.permissions).getEntityAccess(this.patient);
+        doReturn(patientVisibility).when(entityAccess).getVisibility();
+
+        Map<String, String> names = new HashMap<>();
+        names.put("first_name", "John");
+        names.put("last_name", " ");
+        doReturn(new DictionaryPatientData<>("patientName", names)).when(this.patient).getData("patientName");
+        doReturn("P0000001").when(this.patient).getId();
+        doReturn("EID1").when(this.patient).getExternalId();
+        doReturn(this.patientDocReference).when(this.patient).getDocumentReference();
+        doReturn(Collections.emptySet()).when(this.patient).getFeatures();
+
+        CapturingMatcher<SolrInputDocument> capturedArgument = new CapturingMatcher<>();
+        when(this.server.add(argThat(capturedArgument))).thenReturn(mock(UpdateResponse.class));
+
+        this.patientIndexer.index(this.patient);
+
+        SolrInputDocument inputDoc = capturedArgument.getLastValue();
+        Assert.assertEquals("P0000001", inputDoc.getFieldValue("id"));
+        Assert.assertEquals("EID1", inputDoc.getFieldValue("external_id"));
+        Assert.assertEquals("John", inputDoc.getFieldValue("first_name"));
+        Assert.assertNull(inputDoc.getField("last_name"));
+        Assert.assertEquals(Arrays.asList("wiki:XWiki.owner", "wiki:XWiki.collaborator", "*"),
+            inputDoc.getFieldValues("access_view"));
+        Assert.assertEquals(Arrays.asList("wiki:XWiki.owner"), inputDoc.getFieldValues("access_edit"));
+    }
+
+    @Test
+    public void recordsWithoutOwnerAreAccessibleToEverybody() throws IOException, SolrServerException
+    {
+        EntityAccess entityAccess = mock(DefaultEntityAccess.class);
+        AccessLevel view = new ViewAccessLevel();
+        AccessLevel edit = new EditAccessLevel();
+        Visibility patientVisibility = mock(Visibility.class);
+        when(patientVisibility.getName()).thenReturn("private");
+        when(this.permissions.listAllAccessLevels()).thenReturn(Arrays.asList(view, edit));
+        doReturn(mock(Owner.class)).when(entityAccess).getOwner();
+        doReturn(Collections.emptyList()).when(entityAccess).getCollaborators();
+        doReturn(entityAccess).when(this.permissions).getEntityAccess(this.patient);
+        doReturn(patientVisibility).when(entityAccess).getVisibility();
+        doReturn(this.patientDocReference).when(this.patient).getDocumentReference();
+        doReturn(Collections.emptySet()).when(this.patient).getFeatures();
+
+        CapturingMatcher<SolrInputDocument> capturedArgument = new CapturingMatcher<>();
+        when(this.server.add(argThat(capturedArgument))).thenReturn(mock(UpdateResponse.class));
+
+        this.patientIndexer.index(this.patient);
+
+        SolrInputDocument inputDoc = capturedArgument.getLastValue();
+        Assert.assertEquals(Arrays.asList("*"), inputDoc.getFieldValues("access_view"));
+        Assert.assertEquals(Arrays.asList("*"), inputDoc.getFieldValues("access_edit"));
+    }
+
     @Test
     public void indexDefaultGeneBehaviourTest() throws IOException, SolrServerException
     {
@@ -378,6 +464,21 @@ public void indexGetReporterIsNull() throws IOException, SolrServerException
         Assert.assertEquals(inputDoc.getFieldValue("reporter"), "");
     }
 
+    @Test
+    public void indexSeveralPatientsCommitsOnce() throws IOException, SolrServerException
+    {
+        EntityAccess entityAccess = mock(DefaultEntityAccess.class);
+        doReturn(this.patientDocReference).when(this.patient).getDocumentReference();
+        doReturn(Collections.emptySet()).when(this.patient).getFeatures();
+        doReturn(entityAccess).when(this.permissions).getEntityAccess(this.patient);
+        doReturn(new PublicVisibility()).when(entityAccess).getVisibility();
+
+        this.patientIndexer.index(Arrays.asList(this.patient, this.patient));
+
+        verify(this.server, times(2)).add(any(SolrInputDocument.class));
+        verify(this.server).commit();
+    }
+
     @Test
     public void deleteDefaultBehaviourTest() throws IOException, SolrServerException
     {
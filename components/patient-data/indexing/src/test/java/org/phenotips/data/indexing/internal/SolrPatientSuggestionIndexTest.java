@@ -0,0 +1,234 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.indexing.internal;
+
+import org.phenotips.data.indexing.PatientSuggestion;
+import org.phenotips.data.indexing.PatientSuggestionIndex;
+import org.phenotips.data.permissions.AccessLevel;
+import org.phenotips.data.permissions.EntityPermissionsManager;
+import org.phenotips.groups.Group;
+import org.phenotips.groups.GroupManager;
+import org.phenotips.security.authorization.AuthorizationService;
+import org.phenotips.vocabulary.SolrCoreContainerHandler;
+
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+import org.xwiki.users.User;
+import org.xwiki.users.UserManager;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.core.CoreContainer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SolrPatientSuggestionIndexTest
+{
+    private static final String USER = "xwiki:XWiki.Doctor";
+
+    private static final String GROUP = "xwiki:Groups.Clinic";
+
+    @Rule
+    public MockitoComponentMockingRule<PatientSuggestionIndex> mocker =
+        new MockitoComponentMockingRule<>(SolrPatientSuggestionIndex.class);
+
+    @Mock
+    private SolrClient server;
+
+    @Mock
+    private User user;
+
+    @Mock
+    private Group group;
+
+    private PatientSuggestionIndex index;
+
+    private AuthorizationService access;
+
+    private DocumentReference patientReference = new DocumentReference("xwiki", "data", "P0000001");
+
+    @Before
+    public void setUp() throws Exception
+    {
+        MockitoAnnotations.initMocks(this);
+
+        SolrCoreContainerHandler cores = this.mocker.getInstance(SolrCoreContainerHandler.class);
+        doReturn(mock(CoreContainer.class)).when(cores).getContainer();
+        this.index = this.mocker.getComponentUnderTest();
+        ReflectionUtils.setFieldValue(this.index, "server", this.server);
+
+        DocumentReference userReference = new DocumentReference("xwiki", "XWiki", "Doctor");
+        DocumentReference groupReference = new DocumentReference("xwiki", "Groups", "Clinic");
+        UserManager users = this.mocker.getInstance(UserManager.class);
+        when(users.getCurrentUser()).thenReturn(this.user);
+        when(this.user.getProfileDocument()).thenReturn(userReference);
+        when(this.group.getReference()).thenReturn(groupReference);
+        GroupManager groups = this.mocker.getInstance(GroupManager.class);
+        when(groups.getGroupsForUser(this.user)).thenReturn(Collections.singleton(this.group));
+        EntityReferenceSerializer<String> serializer = this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING);
+        when(serializer.serialize(userReference)).thenReturn(USER);
+        when(serializer.serialize(groupReference)).thenReturn(GROUP);
+
+        AccessLevel view = mock(AccessLevel.class);
+        when(view.getGrantedRight()).thenReturn(Right.VIEW);
+        AccessLevel edit = mock(AccessLevel.class);
+        when(edit.getGrantedRight()).thenReturn(Right.EDIT);
+        EntityPermissionsManager permissions = this.mocker.getInstance(EntityPermissionsManager.class);
+        when(permissions.listAllAccessLevels()).thenReturn(Arrays.asList(view, edit));
+
+        this.access = this.mocker.getInstance(AuthorizationService.class);
+
+        DocumentReferenceResolver<String> resolver =
+            this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING, "current");
+        when(resolver.resolve("xwiki:data.P0000001")).thenReturn(this.patientReference);
+    }
+
+    @Test
+    public void suggestQueriesNGramFieldsWithAccessFilter() throws IOException, SolrServerException
+    {
+        SolrDocument doc = new SolrDocument();
+        doc.setField("document", "xwiki:data.P0000001");
+        doc.setField("id", "P0000001");
+        doc.setField("external_id", "Beast");
+        SolrDocumentList docs = new SolrDocumentList();
+        docs.add(doc);
+        QueryResponse response = mock(QueryResponse.class);
+        when(response.getResults()).thenReturn(docs);
+        ArgumentCaptor<SolrParams> query = ArgumentCaptor.forClass(SolrParams.class);
+        when(this.server.query(query.capture())).thenReturn(response);
+
+        List<PatientSuggestion> result = this.index.suggest(" AnK ", true, Right.EDIT, "eid", "desc", 10, 5);
+
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals(this.patientReference, result.get(0).getDocumentReference());
+        Assert.assertEquals("P0000001", result.get(0).getId());
+        Assert.assertEquals("Beast", result.get(0).getExternalId());
+
+        SolrQuery params = (SolrQuery) query.getValue();
+        Assert.assertEquals("id_suggest:AnK OR name_suggest:AnK", params.getQuery());
+        Assert.assertEquals("document,id,external_id", params.getFields());
+        Assert.assertEquals(Arrays.asList("-id:PatientTemplate",
+            "access_edit:(\\* OR xwiki\\:XWiki.Doctor OR xwiki\\:Groups.Clinic)"),
+            Arrays.asList(params.getFilterQueries()));
+        Assert.assertEquals("external_id desc", params.get("sort"));
+        Assert.assertEquals(Integer.valueOf(10), params.getStart());
+        Assert.assertEquals(Integer.valueOf(5), params.getRows());
+    }
+
+    @Test
+    public void namesAreNotSearchedWhenExcluded() throws IOException, SolrServerException
+    {
+        QueryResponse response = mock(QueryResponse.class);
+        when(response.getResults()).thenReturn(new SolrDocumentList());
+        ArgumentCaptor<SolrParams> query = ArgumentCaptor.forClass(SolrParams.class);
+        when(this.server.query(query.capture())).thenReturn(response);
+
+        Assert.assertTrue(this.index.suggest("P01", false, Right.VIEW, null, null, 0, 5).isEmpty());
+
+        SolrQuery params = (SolrQuery) query.getValue();
+        Assert.assertEquals("id_suggest:P01", params.getQuery());
+        Assert.assertEquals("id asc", params.get("sort"));
+    }
+
+    @Test
+    public void longInputsAreCutToTheIndexedLength() throws IOException, SolrServerException
+    {
+        QueryResponse response = mock(QueryResponse.class);
+        when(response.getResults()).thenReturn(new SolrDocumentList());
+        ArgumentCaptor<SolrParams> query = ArgumentCaptor.forClass(SolrParams.class);
+        when(this.server.query(query.capture())).thenReturn(response);
+
+        this.index.suggest("Charles Francis Xavier, professor", true, Right.VIEW, "id", "asc", 0, 5);
+
+        Assert.assertEquals("id_suggest:Charles\\ Francis\\ Xavier,\\ profes OR "
+            + "name_suggest:Charles\\ Francis\\ Xavier,\\ profes", ((SolrQuery) query.getValue()).getQuery());
+    }
+
+    @Test
+    public void administratorsAreNotFiltered() throws IOException, SolrServerException
+    {
+        when(this.access.hasAccess(eq(this.user), eq(Right.ADMIN), any(EntityReference.class))).thenReturn(true);
+        QueryResponse response = mock(QueryResponse.class);
+        when(response.getResults()).thenReturn(new SolrDocumentList());
+        ArgumentCaptor<SolrParams> query = ArgumentCaptor.forClass(SolrParams.class);
+        when(this.server.query(query.capture())).thenReturn(response);
+
+        this.index.suggest("P01", true, Right.VIEW, "id", "asc", 0, 5);
+
+        Assert.assertEquals(Arrays.asList("-id:PatientTemplate"),
+            Arrays.asList(((SolrQuery) query.getValue()).getFilterQueries()));
+    }
+
+    @Test
+    public void usersGrantedTheRightOnTheDataSpaceAreNotFiltered() throws IOException, SolrServerException
+    {
+        when(this.access.hasAccess(eq(this.user), eq(Right.VIEW), any(EntityReference.class))).thenReturn(true);
+        QueryResponse response = mock(QueryResponse.class);
+        when(response.getResults()).thenReturn(new SolrDocumentList());
+        ArgumentCaptor<SolrParams> query = ArgumentCaptor.forClass(SolrParams.class);
+        when(this.server.query(query.capture())).thenReturn(response);
+
+        this.index.suggest("P01", true, Right.VIEW, "id", "asc", 0, 5);
+
+        Assert.assertEquals(Arrays.asList("-id:PatientTemplate"),
+            Arrays.asList(((SolrQuery) query.getValue()).getFilterQueries()));
+    }
+
+    @Test
+    public void blankInputDoesNotQueryTheIndex() throws IOException, SolrServerException
+    {
+        Assert.assertTrue(this.index.suggest("  ", true, Right.VIEW, "id", "asc", 0, 5).isEmpty());
+        verify(this.server, never()).query(any(SolrParams.class));
+    }
+
+    @Test
+    public void searchErrorsReturnEmptyResults() throws IOException, SolrServerException
+    {
+        when(this.server.query(any(SolrParams.class))).thenThrow(new SolrServerException("Core not available"));
+        Assert.assertTrue(this.index.suggest("P01", true, Right.VIEW, "id", "asc", 0, 5).isEmpty());
+        verify(this.mocker.getMockedLogger()).warn("Failed to search patients: {}", "Core not available");
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.rest;
+
+import org.phenotips.rest.ParentResource;
+import org.phenotips.rest.Relation;
+import org.phenotips.rest.RequiredAccess;
+
+import java.io.InputStream;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Resource for importing many patient records at once.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Path("/patients/import")
+@Relation("https://phenotips.org/rel/patientRecordsImport")
+@ParentResource(PatientsResource.class)
+public interface PatientsImportResource
+{
+    /**
+     * Import patients from their JSON representation. The input is either a JSON array of patients, or a stream of
+     * patients as newline-delimited JSON, and is processed as it is received, so that large imports don't have to be
+     * held in memory. Each patient is created and stored with all its data at once, and the new patients are indexed
+     * together, in batches. Failing to import a patient doesn't stop the import.
+     *
+     * @param data the JSON representation of the new patients
+     * @return a report listing, for each patient in the input, in order, either the identifier and the location of the
+     *         created patient, or the reason why it could not be created; if the input is not well-formed JSON, the
+     *         patients read until the error are still imported; the report is sent with a {@code 200} status if all the
+     *         patients were imported, with a {@code 207} status if only some of them were, and with a {@code 400}
+     *         status if the input is malformed and no patient was imported
+     */
+    @POST
+    @Consumes({ MediaType.APPLICATION_JSON, "application/x-ndjson" })
+    @Produces(MediaType.APPLICATION_JSON)
+    @RequiredAccess("edit")
+    Response importPatients(InputStream data);
+}
@@ -58,11 +58,22 @@
     Response add(String json);
 
     /**
-     * @param start for large result set paging, the index of the first patient to display in the returned page
+     * Lists the patient records accessible to the current user. When more records are available, the result contains a
+     * {@code next} link which includes a continuation token; requesting the next page with this token costs the same
+     * regardless of how deep the page is, while requesting it with {@code start} requires going through all the
+     * previous records again.
+     *
+     * @param start for large result set paging, the index of the first patient to display in the returned page;
+     *            ignored if a continuation token is specified
      * @param number for large result set paging, how many patients to display in the returned page
-     * @param orderField field used for ordering the patients, can be one of {@code id} (default) or {@code eid}
-     * @param order the sorting order, can be one of {@code asc} (default) or {@code desc}
+     * @param orderField field used for ordering the patients, can be one of {@code id} (default) or {@code eid};
+     *            ignored if a continuation token is specified
+     * @param order the sorting order, can be one of {@code asc} (default) or {@code desc}; ignored if a continuation
+     *            token is specified
+     * @param continuationToken an opaque token, as found in the {@code next} link of a previous page, identifying where
+     *            the next page starts
      * @return a list of patient records
+     * @since 1.4 (the continuationToken parameter)
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
@@ -71,5 +82,6 @@ Patients listPatients(
         @QueryParam("start") @DefaultValue("0") Integer start,
         @QueryParam("number") @DefaultValue("30") Integer number,
         @QueryParam("orderField") @DefaultValue("id") String orderField,
-        @QueryParam("order") @DefaultValue("asc") String order);
+        @QueryParam("order") @DefaultValue("asc") String order,
+        @QueryParam("continue") String continuationToken);
 }
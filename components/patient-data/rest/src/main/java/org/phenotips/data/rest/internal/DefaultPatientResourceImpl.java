@@ -22,7 +22,9 @@
 import org.phenotips.data.PatientWritePolicy;
 import org.phenotips.data.rest.PatientResource;
 import org.phenotips.rest.Autolinker;
+import org.phenotips.rest.VersionedResponses;
 import org.phenotips.security.authorization.AuthorizationService;
+import org.phenotips.vocabulary.VocabularyVersionRegistry;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.rest.XWikiResource;
@@ -30,18 +32,23 @@
 import org.xwiki.users.User;
 import org.xwiki.users.UserManager;
 
+import java.util.TreeMap;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 import javax.ws.rs.WebApplicationException;
-import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
 import org.apache.commons.lang3.StringUtils;
 import org.json.JSONObject;
 
+import com.xpn.xwiki.doc.XWikiDocument;
+
 /**
  * Default implementation for {@link PatientResource} using XWiki's support for REST resources.
  *
@@ -65,6 +72,16 @@ public class DefaultPatientResourceImpl extends XWikiResource implements Patient
     @Inject
     private Provider<Autolinker> autolinker;
 
+    @Inject
+    private VersionedResponses responses;
+
+    @Inject
+    private VocabularyVersionRegistry vocabularyVersions;
+
+    /** The current request, used for answering conditional requests. */
+    @Context
+    private Request request;
+
     @Override
     public Response getPatient(String id)
     {
@@ -90,12 +107,20 @@ public Response getPatient(String id)
             && this.access.hasAccess(currentUser, manageRight, patient.getDocumentReference())) {
             grantedRight = manageRight;
         }
-        JSONObject json = patient.toJSON();
-        json.put("links",
-            this.autolinker.get().forResource(getClass(), this.uriInfo)
-                .withExtraParameters("entity-type", "patients")
-                .withGrantedRight(grantedRight).build());
-        return Response.ok(json, MediaType.APPLICATION_JSON_TYPE).build();
+        final Right linksRight = grantedRight;
+        // The representation changes when the patient document is modified, when the user's access changes, or when a
+        // vocabulary providing term names is updated; it also includes data from outside the patient document, such as
+        // the owner's profile, which is not tracked, so only a weak validator can be offered
+        XWikiDocument document = patient.getXDocument();
+        return this.responses.getWeakResponse(this.request, () -> {
+            JSONObject json = patient.toJSON();
+            json.put("links",
+                this.autolinker.get().forResource(getClass(), this.uriInfo)
+                    .withExtraParameters("entity-type", "patients")
+                    .withGrantedRight(linksRight).build());
+            return json;
+        }, PatientResource.class.getName(), patient.getId(), document.getVersion(), linksRight.getName(),
+            this.uriInfo.getBaseUri(), new TreeMap<>(this.vocabularyVersions.getVersions()));
     }
 
     @Override
@@ -0,0 +1,376 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.rest.internal;
+
+import org.phenotips.concurrency.ContextPropagator;
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.data.indexing.PatientIndexer;
+import org.phenotips.data.rest.PatientResource;
+import org.phenotips.data.rest.PatientsImportResource;
+import org.phenotips.security.authorization.AuthorizationService;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.rest.XWikiResource;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.users.User;
+import org.xwiki.users.UserManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.UriBuilder;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Default implementation for {@link PatientsImportResource} using XWiki's support for REST resources. Patients are
+ * read one by one from the request body, and created in parallel by a small pool of workers, with at most a few
+ * patients waiting to be created at any time. Indexing is disabled in the workers, and the new patients are indexed
+ * together, in batches of bounded size, so that they don't have to be kept in memory until the end of the import.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Component
+@Named("org.phenotips.data.rest.internal.DefaultPatientsImportResourceImpl")
+@Singleton
+@SuppressWarnings("checkstyle:ClassFanOutComplexity")
+public class DefaultPatientsImportResourceImpl extends XWikiResource implements PatientsImportResource
+{
+    /** The number of patients created in parallel. */
+    private static final int WORKERS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /** The maximum number of patients read from the input, but not created yet. */
+    private static final int MAX_PENDING = 2 * WORKERS;
+
+    /** The number of created patients indexed together. */
+    private static final int INDEX_BATCH_SIZE = 100;
+
+    /** The status sent when only some of the patients could be imported. */
+    private static final int MULTI_STATUS = 207;
+
+    private static final String ERROR = "error";
+
+    private static final String INDEX = "index";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Inject
+    private PatientRepository repository;
+
+    @Inject
+    private PatientIndexer indexer;
+
+    @Inject
+    private AuthorizationService access;
+
+    @Inject
+    private UserManager users;
+
+    /** Fills in missing reference fields with those from the current context document to create a full reference. */
+    @Inject
+    @Named("current")
+    private EntityReferenceResolver<EntityReference> currentResolver;
+
+    /** Used for setting up a copy of the current context in the worker threads. */
+    @Inject
+    private ContextPropagator contextPropagator;
+
+    @Override
+    public Response importPatients(InputStream data)
+    {
+        final User currentUser = this.users.getCurrentUser();
+        if (!this.access.hasAccess(currentUser, Right.EDIT,
+            this.currentResolver.resolve(Patient.DEFAULT_DATA_SPACE, EntityType.SPACE))) {
+            throw new WebApplicationException(Status.UNAUTHORIZED);
+        }
+        final DocumentReference creator = currentUser != null ? currentUser.getProfileDocument() : null;
+
+        ImportReport report = new ImportReport();
+        List<Patient> toIndex = new ArrayList<>(INDEX_BATCH_SIZE);
+        ExecutorService workers = Executors.newFixedThreadPool(WORKERS, new ContextThreadFactory());
+        CompletionService<ImportResult> results = new ExecutorCompletionService<>(workers);
+        // the index in the input of each patient submitted for creation, but not collected yet
+        Map<Future<ImportResult>, Integer> pending = new HashMap<>();
+        try (JsonParser parser = MAPPER.getFactory().createParser(data)) {
+            JsonToken token = parser.nextToken();
+            // Either a JSON array, or a sequence of JSON objects
+            if (token == JsonToken.START_ARRAY) {
+                token = parser.nextToken();
+            }
+            int index = 0;
+            while (token != null && token != JsonToken.END_ARRAY) {
+                final int crt = index++;
+                if (token == JsonToken.START_OBJECT) {
+                    final JSONObject json = readPatient(parser, crt, report);
+                    if (json != null) {
+                        pending.put(results.submit(() -> createPatient(crt, json, creator)), crt);
+                    }
+                    if (pending.size() >= MAX_PENDING) {
+                        collect(results, pending, report, toIndex);
+                    }
+                } else {
+                    parser.skipChildren();
+                    report.addFailure(crt, "Not a JSON object");
+                }
+                token = parser.nextToken();
+            }
+        } catch (IOException ex) {
+            this.slf4Jlogger.warn("Failed to read the patients to import: {}", ex.getMessage());
+            report.setError("Invalid input: " + ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            report.setError("Import interrupted");
+        } finally {
+            try {
+                while (!pending.isEmpty()) {
+                    collect(results, pending, report, toIndex);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                report.setError("Import interrupted");
+            }
+            workers.shutdown();
+        }
+
+        index(toIndex);
+        this.slf4Jlogger.debug("Imported [{}] patients via REST", report.getCreatedCount());
+        return Response.status(getStatus(report)).type(MediaType.APPLICATION_JSON_TYPE)
+            .entity(report.toJSON().toString()).build();
+    }
+
+    /**
+     * Patients created before a failure are already stored, so the request is only rejected when nothing was imported
+     * because of malformed input. Otherwise, a partial import is reported as a multi-status response.
+     *
+     * @param report the outcome of the import
+     * @return the HTTP status to send
+     */
+    private int getStatus(ImportReport report)
+    {
+        if (report.getCreatedCount() == 0 && report.hasError()) {
+            return Status.BAD_REQUEST.getStatusCode();
+        }
+        return report.hasFailures() ? MULTI_STATUS : Status.OK.getStatusCode();
+    }
+
+    /**
+     * Reads the next patient from the input. The JSON object is always consumed, but if it cannot be converted, it is
+     * reported as a failed record instead of stopping the import.
+     *
+     * @param parser the input parser, positioned at the start of a JSON object
+     * @param index the index of the patient in the input
+     * @param report the outcome of the import, where conversion failures are added
+     * @return the patient data, or {@code null} if it cannot be used
+     * @throws IOException if the input cannot be read
+     */
+    private JSONObject readPatient(JsonParser parser, int index, ImportReport report) throws IOException
+    {
+        String data = parser.readValueAsTree().toString();
+        try {
+            return new JSONObject(data);
+        } catch (RuntimeException ex) {
+            this.slf4Jlogger.warn("Invalid patient #{}: {}", index, ex.getMessage());
+            report.addFailure(index, "Invalid patient: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    private ImportResult createPatient(int index, JSONObject json, DocumentReference creator)
+    {
+        try {
+            Patient patient = this.repository.create(json, creator);
+            if (patient == null) {
+                return new ImportResult(index, null, "Failed to create patient");
+            }
+            return new ImportResult(index, patient, null);
+        } catch (Exception ex) {
+            this.slf4Jlogger.warn("Failed to import patient #{}: {}", index, ex.getMessage(), ex);
+            return new ImportResult(index, null, "Failed to create patient: " + ex.getMessage());
+        }
+    }
+
+    private void collect(CompletionService<ImportResult> results, Map<Future<ImportResult>, Integer> pending,
+        ImportReport report, List<Patient> toIndex) throws InterruptedException
+    {
+        Future<ImportResult> done = results.take();
+        int index = pending.remove(done);
+        try {
+            ImportResult result = done.get();
+            if (result.patient != null) {
+                report.addCreated(result.index, result.patient.getId(), UriBuilder.fromUri(this.uriInfo.getBaseUri())
+                    .path(PatientResource.class).build(result.patient.getId()).toString());
+                toIndex.add(result.patient);
+                if (toIndex.size() >= INDEX_BATCH_SIZE) {
+                    index(toIndex);
+                }
+            } else {
+                report.addFailure(result.index, result.error);
+            }
+        } catch (ExecutionException ex) {
+            // Exceptions are already turned into failed results, so only errors can get here
+            this.slf4Jlogger.warn("Unexpected failure while importing patient #{}: {}", index,
+                ex.getCause().getMessage(), ex);
+            report.addFailure(index, "Failed to create patient: " + ex.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Indexes a batch of new patients, and forgets them.
+     *
+     * @param patients the created patients not indexed yet, emptied afterwards
+     */
+    private void index(List<Patient> patients)
+    {
+        if (!patients.isEmpty()) {
+            this.indexer.index(new ArrayList<>(patients));
+            patients.clear();
+        }
+    }
+
+    /** The outcome of importing one patient, passed from a worker to the request thread. */
+    private static final class ImportResult
+    {
+        private final int index;
+
+        private final Patient patient;
+
+        private final String error;
+
+        ImportResult(int index, Patient patient, String error)
+        {
+            this.index = index;
+            this.patient = patient;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Gathers the outcome of importing each patient, in the order of the input. Only the identifiers and locations of
+     * the created patients, and the errors, are kept, not the patients themselves.
+     */
+    private static final class ImportReport
+    {
+        private final Map<Integer, JSONObject> results = new TreeMap<>();
+
+        private int created;
+
+        private String error;
+
+        void addCreated(int index, String id, String href)
+        {
+            JSONObject result = new JSONObject();
+            result.put(INDEX, index);
+            result.put("id", id);
+            result.put("href", href);
+            this.results.put(index, result);
+            ++this.created;
+        }
+
+        void addFailure(int index, String failure)
+        {
+            JSONObject result = new JSONObject();
+            result.put(INDEX, index);
+            result.put(ERROR, failure);
+            this.results.put(index, result);
+        }
+
+        void setError(String error)
+        {
+            this.error = error;
+        }
+
+        boolean hasError()
+        {
+            return this.error != null;
+        }
+
+        boolean hasFailures()
+        {
+            return hasError() || this.created < this.results.size();
+        }
+
+        int getCreatedCount()
+        {
+            return this.created;
+        }
+
+        JSONObject toJSON()
+        {
+            JSONObject result = new JSONObject();
+            result.put("created", this.created);
+            result.put("failed", this.results.size() - this.created);
+            result.put("patients", new JSONArray(this.results.values()));
+            if (this.error != null) {
+                result.put(ERROR, this.error);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Creates worker threads with their own execution context, holding a copy of the current context, and with
+     * indexing deferred. Threads are created when tasks are submitted, in the request thread.
+     */
+    private final class ContextThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable task)
+        {
+            Thread thread = new Thread(
+                DefaultPatientsImportResourceImpl.this.contextPropagator.wrap(task,
+                    Collections.<String, Object>singletonMap(PatientIndexer.DEFER_INDEXING, Boolean.TRUE)),
+                "Patient import worker #" + this.counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
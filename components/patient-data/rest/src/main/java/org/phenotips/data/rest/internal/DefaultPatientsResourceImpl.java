@@ -25,19 +25,24 @@
 import org.phenotips.data.rest.model.PatientSummary;
 import org.phenotips.data.rest.model.Patients;
 import org.phenotips.rest.Autolinker;
+import org.phenotips.rest.model.Link;
 import org.phenotips.security.authorization.AuthorizationService;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceResolver;
 import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryManager;
 import org.xwiki.rest.XWikiResource;
 import org.xwiki.security.authorization.Right;
 import org.xwiki.users.User;
 import org.xwiki.users.UserManager;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.List;
 
 import javax.inject.Inject;
@@ -50,6 +55,7 @@
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.UriBuilder;
 
+import org.apache.commons.lang3.StringUtils;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -65,6 +71,17 @@
 @Singleton
 public class DefaultPatientsResourceImpl extends XWikiResource implements PatientsResource
 {
+    private static final String SUMMARY_QUERY =
+        "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
+            + " from Document doc, doc.object(PhenoTips.PatientClass) p where doc.name <> :t";
+
+    private static final String TEMPLATE_PARAMETER = "t";
+
+    private static final String TEMPLATE_NAME = "PatientTemplate";
+
+    /** The minimum number of records queried at once when listing patients after a continuation token. */
+    private static final int MIN_BATCH_SIZE = 100;
+
     @Inject
     private PatientRepository repository;
 
@@ -102,7 +119,8 @@ public Response add(final String json)
         try {
             final Response response;
             if (json != null) {
-                response = json.startsWith("[") ? addPatients(json) : addPatient(json);
+                DocumentReference creator = currentUser != null ? currentUser.getProfileDocument() : null;
+                response = json.startsWith("[") ? addPatients(json, creator) : addPatient(json, creator);
             } else {
                 response = buildCreatedResponse(this.repository.create());
             }
@@ -117,12 +135,13 @@ public Response add(final String json)
      * Import new patients from their representation as a JSON array.
      *
      * @param json the JSON representation of the new patients to be created
+     * @param creator the user creating the patients
      * @return a response containing locations of the newly created patients in its body, if successful
      * @throws WebApplicationException if a {@link JSONArray} object cannot be created or one of the patient objects is
      *             null
      * @throws NullPointerException if the patient was not created
      */
-    private Response addPatients(final String json)
+    private Response addPatients(final String json, final DocumentReference creator)
     {
         final JSONArray patientsData;
         final JSONArray createdPatientUri = new JSONArray();
@@ -139,8 +158,7 @@ private Response addPatients(final String json)
                 this.slf4Jlogger.warn("One of the members of the patient JSONArray is null.");
                 continue;
             }
-            Patient patient = this.repository.create();
-            patient.updateFromJSON(jsonObject);
+            Patient patient = this.repository.create(jsonObject, creator);
             createdPatientUri.put(UriBuilder.fromUri(this.uriInfo.getBaseUri())
                 .path(PatientResource.class)
                 .build(patient.getId()));
@@ -154,11 +172,12 @@ private Response addPatients(final String json)
      * Import a new patient from its JSON representation.
      *
      * @param json the JSON representation of the new patient
+     * @param creator the user creating the patient
      * @return the location of the newly created patient, if successful
      * @throws WebApplicationException if a {@link JSONObject} cannot be created
      * @throws NullPointerException if the patient was not created
      */
-    private Response addPatient(final String json)
+    private Response addPatient(final String json, final DocumentReference creator)
     {
         JSONObject jsonObject;
         try {
@@ -166,8 +185,7 @@ private Response addPatient(final String json)
         } catch (Exception ex) {
             throw new WebApplicationException(Status.BAD_REQUEST);
         }
-        final Patient patient = this.repository.create();
-        patient.updateFromJSON(jsonObject);
+        final Patient patient = this.repository.create(jsonObject, creator);
         return buildCreatedResponse(patient);
     }
 
@@ -187,47 +205,113 @@ private Response buildCreatedResponse(final Patient patient)
     }
 
     @Override
-    public Patients listPatients(Integer start, Integer number, String orderField, String order)
+    public Patients listPatients(Integer start, Integer number, String orderField, String order,
+        String continuationToken)
     {
         Patients result = new Patients();
         try {
-            String safeOrderField = "doc.name";
-            if ("eid".equals(orderField)) {
-                safeOrderField = "p.external_id";
+            PageRequest page;
+            if (StringUtils.isNotBlank(continuationToken)) {
+                page = PageRequest.fromToken(continuationToken);
+                if (page == null) {
+                    throw new WebApplicationException(Status.BAD_REQUEST);
+                }
+                listPatientsAfter(page, number, result);
+            } else {
+                page = new PageRequest("eid".equals(orderField), "desc".equals(order));
+                listPatientsFrom(page, start, number, result);
             }
-            String safeOrder = " asc";
-            if ("desc".equals(order)) {
-                safeOrder = " desc";
+            result.withLinks(this.autolinker.get().forResource(getClass(), this.uriInfo)
+                .withGrantedRight(getGrantedRight()).build());
+            if (page.hasNext()) {
+                result.getLinks().add(new Link().withRel("next").withHref(this.uriInfo.getRequestUriBuilder()
+                    .replaceQueryParam("start").replaceQueryParam("continue", page.toToken()).build().toString()));
             }
-            Query query = this.queries.createQuery(
-                "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
-                    + " from Document doc, doc.object(PhenoTips.PatientClass) p where doc.name <> :t order by "
-                    + safeOrderField + safeOrder,
-                "xwql");
-            query.bindValue("t", "PatientTemplate");
+        } catch (WebApplicationException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            this.slf4Jlogger.error("Failed to list patients: {}", ex.getMessage(), ex);
+            throw new WebApplicationException(Status.INTERNAL_SERVER_ERROR);
+        }
+
+        return result;
+    }
+
+    /**
+     * Lists patients starting with the record at the specified index, going through all the previous records.
+     *
+     * @param page the requested ordering, updated with the last listed record
+     * @param start the number of accessible records to skip
+     * @param number the maximum number of records to list
+     * @param result where the listed records are added
+     * @throws QueryException if querying the database fails
+     */
+    private void listPatientsFrom(PageRequest page, int start, int number, Patients result) throws QueryException
+    {
+        int skipped = 0;
+        for (int segment = 0; segment < page.getSegmentCount(); ++segment) {
+            Query query = this.queries.createQuery(SUMMARY_QUERY + page.getQuery(segment, false), Query.XWQL);
+            query.bindValue(TEMPLATE_PARAMETER, TEMPLATE_NAME);
 
             List<Object[]> records = query.execute();
-            int skipped = 0;
             for (Object[] record : records) {
                 PatientSummary summary = this.factory.createPatientSummary(record, this.uriInfo);
-                // Since raw queries can't take into account access rights, we must do our own paging with rights checks
+                // Since raw queries can't take into account access rights, we must do our own paging
                 if (summary != null) {
                     if (++skipped > start) {
                         result.getPatientSummaries().add(summary);
                     }
                     if (result.getPatientSummaries().size() >= number) {
-                        break;
+                        page.setLast(record, true);
+                        return;
                     }
                 }
             }
-            result.withLinks(this.autolinker.get().forResource(getClass(), this.uriInfo)
-                .withGrantedRight(getGrantedRight()).build());
-        } catch (Exception ex) {
-            this.slf4Jlogger.error("Failed to list patients: {}", ex.getMessage(), ex);
-            throw new WebApplicationException(Status.INTERNAL_SERVER_ERROR);
         }
+    }
 
-        return result;
+    /**
+     * Lists patients found after the last record of the previous page. Only the records that follow, in the requested
+     * order, are queried, in batches, until enough accessible records are found.
+     *
+     * @param page where the previous page ended, updated with the last listed record
+     * @param number the maximum number of records to list
+     * @param result where the listed records are added
+     * @throws QueryException if querying the database fails
+     */
+    private void listPatientsAfter(PageRequest page, int number, Patients result) throws QueryException
+    {
+        int batchSize = Math.max(number, MIN_BATCH_SIZE);
+        int firstSegment = page.getLastSegment();
+        for (int segment = firstSegment; segment < page.getSegmentCount(); ++segment) {
+            // The segment of the previous page continues after its last record, the following ones from the start
+            boolean afterLast = segment == firstSegment;
+            boolean more = true;
+            while (more) {
+                Query query = this.queries.createQuery(SUMMARY_QUERY + page.getQuery(segment, afterLast), Query.XWQL);
+                query.bindValue(TEMPLATE_PARAMETER, TEMPLATE_NAME);
+                if (afterLast) {
+                    page.bindKeyset(query, segment);
+                }
+                query.setLimit(batchSize);
+                List<Object[]> records = query.execute();
+                more = records.size() >= batchSize;
+                boolean mayFollow = more || segment < page.getSegmentCount() - 1;
+                for (Object[] record : records) {
+                    PatientSummary summary = this.factory.createPatientSummary(record, this.uriInfo);
+                    // Since raw queries can't take into account access rights, records are filtered here
+                    if (summary != null) {
+                        result.getPatientSummaries().add(summary);
+                    }
+                    boolean full = result.getPatientSummaries().size() >= number;
+                    page.setLast(record, mayFollow || full);
+                    if (full) {
+                        return;
+                    }
+                }
+                afterLast = true;
+            }
+        }
     }
 
     private Right getGrantedRight()
@@ -242,4 +326,148 @@ private Right getGrantedRight()
         }
         return grantedRight;
     }
+
+    /**
+     * The ordering of a list of patients, and the sort key of the last listed record, which can be serialized as an
+     * opaque continuation token.
+     * <p>
+     * When ordering by external identifier, records without one can't be compared with the others in a way that works
+     * the same on all databases, since XWQL doesn't support {@code coalesce} and each database sorts {@code NULL}s
+     * differently. Such records are listed in a separate segment instead, before the others in ascending order and
+     * after them in descending order, as if their identifier was an empty string.
+     * </p>
+     */
+    private static final class PageRequest
+    {
+        private static final String EID_KEY = "eid";
+
+        private static final String DESC_KEY = "desc";
+
+        private static final String LAST_KEY_KEY = "key";
+
+        private static final String LAST_NAME_KEY = "name";
+
+        private final boolean byExternalId;
+
+        private final boolean descending;
+
+        private String lastKey;
+
+        private String lastName;
+
+        private boolean hasNext;
+
+        PageRequest(boolean byExternalId, boolean descending)
+        {
+            this.byExternalId = byExternalId;
+            this.descending = descending;
+        }
+
+        static PageRequest fromToken(String token)
+        {
+            try {
+                JSONObject json =
+                    new JSONObject(new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8));
+                PageRequest result = new PageRequest(json.optBoolean(EID_KEY), json.optBoolean(DESC_KEY));
+                result.lastName = json.getString(LAST_NAME_KEY);
+                result.lastKey = json.optString(LAST_KEY_KEY, null);
+                return result;
+            } catch (IllegalArgumentException | JSONException ex) {
+                return null;
+            }
+        }
+
+        String toToken()
+        {
+            JSONObject json = new JSONObject();
+            json.put(EID_KEY, this.byExternalId);
+            json.put(DESC_KEY, this.descending);
+            json.put(LAST_NAME_KEY, this.lastName);
+            if (this.byExternalId) {
+                json.put(LAST_KEY_KEY, this.lastKey);
+            }
+            return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(json.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * The number of segments, each listed by its own query, in order.
+         *
+         * @return {@code 2} when ordering by external identifier, {@code 1} otherwise
+         */
+        int getSegmentCount()
+        {
+            return this.byExternalId ? 2 : 1;
+        }
+
+        /**
+         * The segment where the last listed record was found.
+         *
+         * @return a segment index
+         */
+        int getLastSegment()
+        {
+            if (!this.byExternalId) {
+                return 0;
+            }
+            return isNullSegment(0) == (this.lastKey == null) ? 0 : 1;
+        }
+
+        /**
+         * The conditions and ordering for listing a segment, with the document name used as a tie-breaker so that the
+         * order is stable.
+         *
+         * @param segment the index of the segment to list
+         * @param afterLast whether to only list the records following the last listed record
+         * @return XWQL conditions and {@code order by} clause, to append to the summary query
+         */
+        String getQuery(int segment, boolean afterLast)
+        {
+            String direction = this.descending ? " desc" : " asc";
+            String comparison = this.descending ? " < " : " > ";
+            String nameOrder = " order by doc.name" + direction;
+            String nameCondition = afterLast ? " and doc.name" + comparison + ":lastName" : "";
+            if (!this.byExternalId) {
+                return nameCondition + nameOrder;
+            }
+            if (isNullSegment(segment)) {
+                return " and p.external_id is null" + nameCondition + nameOrder;
+            }
+            return " and p.external_id is not null"
+                + (afterLast ? " and (p.external_id" + comparison + ":lastKey"
+                    + " or (p.external_id = :lastKey and doc.name" + comparison + ":lastName))" : "")
+                + " order by p.external_id" + direction + ", doc.name" + direction;
+        }
+
+        void bindKeyset(Query query, int segment)
+        {
+            query.bindValue("lastName", this.lastName);
+            if (this.byExternalId && !isNullSegment(segment)) {
+                query.bindValue("lastKey", this.lastKey);
+            }
+        }
+
+        private boolean isNullSegment(int segment)
+        {
+            return this.byExternalId && (segment == 0) != this.descending;
+        }
+
+        /**
+         * Remembers the last record listed or skipped.
+         *
+         * @param record the summary data of the record, as returned by {@link #SUMMARY_QUERY}
+         * @param hasNext whether more records may follow
+         */
+        void setLast(Object[] record, boolean hasNext)
+        {
+            this.lastName = StringUtils.substringAfterLast(String.valueOf(record[0]), ".");
+            this.lastKey = (String) record[1];
+            this.hasNext = hasNext;
+        }
+
+        boolean hasNext()
+        {
+            return this.hasNext && this.lastName != null;
+        }
+    }
 }
@@ -21,20 +21,19 @@
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientData;
 import org.phenotips.data.PatientRepository;
+import org.phenotips.data.indexing.PatientSuggestion;
+import org.phenotips.data.indexing.PatientSuggestionIndex;
 import org.phenotips.data.rest.PatientsSuggestionsResource;
 import org.phenotips.entities.PrimaryEntityMetadataManager;
 import org.phenotips.security.authorization.AuthorizationService;
 
 import org.xwiki.component.annotation.Component;
-import org.xwiki.query.Query;
-import org.xwiki.query.QueryException;
-import org.xwiki.query.QueryManager;
 import org.xwiki.rest.XWikiResource;
 import org.xwiki.security.authorization.Right;
+import org.xwiki.users.User;
 import org.xwiki.users.UserManager;
 import org.xwiki.xml.XMLUtils;
 
-import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -49,7 +48,6 @@
 import org.apache.commons.lang3.StringUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
-import org.slf4j.Logger;
 
 import com.xpn.xwiki.XWikiContext;
 
@@ -66,17 +64,13 @@ public class DefaultPatientsSuggestionsResourceImpl extends XWikiResource implem
 {
     private static final String FIRST_NAME = "first_name";
 
-    private static final String INPUT_PARAMETER = "input";
+    private static final String LAST_NAME = "last_name";
 
-    private static final String INPUT_FORMAT = "%%%s%%";
+    private static final String PATIENT_NAME = "patientName";
 
-    /** Logging helper object. */
+    /** The index used for finding matching patients. */
     @Inject
-    private Logger logger;
-
-    /** The query manager for patient retrieval. */
-    @Inject
-    private QueryManager qm;
+    private PatientSuggestionIndex index;
 
     @Inject
     private AuthorizationService authorizationService;
@@ -105,7 +99,7 @@ public String suggestAsJSON(String input, int maxResults, String requiredPermiss
         }
 
         List<Patient> patients =
-            getMatchingPatients(input.toLowerCase(), orderField, order, maxResults, Right.toRight(requiredPermission));
+            getMatchingPatients(input, orderField, order, maxResults, Right.toRight(requiredPermission));
 
         JSONArray results = new JSONArray();
 
@@ -126,7 +120,7 @@ public String suggestAsXML(String input, int maxResults, String requiredPermissi
         }
 
         List<Patient> patients =
-            getMatchingPatients(input.toLowerCase(), orderField, order, maxResults, Right.toRight(requiredPermission));
+            getMatchingPatients(input, orderField, order, maxResults, Right.toRight(requiredPermission));
         StringBuilder xmlResult = new StringBuilder("<results>");
 
         for (Patient patient : patients) {
@@ -140,67 +134,55 @@ public String suggestAsXML(String input, int maxResults, String requiredPermissi
     private List<Patient> getMatchingPatients(String input, String orderField, String order, int maxResults,
         Right requiredPermission)
     {
-        List<String> queryResults = queryPatients(input.toLowerCase(), orderField, order);
+        boolean usePatientName = this.configuration.getConfiguration("patient").getEnabledFieldNames()
+            .contains(FIRST_NAME);
+        // The index only searches the beginning of long inputs, so the whole input must be checked on the records
+        String fullInput = StringUtils.trim(input);
+        boolean checkInput = fullInput.length() > PatientSuggestionIndex.MAX_MATCHED_LENGTH;
+        User currentUser = this.userManager.getCurrentUser();
         List<Patient> results = new LinkedList<>();
 
-        int count = 0;
-        for (String queryResult : queryResults) {
-            Patient patient = this.patientRepository.get(queryResult);
-            if (patient == null) {
-                continue;
+        int start = 0;
+        while (results.size() < maxResults) {
+            List<PatientSuggestion> suggestions = this.index.suggest(input, usePatientName, requiredPermission,
+                orderField, order, start, maxResults);
+            for (PatientSuggestion suggestion : suggestions) {
+                // The index only narrows down the candidates using the access rules of each patient, and doesn't
+                // filter at all for users that may have access through other rules, so each record is still checked
+                // before it is loaded
+                if (!this.authorizationService.hasAccess(currentUser, requiredPermission,
+                    suggestion.getDocumentReference())) {
+                    continue;
+                }
+                Patient patient = this.patientRepository.get(suggestion.getId());
+                if (patient == null || checkInput && !matches(patient, fullInput, usePatientName)) {
+                    continue;
+                }
+                results.add(patient);
+                if (results.size() >= maxResults) {
+                    break;
+                }
             }
-
-            if (!this.authorizationService.hasAccess(this.userManager.getCurrentUser(), requiredPermission,
-                patient.getDocumentReference())) {
-                continue;
-            }
-
-            results.add(patient);
-            if (++count >= maxResults) {
+            if (suggestions.size() < maxResults) {
                 break;
             }
+            start += suggestions.size();
         }
         return results;
     }
 
-    private List<String> queryPatients(String input, String orderField, String order)
+    private boolean matches(Patient patient, String input, boolean usePatientName)
     {
-        List<String> queryResults = new LinkedList<>();
-
-        String safeOrderField = "doc.name";
-        if ("eid".equals(orderField)) {
-            safeOrderField = "patient.external_id";
+        if (StringUtils.containsIgnoreCase(patient.getId(), input)
+            || StringUtils.containsIgnoreCase(patient.getExternalId(), input)) {
+            return true;
         }
-        String safeOrder = " asc";
-        if ("desc".equals(order)) {
-            safeOrder = " desc";
-        }
-
-        StringBuilder querySb = new StringBuilder();
-        querySb.append("select doc.name from Document doc, doc.object(PhenoTips.PatientClass) as patient");
-        querySb.append(" where doc.name <> :t and lower(doc.name) like :").append(INPUT_PARAMETER);
-        querySb.append(" or lower(patient.external_id) like :").append(INPUT_PARAMETER);
-
-        boolean usePatientName = this.configuration.getConfiguration("patient").getEnabledFieldNames()
-            .contains(FIRST_NAME);
         if (usePatientName) {
-            querySb.append(" or lower(patient.first_name) like :").append(INPUT_PARAMETER);
-            querySb.append(" or lower(patient.last_name) like :").append(INPUT_PARAMETER);
-        }
-
-        querySb.append(" order by " + safeOrderField + safeOrder);
-        try {
-            Query query = this.qm.createQuery(querySb.toString(), Query.XWQL);
-            query.bindValue("t", "PatientTemplate");
-            String formattedInput = String.format(INPUT_FORMAT, input);
-            query.bindValue(INPUT_PARAMETER, formattedInput);
-
-            queryResults = query.execute();
-        } catch (QueryException e) {
-            this.logger.error("Error while performing patients query: [{}] ", e.getMessage());
-            return Collections.emptyList();
+            PatientData<String> patientNames = patient.getData(PATIENT_NAME);
+            return patientNames != null && (StringUtils.containsIgnoreCase(patientNames.get(FIRST_NAME), input)
+                || StringUtils.containsIgnoreCase(patientNames.get(LAST_NAME), input));
         }
-        return queryResults;
+        return false;
     }
 
     private JSONObject getPatientJSON(Patient patient)
@@ -248,12 +230,11 @@ private String getDescription(Patient patient)
     {
         // Add description
         StringBuilder description = new StringBuilder(patient.getId());
-        String patientName = "";
-        PatientData<String> patientNames = patient.getData("patientName");
+        PatientData<String> patientNames = patient.getData(PATIENT_NAME);
         if (patientNames != null) {
             String firstName = StringUtils.defaultString(patientNames.get(FIRST_NAME));
-            String lastName = StringUtils.defaultString(patientNames.get("last_name"));
-            patientName = (firstName + " " + lastName).trim();
+            String lastName = StringUtils.defaultString(patientNames.get(LAST_NAME));
+            String patientName = (firstName + " " + lastName).trim();
             if (StringUtils.isNotEmpty(patientName)) {
                 description.append(", name: ").append(patientName);
             }
@@ -22,7 +22,9 @@
 import org.phenotips.data.PatientWritePolicy;
 import org.phenotips.data.rest.PatientResource;
 import org.phenotips.rest.Autolinker;
+import org.phenotips.rest.VersionedResponses;
 import org.phenotips.security.authorization.AuthorizationService;
+import org.phenotips.vocabulary.VocabularyVersionRegistry;
 
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
@@ -40,9 +42,11 @@
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.UriInfo;
@@ -59,11 +63,13 @@
 import org.slf4j.Logger;
 
 import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
 
 import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasValue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
@@ -98,6 +104,9 @@
     @Mock
     private UriInfo uriInfo;
 
+    @Mock
+    private XWikiDocument document;
+
     private Logger logger;
 
     private PatientRepository repository;
@@ -136,6 +145,9 @@ public void setUp() throws ComponentLookupException, URISyntaxException
         when(this.repository.get(PATIENT_ID)).thenReturn(this.patient);
         when(this.patient.getId()).thenReturn(PATIENT_ID);
 
+        doReturn(this.document).when(this.patient).getXDocument();
+        doReturn("3.1").when(this.document).getVersion();
+
         doReturn(new URI(URI_STRING)).when(this.uriInfo).getRequestUri();
         ReflectionUtils.setFieldValue(this.patientResource, "uriInfo", this.uriInfo);
 
@@ -146,6 +158,11 @@ public void setUp() throws ComponentLookupException, URISyntaxException
         when(autolinker.build()).thenReturn(Collections
             .singletonList(new org.phenotips.rest.model.Link().withAllowedMethods(Collections.singletonList("GET"))
                 .withHref(URI_STRING).withRel("self")));
+
+        VersionedResponses responses = this.mocker.getInstance(VersionedResponses.class);
+        when(responses.getWeakResponse(any(Request.class), any(Supplier.class), anyVararg()))
+            .thenAnswer(invocation -> Response.ok(((Supplier<?>) invocation.getArguments()[1]).get().toString(),
+                MediaType.APPLICATION_JSON_TYPE).build());
     }
 
     // ----------------------------Get Patient Tests----------------------------
@@ -181,8 +198,8 @@ public void getPatientNormalBehaviour()
 
         Response response = this.patientResource.getPatient(PATIENT_ID);
 
-        Assert.assertTrue(response.getEntity() instanceof JSONObject);
-        JSONObject json = (JSONObject) response.getEntity();
+        Assert.assertTrue(response.getEntity() instanceof String);
+        JSONObject json = new JSONObject((String) response.getEntity());
         Assert.assertTrue(json.has("links"));
         JSONArray links = json.getJSONArray("links");
         JSONObject selfLink = null;
@@ -199,6 +216,23 @@ public void getPatientNormalBehaviour()
         Assert.assertEquals(Status.OK.getStatusCode(), response.getStatus());
     }
 
+    @Test
+    public void getPatientIsVersionedByDocumentVersionGrantedRightAndVocabularyVersions()
+        throws ComponentLookupException
+    {
+        doReturn(true).when(this.access).hasAccess(this.currentUser, Right.VIEW, this.patientDocument);
+        doReturn(new JSONObject()).when(this.patient).toJSON();
+        VocabularyVersionRegistry versions = this.mocker.getInstance(VocabularyVersionRegistry.class);
+        when(versions.getVersions()).thenReturn(Collections.singletonMap("hpo", "2017-01-01"));
+
+        this.patientResource.getPatient(PATIENT_ID);
+
+        VersionedResponses responses = this.mocker.getInstance(VersionedResponses.class);
+        verify(responses).getWeakResponse(any(Request.class), any(Supplier.class),
+            eq(PatientResource.class.getName()), eq(PATIENT_ID), eq("3.1"), eq("edit"), any(),
+            eq(Collections.singletonMap("hpo", "2017-01-01")));
+    }
+
     // ----------------------------Update Patient Tests----------------------------
 
     @Test
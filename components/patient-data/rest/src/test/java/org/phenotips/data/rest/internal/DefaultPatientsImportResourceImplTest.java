@@ -0,0 +1,294 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.rest.internal;
+
+import org.phenotips.concurrency.ContextPropagator;
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.data.indexing.PatientIndexer;
+import org.phenotips.data.rest.PatientsImportResource;
+import org.phenotips.security.authorization.AuthorizationService;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+import org.xwiki.users.User;
+import org.xwiki.users.UserManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+
+import javax.inject.Provider;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link DefaultPatientsImportResourceImpl} component.
+ */
+public class DefaultPatientsImportResourceImplTest
+{
+    @Rule
+    public MockitoComponentMockingRule<PatientsImportResource> mocker =
+        new MockitoComponentMockingRule<>(DefaultPatientsImportResourceImpl.class);
+
+    @Mock
+    private User currentUser;
+
+    @Mock
+    private UriInfo uriInfo;
+
+    private DocumentReference profile = new DocumentReference("xwiki", "XWiki", "padams");
+
+    private PatientRepository repository;
+
+    private PatientIndexer indexer;
+
+    private AuthorizationService access;
+
+    private PatientsImportResource resource;
+
+    private ContextPropagator propagator;
+
+    @Before
+    public void setUp() throws ComponentLookupException, URISyntaxException
+    {
+        MockitoAnnotations.initMocks(this);
+        Execution execution = mock(Execution.class);
+        ExecutionContext executionContext = mock(ExecutionContext.class);
+        ComponentManager compManager = this.mocker.getInstance(ComponentManager.class, "context");
+        Provider<XWikiContext> provider = this.mocker.getInstance(XWikiContext.TYPE_PROVIDER);
+        XWikiContext context = mock(XWikiContext.class);
+        when(provider.get()).thenReturn(context);
+        when(context.clone()).thenReturn(mock(XWikiContext.class));
+        when(compManager.getInstance(Execution.class)).thenReturn(execution);
+        when(execution.getContext()).thenReturn(executionContext);
+        when(executionContext.getProperty("xwikicontext")).thenReturn(context);
+        this.propagator = this.mocker.getInstance(ContextPropagator.class);
+        when(this.propagator.wrap(any(Runnable.class), anyMapOf(String.class, Object.class)))
+            .thenAnswer(invocation -> invocation.getArguments()[0]);
+
+        this.repository = this.mocker.getInstance(PatientRepository.class);
+        this.indexer = this.mocker.getInstance(PatientIndexer.class);
+        this.access = this.mocker.getInstance(AuthorizationService.class);
+        UserManager users = this.mocker.getInstance(UserManager.class);
+        when(users.getCurrentUser()).thenReturn(this.currentUser);
+        when(this.currentUser.getProfileDocument()).thenReturn(this.profile);
+        when(this.access.hasAccess(eq(this.currentUser), eq(Right.EDIT), any(EntityReference.class))).thenReturn(true);
+
+        this.resource = this.mocker.getComponentUnderTest();
+        when(this.uriInfo.getBaseUri()).thenReturn(new URI("http://uri"));
+        ReflectionUtils.setFieldValue(this.resource, "uriInfo", this.uriInfo);
+
+        when(this.repository.create(any(JSONObject.class), eq(this.profile))).thenAnswer(invocation -> {
+            JSONObject json = (JSONObject) invocation.getArguments()[0];
+            if (json.has("fail")) {
+                return null;
+            }
+            if (json.has("crash")) {
+                throw new NoClassDefFoundError("org/phenotips/Missing");
+            }
+            Patient patient = mock(Patient.class);
+            when(patient.getId()).thenReturn("P" + json.getString("external_id"));
+            return patient;
+        });
+    }
+
+    @Test(expected = WebApplicationException.class)
+    public void importIsDeniedWithoutEditRight()
+    {
+        when(this.access.hasAccess(eq(this.currentUser), eq(Right.EDIT), any(EntityReference.class)))
+            .thenReturn(false);
+        this.resource.importPatients(input("[]"));
+    }
+
+    @Test
+    public void importsJSONArray()
+    {
+        Response response = this.resource.importPatients(
+            input("[{\"external_id\":\"1\"}, {\"external_id\":\"2\"}, {\"external_id\":\"3\"}]"));
+
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+        JSONObject report = new JSONObject((String) response.getEntity());
+        Assert.assertEquals(3, report.getInt("created"));
+        Assert.assertEquals(0, report.getInt("failed"));
+        JSONArray patients = report.getJSONArray("patients");
+        for (int i = 0; i < 3; ++i) {
+            Assert.assertEquals(i, patients.getJSONObject(i).getInt("index"));
+            Assert.assertEquals("P" + (i + 1), patients.getJSONObject(i).getString("id"));
+            Assert.assertEquals("http://uri/patients/P" + (i + 1), patients.getJSONObject(i).getString("href"));
+        }
+        verify(this.repository, times(3)).create(any(JSONObject.class), eq(this.profile));
+        verify(this.repository, never()).create();
+        verifyIndexed(3);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void workersRunInACopyOfTheContextWithDeferredIndexing()
+    {
+        this.resource.importPatients(input("[{\"external_id\":\"1\"}]"));
+
+        ArgumentCaptor<Map> properties = ArgumentCaptor.forClass(Map.class);
+        verify(this.propagator).wrap(any(Runnable.class), properties.capture());
+        Assert.assertEquals(Boolean.TRUE, properties.getValue().get(PatientIndexer.DEFER_INDEXING));
+    }
+
+    @Test
+    public void importsNewlineDelimitedJSON()
+    {
+        StringBuilder input = new StringBuilder();
+        for (int i = 1; i <= 20; ++i) {
+            input.append("{\"external_id\":\"").append(i).append("\"}\n");
+        }
+
+        Response response = this.resource.importPatients(input(input.toString()));
+
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+        JSONObject report = new JSONObject((String) response.getEntity());
+        Assert.assertEquals(20, report.getInt("created"));
+        Assert.assertEquals("P20", report.getJSONArray("patients").getJSONObject(19).getString("id"));
+        verifyIndexed(20);
+    }
+
+    @Test
+    public void failuresAreReportedPerRecord()
+    {
+        Response response = this.resource.importPatients(
+            input("[{\"external_id\":\"1\"}, 42, {\"fail\":true}, {\"external_id\":\"4\"}]"));
+
+        Assert.assertEquals(207, response.getStatus());
+        JSONObject report = new JSONObject((String) response.getEntity());
+        Assert.assertEquals(2, report.getInt("created"));
+        Assert.assertEquals(2, report.getInt("failed"));
+        JSONArray patients = report.getJSONArray("patients");
+        Assert.assertEquals("P1", patients.getJSONObject(0).getString("id"));
+        Assert.assertTrue(patients.getJSONObject(1).has("error"));
+        Assert.assertTrue(patients.getJSONObject(2).has("error"));
+        Assert.assertEquals("P4", patients.getJSONObject(3).getString("id"));
+        verifyIndexed(2);
+    }
+
+    @Test
+    public void unexpectedErrorsAreReportedPerRecord()
+    {
+        Response response = this.resource.importPatients(
+            input("[{\"external_id\":\"1\"}, {\"crash\":true}, {\"external_id\":\"3\"}]"));
+
+        Assert.assertEquals(207, response.getStatus());
+        JSONObject report = new JSONObject((String) response.getEntity());
+        Assert.assertEquals(2, report.getInt("created"));
+        Assert.assertEquals(1, report.getInt("failed"));
+        JSONArray patients = report.getJSONArray("patients");
+        Assert.assertEquals(3, patients.length());
+        Assert.assertEquals(1, patients.getJSONObject(1).getInt("index"));
+        Assert.assertEquals("Failed to create patient: org/phenotips/Missing",
+            patients.getJSONObject(1).getString("error"));
+        verifyIndexed(2);
+    }
+
+    @Test
+    public void recordsBeforeMalformedInputAreImported()
+    {
+        Response response = this.resource.importPatients(input("{\"external_id\":\"1\"}\n{\"external_id\":"));
+
+        Assert.assertEquals(207, response.getStatus());
+        JSONObject report = new JSONObject((String) response.getEntity());
+        Assert.assertEquals(1, report.getInt("created"));
+        Assert.assertTrue(report.has("error"));
+        verifyIndexed(1);
+    }
+
+    @Test
+    public void malformedInputIsRejectedWhenNothingWasImported()
+    {
+        Response response = this.resource.importPatients(input("[{\"external_id\":"));
+
+        Assert.assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), response.getStatus());
+        JSONObject report = new JSONObject((String) response.getEntity());
+        Assert.assertEquals(0, report.getInt("created"));
+        Assert.assertTrue(report.has("error"));
+        verify(this.indexer, never()).index(any(Collection.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void largeImportsAreIndexedInBatches()
+    {
+        StringBuilder input = new StringBuilder();
+        for (int i = 1; i <= 250; ++i) {
+            input.append("{\"external_id\":\"").append(i).append("\"}\n");
+        }
+
+        Response response = this.resource.importPatients(input(input.toString()));
+
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+        Assert.assertEquals(250, new JSONObject((String) response.getEntity()).getInt("created"));
+        ArgumentCaptor<Collection> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(this.indexer, times(3)).index(captor.capture());
+        Assert.assertEquals(100, captor.getAllValues().get(0).size());
+        Assert.assertEquals(100, captor.getAllValues().get(1).size());
+        Assert.assertEquals(50, captor.getAllValues().get(2).size());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void verifyIndexed(int count)
+    {
+        ArgumentCaptor<Collection> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(this.indexer).index(captor.capture());
+        Assert.assertEquals(count, captor.getValue().size());
+        verify(this.indexer, never()).index(any(Patient.class));
+    }
+
+    private InputStream input(String data)
+    {
+        return new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8));
+    }
+}
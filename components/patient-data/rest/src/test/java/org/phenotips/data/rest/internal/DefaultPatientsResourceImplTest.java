@@ -31,6 +31,7 @@
 import org.xwiki.component.util.ReflectionUtils;
 import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
@@ -43,13 +44,17 @@
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.List;
 
 import javax.inject.Provider;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
 
 import org.json.JSONArray;
@@ -58,6 +63,7 @@
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.slf4j.Logger;
@@ -66,10 +72,14 @@
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -91,6 +101,9 @@
     @Mock
     private UriInfo uriInfo;
 
+    @Mock
+    private UriBuilder uriBuilder;
+
     private DomainObjectFactory factory;
 
     private PatientRepository repository;
@@ -131,6 +144,9 @@ public void setUp() throws ComponentLookupException, URISyntaxException
 
         doReturn(this.uri).when(this.uriInfo).getBaseUri();
         doReturn(this.uri).when(this.uriInfo).getRequestUri();
+        doReturn(this.uriBuilder).when(this.uriInfo).getRequestUriBuilder();
+        doReturn(this.uriBuilder).when(this.uriBuilder).replaceQueryParam(anyString(), anyVararg());
+        doReturn(this.uri).when(this.uriBuilder).build();
         ReflectionUtils.setFieldValue(this.patientsResource, "uriInfo", this.uriInfo);
 
         doReturn("P00000001").when(this.patient).getId();
@@ -177,7 +193,7 @@ public void creatingPatientFails()
         JSONObject json = new JSONObject();
         Exception exception = new NullPointerException();
         doReturn(true).when(this.access).hasAccess(any(User.class), eq(Right.EDIT), any(EntityReference.class));
-        doThrow(exception).when(this.repository).create();
+        doThrow(exception).when(this.repository).create(any(JSONObject.class), any(DocumentReference.class));
         Response response = this.patientsResource.add(json.toString());
         Assert.assertEquals(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(), response.getStatus());
         verify(this.logger).error("Could not process patient creation request: {}", exception.getMessage(), exception);
@@ -189,7 +205,7 @@ public void creatingOneOfThePatientsFails()
         JSONArray json = new JSONArray("[{}, {}, {}]");
         Exception exception = new NullPointerException();
         doReturn(true).when(this.access).hasAccess(any(User.class), eq(Right.EDIT), any(EntityReference.class));
-        doThrow(exception).when(this.repository).create();
+        doThrow(exception).when(this.repository).create(any(JSONObject.class), any(DocumentReference.class));
         Response response = this.patientsResource.add(json.toString());
         Assert.assertEquals(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(), response.getStatus());
         verify(this.logger).error("Could not process patient creation request: {}", exception.getMessage(), exception);
@@ -200,7 +216,7 @@ public void addPatientsAsJSONEmptyArray()
     {
         JSONArray json = new JSONArray();
         doReturn(true).when(this.access).hasAccess(any(User.class), eq(Right.EDIT), any(EntityReference.class));
-        doReturn(this.patient).when(this.repository).create();
+        doReturn(this.patient).when(this.repository).create(any(JSONObject.class), any(DocumentReference.class));
         Response response = this.patientsResource.add(json.toString());
         Assert.assertEquals(Response.Status.CREATED.getStatusCode(), response.getStatus());
         verify(this.logger).debug("Importing new patient from JSON via REST: {}", "[]");
@@ -210,7 +226,7 @@ public void addPatientsAsJSONEmptyArray()
     public void addPatientAsJSON()
     {
         doReturn(true).when(this.access).hasAccess(any(User.class), eq(Right.EDIT), any(EntityReference.class));
-        doReturn(this.patient).when(this.repository).create();
+        doReturn(this.patient).when(this.repository).create(any(JSONObject.class), any(DocumentReference.class));
         JSONObject jsonPatient = new JSONObject();
         Response response = this.patientsResource.add(jsonPatient.toString());
         Assert.assertEquals(Response.Status.CREATED.getStatusCode(), response.getStatus());
@@ -221,7 +237,7 @@ public void addPatientAsJSON()
     public void addPatientsAsJSON()
     {
         doReturn(true).when(this.access).hasAccess(any(User.class), eq(Right.EDIT), any(EntityReference.class));
-        doReturn(this.patient).when(this.repository).create();
+        doReturn(this.patient).when(this.repository).create(any(JSONObject.class), any(DocumentReference.class));
         JSONArray jsonPatients = new JSONArray().put(new JSONObject()).put(new JSONObject()).put(new JSONObject());
         Response response = this.patientsResource.add(jsonPatients.toString());
         Assert.assertEquals(Response.Status.CREATED.getStatusCode(), response.getStatus());
@@ -235,7 +251,7 @@ public void listPatientsNullOrderField() throws QueryException
         doReturn(query).when(this.queries).createQuery(anyString(), anyString());
         doReturn(query).when(query).bindValue(anyString(), anyString());
         doReturn(new ArrayList<Object[]>()).when(query).execute();
-        this.patientsResource.listPatients(0, 30, null, "asc");
+        this.patientsResource.listPatients(0, 30, null, "asc", null);
         verify(this.queries).createQuery(
             "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
                 + " from Document doc, doc.object(PhenoTips.PatientClass) p where doc.name <> :t order by "
@@ -250,7 +266,7 @@ public void listPatientsNullOrder() throws QueryException
         doReturn(query).when(this.queries).createQuery(anyString(), anyString());
         doReturn(query).when(query).bindValue(anyString(), anyString());
         doReturn(new ArrayList<Object[]>()).when(query).execute();
-        this.patientsResource.listPatients(0, 30, "id", null);
+        this.patientsResource.listPatients(0, 30, "id", null, null);
         verify(this.queries).createQuery(
             "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
                 + " from Document doc, doc.object(PhenoTips.PatientClass) p where doc.name <> :t order by "
@@ -265,11 +281,16 @@ public void listPatientsNonDefaultBehaviour() throws QueryException
         doReturn(query).when(this.queries).createQuery(anyString(), anyString());
         doReturn(query).when(query).bindValue(anyString(), anyString());
         doReturn(new ArrayList<Object[]>()).when(query).execute();
-        this.patientsResource.listPatients(0, 30, "eid", "desc");
+        this.patientsResource.listPatients(0, 30, "eid", "desc", null);
         verify(this.queries).createQuery(
             "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
-                + " from Document doc, doc.object(PhenoTips.PatientClass) p where doc.name <> :t order by "
-                + "p.external_id" + " desc",
+                + " from Document doc, doc.object(PhenoTips.PatientClass) p where doc.name <> :t"
+                + " and p.external_id is not null order by p.external_id desc, doc.name desc",
+            "xwql");
+        verify(this.queries).createQuery(
+            "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
+                + " from Document doc, doc.object(PhenoTips.PatientClass) p where doc.name <> :t"
+                + " and p.external_id is null order by doc.name desc",
             "xwql");
     }
 
@@ -285,7 +306,7 @@ public void listPatientsNoUserAccess() throws QueryException
         doReturn(patientList).when(query).execute();
         doReturn(false).when(this.access).hasAccess(any(User.class), eq(Right.VIEW), any(EntityReference.class));
         doReturn(null).when(this.factory).createPatientSummary(patientSummaryData, this.uriInfo);
-        Patients result = this.patientsResource.listPatients(0, 30, "id", "asc");
+        Patients result = this.patientsResource.listPatients(0, 30, "id", "asc", null);
         verify(this.queries).createQuery(
             "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
                 + " from Document doc, doc.object(PhenoTips.PatientClass) p where doc.name <> :t order by "
@@ -306,7 +327,7 @@ public void listPatientsUserHasAccess() throws QueryException
         doReturn(patientList).when(query).execute();
         doReturn(true).when(this.access).hasAccess(any(User.class), eq(Right.VIEW), any(EntityReference.class));
         doReturn(new PatientSummary()).when(this.factory).createPatientSummary(any(Object[].class), eq(this.uriInfo));
-        Patients result = this.patientsResource.listPatients(0, 30, "id", "asc");
+        Patients result = this.patientsResource.listPatients(0, 30, "id", "asc", null);
         verify(this.queries).createQuery(
             "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
                 + " from Document doc, doc.object(PhenoTips.PatientClass) p where doc.name <> :t order by "
@@ -330,16 +351,16 @@ public void listPatientsSpecificNumberOfRecords() throws QueryException
         doReturn(true).when(this.access).hasAccess(any(User.class), eq(Right.VIEW), any(EntityReference.class));
         doReturn(new PatientSummary()).when(this.factory).createPatientSummary(any(Object[].class), eq(this.uriInfo));
 
-        Patients allPatients = this.patientsResource.listPatients(0, 30, "id", "asc");
+        Patients allPatients = this.patientsResource.listPatients(0, 30, "id", "asc", null);
         Assert.assertEquals(30, allPatients.getPatientSummaries().size());
 
-        Patients selectedNumberOfPatients = this.patientsResource.listPatients(15, 15, "id", "asc");
+        Patients selectedNumberOfPatients = this.patientsResource.listPatients(15, 15, "id", "asc", null);
         Assert.assertEquals(15, selectedNumberOfPatients.getPatientSummaries().size());
 
-        Patients onePatient = this.patientsResource.listPatients(15, 1, "id", "asc");
+        Patients onePatient = this.patientsResource.listPatients(15, 1, "id", "asc", null);
         Assert.assertEquals(1, onePatient.getPatientSummaries().size());
 
-        Patients incorrectLookup = this.patientsResource.listPatients(31, 5, "id", "asc");
+        Patients incorrectLookup = this.patientsResource.listPatients(31, 5, "id", "asc", null);
         Assert.assertEquals(0, incorrectLookup.getPatientSummaries().size());
     }
 
@@ -357,10 +378,154 @@ public void listPatientsGetMoreRecordsThanAdded() throws QueryException
         doReturn(patientList).when(query).execute();
         doReturn(true).when(this.access).hasAccess(any(User.class), eq(Right.VIEW), any(EntityReference.class));
         doReturn(new PatientSummary()).when(this.factory).createPatientSummary(any(Object[].class), eq(this.uriInfo));
-        Patients result = this.patientsResource.listPatients(0, 30, "id", "asc");
+        Patients result = this.patientsResource.listPatients(0, 30, "id", "asc", null);
         Assert.assertEquals(15, result.getPatientSummaries().size());
     }
 
+    @Test
+    public void listPatientsAddsContinuationLinkWhenMoreRecordsMayFollow() throws QueryException
+    {
+        List<Object[]> patientList = new ArrayList<>();
+        for (int i = 1; i <= 30; i++) {
+            patientList.add(new Object[] { "data.P00000" + (i < 10 ? "0" : "") + i, "E" + i, null, null, null, null,
+                null });
+        }
+        Query query = mock(DefaultQuery.class);
+        doReturn(query).when(this.queries).createQuery(anyString(), anyString());
+        doReturn(query).when(query).bindValue(anyString(), anyString());
+        doReturn(patientList).when(query).execute();
+        doReturn(new PatientSummary()).when(this.factory).createPatientSummary(any(Object[].class), eq(this.uriInfo));
+
+        Patients result = this.patientsResource.listPatients(0, 10, "id", "asc", null);
+        Assert.assertEquals(10, result.getPatientSummaries().size());
+        Assert.assertEquals("next", result.getLinks().get(result.getLinks().size() - 1).getRel());
+        ArgumentCaptor<Object> token = ArgumentCaptor.forClass(Object.class);
+        verify(this.uriBuilder).replaceQueryParam(eq("continue"), token.capture());
+
+        Query nextQuery = mock(DefaultQuery.class);
+        doReturn(nextQuery).when(this.queries).createQuery(anyString(), anyString());
+        doReturn(nextQuery).when(nextQuery).bindValue(anyString(), anyString());
+        doReturn(patientList.subList(10, 30)).when(nextQuery).execute();
+        result = this.patientsResource.listPatients(0, 10, null, null, (String) token.getValue());
+        Assert.assertEquals(10, result.getPatientSummaries().size());
+        verify(this.queries).createQuery(
+            "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
+                + " from Document doc, doc.object(PhenoTips.PatientClass) p where doc.name <> :t"
+                + " and doc.name > :lastName order by doc.name asc",
+            "xwql");
+        verify(nextQuery).bindValue("lastName", "P0000010");
+        verify(nextQuery).setLimit(100);
+    }
+
+    @Test
+    public void listPatientsWithContinuationTokenKeepsExternalIdOrdering() throws QueryException
+    {
+        Query query = mock(DefaultQuery.class);
+        doReturn(query).when(this.queries).createQuery(anyString(), anyString());
+        doReturn(query).when(query).bindValue(anyString(), anyString());
+        doReturn(new ArrayList<Object[]>()).when(query).execute();
+        String token = Base64.getUrlEncoder().encodeToString(
+            new JSONObject().put("eid", true).put("desc", true).put("key", "E5").put("name", "P0000005").toString()
+                .getBytes(StandardCharsets.UTF_8));
+
+        Patients result = this.patientsResource.listPatients(0, 10, "id", "asc", token);
+        Assert.assertTrue(result.getPatientSummaries().isEmpty());
+        verify(this.queries).createQuery(
+            "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
+                + " from Document doc, doc.object(PhenoTips.PatientClass) p where doc.name <> :t"
+                + " and p.external_id is not null"
+                + " and (p.external_id < :lastKey or (p.external_id = :lastKey and doc.name < :lastName))"
+                + " order by p.external_id desc, doc.name desc",
+            "xwql");
+        // records without an external identifier come last in descending order
+        verify(this.queries).createQuery(
+            "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
+                + " from Document doc, doc.object(PhenoTips.PatientClass) p where doc.name <> :t"
+                + " and p.external_id is null order by doc.name desc",
+            "xwql");
+        verify(query).bindValue("lastKey", "E5");
+        verify(query).bindValue("lastName", "P0000005");
+        verify(this.uriBuilder, never()).replaceQueryParam(eq("continue"), anyVararg());
+    }
+
+    @Test
+    public void listPatientsByExternalIdPagesAcrossMissingExternalIds() throws QueryException
+    {
+        String select = "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author,"
+            + " doc.date from Document doc, doc.object(PhenoTips.PatientClass) p where doc.name <> :t";
+        Object[] first = new Object[] { "data.P0000001", null, null, null, null, null, null };
+        Object[] third = new Object[] { "data.P0000003", null, null, null, null, null, null };
+        Object[] second = new Object[] { "data.P0000002", "A", null, null, null, null, null };
+        Object[] fourth = new Object[] { "data.P0000004", "B", null, null, null, null, null };
+        doReturn(new PatientSummary()).when(this.factory).createPatientSummary(any(Object[].class), eq(this.uriInfo));
+
+        // first page: the records without an external identifier come first in ascending order
+        Query nulls = mockQuery(first, third);
+        doReturn(nulls).when(this.queries).createQuery(
+            select + " and p.external_id is null order by doc.name asc", "xwql");
+        Query values = mockQuery(second, fourth);
+        doReturn(values).when(this.queries).createQuery(
+            select + " and p.external_id is not null order by p.external_id asc, doc.name asc", "xwql");
+
+        Patients result = this.patientsResource.listPatients(0, 2, "eid", "asc", null);
+        Assert.assertEquals(2, result.getPatientSummaries().size());
+        verify(this.factory).createPatientSummary(third, this.uriInfo);
+        verify(this.factory, never()).createPatientSummary(second, this.uriInfo);
+        String token = getLastContinuationToken();
+
+        // second page: the rest of the records without an identifier, then the ones with an identifier
+        Query nullsAfter = mockQuery();
+        doReturn(nullsAfter).when(this.queries).createQuery(
+            select + " and p.external_id is null and doc.name > :lastName order by doc.name asc", "xwql");
+
+        result = this.patientsResource.listPatients(0, 2, null, null, token);
+        Assert.assertEquals(2, result.getPatientSummaries().size());
+        verify(nullsAfter).bindValue("lastName", "P0000003");
+        verify(nullsAfter, never()).bindValue(eq("lastKey"), anyString());
+        verify(this.factory).createPatientSummary(second, this.uriInfo);
+        verify(this.factory).createPatientSummary(fourth, this.uriInfo);
+        Assert.assertEquals("next", result.getLinks().get(result.getLinks().size() - 1).getRel());
+        token = getLastContinuationToken();
+
+        // third page: nothing after the last record with an identifier
+        Query valuesAfter = mockQuery();
+        doReturn(valuesAfter).when(this.queries).createQuery(select + " and p.external_id is not null"
+            + " and (p.external_id > :lastKey or (p.external_id = :lastKey and doc.name > :lastName))"
+            + " order by p.external_id asc, doc.name asc", "xwql");
+
+        result = this.patientsResource.listPatients(0, 2, null, null, token);
+        Assert.assertTrue(result.getPatientSummaries().isEmpty());
+        verify(valuesAfter).bindValue("lastKey", "B");
+        verify(valuesAfter).bindValue("lastName", "P0000004");
+    }
+
+    private Query mockQuery(Object[]... records) throws QueryException
+    {
+        Query query = mock(DefaultQuery.class);
+        doReturn(query).when(query).bindValue(anyString(), anyString());
+        doReturn(new ArrayList<>(Arrays.asList(records))).when(query).execute();
+        return query;
+    }
+
+    private String getLastContinuationToken()
+    {
+        ArgumentCaptor<Object> token = ArgumentCaptor.forClass(Object.class);
+        verify(this.uriBuilder, atLeastOnce()).replaceQueryParam(eq("continue"), token.capture());
+        return (String) token.getValue();
+    }
+
+    @Test
+    public void listPatientsWithInvalidContinuationTokenIsRejected() throws QueryException
+    {
+        try {
+            this.patientsResource.listPatients(0, 10, null, null, "not a token");
+            Assert.fail("Invalid continuation tokens should be rejected");
+        } catch (WebApplicationException ex) {
+            Assert.assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), ex.getResponse().getStatus());
+        }
+        verify(this.queries, times(0)).createQuery(anyString(), anyString());
+    }
+
     @Test
     public void listPatientFailureHandling() throws QueryException
     {
@@ -371,7 +536,7 @@ public void listPatientFailureHandling() throws QueryException
         doReturn(query).when(query).bindValue(anyString(), anyString());
         doThrow(queryException).when(query).execute();
         try {
-            this.patientsResource.listPatients(0, 30, "id", "asc");
+            this.patientsResource.listPatients(0, 30, "id", "asc", null);
         } catch (WebApplicationException ex) {
             exception = ex;
         }
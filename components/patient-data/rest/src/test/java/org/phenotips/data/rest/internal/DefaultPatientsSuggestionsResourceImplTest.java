@@ -19,9 +19,11 @@
 
 import org.phenotips.configuration.RecordConfiguration;
 import org.phenotips.configuration.RecordConfigurationManager;
-import org.phenotips.data.DictionaryPatientData;
 import org.phenotips.data.Patient;
+import org.phenotips.data.PatientData;
 import org.phenotips.data.PatientRepository;
+import org.phenotips.data.indexing.PatientSuggestion;
+import org.phenotips.data.indexing.PatientSuggestionIndex;
 import org.phenotips.data.rest.PatientsSuggestionsResource;
 import org.phenotips.security.authorization.AuthorizationService;
 
@@ -30,22 +32,20 @@
 import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
 import org.xwiki.model.reference.DocumentReference;
-import org.xwiki.query.Query;
-import org.xwiki.query.QueryException;
-import org.xwiki.query.QueryManager;
 import org.xwiki.security.authorization.Right;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 import org.xwiki.users.User;
 import org.xwiki.users.UserManager;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.inject.Provider;
 import javax.ws.rs.WebApplicationException;
 
-import org.apache.commons.lang3.StringUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.Assert;
@@ -56,7 +56,6 @@
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
-import org.slf4j.Logger;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
@@ -136,13 +135,9 @@
 
     private AuthorizationService auth;
 
-    @Mock
-    private Logger logger;
-
-    private QueryManager queryManager;
+    private PatientSuggestionIndex index;
 
-    @Mock
-    private Query query;
+    private List<PatientSuggestion> indexedPatients = new ArrayList<>();
 
     @Mock
     private RecordConfiguration configuration;
@@ -155,8 +150,10 @@
     @Mock
     private User user;
 
+    private Map<String, PatientSuggestion> suggestions = new HashMap<>();
+
     @Before
-    public void setUp() throws ComponentLookupException, QueryException
+    public void setUp() throws ComponentLookupException
     {
         MockitoAnnotations.initMocks(this);
         Provider<XWikiContext> xcp = this.mocker.getInstance(XWikiContext.TYPE_PROVIDER);
@@ -172,8 +169,6 @@ public void setUp() throws ComponentLookupException, QueryException
 
         this.component = this.mocker.getComponentUnderTest();
 
-        this.logger = this.mocker.getMockedLogger();
-
         UserManager userManager = this.mocker.getInstance(UserManager.class);
         when(userManager.getCurrentUser()).thenReturn(this.user);
 
@@ -194,16 +189,22 @@ public void setUp() throws ComponentLookupException, QueryException
             false, false, "Charles", "Xavier");
         setupPatient(this.inaccessiblePatient2, this.inaccessiblePatient2Name, null, this.inaccessiblePatient2Reference,
             false, false, null, null);
+        this.indexedPatients.clear();
+        this.indexedPatients.addAll(Arrays.asList(this.suggestions.get(this.readablePatient1Name),
+            this.suggestions.get(this.inaccessiblePatient1Name), this.suggestions.get(this.writablePatient1Name),
+            this.suggestions.get(this.readablePatient2Name), this.suggestions.get(this.writablePatient2Name)));
 
         RecordConfigurationManager rcm = this.mocker.getInstance(RecordConfigurationManager.class);
         when(rcm.getConfiguration("patient")).thenReturn(this.configuration);
         when(this.configuration.getEnabledFieldNames())
             .thenReturn(Arrays.asList("first_name", "last_name", "date_of_birth", "phenotypes"));
 
-        this.queryManager = this.mocker.getInstance(QueryManager.class);
-        when(this.queryManager.createQuery(Matchers.anyString(), Matchers.anyString())).thenReturn(this.query);
-        when(this.query.execute()).thenReturn(Arrays.asList("readablePatient1", "inaccessiblePatient",
-            "writablePatient1", "readablePatient2", "writablePatient2"));
+        this.index = this.mocker.getInstance(PatientSuggestionIndex.class);
+        // The index returns the requested page of the indexed patients, regardless of the input and access rights
+        when(this.index.suggest(Matchers.anyString(), Matchers.anyBoolean(), Matchers.any(Right.class),
+            Matchers.anyString(), Matchers.anyString(), Matchers.anyInt(), Matchers.anyInt()))
+                .thenAnswer(invocation -> getIndexedPatients((int) invocation.getArguments()[5],
+                    (int) invocation.getArguments()[6]));
     }
 
     @Test(expected = WebApplicationException.class)
@@ -231,19 +232,11 @@ public void suggestAsXMLWithEmptyInputThrowsException()
     }
 
     @Test
-    public void suggestAsJSONWithViewAccessAndSortById() throws QueryException
+    public void suggestAsJSONWithViewAccessAndSortById()
     {
         JSONObject response = new JSONObject(this.component.suggestAsJSON("dOe", 2, "view", ID, "asc"));
         JSONArray suggestions = response.getJSONArray("matchedPatients");
-        Mockito.verify(this.queryManager).createQuery(
-            "select doc.name from Document doc, doc.object(PhenoTips.PatientClass) as patient"
-                + " where doc.name <> :t"
-                + " and lower(doc.name) like :input or lower(patient.external_id) like :input"
-                + " or lower(patient.first_name) like :input or lower(patient.last_name) like :input"
-                + " order by doc.name asc",
-            Query.XWQL);
-        Mockito.verify(this.query).bindValue("t", "PatientTemplate");
-        Mockito.verify(this.query).bindValue("input", "%doe%");
+        Mockito.verify(this.index).suggest("dOe", true, Right.VIEW, ID, "asc", 0, 2);
         Assert.assertEquals(2, suggestions.length());
         Assert.assertEquals("readablePatient1", suggestions.getJSONObject(0).getString(ID));
         Assert.assertEquals("writablePatient1", suggestions.getJSONObject(1).getString(ID));
@@ -254,15 +247,7 @@ public void suggestAsXMLWithViewAccessAndSortById() throws Exception
     {
         Document response = parseXML(this.component.suggestAsXML("dOe", 2, "view", ID, "asc"));
         NodeList suggestions = response.getElementsByTagName("rs");
-        Mockito.verify(this.queryManager).createQuery(
-            "select doc.name from Document doc, doc.object(PhenoTips.PatientClass) as patient"
-                + " where doc.name <> :t"
-                + " and lower(doc.name) like :input or lower(patient.external_id) like :input"
-                + " or lower(patient.first_name) like :input or lower(patient.last_name) like :input"
-                + " order by doc.name asc",
-            Query.XWQL);
-        Mockito.verify(this.query).bindValue("t", "PatientTemplate");
-        Mockito.verify(this.query).bindValue("input", "%doe%");
+        Mockito.verify(this.index).suggest("dOe", true, Right.VIEW, ID, "asc", 0, 2);
         Assert.assertEquals(2, suggestions.getLength());
         Assert.assertEquals("/view/readablePatient1", ((Element) suggestions.item(0)).getAttribute(ID));
         Assert.assertEquals("wiki:data.readablePatient1", ((Element) suggestions.item(0)).getAttribute("info"));
@@ -274,19 +259,12 @@ public void suggestAsXMLWithViewAccessAndSortById() throws Exception
     }
 
     @Test
-    public void suggestAsJSONWithEditAccessAndSortByEid() throws QueryException
+    public void suggestAsJSONWithEditAccessAndSortByEid()
     {
         JSONObject response = new JSONObject(this.component.suggestAsJSON("dOe", 4, "edit", EID, "desc"));
         JSONArray suggestions = response.getJSONArray("matchedPatients");
-        Mockito.verify(this.queryManager).createQuery(
-            "select doc.name from Document doc, doc.object(PhenoTips.PatientClass) as patient"
-                + " where doc.name <> :t"
-                + " and lower(doc.name) like :input or lower(patient.external_id) like :input"
-                + " or lower(patient.first_name) like :input or lower(patient.last_name) like :input"
-                + " order by patient.external_id desc",
-            Query.XWQL);
-        Mockito.verify(this.query).bindValue("t", "PatientTemplate");
-        Mockito.verify(this.query).bindValue("input", "%doe%");
+        Mockito.verify(this.index).suggest("dOe", true, Right.EDIT, EID, "desc", 0, 4);
+        Mockito.verify(this.index).suggest("dOe", true, Right.EDIT, EID, "desc", 4, 4);
         Assert.assertEquals(2, suggestions.length());
         Assert.assertEquals("writablePatient1", suggestions.getJSONObject(0).getString(ID));
         Assert.assertEquals("Beast", suggestions.getJSONObject(0).getString("identifier"));
@@ -302,15 +280,8 @@ public void suggestAsXMLWithEditAccessAndSortByEid() throws Exception
     {
         Document response = parseXML(this.component.suggestAsXML("dOe", 4, "edit", EID, "desc"));
         NodeList suggestions = response.getElementsByTagName("rs");
-        Mockito.verify(this.queryManager).createQuery(
-            "select doc.name from Document doc, doc.object(PhenoTips.PatientClass) as patient"
-                + " where doc.name <> :t"
-                + " and lower(doc.name) like :input or lower(patient.external_id) like :input"
-                + " or lower(patient.first_name) like :input or lower(patient.last_name) like :input"
-                + " order by patient.external_id desc",
-            Query.XWQL);
-        Mockito.verify(this.query).bindValue("t", "PatientTemplate");
-        Mockito.verify(this.query).bindValue("input", "%doe%");
+        Mockito.verify(this.index).suggest("dOe", true, Right.EDIT, EID, "desc", 0, 4);
+        Mockito.verify(this.index).suggest("dOe", true, Right.EDIT, EID, "desc", 4, 4);
         Assert.assertEquals(2, suggestions.getLength());
         Assert.assertEquals("/view/writablePatient1", ((Element) suggestions.item(0)).getAttribute(ID));
         Assert.assertEquals("wiki:data.writablePatient1", ((Element) suggestions.item(0)).getAttribute("info"));
@@ -322,38 +293,23 @@ public void suggestAsXMLWithEditAccessAndSortByEid() throws Exception
     }
 
     @Test
-    public void suggestAsJSONWithNamesDisabled() throws QueryException
+    public void suggestAsJSONWithNamesDisabled()
     {
         when(this.configuration.getEnabledFieldNames()).thenReturn(Arrays.asList("phenotypes"));
         JSONObject response = new JSONObject(this.component.suggestAsJSON("dOe", 2, "view", ID, "asc"));
         JSONArray suggestions = response.getJSONArray("matchedPatients");
-        Mockito.verify(this.queryManager).createQuery(
-            "select doc.name from Document doc, doc.object(PhenoTips.PatientClass) as patient"
-                + " where doc.name <> :t"
-                + " and lower(doc.name) like :input or lower(patient.external_id) like :input"
-                + " order by doc.name asc",
-            Query.XWQL);
-        Mockito.verify(this.query).bindValue("t", "PatientTemplate");
-        Mockito.verify(this.query).bindValue("input", "%doe%");
+        Mockito.verify(this.index).suggest("dOe", false, Right.VIEW, ID, "asc", 0, 2);
         Assert.assertEquals(2, suggestions.length());
         Assert.assertEquals("readablePatient1", suggestions.getJSONObject(0).getString(ID));
         Assert.assertEquals("writablePatient1", suggestions.getJSONObject(1).getString(ID));
     }
 
     @Test
-    public void suggestAsJSONWithMorePatientsRequested() throws QueryException
+    public void suggestAsJSONWithMorePatientsRequested()
     {
         JSONObject response = new JSONObject(this.component.suggestAsJSON("dOe", 200, "view", ID, "asc"));
         JSONArray suggestions = response.getJSONArray("matchedPatients");
-        Mockito.verify(this.queryManager).createQuery(
-            "select doc.name from Document doc, doc.object(PhenoTips.PatientClass) as patient"
-                + " where doc.name <> :t"
-                + " and lower(doc.name) like :input or lower(patient.external_id) like :input"
-                + " or lower(patient.first_name) like :input or lower(patient.last_name) like :input"
-                + " order by doc.name asc",
-            Query.XWQL);
-        Mockito.verify(this.query).bindValue("t", "PatientTemplate");
-        Mockito.verify(this.query).bindValue("input", "%doe%");
+        Mockito.verify(this.index).suggest("dOe", true, Right.VIEW, ID, "asc", 0, 200);
         Assert.assertEquals(4, suggestions.length());
         Assert.assertEquals("readablePatient1", suggestions.getJSONObject(0).getString(ID));
         Assert.assertEquals("writablePatient1", suggestions.getJSONObject(1).getString(ID));
@@ -362,36 +318,61 @@ public void suggestAsJSONWithMorePatientsRequested() throws QueryException
     }
 
     @Test
-    public void suggestAsJSONReturnsEmptyListOnExceptions() throws QueryException
+    public void suggestAsJSONReturnsEmptyListWhenNothingMatches()
     {
-        when(this.query.execute()).thenThrow(new QueryException("", this.query, null));
+        this.indexedPatients.clear();
         JSONObject response = new JSONObject(this.component.suggestAsJSON("dOe", 200, "view", ID, "asc"));
         JSONArray suggestions = response.getJSONArray("matchedPatients");
         Assert.assertEquals(0, suggestions.length());
     }
 
-    @SuppressWarnings("ParameterNumber")
+    @Test
+    public void longInputsAreCheckedAgainstTheAccessiblePatients()
+    {
+        String input = "  Xavier and his school for gifted youngsters  ";
+        when(this.auth.hasAccess(this.user, Right.VIEW, this.inaccessiblePatient1Reference)).thenReturn(true);
+        PatientData<String> names = this.writablePatient1.getData("patientName");
+        when(names.get("last_name")).thenReturn("XAVIER AND HIS SCHOOL FOR GIFTED YOUNGSTERS");
+
+        JSONObject response = new JSONObject(this.component.suggestAsJSON(input, 200, "view", ID, "asc"));
+        JSONArray suggestions = response.getJSONArray("matchedPatients");
+        Mockito.verify(this.index).suggest(input, true, Right.VIEW, ID, "asc", 0, 200);
+        Assert.assertEquals(1, suggestions.length());
+        Assert.assertEquals("writablePatient1", suggestions.getJSONObject(0).getString(ID));
+    }
+
+    @Test
+    public void inaccessiblePatientsAreNotLoaded()
+    {
+        this.indexedPatients.add(this.suggestions.get(this.inaccessiblePatient2Name));
+        this.component.suggestAsJSON("dOe", 200, "view", ID, "asc");
+        Mockito.verify(this.repository, Mockito.never()).get(this.inaccessiblePatient1Name);
+        Mockito.verify(this.repository, Mockito.never()).get(this.inaccessiblePatient2Name);
+    }
+
+    @SuppressWarnings({ "ParameterNumber", "unchecked" })
     private void setupPatient(Patient patient, String patientId, String patientExternalId,
         DocumentReference patientReference, boolean canView, boolean canEdit, String firstName, String lastName)
     {
         when(this.repository.get(patientId)).thenReturn(patient);
-        when(patient.getExternalId()).thenReturn(patientExternalId);
         when(patient.getId()).thenReturn(patientId);
+        when(patient.getExternalId()).thenReturn(patientExternalId);
         when(patient.getDocumentReference()).thenReturn(patientReference);
+        PatientData<String> names = mock(PatientData.class);
+        when(names.get("first_name")).thenReturn(firstName);
+        when(names.get("last_name")).thenReturn(lastName);
+        doReturn(names).when(patient).getData("patientName");
         when(this.auth.hasAccess(this.user, Right.VIEW, patientReference)).thenReturn(canView);
         when(this.auth.hasAccess(this.user, Right.EDIT, patientReference)).thenReturn(canEdit);
         when(this.xwiki.getURL(patientReference, "view", this.xcontext)).thenReturn("/view/" + patientId);
-        Map<String, String> nameData = new HashMap<>();
-        if (StringUtils.isNotEmpty(firstName)) {
-            nameData.put("first_name", firstName);
-        }
-        if (StringUtils.isNotEmpty(lastName)) {
-            nameData.put("last_name", lastName);
-        }
-        if (!nameData.isEmpty()) {
-            when(patient.<String>getData("patientName"))
-                .thenReturn(new DictionaryPatientData<>("patientName", nameData));
-        }
+        this.suggestions.put(patientId,
+            new PatientSuggestion(patientReference, patientId, patientExternalId));
+    }
+
+    private List<PatientSuggestion> getIndexedPatients(int start, int count)
+    {
+        int size = this.indexedPatients.size();
+        return new ArrayList<>(this.indexedPatients.subList(Math.min(start, size), Math.min(start + count, size)));
     }
 
     private Document parseXML(String input) throws Exception
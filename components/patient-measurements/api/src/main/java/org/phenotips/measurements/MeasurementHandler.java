@@ -76,6 +76,87 @@
      */
     double standardDeviationToValue(boolean male, float ageInMonths, double targetDeviation);
 
+    /**
+     * Get the percentiles for several measured values at once, for example all the measurements in a patient's
+     * history.
+     *
+     * @param male {@code true} for boys, {@code false} for girls
+     * @param agesInMonths the ages of the measurements, in months
+     * @param values the measured values, usually in centimeters or kilograms, in the same order as the ages
+     * @return the percentiles of each measurement, as numbers between 0 and 100 (inclusive), or {@code -1} for ages
+     *         without reference data
+     * @since 1.4
+     */
+    default int[] valuesToPercentiles(boolean male, float[] agesInMonths, double[] values)
+    {
+        int[] result = new int[agesInMonths.length];
+        for (int i = 0; i < agesInMonths.length; ++i) {
+            result[i] = valueToPercentile(male, agesInMonths[i], values[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Get the standard deviations for several measured values at once.
+     *
+     * @param male {@code true} for boys, {@code false} for girls
+     * @param agesInMonths the ages of the measurements, in months
+     * @param values the measured values, usually in centimeters or kilograms, in the same order as the ages
+     * @return how many standard deviations each measurement deviates from the mean, or {@code NaN} for ages without
+     *         reference data
+     * @since 1.4
+     */
+    default double[] valuesToStandardDeviations(boolean male, float[] agesInMonths, double[] values)
+    {
+        double[] result = new double[agesInMonths.length];
+        for (int i = 0; i < agesInMonths.length; ++i) {
+            result[i] = valueToStandardDeviation(male, agesInMonths[i], values[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Get the curves for several percentiles at once, for example for drawing a growth chart.
+     *
+     * @param male {@code true} for boys, {@code false} for girls
+     * @param agesInMonths the ages at which to compute the curve points, in months
+     * @param targetPercentiles the percentiles for which to compute curves, numbers between 0 and 100 (inclusive)
+     * @return one curve for each target percentile, each one holding the measurement expected at each of the requested
+     *         ages, as returned by {@link #percentileToValue(boolean, float, int)}
+     * @since 1.4
+     */
+    default double[][] percentilesToValues(boolean male, float[] agesInMonths, int[] targetPercentiles)
+    {
+        double[][] result = new double[targetPercentiles.length][agesInMonths.length];
+        for (int k = 0; k < targetPercentiles.length; ++k) {
+            for (int i = 0; i < agesInMonths.length; ++i) {
+                result[k][i] = percentileToValue(male, agesInMonths[i], targetPercentiles[k]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the curves for several standard deviations at once, for example for drawing a growth chart.
+     *
+     * @param male {@code true} for boys, {@code false} for girls
+     * @param agesInMonths the ages at which to compute the curve points, in months
+     * @param targetDeviations the standard deviations for which to compute curves
+     * @return one curve for each target deviation, each one holding the measurement expected at each of the requested
+     *         ages, as returned by {@link #standardDeviationToValue(boolean, float, double)}
+     * @since 1.4
+     */
+    default double[][] standardDeviationsToValues(boolean male, float[] agesInMonths, double[] targetDeviations)
+    {
+        double[][] result = new double[targetDeviations.length][agesInMonths.length];
+        for (int k = 0; k < targetDeviations.length; ++k) {
+            for (int i = 0; i < agesInMonths.length; ++i) {
+                result[k][i] = standardDeviationToValue(male, agesInMonths[i], targetDeviations[k]);
+            }
+        }
+        return result;
+    }
+
     /**
      * Some measurements should be taken on both sides of the body, since they can differ, for example different left
      * and right ear lengths. This method is used to indicate those measurements.
@@ -29,8 +29,11 @@
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import javax.inject.Inject;
 
@@ -47,39 +50,104 @@ public abstract class AbstractMeasurementHandler implements MeasurementHandler,
     /** Tool used for computing the percentile corresponding to a given z-score. */
     private static final NormalDistribution NORMAL = new NormalDistribution();
 
+    /** The average number of days in a month, used for converting ages in months into indexes in the LMS tables. */
+    private static final double DAYS_PER_MONTH = 30.4375;
+
+    /**
+     * The z-scores corresponding to each integer percentile, with the open ended 0 and 100 percentiles mapped to the
+     * 0.25 and 99.75 percentages.
+     */
+    private static final double[] PERCENTILE_DEVIATIONS = new double[101];
+
+    static {
+        for (int i = 0; i < PERCENTILE_DEVIATIONS.length; ++i) {
+            double correctedPercentile = i;
+            if (i == 0) {
+                correctedPercentile = 0.25;
+            } else if (i == 100) {
+                correctedPercentile = 99.75;
+            }
+            PERCENTILE_DEVIATIONS[i] = NORMAL.inverseCumulativeProbability(correctedPercentile / 100.0);
+        }
+    }
+
     /**
-     * Triplet storing the median (M), the generalized coefficient of variation (S), and the power in the Box-Cox
-     * transformation (L) values used to compute the percentile corresponding to a given value.
+     * Dense table storing the median (M), the generalized coefficient of variation (S), and the power in the Box-Cox
+     * transformation (L) values for each day of the normal development, used to compute the percentile corresponding
+     * to a given value. Days missing from the source data are linearly interpolated between the nearest known days
+     * when the table is built, so that lookups are simple array accesses.
      */
-    protected static class LMS
+    protected static final class LMSTable
     {
-        /** L value, the power. */
-        private double l;
+        /** L values, the power, indexed by age in days; {@code NaN} before the first known day. */
+        private final double[] l;
+
+        /** M values, the median, indexed by age in days; {@code NaN} before the first known day. */
+        private final double[] m;
+
+        /** S values, the generalized coefficient of variation, indexed by age in days. */
+        private final double[] s;
 
-        /** M value, the median. */
-        private double m;
+        /**
+         * Builds a dense table from the known triplets.
+         *
+         * @param knownValues sparse LMS triplets, {@code [l, m, s]}, indexed by the age in days
+         */
+        LMSTable(SortedMap<Integer, double[]> knownValues)
+        {
+            int size = knownValues.isEmpty() ? 0 : knownValues.lastKey() + 1;
+            this.l = new double[size];
+            this.m = new double[size];
+            this.s = new double[size];
+            Arrays.fill(this.l, Double.NaN);
+            Arrays.fill(this.m, Double.NaN);
+            Arrays.fill(this.s, Double.NaN);
+
+            int lowerDay = -1;
+            double[] lower = null;
+            for (Map.Entry<Integer, double[]> entry : knownValues.entrySet()) {
+                int upperDay = entry.getKey();
+                double[] upper = entry.getValue();
+                for (int day = lowerDay + 1; lower != null && day < upperDay; ++day) {
+                    double delta = ((double) day - lowerDay) / (upperDay - lowerDay);
+                    set(day, lower[0] + (upper[0] - lower[0]) * delta, lower[1] + (upper[1] - lower[1]) * delta,
+                        lower[2] + (upper[2] - lower[2]) * delta);
+                }
+                set(upperDay, upper[0], upper[1], upper[2]);
+                lowerDay = upperDay;
+                lower = upper;
+            }
+        }
 
-        /** S value, the generalized coefficient of variation. */
-        private double s;
+        private void set(int day, double lValue, double mValue, double sValue)
+        {
+            this.l[day] = lValue;
+            this.m[day] = mValue;
+            this.s[day] = sValue;
+        }
 
         /**
-         * Constructor specifying all three values of the triplet.
+         * Find the table row corresponding to a given age. If the requested age is before the first known entry,
+         * {@code -1} is returned. If the requested age is beyond the last entry, the last entry is used.
          *
-         * @param l L value, the power
-         * @param m M value, the median
-         * @param s S value, the generalized coefficient of variation
+         * @param ageInMonths the target age, in months
+         * @return the index of the row to use, or {@code -1} if no data is available for the requested age
          */
-        public LMS(double l, double m, double s)
+        int indexOf(float ageInMonths)
         {
-            this.l = l;
-            this.m = m;
-            this.s = s;
+            // LMS data is stored per day, currently but input is given as a float for months
+            int ageInDays = (int) Math.round(ageInMonths * DAYS_PER_MONTH);
+            if (ageInDays < 0 || this.m.length == 0) {
+                return -1;
+            } else if (ageInDays >= this.m.length) {
+                return this.m.length - 1;
+            }
+            return Double.isNaN(this.m[ageInDays]) ? -1 : ageInDays;
         }
 
-        @Override
-        public String toString()
+        boolean isEmpty()
         {
-            return String.format("[%.6g, %.6g, %.6g]", this.l, this.m, this.s);
+            return this.m.length == 0;
         }
     }
 
@@ -91,17 +159,11 @@ public String toString()
     @Inject
     private MeasurementsChartConfigurationsFactory settingsFactory;
 
-    /**
-     * Table storing the LMS triplets for each month of the normal development of boys corresponding to this measurement
-     * type.
-     */
-    private List<LMS> measurementsForAgeBoys;
+    /** Table storing the LMS triplets for each day of the normal development of boys for this measurement type. */
+    private LMSTable measurementsForAgeBoys;
 
-    /**
-     * Table storing the LMS triplets for each month of the normal development of girls corresponding to this
-     * measurement type.
-     */
-    private List<LMS> measurementsForAgeGirls;
+    /** Table storing the LMS triplets for each day of the normal development of girls for this measurement type. */
+    private LMSTable measurementsForAgeGirls;
 
     /** The list of chart settings configured for this measurement. */
     private List<MeasurementsChartConfiguration> chartConfigurations;
@@ -116,35 +178,94 @@ public String toString()
     @Override
     public int valueToPercentile(boolean male, float ageInMonths, double value)
     {
-        LMS lms = getLMSForAge(getLMSList(male), ageInMonths);
-        return valueToPercentile(value, lms);
+        LMSTable table = getLMSTable(male);
+        int i = table.indexOf(ageInMonths);
+        if (i < 0) {
+            return -1;
+        }
+        return valueToPercentile(value, table.m[i], table.l[i], table.s[i]);
     }
 
     @Override
     public double valueToStandardDeviation(boolean male, float ageInMonths, double value)
     {
-        LMS lms = getLMSForAge(getLMSList(male), ageInMonths);
-        return valueToStandardDeviation(value, lms);
+        LMSTable table = getLMSTable(male);
+        int i = table.indexOf(ageInMonths);
+        if (i < 0) {
+            return Double.NaN;
+        }
+        return valueToStandardDeviation(value, table.m[i], table.l[i], table.s[i]);
     }
 
     @Override
     public double percentileToValue(boolean male, float ageInMonths, int targetPercentile)
     {
-        LMS lms = getLMSForAge(getLMSList(male), ageInMonths);
-        if (lms == null) {
+        LMSTable table = getLMSTable(male);
+        int i = table.indexOf(ageInMonths);
+        if (i < 0) {
             return Double.NaN;
         }
-        return percentileToValue(targetPercentile, lms.m, lms.l, lms.s);
+        return percentileToValue(targetPercentile, table.m[i], table.l[i], table.s[i]);
     }
 
     @Override
     public double standardDeviationToValue(boolean male, float ageInMonths, double targetDeviation)
     {
-        LMS lms = getLMSForAge(getLMSList(male), ageInMonths);
-        if (lms == null) {
+        LMSTable table = getLMSTable(male);
+        int i = table.indexOf(ageInMonths);
+        if (i < 0) {
             return Double.NaN;
         }
-        return standardDeviationToValue(targetDeviation, lms.m, lms.l, lms.s);
+        return standardDeviationToValue(targetDeviation, table.m[i], table.l[i], table.s[i]);
+    }
+
+    @Override
+    public int[] valuesToPercentiles(boolean male, float[] agesInMonths, double[] values)
+    {
+        LMSTable table = getLMSTable(male);
+        int[] result = new int[agesInMonths.length];
+        for (int j = 0; j < agesInMonths.length; ++j) {
+            int i = table.indexOf(agesInMonths[j]);
+            result[j] = i < 0 ? -1 : valueToPercentile(values[j], table.m[i], table.l[i], table.s[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public double[] valuesToStandardDeviations(boolean male, float[] agesInMonths, double[] values)
+    {
+        LMSTable table = getLMSTable(male);
+        double[] result = new double[agesInMonths.length];
+        for (int j = 0; j < agesInMonths.length; ++j) {
+            int i = table.indexOf(agesInMonths[j]);
+            result[j] = i < 0 ? Double.NaN : valueToStandardDeviation(values[j], table.m[i], table.l[i], table.s[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public double[][] percentilesToValues(boolean male, float[] agesInMonths, int[] targetPercentiles)
+    {
+        double[] deviations = new double[targetPercentiles.length];
+        for (int k = 0; k < targetPercentiles.length; ++k) {
+            deviations[k] = percentileToDeviation(targetPercentiles[k]);
+        }
+        return standardDeviationsToValues(male, agesInMonths, deviations);
+    }
+
+    @Override
+    public double[][] standardDeviationsToValues(boolean male, float[] agesInMonths, double[] targetDeviations)
+    {
+        LMSTable table = getLMSTable(male);
+        double[][] result = new double[targetDeviations.length][agesInMonths.length];
+        for (int j = 0; j < agesInMonths.length; ++j) {
+            int i = table.indexOf(agesInMonths[j]);
+            for (int k = 0; k < targetDeviations.length; ++k) {
+                result[k][j] = i < 0 ? Double.NaN
+                    : standardDeviationToValue(targetDeviations[k], table.m[i], table.l[i], table.s[i]);
+            }
+        }
+        return result;
     }
 
     @Override
@@ -175,8 +296,8 @@ private void readData() throws InitializationException
     {
         BufferedReader in = null;
         String filename = getName() + ".csv";
-        this.measurementsForAgeBoys = new ArrayList<>();
-        this.measurementsForAgeGirls = new ArrayList<>();
+        SortedMap<Integer, double[]> boys = new TreeMap<>();
+        SortedMap<Integer, double[]> girls = new TreeMap<>();
         InputStream inStream = this.getClass().getResourceAsStream(filename);
         if (inStream == null) {
             throw new InitializationException("Missing measurements tables for [" + this.getName() + "]");
@@ -198,84 +319,14 @@ private void readData() throws InitializationException
                 double l = Double.parseDouble(tokens[2]);
                 double m = Double.parseDouble(tokens[3]);
                 double s = Double.parseDouble(tokens[4]);
-                LMS lms = new LMS(l, m, s);
-                if ("1".equals(tokens[0])) {
-                    while (day >= this.measurementsForAgeBoys.size()) {
-                        this.measurementsForAgeBoys.add(null);
-                    }
-                    this.measurementsForAgeBoys.set(day, lms);
-                } else {
-                    while (day >= this.measurementsForAgeGirls.size()) {
-                        this.measurementsForAgeGirls.add(null);
-                    }
-                    this.measurementsForAgeGirls.set(day, lms);
-                }
+                ("1".equals(tokens[0]) ? boys : girls).put(day, new double[] { l, m, s });
             }
         } catch (IOException ex) {
             // This shouldn't happen
             this.logger.error("Failed to read data table [{}]: {}", new Object[] { filename, ex.getMessage(), ex });
         }
-    }
-
-    /**
-     * Extract the LMS triplet corresponding to a given month from the given list. If the requested month is before the
-     * first element of the list, {@code null} is returned. If a valid entry corresponding to the requested month is
-     * found in the list, then return that entry. If there's no entry for the requested month, but there are valid
-     * entries in previous and later months, a linear interpolation of the nearest surrounding entries is computed and
-     * returned. Otherwise, if the requested month is beyond the last valid entry, return the last valid entry.
-     *
-     * @param list the standard list of measurements where to look in
-     * @param ageInMonths the target age (in months) for which to compute the LMS triplet
-     * @return a LMS triplet computed according to the rules above, possibly {@code null}
-     */
-    protected LMS getLMSForAge(List<LMS> list, float ageInMonths)
-    {
-        // LMS data is stored per day, currently but input is given as a float for months
-        int ageInDays = (int) Math.round(ageInMonths * 30.4375);
-        if (ageInDays < 0) {
-            return null;
-        } else if (ageInDays >= list.size()) {
-            return list.get(list.size() - 1);
-        }
-
-        LMS result;
-        result = list.get(ageInDays);
-        if (result == null) {
-            int lowerAge = ageInDays - 1;
-            while (lowerAge >= 0 && list.get(lowerAge) == null) {
-                --lowerAge;
-            }
-            if (lowerAge < 0) {
-                return null;
-            }
-            int upperAge = ageInDays + 1;
-            while (upperAge < list.size() && list.get(upperAge) == null) {
-                ++upperAge;
-            }
-            LMS lowerLMS = list.get(lowerAge);
-            LMS upperLMS = list.get(upperAge);
-            double delta = ((double) ageInDays - lowerAge) / (upperAge - lowerAge);
-            result =
-                new LMS(lowerLMS.l + (upperLMS.l - lowerLMS.l) * delta, lowerLMS.m + (upperLMS.m - lowerLMS.m) * delta,
-                    lowerLMS.s + (upperLMS.s - lowerLMS.s) * delta);
-        }
-        return result;
-    }
-
-    /**
-     * Compute the percentile corresponding to a given absolute value, according to a normal distribution specified by
-     * the given Box-Cox triplet.
-     *
-     * @param x the absolute value to fit into the normal distribution
-     * @param lms the parameters defining the normal distribution
-     * @return a number between 0 and 100 (inclusive) specifying the percentile of this measurement
-     */
-    protected int valueToPercentile(double x, LMS lms)
-    {
-        if (lms == null) {
-            return -1;
-        }
-        return valueToPercentile(x, lms.m, lms.l, lms.s);
+        this.measurementsForAgeBoys = new LMSTable(boys);
+        this.measurementsForAgeGirls = new LMSTable(girls);
     }
 
     /**
@@ -290,27 +341,11 @@ protected int valueToPercentile(double x, LMS lms)
      */
     protected int valueToPercentile(double x, double m, double l, double s)
     {
-        double z = (l != 0) ? ((Math.pow(x / m, l) - 1) / (l * s)) : (Math.log(x / m) / s);
+        double z = valueToStandardDeviation(x, m, l, s);
         double p = NORMAL.cumulativeProbability(z) * 100;
         return (int) Math.round(p);
     }
 
-    /**
-     * Compute the standard deviation corresponding to a given absolute value, according to a normal distribution
-     * specified by the given Box-Cox triplet.
-     *
-     * @param x the absolute value to fit into the normal distribution
-     * @param lms the parameters defining the normal distribution
-     * @return a number specifying how many standard deviations does this measurement deviate from the mean
-     */
-    protected double valueToStandardDeviation(double x, LMS lms)
-    {
-        if (lms == null) {
-            return Double.NaN;
-        }
-        return valueToStandardDeviation(x, lms.m, lms.l, lms.s);
-    }
-
     /**
      * Compute the standard deviation corresponding to a given absolute value, according to a normal distribution
      * specified by the given Box-Cox triplet.
@@ -339,15 +374,7 @@ protected double valueToStandardDeviation(double x, double m, double l, double s
      */
     protected double percentileToValue(int percentile, double m, double l, double s)
     {
-        double correctedPercentile = percentile;
-        if (percentile <= 0) {
-            correctedPercentile = 0.25;
-        } else if (percentile >= 100) {
-            correctedPercentile = 99.75;
-        }
-        double z = NORMAL.inverseCumulativeProbability(correctedPercentile / 100.0);
-        double x = (l != 0) ? Math.pow(z * l * s + 1, 1 / l) * m : Math.exp(z * s) * m;
-        return x;
+        return standardDeviationToValue(percentileToDeviation(percentile), m, l, s);
     }
 
     /**
@@ -366,17 +393,22 @@ protected double standardDeviationToValue(double deviation, double m, double l,
     }
 
     /**
-     * Choose between the girls and boys measurements list, depending on the requested sex and on the availability of
+     * Choose between the girls and boys measurements table, depending on the requested sex and on the availability of
      * distinct measurements for girls.
      *
      * @param male {@code true} for boys, {@code false} for girls
-     * @return a list of {@link LMS} triplets
+     * @return a table of LMS triplets
      */
-    protected List<LMS> getLMSList(boolean male)
+    protected LMSTable getLMSTable(boolean male)
     {
         if (!male && !this.measurementsForAgeGirls.isEmpty()) {
             return this.measurementsForAgeGirls;
         }
         return this.measurementsForAgeBoys;
     }
+
+    private static double percentileToDeviation(int percentile)
+    {
+        return PERCENTILE_DEVIATIONS[Math.max(0, Math.min(100, percentile))];
+    }
 }
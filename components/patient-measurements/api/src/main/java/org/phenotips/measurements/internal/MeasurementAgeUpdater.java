@@ -18,17 +18,14 @@
 package org.phenotips.measurements.internal;
 
 import org.phenotips.Constants;
-import org.phenotips.data.Patient;
-import org.phenotips.data.events.PatientChangingEvent;
+import org.phenotips.data.spi.PatientSaveContext;
+import org.phenotips.data.spi.PatientSaveStage;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.EntityReference;
-import org.xwiki.observation.AbstractEventListener;
-import org.xwiki.observation.event.Event;
 
 import java.util.Date;
-import java.util.List;
 
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -36,7 +33,6 @@
 import org.joda.time.DateTime;
 import org.joda.time.Days;
 
-import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
 
 /**
@@ -47,43 +43,44 @@
 @Component
 @Named("measurement-age-updater")
 @Singleton
-public class MeasurementAgeUpdater extends AbstractEventListener
+public class MeasurementAgeUpdater implements PatientSaveStage
 {
     /** The XClass used for storing measurements data. */
     private static final EntityReference CLASS_REFERENCE = new EntityReference("MeasurementsClass",
         EntityType.DOCUMENT, Constants.CODE_SPACE_REFERENCE);
 
-    /** The name of the XProperty holding the age at the time of measurement, which will be updated by this listener. */
+    /** The name of the XProperty holding the age at the time of measurement, which will be updated by this stage. */
     private static final String AGE_PROPERTY_NAME = "age";
 
     /** The name of the XProperty holding the date when the measurement occurred. */
     private static final String DATE_PROPERTY_NAME = "date";
 
-    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
-    public MeasurementAgeUpdater()
+    /** The name of the patient XProperty holding the birth date. */
+    private static final String BIRTH_DATE_PROPERTY_NAME = "date_of_birth";
+
+    @Override
+    public int getPriority()
     {
-        super("measurement-age-updater", new PatientChangingEvent());
+        return 600;
     }
 
     @Override
-    public void onEvent(Event event, Object source, Object data)
+    public boolean isAffected(PatientSaveContext context)
     {
-        XWikiDocument doc = (XWikiDocument) source;
+        return context.hasChanged(CLASS_REFERENCE) || context.hasChanged(BIRTH_DATE_PROPERTY_NAME);
+    }
 
-        BaseObject patientRecordObj = doc.getXObject(Patient.CLASS_REFERENCE);
+    @Override
+    public void process(PatientSaveContext context)
+    {
+        BaseObject patientRecordObj = context.getPatientObject();
         if (patientRecordObj == null) {
             return;
         }
-        Date birthDate = patientRecordObj.getDateValue("date_of_birth");
+        Date birthDate = patientRecordObj.getDateValue(BIRTH_DATE_PROPERTY_NAME);
 
-        List<BaseObject> objects = doc.getXObjects(CLASS_REFERENCE);
-        if (objects == null || objects.isEmpty()) {
-            return;
-        }
-        for (BaseObject measurement : objects) {
-            if (measurement == null) {
-                continue;
-            } else if ("birth".equals(measurement.getStringValue("type"))) {
+        for (BaseObject measurement : context.getObjects(CLASS_REFERENCE)) {
+            if ("birth".equals(measurement.getStringValue("type"))) {
                 measurement.setFloatValue(AGE_PROPERTY_NAME, 0);
                 measurement.removeField(DATE_PROPERTY_NAME);
                 continue;
@@ -17,10 +17,11 @@
  */
 package org.phenotips.measurements.internal;
 
+import org.phenotips.data.spi.PatientSaveContext;
+import org.phenotips.data.spi.PatientSaveStage;
+
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.model.reference.EntityReference;
-import org.xwiki.observation.EventListener;
-import org.xwiki.observation.event.Event;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import java.text.ParseException;
@@ -29,6 +30,7 @@
 import java.util.LinkedList;
 import java.util.List;
 
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -58,18 +60,12 @@
     private static final String DATE_OF_BIRTH_PROPERTY_NAME = "date_of_birth";
 
     @Rule
-    public MockitoComponentMockingRule<EventListener> mocker =
+    public MockitoComponentMockingRule<PatientSaveStage> mocker =
         new MockitoComponentMockingRule<>(MeasurementAgeUpdater.class);
 
-    @Mock
-    private Object data;
-
     @Mock
     private XWikiDocument source;
 
-    @Mock
-    private Event event;
-
     @Mock
     private BaseObject patientRecordObj;
 
@@ -98,7 +94,7 @@ public void removesAgeWhenBirthDateNull() throws ComponentLookupException
     {
         when(this.patientRecordObj.getDateValue(DATE_OF_BIRTH_PROPERTY_NAME)).thenReturn(null);
 
-        this.mocker.getComponentUnderTest().onEvent(this.event, this.source, this.data);
+        this.mocker.getComponentUnderTest().process(new PatientSaveContext(null, this.source, null));
         verify(this.measurement).removeField(AGE_PROPERTY_NAME);
     }
 
@@ -107,7 +103,7 @@ public void removesAgeWhenMeasurementDateNull() throws ComponentLookupException
     {
         when(this.measurement.getDateValue(DATE_PROPERTY_NAME)).thenReturn(null);
 
-        this.mocker.getComponentUnderTest().onEvent(this.event, this.source, this.data);
+        this.mocker.getComponentUnderTest().process(new PatientSaveContext(null, this.source, null));
         verify(this.measurement).removeField(AGE_PROPERTY_NAME);
     }
 
@@ -116,7 +112,7 @@ public void setsAgeToZeroWhenMeasurementTypeBirth() throws ComponentLookupExcept
     {
         when(this.measurement.getStringValue("type")).thenReturn("birth");
 
-        this.mocker.getComponentUnderTest().onEvent(this.event, this.source, this.data);
+        this.mocker.getComponentUnderTest().process(new PatientSaveContext(null, this.source, null));
 
         verify(this.measurement).setFloatValue(AGE_PROPERTY_NAME, 0);
         verify(this.measurement).removeField(DATE_PROPERTY_NAME);
@@ -135,21 +131,21 @@ public void checkAgeIsCorrectlyCalculated() throws ParseException, ComponentLook
         Date measureDate = dateFormat.parse(measureDateString);
 
         when(this.measurement.getDateValue(DATE_PROPERTY_NAME)).thenReturn(measureDate);
-        this.mocker.getComponentUnderTest().onEvent(this.event, this.source, this.data);
+        this.mocker.getComponentUnderTest().process(new PatientSaveContext(null, this.source, null));
         verify(this.measurement).setFloatValue(eq(AGE_PROPERTY_NAME), eq(365 / 30.4375f));
 
         measureDateString = "01-01-2035 12:00:00";
         measureDate = dateFormat.parse(measureDateString);
 
         when(this.measurement.getDateValue(DATE_PROPERTY_NAME)).thenReturn(measureDate);
-        this.mocker.getComponentUnderTest().onEvent(this.event, this.source, this.data);
+        this.mocker.getComponentUnderTest().process(new PatientSaveContext(null, this.source, null));
         verify(this.measurement).setFloatValue(eq(AGE_PROPERTY_NAME), eq((365 * 20 + 5) / 30.4375f));
 
         measureDateString = "01-03-2016 12:00:00";
         measureDate = dateFormat.parse(measureDateString);
 
         when(this.measurement.getDateValue(DATE_PROPERTY_NAME)).thenReturn(measureDate);
-        this.mocker.getComponentUnderTest().onEvent(this.event, this.source, this.data);
+        this.mocker.getComponentUnderTest().process(new PatientSaveContext(null, this.source, null));
         verify(this.measurement).setFloatValue(eq(AGE_PROPERTY_NAME), eq((31 + 29 + 365) / 30.4375f));
 
     }
@@ -165,7 +161,7 @@ public void checkMultipleDatesAreUpdated() throws ComponentLookupException
         when(measurement2.getDateValue(DATE_PROPERTY_NAME)).thenReturn(new Date());
         when(measurement3.getDateValue(DATE_PROPERTY_NAME)).thenReturn(new Date());
 
-        this.mocker.getComponentUnderTest().onEvent(this.event, this.source, this.data);
+        this.mocker.getComponentUnderTest().process(new PatientSaveContext(null, this.source, null));
         verify(this.measurement).setFloatValue(eq(AGE_PROPERTY_NAME), anyFloat());
         verify(measurement2).setFloatValue(eq(AGE_PROPERTY_NAME), anyFloat());
         verify(measurement3).setFloatValue(eq(AGE_PROPERTY_NAME), anyFloat());
@@ -184,7 +180,7 @@ public void behavesNormallyWithNullMeasurement() throws ComponentLookupException
         when(measurement2.getDateValue(DATE_PROPERTY_NAME)).thenReturn(new Date());
         when(measurement4.getDateValue(DATE_PROPERTY_NAME)).thenReturn(new Date());
 
-        this.mocker.getComponentUnderTest().onEvent(this.event, this.source, this.data);
+        this.mocker.getComponentUnderTest().process(new PatientSaveContext(null, this.source, null));
         verify(this.measurement).setFloatValue(eq(AGE_PROPERTY_NAME), anyFloat());
         verify(measurement2).setFloatValue(eq(AGE_PROPERTY_NAME), anyFloat());
         verify(measurement4).setFloatValue(eq(AGE_PROPERTY_NAME), anyFloat());
@@ -194,13 +190,29 @@ public void behavesNormallyWithNullMeasurement() throws ComponentLookupException
     public void returnsNormallyWithNullPatientRecord() throws ComponentLookupException
     {
         when(this.source.getXObject(any(EntityReference.class))).thenReturn(null);
-        this.mocker.getComponentUnderTest().onEvent(this.event, this.source, this.data);
+        this.mocker.getComponentUnderTest().process(new PatientSaveContext(null, this.source, null));
     }
 
     @Test
     public void returnsNormallyWhenGivenNoMeasurementObjects() throws Exception
     {
         when(this.source.getXObjects(any(EntityReference.class))).thenReturn(null);
-        this.mocker.getComponentUnderTest().onEvent(this.event, this.source, this.data);
+        this.mocker.getComponentUnderTest().process(new PatientSaveContext(null, this.source, null));
+    }
+
+    @Test
+    public void isNotAffectedWhenMeasurementsAndBirthDateAreUnchanged() throws ComponentLookupException
+    {
+        XWikiDocument previous = mock(XWikiDocument.class);
+        when(this.source.getOriginalDocument()).thenReturn(previous);
+        when(previous.getXObject(any(EntityReference.class))).thenReturn(mock(BaseObject.class));
+        when(previous.getXObjects(any(EntityReference.class))).thenReturn(this.objects);
+
+        Assert.assertFalse(
+            this.mocker.getComponentUnderTest().isAffected(new PatientSaveContext(null, this.source, null)));
+
+        when(previous.getXObjects(any(EntityReference.class))).thenReturn(new LinkedList<BaseObject>());
+        Assert.assertTrue(
+            this.mocker.getComponentUnderTest().isAffected(new PatientSaveContext(null, this.source, null)));
     }
 }
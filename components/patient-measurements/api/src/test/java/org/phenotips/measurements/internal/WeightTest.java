@@ -101,6 +101,39 @@ public void testStandardDeviationToValue() throws ComponentLookupException
             this.mocker.getComponentUnderTest().standardDeviationToValue(false, 359, Integer.MIN_VALUE), 1.0E-2);
     }
 
+    @Test
+    public void testBatchConversionsMatchSingleConversions() throws ComponentLookupException
+    {
+        MeasurementHandler handler = this.mocker.getComponentUnderTest();
+        float[] ages = new float[] { -1, 0, 349, 359, 1000 };
+        double[] values = new double[] { 4.0, 3.35, 67.0, 49.0, 71.9 };
+
+        int[] percentiles = handler.valuesToPercentiles(true, ages, values);
+        double[] deviations = handler.valuesToStandardDeviations(false, ages, values);
+        for (int i = 0; i < ages.length; ++i) {
+            Assert.assertEquals(handler.valueToPercentile(true, ages[i], values[i]), percentiles[i]);
+            Assert.assertEquals(handler.valueToStandardDeviation(false, ages[i], values[i]), deviations[i], 1.0E-9);
+        }
+
+        int[] targetPercentiles = new int[] { 0, 37, 100 };
+        double[][] percentileCurves = handler.percentilesToValues(true, ages, targetPercentiles);
+        double[] targetDeviations = new double[] { -1.175, 0 };
+        double[][] deviationCurves = handler.standardDeviationsToValues(false, ages, targetDeviations);
+        Assert.assertTrue(Double.isNaN(percentileCurves[0][0]));
+        for (int i = 1; i < ages.length; ++i) {
+            for (int k = 0; k < targetPercentiles.length; ++k) {
+                Assert.assertEquals(handler.percentileToValue(true, ages[i], targetPercentiles[k]),
+                    percentileCurves[k][i], 1.0E-9);
+            }
+            for (int k = 0; k < targetDeviations.length; ++k) {
+                Assert.assertEquals(handler.standardDeviationToValue(false, ages[i], targetDeviations[k]),
+                    deviationCurves[k][i], 1.0E-9);
+            }
+        }
+        Assert.assertEquals(68.34, percentileCurves[1][2], 1.0E-2);
+        Assert.assertEquals(47.86, deviationCurves[0][3], 1.0E-2);
+    }
+
     @Test
     public void testIsDoubleSided() throws ComponentLookupException
     {
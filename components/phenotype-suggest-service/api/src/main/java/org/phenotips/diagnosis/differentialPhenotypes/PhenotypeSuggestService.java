@@ -17,8 +17,7 @@
  */
 package org.phenotips.diagnosis.differentialPhenotypes;
 
-import org.phenotips.obo2solr.maps.CounterMap;
-import org.phenotips.obo2solr.maps.SumMap;
+import org.phenotips.diagnosis.differentialPhenotypes.internal.DisorderSymptomIndex;
 import org.phenotips.vocabulary.SolrVocabularyResourceManager;
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyTerm;
@@ -27,8 +26,10 @@
 import org.xwiki.script.service.ScriptService;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -46,7 +47,6 @@
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.params.CommonParams;
-import org.apache.solr.common.util.SimpleOrderedMap;
 import org.slf4j.Logger;
 
 /**
@@ -59,6 +59,12 @@
 @Singleton
 public class PhenotypeSuggestService implements ScriptService
 {
+    private static final String ID_FIELD = "id";
+
+    private static final String SCORE_FIELD = "score";
+
+    private static final String NAME_FIELD = "name";
+
     /** Provides access to the HPO ontology, for converting IDs into names and for getting all term ancestors. */
     @Inject
     @Named("hpo")
@@ -72,6 +78,10 @@ public class PhenotypeSuggestService implements ScriptService
     @Inject
     private SolrVocabularyResourceManager solrManager;
 
+    /** The precomputed phenotypic abnormalities of each disorder. */
+    @Inject
+    private DisorderSymptomIndex symptomIndex;
+
     /** Logging helper object. */
     @Inject
     private Logger logger;
@@ -97,41 +107,97 @@ public List<SuggestedPhenotype> getDifferentialPhenotypes(Collection<String> phe
             return result;
         }
         SolrDocumentList matchingDisorders = response.getResults();
-        Map<?, ?> explanations = response.getExplainMap();
-        SumMap<String> cummulativeScore = new SumMap<>();
-        CounterMap<String> matchCounter = new CounterMap<>();
-        Set<String> allAncestors = new HashSet<>();
+        DisorderSymptomIndex.Snapshot symptoms = this.symptomIndex.get();
+
+        // Symptoms already selected, implied by the selected symptoms, or explicitly not observed, aren't suggested
+        boolean[] excluded = new boolean[symptoms.getSymptomCount()];
+        for (VocabularyTerm phenotype : this.hpo.getTerms(phenotypes)) {
+            for (VocabularyTerm ancestor : phenotype.getAncestorsAndSelf()) {
+                exclude(ancestor.getId(), symptoms, excluded);
+            }
+        }
         for (String phenotype : phenotypes) {
-            allAncestors.addAll(this.getAllAncestorsAndSelfIDs(phenotype));
+            exclude(phenotype, symptoms, excluded);
         }
+        for (String phenotype : nphenotypes) {
+            exclude(phenotype, symptoms, excluded);
+        }
+
+        double[] cummulativeScore = new double[excluded.length];
+        int[] matchCounter = new int[excluded.length];
+        List<Integer> candidates = new ArrayList<>();
         for (SolrDocument disorder : matchingDisorders) {
-            String omimId = (String) disorder.getFieldValue("id");
-            @SuppressWarnings("unchecked")
-            SimpleOrderedMap<Float> omimTerm = (SimpleOrderedMap<Float>) explanations.get(omimId);
-            float score = omimTerm.get("value");
-            for (Object hpoId : disorder.getFieldValues("actual_symptom")) {
-                if (allAncestors.contains(hpoId) || nphenotypes.contains(hpoId)
-                    || !this.getAllAncestorsAndSelfIDs((String) hpoId).contains("HP:0000118")) {
+            float score = ((Number) disorder.getFieldValue(SCORE_FIELD)).floatValue();
+            for (int symptom : symptoms.getSymptoms((String) disorder.getFieldValue(ID_FIELD))) {
+                if (excluded[symptom]) {
                     continue;
                 }
-                cummulativeScore.addTo((String) hpoId, (double) score);
-                matchCounter.addTo((String) hpoId);
+                if (matchCounter[symptom]++ == 0) {
+                    candidates.add(symptom);
+                }
+                cummulativeScore[symptom] += score;
             }
         }
-        if (matchCounter.getMinValue() <= matchingDisorders.size() / 2) {
-            for (String hpoId : cummulativeScore.keySet()) {
-                VocabularyTerm term = this.hpo.getTerm(hpoId);
-                if (term == null) {
+        if (candidates.isEmpty()) {
+            return result;
+        }
+
+        int minMatches = Integer.MAX_VALUE;
+        for (int symptom : candidates) {
+            minMatches = Math.min(minMatches, matchCounter[symptom]);
+        }
+        if (minMatches <= matchingDisorders.size() / 2) {
+            Map<String, String> names = getNames(candidates, symptoms);
+            for (int symptom : candidates) {
+                String hpoId = symptoms.getSymptomId(symptom);
+                String name = names.get(hpoId);
+                if (name == null) {
                     continue;
                 }
-                result.add(new SuggestedPhenotype(hpoId, (String) term.get("name"),
-                    cummulativeScore.get(hpoId) / (matchCounter.get(hpoId) * matchCounter.get(hpoId))));
+                result.add(new SuggestedPhenotype(hpoId, name,
+                    cummulativeScore[symptom] / (matchCounter[symptom] * matchCounter[symptom])));
             }
             Collections.sort(result);
         }
         return result.subList(0, Math.min(limit, result.size()));
     }
 
+    private void exclude(String hpoId, DisorderSymptomIndex.Snapshot symptoms, boolean[] excluded)
+    {
+        int index = symptoms.getSymptomIndex(hpoId);
+        if (index >= 0) {
+            excluded[index] = true;
+        }
+    }
+
+    /**
+     * Looks up the names of the candidate symptoms, in one batch.
+     *
+     * @param candidates the indexes of the candidate symptoms
+     * @param symptoms the index of disorder symptoms
+     * @return the names of the symptoms found in HPO, keyed by the identifier used in the disorder annotations
+     */
+    private Map<String, String> getNames(List<Integer> candidates, DisorderSymptomIndex.Snapshot symptoms)
+    {
+        Set<String> ids = new HashSet<>();
+        for (int symptom : candidates) {
+            ids.add(symptoms.getSymptomId(symptom));
+        }
+        Map<String, String> result = new HashMap<>();
+        for (VocabularyTerm term : this.hpo.getTerms(ids)) {
+            result.put(term.getId(), (String) term.get(NAME_FIELD));
+        }
+        // Alternative identifiers are returned under their current identifier, look them up separately
+        ids.removeAll(result.keySet());
+        for (String id : ids) {
+            VocabularyTerm term = this.hpo.getTerm(id);
+            if (term != null) {
+                result.put(id, (String) term.get(NAME_FIELD));
+            }
+        }
+        return result;
+    }
+
     /**
      * Prepare the map of parameters that can be passed to a Solr query, in order to get a list of diseases matching the
      * selected positive and negative phenotypes.
@@ -151,8 +217,7 @@ private SolrQuery prepareParams(Collection<String> phenotypes, Collection<String
         result.set(CommonParams.Q, q.replaceAll("HP:", "HP\\\\:"));
         result.set(CommonParams.ROWS, "100");
         result.set(CommonParams.START, "0");
-        result.set(CommonParams.DEBUG_QUERY, Boolean.toString(true));
-        result.set(CommonParams.EXPLAIN_STRUCT, Boolean.toString(true));
+        result.set(CommonParams.FL, ID_FIELD + ',' + SCORE_FIELD);
 
         return result;
     }
@@ -0,0 +1,351 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.diagnosis.differentialPhenotypes.internal;
+
+import org.phenotips.vocabulary.SolrVocabularyResourceManager;
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CommonParams;
+import org.slf4j.Logger;
+
+/**
+ * Precomputed symptoms of each OMIM disorder, used for suggesting phenotypes without fetching disorders and HPO terms
+ * on every request. Only symptoms that are phenotypic abnormalities, i.e. {@code HP:0000118} or one of its
+ * descendants, are kept, each stored as an index into a shared array of HPO identifiers. The index is built in the
+ * background by the {@link DisorderSymptomIndexUpdater}, when the application starts and whenever the OMIM or HPO
+ * vocabularies are reindexed, and never while serving a request. If building fails, for example because the
+ * vocabularies aren't available yet, another attempt is made when the index is next needed, but only after a delay
+ * which doubles after each failure.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Component(roles = { DisorderSymptomIndex.class })
+@Singleton
+public class DisorderSymptomIndex implements Disposable
+{
+    /** The root of the phenotypic abnormalities branch of HPO. */
+    private static final String PHENOTYPIC_ABNORMALITY = "HP:0000118";
+
+    private static final String ID_FIELD = "id";
+
+    private static final String SYMPTOM_FIELD = "actual_symptom";
+
+    private static final int PAGE_SIZE = 1000;
+
+    private static final int[] NO_SYMPTOMS = new int[0];
+
+    /** How long to wait before building the index again after a first failure. */
+    private static final long MIN_RETRY_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+    /** The longest delay between two attempts to build the index, after repeated failures. */
+    private static final long MAX_RETRY_DELAY = TimeUnit.HOURS.toMillis(1);
+
+    private static final Snapshot EMPTY = new Snapshot(Collections.<String, List<String>>emptyMap());
+
+    /** Provides access to the HPO ontology, for identifying phenotypic abnormalities. */
+    @Inject
+    @Named("hpo")
+    private Vocabulary hpo;
+
+    /** Provides access to the OMIM ontology. */
+    @Inject
+    @Named("omim")
+    private Vocabulary omim;
+
+    @Inject
+    private SolrVocabularyResourceManager solrManager;
+
+    /** Logging helper object. */
+    @Inject
+    private Logger logger;
+
+    /** Builds the index outside the threads serving requests. */
+    private final ExecutorService builder = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "Disorder symptom index builder");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Whether a build is already waiting to be run, so that requests for new builds are merged. */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /** The current index, {@code null} until it is built for the first time. */
+    private volatile Snapshot snapshot;
+
+    /** Whether the last attempt to build the index failed. */
+    private volatile boolean failed;
+
+    /** The delay used after the last failure, {@code 0} if the last build succeeded. */
+    private long retryDelay;
+
+    /** When the index may be built again after a failure, as a timestamp. */
+    private volatile long nextAttempt;
+
+    /**
+     * Retrieves the current index. The returned snapshot doesn't change, even if the index is rebuilt while it is used.
+     * If the index isn't available, or the last attempt to rebuild it failed, a new build is scheduled, unless the
+     * previous attempt failed too recently.
+     *
+     * @return the current index; an empty index if it wasn't built yet
+     */
+    public Snapshot get()
+    {
+        Snapshot result = this.snapshot;
+        if ((result == null || this.failed) && System.currentTimeMillis() >= this.nextAttempt) {
+            scheduleRebuild();
+        }
+        return result == null ? EMPTY : result;
+    }
+
+    /**
+     * Builds a new index in the background, to be called when the application starts and after the OMIM or HPO
+     * vocabularies are updated. The current index is still used until the new one is ready.
+     */
+    public void scheduleRebuild()
+    {
+        if (this.scheduled.compareAndSet(false, true)) {
+            this.builder.execute(() -> {
+                this.scheduled.set(false);
+                rebuild();
+            });
+        }
+    }
+
+    /**
+     * Builds a new index in the current thread, replacing the current one if successful.
+     */
+    public synchronized void rebuild()
+    {
+        try {
+            this.snapshot = build();
+            this.failed = false;
+            this.retryDelay = 0;
+            this.nextAttempt = 0;
+        } catch (SolrServerException | IOException | RuntimeException ex) {
+            // Remember the failure, so that requests don't keep querying vocabularies that aren't available
+            this.retryDelay = Math.min(Math.max(2 * this.retryDelay, MIN_RETRY_DELAY), MAX_RETRY_DELAY);
+            this.nextAttempt = System.currentTimeMillis() + this.retryDelay;
+            this.failed = true;
+            this.logger.warn("Failed to index the symptoms of OMIM disorders, will retry in {}s: {}",
+                this.retryDelay / 1000, ex.getMessage());
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.builder.shutdownNow();
+    }
+
+    private Snapshot build() throws SolrServerException, IOException
+    {
+        long start = System.currentTimeMillis();
+        Map<String, List<String>> disorderSymptoms = new HashMap<>();
+        Set<String> abnormalities = new HashSet<>(queryIds(this.hpo,
+            "term_category:" + ClientUtils.escapeQueryChars(PHENOTYPIC_ABNORMALITY)));
+        abnormalities.add(PHENOTYPIC_ABNORMALITY);
+        Map<String, Boolean> checkedSymptoms = new HashMap<>();
+        SolrClient omimClient = this.solrManager.getSolrConnection(this.omim);
+        SolrQuery query = pagedQuery("*:*", ID_FIELD + ',' + SYMPTOM_FIELD);
+        SolrDocumentList page;
+        do {
+            page = omimClient.query(query).getResults();
+            for (SolrDocument disorder : page) {
+                Collection<Object> values = disorder.getFieldValues(SYMPTOM_FIELD);
+                if (values == null) {
+                    continue;
+                }
+                List<String> symptoms = new ArrayList<>();
+                for (Object value : values) {
+                    String symptom = String.valueOf(value);
+                    if (isAbnormality(symptom, abnormalities, checkedSymptoms)) {
+                        symptoms.add(symptom);
+                    }
+                }
+                if (!symptoms.isEmpty()) {
+                    disorderSymptoms.put((String) disorder.getFieldValue(ID_FIELD), symptoms);
+                }
+            }
+            query.setStart(query.getStart() + PAGE_SIZE);
+        } while (page.size() == PAGE_SIZE);
+        Snapshot result = new Snapshot(disorderSymptoms);
+        this.logger.debug("Indexed {} symptoms of {} disorders in {}ms", result.getSymptomCount(),
+            disorderSymptoms.size(), System.currentTimeMillis() - start);
+        return result;
+    }
+
+    /**
+     * Checks if an HPO identifier is a phenotypic abnormality. Identifiers not found among the indexed abnormalities,
+     * for example alternative identifiers, are resolved through the vocabulary.
+     *
+     * @param symptom the HPO identifier to check
+     * @param abnormalities the identifiers of all the phenotypic abnormalities
+     * @param checked identifiers already resolved through the vocabulary, will be updated
+     * @return {@code true} if the identifier is, or is an alternative identifier of, a phenotypic abnormality
+     */
+    private boolean isAbnormality(String symptom, Set<String> abnormalities, Map<String, Boolean> checked)
+    {
+        if (abnormalities.contains(symptom)) {
+            return true;
+        }
+        Boolean result = checked.get(symptom);
+        if (result == null) {
+            VocabularyTerm term = this.hpo.getTerm(symptom);
+            result = term != null && abnormalities.contains(term.getId());
+            checked.put(symptom, result);
+        }
+        return result;
+    }
+
+    private List<String> queryIds(Vocabulary vocabulary, String q) throws SolrServerException, IOException
+    {
+        List<String> result = new ArrayList<>();
+        SolrClient client = this.solrManager.getSolrConnection(vocabulary);
+        SolrQuery query = pagedQuery(q, ID_FIELD);
+        SolrDocumentList page;
+        do {
+            page = client.query(query).getResults();
+            for (SolrDocument doc : page) {
+                result.add((String) doc.getFieldValue(ID_FIELD));
+            }
+            query.setStart(query.getStart() + PAGE_SIZE);
+        } while (page.size() == PAGE_SIZE);
+        return result;
+    }
+
+    private SolrQuery pagedQuery(String q, String fields)
+    {
+        SolrQuery result = new SolrQuery(q);
+        result.set(CommonParams.FL, fields);
+        result.setSort(ID_FIELD, SolrQuery.ORDER.asc);
+        result.setStart(0);
+        result.setRows(PAGE_SIZE);
+        return result;
+    }
+
+    /** A version of the index, immutable once built. */
+    public static final class Snapshot
+    {
+        private final Map<String, int[]> disorders = new HashMap<>();
+
+        private final Map<String, Integer> symptomIndexes = new HashMap<>();
+
+        private final String[] symptomIds;
+
+        /**
+         * Builds an index from the symptoms of each disorder.
+         *
+         * @param disorderSymptoms maps disorder identifiers to their phenotypic abnormalities
+         */
+        public Snapshot(Map<String, ? extends Collection<String>> disorderSymptoms)
+        {
+            List<String> symptomList = new ArrayList<>();
+            for (Map.Entry<String, ? extends Collection<String>> disorder : disorderSymptoms.entrySet()) {
+                int[] symptoms = new int[disorder.getValue().size()];
+                int i = 0;
+                for (String symptom : disorder.getValue()) {
+                    Integer index = this.symptomIndexes.get(symptom);
+                    if (index == null) {
+                        index = symptomList.size();
+                        this.symptomIndexes.put(symptom, index);
+                        symptomList.add(symptom);
+                    }
+                    symptoms[i++] = index;
+                }
+                this.disorders.put(disorder.getKey(), symptoms);
+            }
+            this.symptomIds = symptomList.toArray(new String[symptomList.size()]);
+        }
+
+        /**
+         * Lists the phenotypic abnormalities annotated for a disorder.
+         *
+         * @param disorderId the OMIM identifier of the disorder
+         * @return the indexes of the symptoms, see {@link #getSymptomId(int)}; an empty array if the disorder is
+         *         unknown
+         */
+        public int[] getSymptoms(String disorderId)
+        {
+            int[] result = this.disorders.get(disorderId);
+            return result == null ? NO_SYMPTOMS : result;
+        }
+
+        /**
+         * Finds the index of a symptom.
+         *
+         * @param symptomId an HPO identifier
+         * @return the index of the symptom, or {@code -1} if it isn't a symptom of any disorder
+         */
+        public int getSymptomIndex(String symptomId)
+        {
+            Integer result = this.symptomIndexes.get(symptomId);
+            return result == null ? -1 : result;
+        }
+
+        /**
+         * Retrieves the HPO identifier of a symptom.
+         *
+         * @param index the index of the symptom, as returned by {@link #getSymptoms(String)}
+         * @return the HPO identifier of the symptom
+         */
+        public String getSymptomId(int index)
+        {
+            return this.symptomIds[index];
+        }
+
+        /**
+         * The number of distinct symptoms, which is also an upper bound for the symptom indexes.
+         *
+         * @return the number of distinct phenotypic abnormalities used in disorder annotations
+         */
+        public int getSymptomCount()
+        {
+            return this.symptomIds.length;
+        }
+    }
+}
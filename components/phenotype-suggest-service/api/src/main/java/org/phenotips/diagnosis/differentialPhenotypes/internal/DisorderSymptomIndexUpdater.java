@@ -0,0 +1,75 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.diagnosis.differentialPhenotypes.internal;
+
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.events.VocabularyUpdatedEvent;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.ApplicationStartedEvent;
+import org.xwiki.observation.event.Event;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+/**
+ * Builds the {@link DisorderSymptomIndex} when the application starts, and rebuilds it when the OMIM or HPO
+ * vocabularies are reindexed.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Component
+@Named("disorder-symptom-index-updater")
+@Singleton
+public class DisorderSymptomIndexUpdater extends AbstractEventListener
+{
+    @Inject
+    private Provider<DisorderSymptomIndex> index;
+
+    @Inject
+    @Named("hpo")
+    private Provider<Vocabulary> hpo;
+
+    @Inject
+    @Named("omim")
+    private Provider<Vocabulary> omim;
+
+    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
+    public DisorderSymptomIndexUpdater()
+    {
+        super("disorder-symptom-index-updater", new ApplicationStartedEvent(), new VocabularyUpdatedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (event instanceof ApplicationStartedEvent) {
+            this.index.get().scheduleRebuild();
+            return;
+        }
+        String vocabularyId = ((VocabularyUpdatedEvent) event).getVocabularyId();
+        if (vocabularyId == null || vocabularyId.equals(this.omim.get().getIdentifier())
+            || vocabularyId.equals(this.hpo.get().getIdentifier())) {
+            this.index.get().scheduleRebuild();
+        }
+    }
+}
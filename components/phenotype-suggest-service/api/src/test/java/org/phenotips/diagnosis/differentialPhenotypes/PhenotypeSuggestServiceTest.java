@@ -0,0 +1,167 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.diagnosis.differentialPhenotypes;
+
+import org.phenotips.diagnosis.differentialPhenotypes.internal.DisorderSymptomIndex;
+import org.phenotips.vocabulary.SolrVocabularyResourceManager;
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import org.xwiki.script.service.ScriptService;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CommonParams;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link PhenotypeSuggestService} script service.
+ *
+ * @version $Id$
+ */
+public class PhenotypeSuggestServiceTest
+{
+    private static final String ROOT = "HP:0000118";
+
+    private static final String SELECTED = "HP:0000001";
+
+    private static final String COMMON = "HP:0000002";
+
+    private static final String EXCLUDED = "HP:0000003";
+
+    private static final String RARE1 = "HP:0000004";
+
+    private static final String RARE2 = "HP:0000005";
+
+    @Rule
+    public MockitoComponentMockingRule<ScriptService> mocker =
+        new MockitoComponentMockingRule<ScriptService>(PhenotypeSuggestService.class);
+
+    private ArgumentCaptor<SolrQuery> query = ArgumentCaptor.forClass(SolrQuery.class);
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Vocabulary omim = this.mocker.getInstance(Vocabulary.class, "omim");
+        SolrClient client = mock(SolrClient.class);
+        when(this.mocker.<SolrVocabularyResourceManager>getInstance(SolrVocabularyResourceManager.class)
+            .getSolrConnection(omim)).thenReturn(client);
+        QueryResponse response = mock(QueryResponse.class);
+        when(client.query(this.query.capture())).thenReturn(response);
+        SolrDocumentList disorders = new SolrDocumentList();
+        disorders.add(disorder("MIM:1", 2));
+        disorders.add(disorder("MIM:2", 1));
+        disorders.add(disorder("MIM:3", 1));
+        disorders.add(disorder("MIM:4", 1));
+        when(response.getResults()).thenReturn(disorders);
+
+        Map<String, List<String>> symptoms = new LinkedHashMap<>();
+        symptoms.put("MIM:1", Arrays.asList(SELECTED, COMMON, EXCLUDED));
+        symptoms.put("MIM:2", Arrays.asList(SELECTED, COMMON));
+        symptoms.put("MIM:3", Arrays.asList(COMMON, RARE1, ROOT));
+        symptoms.put("MIM:4", Arrays.asList(RARE2));
+        DisorderSymptomIndex index = this.mocker.getInstance(DisorderSymptomIndex.class);
+        when(index.get()).thenReturn(new DisorderSymptomIndex.Snapshot(symptoms));
+
+        Vocabulary hpo = this.mocker.getInstance(Vocabulary.class, "hpo");
+        VocabularyTerm root = term(ROOT);
+        VocabularyTerm selected = term(SELECTED, root);
+        when(hpo.getTerms(Collections.singleton(SELECTED))).thenReturn(Collections.singleton(selected));
+        Set<VocabularyTerm> candidates = new HashSet<>(Arrays.asList(term(COMMON), term(RARE1), term(RARE2)));
+        when(hpo.getTerms(new HashSet<>(Arrays.asList(COMMON, RARE1, RARE2)))).thenReturn(candidates);
+    }
+
+    @Test
+    public void suggestionsAreScoredFromPrecomputedSymptoms() throws Exception
+    {
+        PhenotypeSuggestService service = (PhenotypeSuggestService) this.mocker.getComponentUnderTest();
+        List<SuggestedPhenotype> result = service.getDifferentialPhenotypes(Collections.singleton(SELECTED),
+            Collections.singleton(EXCLUDED), 10);
+
+        Assert.assertEquals(3, result.size());
+        Assert.assertEquals(RARE1, result.get(0).getId());
+        Assert.assertEquals(1.0, result.get(0).getScore(), 0.0001);
+        Assert.assertEquals(RARE2, result.get(1).getId());
+        Assert.assertEquals(1.0, result.get(1).getScore(), 0.0001);
+        Assert.assertEquals(COMMON, result.get(2).getId());
+        Assert.assertEquals(4.0 / 9, result.get(2).getScore(), 0.0001);
+        Assert.assertEquals(COMMON + " name", result.get(2).getName());
+    }
+
+    @Test
+    public void scoresAreRequestedWithoutDebugging() throws Exception
+    {
+        PhenotypeSuggestService service = (PhenotypeSuggestService) this.mocker.getComponentUnderTest();
+        service.getDifferentialPhenotypes(Collections.singleton(SELECTED), Collections.<String>emptySet(), 2);
+
+        SolrQuery params = this.query.getValue();
+        Assert.assertNull(params.get(CommonParams.DEBUG_QUERY));
+        Assert.assertNull(params.get(CommonParams.EXPLAIN_STRUCT));
+        Assert.assertEquals("id,score", params.get(CommonParams.FL));
+    }
+
+    @Test
+    public void resultsAreLimited() throws Exception
+    {
+        PhenotypeSuggestService service = (PhenotypeSuggestService) this.mocker.getComponentUnderTest();
+        List<SuggestedPhenotype> result = service.getDifferentialPhenotypes(Collections.singleton(SELECTED),
+            Collections.singleton(EXCLUDED), 1);
+
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals(RARE1, result.get(0).getId());
+    }
+
+    private SolrDocument disorder(String id, float score)
+    {
+        SolrDocument result = new SolrDocument();
+        result.setField("id", id);
+        result.setField("score", score);
+        return result;
+    }
+
+    private VocabularyTerm term(String id, VocabularyTerm... ancestors)
+    {
+        VocabularyTerm result = mock(VocabularyTerm.class);
+        when(result.getId()).thenReturn(id);
+        when(result.get("name")).thenReturn(id + " name");
+        Set<VocabularyTerm> ancestorsAndSelf = new HashSet<>(Arrays.asList(ancestors));
+        ancestorsAndSelf.add(result);
+        when(result.getAncestorsAndSelf()).thenReturn(ancestorsAndSelf);
+        when(result.getAncestors()).thenReturn(new HashSet<>(Arrays.asList(ancestors)));
+        return result;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.diagnosis.differentialPhenotypes.internal;
+
+import org.phenotips.vocabulary.SolrVocabularyResourceManager;
+import org.phenotips.vocabulary.Vocabulary;
+
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.SolrParams;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link DisorderSymptomIndex} component.
+ *
+ * @version $Id$
+ */
+public class DisorderSymptomIndexTest
+{
+    private static final String ROOT = "HP:0000118";
+
+    private static final String ABNORMALITY = "HP:0000001";
+
+    private static final String OTHER = "HP:0000005";
+
+    @Rule
+    public MockitoComponentMockingRule<DisorderSymptomIndex> mocker =
+        new MockitoComponentMockingRule<>(DisorderSymptomIndex.class);
+
+    private SolrVocabularyResourceManager solrManager;
+
+    private SolrClient hpoClient = mock(SolrClient.class);
+
+    private SolrClient omimClient = mock(SolrClient.class);
+
+    private DisorderSymptomIndex index;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.index = this.mocker.getComponentUnderTest();
+        this.solrManager = this.mocker.getInstance(SolrVocabularyResourceManager.class);
+        Vocabulary hpo = this.mocker.getInstance(Vocabulary.class, "hpo");
+        Vocabulary omim = this.mocker.getInstance(Vocabulary.class, "omim");
+        when(this.solrManager.getSolrConnection(hpo)).thenReturn(this.hpoClient);
+        when(this.solrManager.getSolrConnection(omim)).thenReturn(this.omimClient);
+
+        SolrDocument abnormality = new SolrDocument();
+        abnormality.setField("id", ABNORMALITY);
+        mockResults(this.hpoClient, abnormality);
+        SolrDocument disorder = new SolrDocument();
+        disorder.setField("id", "MIM:1");
+        disorder.addField("actual_symptom", ABNORMALITY);
+        disorder.addField("actual_symptom", OTHER);
+        disorder.addField("actual_symptom", ROOT);
+        mockResults(this.omimClient, disorder);
+    }
+
+    @Test
+    public void emptyIndexIsReturnedUntilBuilt()
+    {
+        ReflectionUtils.setFieldValue(this.index, "nextAttempt", Long.MAX_VALUE);
+
+        DisorderSymptomIndex.Snapshot snapshot = this.index.get();
+
+        Assert.assertEquals(0, snapshot.getSymptomCount());
+        Assert.assertEquals(0, snapshot.getSymptoms("MIM:1").length);
+    }
+
+    @Test
+    public void rebuildKeepsOnlyPhenotypicAbnormalities()
+    {
+        this.index.rebuild();
+
+        DisorderSymptomIndex.Snapshot snapshot = this.index.get();
+        int[] symptoms = snapshot.getSymptoms("MIM:1");
+        Assert.assertEquals(2, symptoms.length);
+        Assert.assertEquals(ABNORMALITY, snapshot.getSymptomId(symptoms[0]));
+        Assert.assertEquals(ROOT, snapshot.getSymptomId(symptoms[1]));
+        Assert.assertEquals(-1, snapshot.getSymptomIndex(OTHER));
+    }
+
+    @Test
+    public void failuresAreNotRetriedBeforeTheDelay() throws Exception
+    {
+        when(this.omimClient.query(any(SolrParams.class))).thenThrow(new SolrServerException("Core not ready"));
+
+        this.index.rebuild();
+        Assert.assertEquals(0, this.index.get().getSymptomCount());
+        Assert.assertEquals(0, this.index.get().getSymptomCount());
+
+        // The failed build isn't scheduled again from the requests
+        Assert.assertFalse(((AtomicBoolean) ReflectionUtils.getFieldValue(this.index, "scheduled")).get());
+        long nextAttempt = (Long) ReflectionUtils.getFieldValue(this.index, "nextAttempt");
+        Assert.assertTrue(nextAttempt > System.currentTimeMillis());
+        verify(this.mocker.getMockedLogger()).warn(anyString(), eq(60L), eq("Core not ready"));
+    }
+
+    @Test
+    public void retryDelayGrowsAfterEachFailure() throws Exception
+    {
+        when(this.omimClient.query(any(SolrParams.class))).thenThrow(new SolrServerException("Core not ready"));
+
+        this.index.rebuild();
+        this.index.rebuild();
+        this.index.rebuild();
+
+        verify(this.mocker.getMockedLogger()).warn(anyString(), eq(60L), anyString());
+        verify(this.mocker.getMockedLogger()).warn(anyString(), eq(120L), anyString());
+        verify(this.mocker.getMockedLogger()).warn(anyString(), eq(240L), anyString());
+    }
+
+    @Test
+    public void successfulBuildClearsTheFailure() throws Exception
+    {
+        QueryResponse response = this.omimClient.query(mock(SolrParams.class));
+        when(this.omimClient.query(any(SolrParams.class))).thenThrow(new SolrServerException("Core not ready"))
+            .thenReturn(response);
+
+        this.index.rebuild();
+        this.index.rebuild();
+
+        Assert.assertEquals(2, this.index.get().getSymptomCount());
+        Assert.assertEquals(0L, ReflectionUtils.getFieldValue(this.index, "nextAttempt"));
+        verify(this.mocker.getMockedLogger(), times(1)).warn(anyString(), anyLong(), anyString());
+    }
+
+    private void mockResults(SolrClient client, SolrDocument... docs) throws Exception
+    {
+        SolrDocumentList results = new SolrDocumentList();
+        results.addAll(Arrays.asList(docs));
+        QueryResponse response = mock(QueryResponse.class);
+        when(response.getResults()).thenReturn(results);
+        when(client.query(any(SolrParams.class))).thenReturn(response);
+    }
+}
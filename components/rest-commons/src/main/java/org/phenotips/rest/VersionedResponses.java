@@ -0,0 +1,78 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.rest;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+import java.util.Date;
+import java.util.function.Supplier;
+
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+
+import org.json.JSONObject;
+
+/**
+ * Builds responses for resources whose representation only changes when the underlying data changes, such as a
+ * document or a vocabulary being updated. The response is tagged with an {@code ETag} derived from the version of the
+ * data, and conditional requests ({@code If-None-Match}) are answered with {@code 304 Not Modified} without building
+ * the representation, so that clients polling the same resource don't cause it to be serialized again. Only the entity
+ * tag is used for validation, since a modification date alone cannot reflect changes in the user's access rights.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Unstable("New API introduced in 1.4")
+@Role
+public interface VersionedResponses
+{
+    /**
+     * Builds the response for a {@code GET} request.
+     *
+     * @param request the current request, whose preconditions are evaluated; may be {@code null}, in which case the
+     *            full representation is always returned
+     * @param lastModified when the underlying data was last modified, may be {@code null} if not known
+     * @param representation builds the representation of the resource; only called if the client doesn't already
+     *            hold the representation for this version
+     * @param version identifies the exact representation of the resource: the resource itself, the version of the
+     *            underlying data, and everything else that the representation depends on, such as the access level of
+     *            the current user or the requested fields
+     * @return a {@code 304 Not Modified} response if the client already has the current version of the representation,
+     *         or a {@code 200 OK} response holding the serialized representation otherwise
+     */
+    Response getResponse(Request request, Date lastModified, Supplier<JSONObject> representation, Object... version);
+
+    /**
+     * Builds the response for a {@code GET} request, using a weak entity tag. This is meant for representations that
+     * also depend on data that cannot be listed exactly in the version, such as the profiles of referenced users or the
+     * configuration of the instance: the representation for a given tag is semantically equivalent, but may not be
+     * byte-for-byte identical. No {@code Last-Modified} header is sent, since the date of the main data doesn't
+     * reflect changes in the other inputs.
+     *
+     * @param request the current request, whose preconditions are evaluated; may be {@code null}, in which case the
+     *            full representation is always returned
+     * @param representation builds the representation of the resource; only called if the client doesn't already
+     *            hold the representation for this version
+     * @param version identifies the representation of the resource, as for
+     *            {@link #getResponse(Request, Date, Supplier, Object...)}
+     * @return a {@code 304 Not Modified} response if the client already has the current version of the representation,
+     *         or a {@code 200 OK} response holding the serialized representation otherwise
+     */
+    Response getWeakResponse(Request request, Supplier<JSONObject> representation, Object... version);
+}
@@ -0,0 +1,98 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.rest.internal;
+
+import org.phenotips.rest.VersionedResponses;
+
+import org.xwiki.component.annotation.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import javax.inject.Singleton;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONObject;
+
+/**
+ * Default implementation of {@link VersionedResponses}. Entity tags are computed as a hash of all the version
+ * components, so that changing the data, or the user's access to it, automatically changes the tag. Representations
+ * are not kept on the server, since they may also depend on data outside the listed versions, such as vocabulary
+ * labels or the owner's profile; only clients that already hold the current version are spared building it.
+ * {@code If-Modified-Since} is not honored, since the modification date doesn't change when the user's access rights
+ * do; the {@code Last-Modified} header is only informative.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Component
+@Singleton
+public class DefaultVersionedResponses implements VersionedResponses
+{
+    @Override
+    public Response getResponse(Request request, Date lastModified, Supplier<JSONObject> representation,
+        Object... version)
+    {
+        // HTTP dates only have a one second precision
+        Date modified = lastModified == null ? null : new Date(lastModified.getTime() / 1000 * 1000);
+        return getResponse(request, getEntityTag(false, version), modified, representation);
+    }
+
+    @Override
+    public Response getWeakResponse(Request request, Supplier<JSONObject> representation, Object... version)
+    {
+        return getResponse(request, getEntityTag(true, version), null, representation);
+    }
+
+    private Response getResponse(Request request, EntityTag tag, Date modified, Supplier<JSONObject> representation)
+    {
+        CacheControl cacheControl = new CacheControl();
+        // Representations depend on the user's rights, and must be revalidated before being reused
+        cacheControl.setPrivate(true);
+        cacheControl.setNoCache(true);
+
+        if (request != null) {
+            // The date is not used, since it doesn't change when the user's access does
+            ResponseBuilder notModified = request.evaluatePreconditions(tag);
+            if (notModified != null) {
+                return notModified.tag(tag).cacheControl(cacheControl).build();
+            }
+        }
+
+        ResponseBuilder result = Response.ok(representation.get().toString(), MediaType.APPLICATION_JSON_TYPE)
+            .tag(tag).cacheControl(cacheControl);
+        if (modified != null) {
+            result.lastModified(modified);
+        }
+        return result.build();
+    }
+
+    private EntityTag getEntityTag(boolean weak, Object... version)
+    {
+        String key = StringUtils.join(version, '\n');
+        return new EntityTag(UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString(), weak);
+    }
+}
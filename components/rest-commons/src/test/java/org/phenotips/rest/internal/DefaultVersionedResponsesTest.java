@@ -0,0 +1,165 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.rest.internal;
+
+import org.phenotips.rest.VersionedResponses;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link DefaultVersionedResponses} component.
+ *
+ * @version $Id$
+ */
+public class DefaultVersionedResponsesTest
+{
+    @Rule
+    public MockitoComponentMockingRule<VersionedResponses> mocker =
+        new MockitoComponentMockingRule<>(DefaultVersionedResponses.class);
+
+    @Mock
+    private Request request;
+
+    private AtomicInteger built = new AtomicInteger();
+
+    private Supplier<JSONObject> representation = () -> {
+        this.built.incrementAndGet();
+        return new JSONObject().put("id", "P0000001");
+    };
+
+    @Before
+    public void setUp() throws ComponentLookupException
+    {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @Test
+    public void responseIsTaggedAndHoldsTheRepresentation() throws ComponentLookupException
+    {
+        Date modified = new Date(1500000000123L);
+        Response response =
+            this.mocker.getComponentUnderTest().getResponse(this.request, modified, this.representation, "P1", "1.1");
+
+        Assert.assertEquals(Status.OK.getStatusCode(), response.getStatus());
+        Assert.assertEquals("{\"id\":\"P0000001\"}", response.getEntity());
+        Assert.assertNotNull(response.getMetadata().getFirst("ETag"));
+        Assert.assertEquals(new Date(1500000000000L), response.getMetadata().getFirst("Last-Modified"));
+    }
+
+    @Test
+    public void sameVersionHasSameTag() throws ComponentLookupException
+    {
+        VersionedResponses responses = this.mocker.getComponentUnderTest();
+        Response first = responses.getResponse(this.request, null, this.representation, "P1", "1.1", "edit");
+        Response second = responses.getResponse(this.request, null, this.representation, "P1", "1.1", "edit");
+
+        Assert.assertEquals(first.getMetadata().getFirst("ETag"), second.getMetadata().getFirst("ETag"));
+        Assert.assertEquals(first.getEntity(), second.getEntity());
+        // Representations are not kept on the server, only clients holding the current version avoid rebuilding it
+        Assert.assertEquals(2, this.built.get());
+    }
+
+    @Test
+    public void differentVersionsHaveDifferentTags() throws ComponentLookupException
+    {
+        VersionedResponses responses = this.mocker.getComponentUnderTest();
+        Response first = responses.getResponse(this.request, null, this.representation, "P1", "1.1", "edit");
+        Response newer = responses.getResponse(this.request, null, this.representation, "P1", "2.1", "edit");
+        Response otherRight = responses.getResponse(this.request, null, this.representation, "P1", "1.1", "view");
+
+        Assert.assertNotEquals(first.getMetadata().getFirst("ETag"), newer.getMetadata().getFirst("ETag"));
+        Assert.assertNotEquals(first.getMetadata().getFirst("ETag"), otherRight.getMetadata().getFirst("ETag"));
+        Assert.assertEquals(3, this.built.get());
+    }
+
+    @Test
+    public void notModifiedWhenPreconditionsSayTheClientIsUpToDate() throws ComponentLookupException
+    {
+        when(this.request.evaluatePreconditions(any(EntityTag.class))).thenReturn(Response.notModified());
+
+        Response response =
+            this.mocker.getComponentUnderTest().getResponse(this.request, null, this.representation, "P1", "1.1");
+
+        Assert.assertEquals(Status.NOT_MODIFIED.getStatusCode(), response.getStatus());
+        Assert.assertNull(response.getEntity());
+        Assert.assertEquals(0, this.built.get());
+    }
+
+    @Test
+    public void preconditionsIgnoreTheLastModifiedDate() throws ComponentLookupException
+    {
+        // A client only sending If-Modified-Since must not get a stale representation after its rights change
+        when(this.request.evaluatePreconditions(any(Date.class))).thenReturn(Response.notModified());
+        when(this.request.evaluatePreconditions(any(Date.class), any(EntityTag.class)))
+            .thenReturn(Response.notModified());
+        Date modified = new Date(1500000000123L);
+
+        Response response = this.mocker.getComponentUnderTest().getResponse(this.request, modified,
+            this.representation, "P1", "1.1", "view");
+
+        Assert.assertEquals(Status.OK.getStatusCode(), response.getStatus());
+        verify(this.request).evaluatePreconditions(any(EntityTag.class));
+    }
+
+    @Test
+    public void weakResponsesHaveWeakTagsAndNoLastModifiedDate() throws ComponentLookupException
+    {
+        ArgumentCaptor<EntityTag> tag = ArgumentCaptor.forClass(EntityTag.class);
+
+        Response response =
+            this.mocker.getComponentUnderTest().getWeakResponse(this.request, this.representation, "P1", "1.1");
+
+        Assert.assertEquals(Status.OK.getStatusCode(), response.getStatus());
+        Assert.assertNull(response.getMetadata().getFirst("Last-Modified"));
+        verify(this.request).evaluatePreconditions(tag.capture());
+        Assert.assertTrue(tag.getValue().isWeak());
+    }
+
+    @Test
+    public void fullResponseWithoutRequest() throws ComponentLookupException
+    {
+        Response response =
+            this.mocker.getComponentUnderTest().getResponse(null, null, this.representation, "P1", "1.1");
+
+        Assert.assertEquals(Status.OK.getStatusCode(), response.getStatus());
+        Assert.assertEquals(1, this.built.get());
+    }
+}
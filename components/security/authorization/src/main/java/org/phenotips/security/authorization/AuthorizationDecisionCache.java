@@ -0,0 +1,66 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.security.authorization;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+import java.util.function.Supplier;
+
+/**
+ * Remembers authorization decisions for the duration of a request, since rendering a page or answering a REST call
+ * usually checks the same rights on the same entity many times. Decisions are forgotten when the request ends, and
+ * whenever a document is changed during the request, since that may change the outcome of access rules.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Unstable("New API introduced in 1.4")
+@Role
+public interface AuthorizationDecisionCache
+{
+    /**
+     * Gets a decision already taken during the current request, or computes and remembers it.
+     *
+     * @param <T> the type of the decision
+     * @param key identifies the decision, including the type of check, the user, the requested right or access level,
+     *            and the target entity; must implement {@code equals} and {@code hashCode}, lists are recommended
+     * @param decision computes the decision if it wasn't already taken; {@code null} results are not remembered
+     * @return the decision
+     */
+    <T> T get(Object key, Supplier<T> decision);
+
+    /**
+     * Forgets all the decisions taken during the current request. Must be called when rights are changed.
+     */
+    void invalidate();
+
+    /**
+     * The number of decisions that were served from the cache since the server started.
+     *
+     * @return a positive number
+     */
+    long getHitCount();
+
+    /**
+     * The number of decisions that had to be computed since the server started.
+     *
+     * @return a positive number
+     */
+    long getMissCount();
+}
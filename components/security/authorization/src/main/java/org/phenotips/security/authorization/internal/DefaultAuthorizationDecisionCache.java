@@ -0,0 +1,118 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.security.authorization.internal;
+
+import org.phenotips.security.authorization.AuthorizationDecisionCache;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Default {@link AuthorizationDecisionCache} implementation, which stores the decisions in the current
+ * {@link ExecutionContext execution context}. Outside a request, for example in background threads without an
+ * execution context, nothing is cached.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Component
+@Singleton
+public class DefaultAuthorizationDecisionCache implements AuthorizationDecisionCache
+{
+    /** The name of the execution context property holding the decisions. */
+    private static final String CONTEXT_KEY = "phenotips.authorization.decisions";
+
+    /** Long running executions, such as reindexing jobs, shouldn't accumulate decisions indefinitely. */
+    private static final int MAX_DECISIONS = 10000;
+
+    @Inject
+    private Execution execution;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    @Override
+    public <T> T get(Object key, Supplier<T> decision)
+    {
+        Map<Object, Object> decisions = getDecisions(true);
+        if (decisions != null) {
+            @SuppressWarnings("unchecked")
+            T result = (T) decisions.get(key);
+            if (result != null) {
+                this.hits.incrementAndGet();
+                return result;
+            }
+        }
+        this.misses.incrementAndGet();
+        T result = decision.get();
+        if (decisions != null && result != null) {
+            if (decisions.size() >= MAX_DECISIONS) {
+                decisions.clear();
+            }
+            decisions.put(key, result);
+        }
+        return result;
+    }
+
+    @Override
+    public void invalidate()
+    {
+        Map<Object, Object> decisions = getDecisions(false);
+        if (decisions != null) {
+            decisions.clear();
+        }
+    }
+
+    @Override
+    public long getHitCount()
+    {
+        return this.hits.get();
+    }
+
+    @Override
+    public long getMissCount()
+    {
+        return this.misses.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Object, Object> getDecisions(boolean create)
+    {
+        ExecutionContext context = this.execution.getContext();
+        if (context == null) {
+            return null;
+        }
+        Map<Object, Object> result = (Map<Object, Object>) context.getProperty(CONTEXT_KEY);
+        if (result == null && create) {
+            // Execution contexts may be cloned and used by other threads, so the map must be thread safe
+            result = new ConcurrentHashMap<>();
+            context.setProperty(CONTEXT_KEY, result);
+        }
+        return result;
+    }
+}
@@ -17,6 +17,7 @@
  */
 package org.phenotips.security.authorization.internal;
 
+import org.phenotips.security.authorization.AuthorizationDecisionCache;
 import org.phenotips.security.authorization.AuthorizationModule;
 import org.phenotips.security.authorization.AuthorizationService;
 
@@ -25,6 +26,7 @@
 import org.xwiki.security.authorization.Right;
 import org.xwiki.users.User;
 
+import java.util.Arrays;
 import java.util.List;
 
 import javax.inject.Inject;
@@ -35,7 +37,8 @@
 
 /**
  * The default authorization service implementation, which queries all the individual {@link AuthorizationModule}s, in
- * descending order of priority, until one responds with a non-null decision.
+ * descending order of priority, until one responds with a non-null decision. Decisions are remembered for the
+ * duration of the current request in the {@link AuthorizationDecisionCache}.
  *
  * @version $Id$
  * @since 1.0M13
@@ -52,8 +55,18 @@ public class DefaultAuthorizationService implements AuthorizationService
     @Inject
     private Provider<List<AuthorizationModule>> modules;
 
+    /** Remembers the decisions already taken during the current request. */
+    @Inject
+    private AuthorizationDecisionCache cache;
+
     @Override
     public boolean hasAccess(User user, Right access, EntityReference entity)
+    {
+        return this.cache.get(Arrays.asList("hasAccess", user == null ? null : user.getProfileDocument(), access,
+            entity), () -> computeAccess(user, access, entity));
+    }
+
+    private boolean computeAccess(User user, Right access, EntityReference entity)
     {
         for (AuthorizationModule service : this.modules.get()) {
             try {
@@ -0,0 +1,122 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.security.authorization.internal;
+
+import org.phenotips.security.authorization.AuthorizationDecisionCache;
+
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the default {@link AuthorizationDecisionCache} implementation, {@link DefaultAuthorizationDecisionCache}.
+ *
+ * @version $Id$
+ */
+public class DefaultAuthorizationDecisionCacheTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<AuthorizationDecisionCache> mocker =
+        new MockitoComponentMockingRule<>(DefaultAuthorizationDecisionCache.class);
+
+    private final List<String> key = Arrays.asList("hasAccess", "xwiki:XWiki.Admin", "view", "xwiki:data.P0000001");
+
+    private final AtomicInteger computations = new AtomicInteger();
+
+    private Execution execution;
+
+    @Before
+    public void setup() throws Exception
+    {
+        this.execution = this.mocker.getInstance(Execution.class);
+        when(this.execution.getContext()).thenReturn(new ExecutionContext());
+    }
+
+    @Test
+    public void decisionsAreRememberedDuringTheRequest() throws Exception
+    {
+        AuthorizationDecisionCache cache = this.mocker.getComponentUnderTest();
+        Assert.assertTrue(cache.get(this.key, this::decide));
+        Assert.assertTrue(cache.get(this.key, this::decide));
+        Assert.assertTrue(cache.get(Arrays.asList(this.key.toArray()), this::decide));
+        Assert.assertEquals(1, this.computations.get());
+        Assert.assertEquals(2, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void decisionsAreForgottenAfterInvalidation() throws Exception
+    {
+        AuthorizationDecisionCache cache = this.mocker.getComponentUnderTest();
+        cache.get(this.key, this::decide);
+        cache.invalidate();
+        cache.get(this.key, this::decide);
+        Assert.assertEquals(2, this.computations.get());
+    }
+
+    @Test
+    public void decisionsAreForgottenInNewRequests() throws Exception
+    {
+        AuthorizationDecisionCache cache = this.mocker.getComponentUnderTest();
+        cache.get(this.key, this::decide);
+        when(this.execution.getContext()).thenReturn(new ExecutionContext());
+        cache.get(this.key, this::decide);
+        Assert.assertEquals(2, this.computations.get());
+    }
+
+    @Test
+    public void nothingIsCachedWithoutAnExecutionContext() throws Exception
+    {
+        when(this.execution.getContext()).thenReturn(null);
+        AuthorizationDecisionCache cache = this.mocker.getComponentUnderTest();
+        cache.get(this.key, this::decide);
+        cache.get(this.key, this::decide);
+        cache.invalidate();
+        Assert.assertEquals(2, this.computations.get());
+        Assert.assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void nullDecisionsAreNotRemembered() throws Exception
+    {
+        AuthorizationDecisionCache cache = this.mocker.getComponentUnderTest();
+        Assert.assertNull(cache.get(this.key, () -> {
+            this.computations.incrementAndGet();
+            return null;
+        }));
+        Assert.assertTrue(cache.get(this.key, this::decide));
+        Assert.assertEquals(2, this.computations.get());
+    }
+
+    private Boolean decide()
+    {
+        this.computations.incrementAndGet();
+        return Boolean.TRUE;
+    }
+}
@@ -17,6 +17,7 @@
  */
 package org.phenotips.security.authorization.internal;
 
+import org.phenotips.security.authorization.AuthorizationDecisionCache;
 import org.phenotips.security.authorization.AuthorizationModule;
 import org.phenotips.security.authorization.AuthorizationService;
 
@@ -31,6 +32,7 @@
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.function.Supplier;
 
 import javax.inject.Provider;
 
@@ -42,7 +44,10 @@
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.when;
@@ -88,6 +93,16 @@ public void setupMocks() throws Exception
         MockitoAnnotations.initMocks(this);
         resetMocks();
         ReflectionUtils.setFieldValue(this.mocker.getComponentUnderTest(), "modules", this.modules);
+        // Decisions change between calls in these tests, so the cache must not remember anything
+        AuthorizationDecisionCache cache = this.mocker.getInstance(AuthorizationDecisionCache.class);
+        when(cache.get(any(), any(Supplier.class))).thenAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable
+            {
+                return ((Supplier<?>) invocation.getArguments()[1]).get();
+            }
+        });
     }
 
     @Test
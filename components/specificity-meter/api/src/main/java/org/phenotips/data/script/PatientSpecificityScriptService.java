@@ -290,5 +290,11 @@ public void updateFromJSON(final JSONObject json, final PatientWritePolicy polic
         {
             // Nothing to do
         }
+
+        @Override
+        public void applyJSON(final JSONObject json, final PatientWritePolicy policy)
+        {
+            // Nothing to do
+        }
     }
 }
@@ -17,6 +17,7 @@
  */
 package org.phenotips.storage.migrators.internal;
 
+import org.phenotips.concurrency.ContextPropagator;
 import org.phenotips.storage.migrators.DataReader;
 import org.phenotips.storage.migrators.DataTypeMigrator;
 import org.phenotips.storage.migrators.DataWriter;
@@ -25,20 +26,43 @@
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.component.util.DefaultParameterizedType;
 import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.environment.Environment;
 
+import java.io.File;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWikiContext;
+
 /**
  * Implementation for the {@link DataTypeMigrator} role, which tries to use all available {@link DataReader}s that
  * {@link DataReader#hasData() have data} and {@link DataWriter#storeEntity(Object) write} the retrieved data to the
  * currently enabled {@link DataWriter storage engine}.
+ * <p>
+ * Entities are read on the calling thread and written by a bounded pool of worker threads, configurable with the
+ * {@code phenotips.storage.migrators.threads} key in {@code xwiki.cfg}. Successfully written entities are recorded in a
+ * {@link MigrationCheckpoint checkpoint} and discarded from the old store in batches, so that an interrupted migration
+ * can be resumed without writing the same entities again.
+ * </p>
  *
  * @param <T> the type of data managed by this migrator, one of the classes from the data model
  * @version $Id$
@@ -49,6 +73,19 @@
     /** The current default storage engine assumed by XWiki if no specific store is enabled. */
     private static final String DEFAULT_STORE = "hibernate";
 
+    /** The key used in {@code xwiki.cfg} to configure the number of threads writing migrated data. */
+    private static final String THREADS_CONFIGURATION_KEY = "phenotips.storage.migrators.threads";
+
+    /** How many migrated entities are discarded from the old store at once. */
+    private static final int BATCH_SIZE = 100;
+
+    /** How often to report progress, in milliseconds. */
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+    /** Logging helper object. */
+    @Inject
+    private Logger logger;
+
     /** Provides access tot the configuration file where the storage engines are configured. */
     @Inject
     @Named("legacy")
@@ -58,6 +95,18 @@
     @Inject
     private Provider<ComponentManager> cm;
 
+    /** Used for setting up a copy of the current context in the worker threads. */
+    @Inject
+    private ContextPropagator contextPropagator;
+
+    /** The current request context, used for identifying the wiki being migrated. */
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    /** Provides access to the permanent directory, where migration checkpoints are stored. */
+    @Inject
+    private Environment environment;
+
     @Override
     public boolean migrate()
     {
@@ -78,18 +127,144 @@ public boolean migrate()
             if (reader.getType().equals(writer.getType()) || !reader.hasData()) {
                 continue;
             }
+            // Don't change the order, or the operation will be short-circuited before the call
+            allDataMigrated = migrate(reader, writer) && allDataMigrated;
+        }
+        return allDataMigrated;
+    }
 
+    /**
+     * Get an identifier for an entity, used for recording which entities were already migrated. Implementations
+     * should return a value that is unique among the entities of the migrated type and doesn't contain line breaks.
+     *
+     * @param entity the entity to identify, not {@code null}
+     * @return an identifier, or {@code null} if the entity cannot be checkpointed
+     * @since 1.4
+     */
+    protected String getEntityIdentifier(T entity)
+    {
+        return null;
+    }
+
+    /**
+     * Get a lightweight version of a migrated entity, holding only what is needed for
+     * {@link DataReader#discardEntities(java.util.Collection) discarding} it from the old store. Migrated entities are
+     * discarded in batches, and keeping the full entities, for example with the content of attachments, until then
+     * would waste a lot of memory.
+     *
+     * @param entity the entity that was successfully written to the new store, not {@code null}
+     * @return an entity that can be passed to the reader for discarding; by default the entity itself
+     * @since 1.4
+     */
+    protected T getDiscardableEntity(T entity)
+    {
+        return entity;
+    }
+
+    private boolean migrate(DataReader<T> reader, DataWriter<T> writer)
+    {
+        int threads = Math.max(1, this.config.getProperty(THREADS_CONFIGURATION_KEY,
+            Math.min(4, Runtime.getRuntime().availableProcessors())));
+        ExecutorService workers = Executors.newFixedThreadPool(threads, new ContextThreadFactory());
+        CompletionService<T> completion = new ExecutorCompletionService<>(workers);
+        MigrationCheckpoint checkpoint = new MigrationCheckpoint(getCheckpointFile(reader, writer));
+        Progress progress = new Progress(reader.getType().toString(), countItems(reader));
+        List<T> migrated = new ArrayList<>(BATCH_SIZE);
+        boolean success = true;
+        int pending = 0;
+        try {
             Iterator<T> data = reader.getData();
             while (data.hasNext()) {
                 T item = data.next();
-                if (writer.storeEntity(item)) {
-                    reader.discardEntity(item);
+                if (item == null) {
+                    // Failed to read this entity, the reader already logged the problem
+                    success = false;
+                    progress.failed();
+                    continue;
+                }
+                String identifier = getEntityIdentifier(item);
+                if (identifier != null && checkpoint.contains(identifier)) {
+                    migrated.add(getDiscardableEntity(item));
+                    progress.done();
                 } else {
-                    allDataMigrated = false;
+                    completion.submit(() -> writer.storeEntity(item) ? item : null);
+                    ++pending;
                 }
+                // Keep a bounded number of entities in memory
+                for (; pending >= 2 * threads; --pending) {
+                    success = collect(completion, migrated, checkpoint, progress) && success;
+                }
+                if (migrated.size() >= BATCH_SIZE) {
+                    success = discard(reader, migrated, checkpoint) && success;
+                }
+            }
+            for (; pending > 0; --pending) {
+                success = collect(completion, migrated, checkpoint, progress) && success;
             }
+            success = discard(reader, migrated, checkpoint) && success;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            success = false;
+        } finally {
+            workers.shutdownNow();
+            checkpoint.close();
         }
-        return allDataMigrated;
+        progress.finished();
+        if (success) {
+            checkpoint.delete();
+        }
+        return success;
+    }
+
+    private boolean collect(CompletionService<T> completion, List<T> migrated, MigrationCheckpoint checkpoint,
+        Progress progress) throws InterruptedException
+    {
+        T item = null;
+        try {
+            item = completion.take().get();
+        } catch (ExecutionException ex) {
+            this.logger.error("Failed to migrate entity: {}", ex.getCause().getMessage(), ex.getCause());
+        }
+        if (item == null) {
+            progress.failed();
+            return false;
+        }
+        String identifier = getEntityIdentifier(item);
+        if (identifier != null) {
+            checkpoint.add(identifier);
+        }
+        // Only keep what's needed for discarding the entity, the content can be released now that it is written
+        migrated.add(getDiscardableEntity(item));
+        progress.done();
+        return true;
+    }
+
+    private boolean discard(DataReader<T> reader, List<T> migrated, MigrationCheckpoint checkpoint)
+    {
+        if (migrated.isEmpty()) {
+            return true;
+        }
+        // The checkpoint must be persisted before the entities are discarded, otherwise they could be lost
+        boolean success = checkpoint.flush() && reader.discardEntities(migrated);
+        migrated.clear();
+        return success;
+    }
+
+    private int countItems(DataReader<T> reader)
+    {
+        int count = 0;
+        for (Iterator<?> references = reader.listData(); references.hasNext(); references.next()) {
+            ++count;
+        }
+        return count;
+    }
+
+    private File getCheckpointFile(DataReader<T> reader, DataWriter<T> writer)
+    {
+        String name = this.xcontextProvider.get().getWikiId() + '-' + reader.getType() + '-'
+            + writer.getType().getStoreType();
+        return new File(new File(this.environment.getPermanentDirectory(), "storage-migrators"),
+            name.replaceAll("[^a-zA-Z0-9_.-]", "_") + ".checkpoint");
     }
 
     private DataWriter<T> getCurrentWriter()
@@ -130,4 +305,79 @@ private Type getImplementationType()
      * @return a key valid in {@code xwiki.cfg}, such as {@code xwiki.store.attachment.hint}
      */
     protected abstract String getStoreConfigurationKey();
+
+    /**
+     * Creates worker threads with their own execution context, holding a copy of the current context. Threads are
+     * created when tasks are submitted, in the thread running the migration.
+     */
+    private final class ContextThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable task)
+        {
+            Thread thread = new Thread(
+                AbstractDataTypeMigrator.this.contextPropagator.wrap(task, Collections.<String, Object>emptyMap()),
+                "Data migration worker " + getDataType() + " #" + this.counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /** Periodically logs the migration throughput and estimated remaining time. */
+    private final class Progress
+    {
+        private final String name;
+
+        private final int total;
+
+        private final long start = System.currentTimeMillis();
+
+        private long lastReport = this.start;
+
+        private int done;
+
+        private int failed;
+
+        Progress(String name, int total)
+        {
+            this.name = name;
+            this.total = total;
+            AbstractDataTypeMigrator.this.logger.info("Migrating [{}] items from [{}]", total, name);
+        }
+
+        void done()
+        {
+            ++this.done;
+            report();
+        }
+
+        void failed()
+        {
+            ++this.failed;
+            report();
+        }
+
+        void finished()
+        {
+            AbstractDataTypeMigrator.this.logger.info("Migrated [{}] items from [{}] in [{}] seconds, [{}] failed",
+                this.done, this.name, (System.currentTimeMillis() - this.start) / 1000, this.failed);
+        }
+
+        private void report()
+        {
+            long now = System.currentTimeMillis();
+            if (now - this.lastReport < PROGRESS_INTERVAL) {
+                return;
+            }
+            this.lastReport = now;
+            int processed = this.done + this.failed;
+            double rate = processed * 1000.0 / Math.max(1, now - this.start);
+            long remaining = rate > 0 ? Math.round(Math.max(0, this.total - processed) / rate) : -1;
+            AbstractDataTypeMigrator.this.logger.info(
+                "Migrated [{}/{}] items from [{}], [{}] failed, [{}] items per second, about [{}] seconds remaining",
+                processed, this.total, this.name, this.failed, String.format("%.1f", rate), remaining);
+        }
+    }
 }
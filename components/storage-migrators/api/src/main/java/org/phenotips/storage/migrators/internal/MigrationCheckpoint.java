@@ -0,0 +1,145 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.storage.migrators.internal;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent record of the entities that were already written to the new store, but possibly not yet discarded from
+ * the old one. If a migration is interrupted, these entities don't have to be written again when the migration is
+ * resumed, just discarded. The record is a plain text file with one entity identifier per line, appended to as the
+ * migration progresses.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+class MigrationCheckpoint implements AutoCloseable
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(MigrationCheckpoint.class);
+
+    private final File file;
+
+    private final Set<String> migrated = new HashSet<>();
+
+    private BufferedWriter out;
+
+    /**
+     * Loads the checkpoint stored in the specified file, if any.
+     *
+     * @param file the file where the checkpoint is persisted
+     */
+    MigrationCheckpoint(File file)
+    {
+        this.file = file;
+        if (file.isFile()) {
+            try {
+                this.migrated.addAll(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+                LOGGER.info("Resuming interrupted migration, [{}] items already migrated", this.migrated.size());
+            } catch (IOException ex) {
+                LOGGER.warn("Failed to read migration checkpoint [{}]: {}", file, ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Checks if an entity was already written to the new store.
+     *
+     * @param identifier the identifier of the entity to check
+     * @return {@code true} if the entity was recorded as migrated
+     */
+    boolean contains(String identifier)
+    {
+        return this.migrated.contains(identifier);
+    }
+
+    /**
+     * Records an entity as written to the new store. The record is not guaranteed to be persisted until
+     * {@link #flush()} is called.
+     *
+     * @param identifier the identifier of the migrated entity
+     */
+    void add(String identifier)
+    {
+        if (!this.migrated.add(identifier)) {
+            return;
+        }
+        try {
+            if (this.out == null) {
+                this.file.getParentFile().mkdirs();
+                this.out = Files.newBufferedWriter(this.file.toPath(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            this.out.write(identifier);
+            this.out.newLine();
+        } catch (IOException ex) {
+            LOGGER.warn("Failed to update migration checkpoint [{}]: {}", this.file, ex.getMessage());
+        }
+    }
+
+    /**
+     * Persists all the recorded entities.
+     *
+     * @return {@code true} if the checkpoint was successfully persisted, {@code false} otherwise
+     */
+    boolean flush()
+    {
+        try {
+            if (this.out != null) {
+                this.out.flush();
+            }
+            return true;
+        } catch (IOException ex) {
+            LOGGER.warn("Failed to write migration checkpoint [{}]: {}", this.file, ex.getMessage());
+            return false;
+        }
+    }
+
+    /** Removes the checkpoint once the migration is complete. */
+    void delete()
+    {
+        close();
+        try {
+            Files.deleteIfExists(this.file.toPath());
+        } catch (IOException ex) {
+            LOGGER.warn("Failed to delete migration checkpoint [{}]: {}", this.file, ex.getMessage());
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        if (this.out != null) {
+            try {
+                this.out.close();
+            } catch (IOException ex) {
+                LOGGER.warn("Failed to close migration checkpoint [{}]: {}", this.file, ex.getMessage());
+            }
+            this.out = null;
+        }
+    }
+}
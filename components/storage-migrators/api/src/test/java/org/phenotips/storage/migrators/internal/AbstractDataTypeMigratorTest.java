@@ -0,0 +1,353 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.storage.migrators.internal;
+
+import org.phenotips.concurrency.ContextPropagator;
+import org.phenotips.storage.migrators.DataReader;
+import org.phenotips.storage.migrators.DataWriter;
+import org.phenotips.storage.migrators.Type;
+
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.EntityReference;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.inject.Provider;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the worker pool and checkpoints used by {@link AbstractDataTypeMigrator}.
+ *
+ * @version $Id$
+ */
+public class AbstractDataTypeMigratorTest
+{
+    private static final String DATA_TYPE = "test";
+
+    private static final int THREADS = 3;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final TestMigrator migrator = new TestMigrator();
+
+    private final TestReader reader = new TestReader();
+
+    private final TestWriter writer = new TestWriter();
+
+    private final XWikiContext xcontext = new XWikiContext();
+
+    private ContextPropagator contextPropagator;
+
+    private File checkpoint;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        ConfigurationSource config = Mockito.mock(ConfigurationSource.class);
+        when(config.getProperty(Matchers.eq("phenotips.storage.migrators.threads"), Matchers.anyInt()))
+            .thenReturn(THREADS);
+        when(config.getProperty("test.store.hint", "hibernate")).thenReturn("file");
+
+        ComponentManager cm = Mockito.mock(ComponentManager.class);
+        when(cm.<Object>getInstance(Matchers.any(java.lang.reflect.Type.class), Matchers.eq("test/file")))
+            .thenReturn(this.writer);
+        Map<String, Object> readers = Collections.singletonMap("test/hibernate", this.reader);
+        when(cm.<Object>getInstanceMap(Matchers.any(java.lang.reflect.Type.class))).thenReturn(readers);
+        @SuppressWarnings("unchecked")
+        Provider<ComponentManager> cmProvider = Mockito.mock(Provider.class);
+        when(cmProvider.get()).thenReturn(cm);
+
+        this.xcontext.setWikiId("xwiki");
+        @SuppressWarnings("unchecked")
+        Provider<XWikiContext> xcontextProvider = Mockito.mock(Provider.class);
+        when(xcontextProvider.get()).thenReturn(this.xcontext);
+
+        Environment environment = Mockito.mock(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(this.folder.getRoot());
+        this.checkpoint = new File(this.folder.getRoot(), "storage-migrators/xwiki-test_hibernate-file.checkpoint");
+
+        this.contextPropagator = Mockito.mock(ContextPropagator.class);
+        when(this.contextPropagator.wrap(Matchers.any(Runnable.class), Matchers.anyMapOf(String.class, Object.class)))
+            .thenAnswer(invocation -> invocation.getArguments()[0]);
+
+        ReflectionUtils.setFieldValue(this.migrator, "logger", Mockito.mock(Logger.class));
+        ReflectionUtils.setFieldValue(this.migrator, "config", config);
+        ReflectionUtils.setFieldValue(this.migrator, "cm", cmProvider);
+        ReflectionUtils.setFieldValue(this.migrator, "contextPropagator", this.contextPropagator);
+        ReflectionUtils.setFieldValue(this.migrator, "xcontextProvider", xcontextProvider);
+        ReflectionUtils.setFieldValue(this.migrator, "environment", environment);
+    }
+
+    @Test
+    public void allEntitiesAreWrittenByWorkersAndDiscardedInBatches() throws Exception
+    {
+        this.reader.setData(items(250));
+
+        Assert.assertTrue(this.migrator.migrate());
+
+        Assert.assertEquals(new HashSet<>(items(250)), new HashSet<>(this.writer.stored));
+        Assert.assertEquals(250, this.writer.stored.size());
+        Assert.assertEquals(new HashSet<>(items(250)), new HashSet<>(this.reader.discarded));
+        Assert.assertEquals(250, this.reader.discarded.size());
+        for (Collection<String> batch : this.reader.batches) {
+            Assert.assertTrue(batch.size() <= 100);
+        }
+        Assert.assertTrue(this.writer.threads.size() <= THREADS);
+        for (String thread : this.writer.threads) {
+            Assert.assertTrue(thread.startsWith("Data migration worker test #"));
+        }
+        Assert.assertFalse(this.checkpoint.exists());
+    }
+
+    @Test
+    public void workersRunInACopyOfTheCurrentContext() throws Exception
+    {
+        this.reader.setData(items(10));
+
+        Assert.assertTrue(this.migrator.migrate());
+
+        Mockito.verify(this.contextPropagator, Mockito.atMost(THREADS)).wrap(Matchers.any(Runnable.class),
+            Matchers.anyMapOf(String.class, Object.class));
+        Mockito.verify(this.contextPropagator, Mockito.atLeastOnce()).wrap(Matchers.any(Runnable.class),
+            Matchers.anyMapOf(String.class, Object.class));
+    }
+
+    @Test
+    public void onlyLightweightEntitiesAreKeptForDiscarding() throws Exception
+    {
+        this.migrator.lightweight = true;
+        this.reader.setData(items(5));
+
+        Assert.assertTrue(this.migrator.migrate());
+
+        Assert.assertEquals(new HashSet<>(items(5)), new HashSet<>(this.writer.stored));
+        Set<String> expected = new HashSet<>();
+        for (String item : items(5)) {
+            expected.add("ref:" + item);
+        }
+        Assert.assertEquals(expected, new HashSet<>(this.reader.discarded));
+    }
+
+    @Test
+    public void failedEntitiesAreKeptAndTheCheckpointIsPreserved() throws Exception
+    {
+        this.reader.setData(Arrays.asList("a", "b", null, "c", "d"));
+        this.writer.failing.add("b");
+        this.writer.throwing.add("d");
+
+        Assert.assertFalse(this.migrator.migrate());
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList("a", "c")), new HashSet<>(this.reader.discarded));
+        Assert.assertTrue(this.checkpoint.isFile());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("a", "c")),
+            new HashSet<>(Files.readAllLines(this.checkpoint.toPath(), StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void interruptedMigrationIsResumedWithoutWritingAgain() throws Exception
+    {
+        // the previous run wrote a and b, but failed to discard them from the old store
+        this.checkpoint.getParentFile().mkdirs();
+        Files.write(this.checkpoint.toPath(), Arrays.asList("a", "b"), StandardCharsets.UTF_8);
+        this.reader.setData(Arrays.asList("a", "b", "c"));
+
+        Assert.assertTrue(this.migrator.migrate());
+
+        Assert.assertEquals(Collections.singletonList("c"), this.writer.stored);
+        Assert.assertEquals(new HashSet<>(Arrays.asList("a", "b", "c")), new HashSet<>(this.reader.discarded));
+        Assert.assertFalse(this.checkpoint.exists());
+    }
+
+    @Test
+    public void failedDiscardKeepsTheCheckpointForTheNextRun() throws Exception
+    {
+        this.reader.setData(Arrays.asList("a", "b"));
+        this.reader.failDiscard = true;
+
+        Assert.assertFalse(this.migrator.migrate());
+        Assert.assertTrue(this.checkpoint.isFile());
+
+        this.reader.failDiscard = false;
+        this.writer.stored.clear();
+        Assert.assertTrue(this.migrator.migrate());
+        Assert.assertTrue(this.writer.stored.isEmpty());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("a", "b")), new HashSet<>(this.reader.discarded));
+    }
+
+    private static List<String> items(int count)
+    {
+        List<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            result.add("item" + i);
+        }
+        return result;
+    }
+
+    private static final class TestMigrator extends AbstractDataTypeMigrator<String>
+    {
+        @Override
+        public String getDataType()
+        {
+            return DATA_TYPE;
+        }
+
+        @Override
+        protected String getStoreConfigurationKey()
+        {
+            return "test.store.hint";
+        }
+
+        private boolean lightweight;
+
+        @Override
+        protected String getEntityIdentifier(String entity)
+        {
+            return entity;
+        }
+
+        @Override
+        protected String getDiscardableEntity(String entity)
+        {
+            return this.lightweight ? "ref:" + entity : entity;
+        }
+    }
+
+    private static final class TestReader implements DataReader<String>
+    {
+        private List<String> data = Collections.emptyList();
+
+        private final List<String> discarded = new ArrayList<>();
+
+        private final List<Collection<String>> batches = new ArrayList<>();
+
+        private boolean failDiscard;
+
+        void setData(List<String> data)
+        {
+            this.data = data;
+        }
+
+        @Override
+        public Type getType()
+        {
+            return new Type(DATA_TYPE, "hibernate");
+        }
+
+        @Override
+        public boolean hasData()
+        {
+            return !this.data.isEmpty();
+        }
+
+        @Override
+        public Iterator<EntityReference> listData()
+        {
+            return Collections.emptyIterator();
+        }
+
+        @Override
+        public Iterator<String> getData()
+        {
+            return this.data.iterator();
+        }
+
+        @Override
+        public boolean discardEntity(String entity)
+        {
+            return discardEntities(Collections.singletonList(entity));
+        }
+
+        @Override
+        public boolean discardEntities(Collection<String> entities)
+        {
+            // discarding is only done from the calling thread
+            if (this.failDiscard) {
+                return false;
+            }
+            this.batches.add(new ArrayList<>(entities));
+            this.discarded.addAll(entities);
+            return true;
+        }
+
+        @Override
+        public boolean discardAllData()
+        {
+            return true;
+        }
+    }
+
+    private static final class TestWriter implements DataWriter<String>
+    {
+        private final List<String> stored = new CopyOnWriteArrayList<>();
+
+        private final Set<String> threads = ConcurrentHashMap.newKeySet();
+
+        private final Set<String> failing = new HashSet<>();
+
+        private final Set<String> throwing = new HashSet<>();
+
+        @Override
+        public Type getType()
+        {
+            return new Type(DATA_TYPE, "file");
+        }
+
+        @Override
+        public boolean storeEntity(String entity)
+        {
+            this.threads.add(Thread.currentThread().getName());
+            if (this.throwing.contains(entity)) {
+                throw new IllegalStateException("Failed to store " + entity);
+            }
+            if (this.failing.contains(entity)) {
+                return false;
+            }
+            this.stored.add(entity);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.storage.migrators.internal;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link MigrationCheckpoint}.
+ *
+ * @version $Id$
+ */
+public class MigrationCheckpointTest
+{
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void missingCheckpointIsEmpty() throws Exception
+    {
+        File file = new File(this.folder.getRoot(), "missing/test.checkpoint");
+        try (MigrationCheckpoint checkpoint = new MigrationCheckpoint(file)) {
+            Assert.assertFalse(checkpoint.contains("a"));
+            Assert.assertTrue(checkpoint.flush());
+        }
+        Assert.assertFalse(file.exists());
+    }
+
+    @Test
+    public void flushedIdentifiersAreResumed() throws Exception
+    {
+        File file = new File(this.folder.getRoot(), "checkpoints/test.checkpoint");
+        try (MigrationCheckpoint checkpoint = new MigrationCheckpoint(file)) {
+            checkpoint.add("a");
+            checkpoint.add("b");
+            checkpoint.add("a");
+            Assert.assertTrue(checkpoint.contains("a"));
+            Assert.assertTrue(checkpoint.flush());
+        }
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        Assert.assertEquals(Arrays.asList("a", "b"), lines);
+
+        try (MigrationCheckpoint resumed = new MigrationCheckpoint(file)) {
+            Assert.assertTrue(resumed.contains("a"));
+            Assert.assertTrue(resumed.contains("b"));
+            Assert.assertFalse(resumed.contains("c"));
+            resumed.add("c");
+            resumed.flush();
+        }
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void deleteRemovesTheCheckpoint() throws Exception
+    {
+        File file = new File(this.folder.getRoot(), "test.checkpoint");
+        MigrationCheckpoint checkpoint = new MigrationCheckpoint(file);
+        checkpoint.add("a");
+        checkpoint.flush();
+        Assert.assertTrue(file.isFile());
+
+        checkpoint.delete();
+        Assert.assertFalse(file.exists());
+        Assert.assertFalse(new MigrationCheckpoint(file).contains("a"));
+    }
+}
@@ -25,6 +25,7 @@
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -132,38 +133,67 @@ public Iterator<XWikiAttachment> getData()
     public boolean discardEntity(XWikiAttachment entity)
     {
         boolean transaction = false;
+        boolean success = false;
         try {
             transaction = ((XWikiHibernateBaseStore) this.store).beginTransaction(this.context.get());
             Session session = ((XWikiHibernateBaseStore) this.store).getSession(this.context.get());
             session.delete(entity.getAttachment_content());
             session.delete(entity.getAttachment_archive());
             this.logger.debug("Deleted attachment [{}] from the database", entity.getReference());
+            success = true;
         } catch (XWikiException ex) {
             this.logger.warn("Failed to cleanup attachment from the database: {}", ex.getMessage());
             return false;
         } finally {
             if (transaction) {
-                ((XWikiHibernateBaseStore) this.store).endTransaction(this.context.get(), transaction);
+                ((XWikiHibernateBaseStore) this.store).endTransaction(this.context.get(), success);
             }
         }
         return true;
     }
 
+    @Override
+    public boolean discardEntities(Collection<XWikiAttachment> entities)
+    {
+        // Individual deletions join the outer transaction, so that the whole batch is committed at once,
+        // or rolled back entirely if any of the deletions failed
+        boolean transaction = false;
+        boolean success = false;
+        boolean result = true;
+        try {
+            transaction = ((XWikiHibernateBaseStore) this.store).beginTransaction(this.context.get());
+            for (XWikiAttachment entity : entities) {
+                result = discardEntity(entity) && result;
+            }
+            success = result;
+        } catch (XWikiException ex) {
+            this.logger.warn("Failed to start a database transaction: {}", ex.getMessage());
+            return false;
+        } finally {
+            if (transaction) {
+                ((XWikiHibernateBaseStore) this.store).endTransaction(this.context.get(), success);
+            }
+        }
+        return result;
+    }
+
     @Override
     public boolean discardAllData()
     {
         boolean transaction = false;
+        boolean success = false;
         try {
             transaction = ((XWikiHibernateBaseStore) this.store).beginTransaction(this.context.get());
             Session session = ((XWikiHibernateBaseStore) this.store).getSession(this.context.get());
             session.createQuery("delete from XWikiAttachmentContent").executeUpdate();
             session.createQuery("delete from XWikiAttachmentArchive").executeUpdate();
+            success = true;
         } catch (XWikiException ex) {
             this.logger.warn("Failed to cleanup all attachments from the database: {}", ex.getMessage());
             return false;
         } finally {
             if (transaction) {
-                ((XWikiHibernateBaseStore) this.store).endTransaction(this.context.get(), transaction);
+                ((XWikiHibernateBaseStore) this.store).endTransaction(this.context.get(), success);
             }
         }
         return true;
@@ -25,6 +25,7 @@
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -126,38 +127,67 @@ public Iterator<DeletedAttachment> getData()
     public boolean discardEntity(DeletedAttachment entity)
     {
         boolean transaction = false;
+        boolean success = false;
         try {
             transaction = ((XWikiHibernateBaseStore) this.store).beginTransaction(this.context.get());
             Session session = ((XWikiHibernateBaseStore) this.store).getSession(this.context.get());
             session.delete(entity);
             this.logger.debug("Deleted deleted attachment [{}@{}#{}] from the database trash",
                 entity.getDocName(), entity.getFilename(), entity.getId());
+            success = true;
         } catch (XWikiException ex) {
             this.logger.warn("Failed to cleanup attachment from the database trash: {}", ex.getMessage());
             return false;
         } finally {
             if (transaction) {
-                ((XWikiHibernateBaseStore) this.store).endTransaction(this.context.get(), transaction);
+                ((XWikiHibernateBaseStore) this.store).endTransaction(this.context.get(), success);
             }
         }
         return true;
     }
 
+    @Override
+    public boolean discardEntities(Collection<DeletedAttachment> entities)
+    {
+        // Individual deletions join the outer transaction, so that the whole batch is committed at once,
+        // or rolled back entirely if any of the deletions failed
+        boolean transaction = false;
+        boolean success = false;
+        boolean result = true;
+        try {
+            transaction = ((XWikiHibernateBaseStore) this.store).beginTransaction(this.context.get());
+            for (DeletedAttachment entity : entities) {
+                result = discardEntity(entity) && result;
+            }
+            success = result;
+        } catch (XWikiException ex) {
+            this.logger.warn("Failed to start a database transaction: {}", ex.getMessage());
+            return false;
+        } finally {
+            if (transaction) {
+                ((XWikiHibernateBaseStore) this.store).endTransaction(this.context.get(), success);
+            }
+        }
+        return result;
+    }
+
     @Override
     public boolean discardAllData()
     {
         boolean transaction = false;
+        boolean success = false;
         try {
             transaction = ((XWikiHibernateBaseStore) this.store).beginTransaction(this.context.get());
             Session session = ((XWikiHibernateBaseStore) this.store).getSession(this.context.get());
             session.createQuery("delete from DeletedAttachment").executeUpdate();
+            success = true;
         } catch (XWikiException ex) {
             this.logger
                 .warn("Failed to cleanup all attachments from the database trash: {}", ex.getMessage());
             return false;
         } finally {
             if (transaction) {
-                ((XWikiHibernateBaseStore) this.store).endTransaction(this.context.get(), transaction);
+                ((XWikiHibernateBaseStore) this.store).endTransaction(this.context.get(), success);
             }
         }
         return true;
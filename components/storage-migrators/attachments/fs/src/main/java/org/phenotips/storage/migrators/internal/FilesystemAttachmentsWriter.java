@@ -22,11 +22,15 @@
 
 import org.xwiki.component.annotation.Component;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 
 import com.xpn.xwiki.XWikiContext;
@@ -84,6 +88,11 @@ public boolean storeEntity(XWikiAttachment entity)
         try {
             this.store.saveAttachmentContent(entity, false, this.context.get(), false);
             // The archive is also automatically stored by the call above, no need to explicitly store the archive
+            if (!verify(entity)) {
+                this.logger.error("The content of attachment [{}] was not correctly written to the filesystem store",
+                    entity.getReference());
+                return false;
+            }
             this.logger.debug("Imported attachment [{}] into the filesystem store", entity.getReference());
             return true;
         } catch (XWikiException ex) {
@@ -91,4 +100,27 @@ public boolean storeEntity(XWikiAttachment entity)
             return false;
         }
     }
+
+    /**
+     * Reads back the stored content and compares it to the original content, so that the original can be safely
+     * discarded.
+     *
+     * @param entity the attachment that was just stored
+     * @return {@code true} if the stored content is identical to the original, {@code false} otherwise
+     */
+    private boolean verify(XWikiAttachment entity)
+    {
+        XWikiContext xcontext = this.context.get();
+        XWikiAttachment stored = new XWikiAttachment(entity.getDoc(), entity.getFilename());
+        try {
+            this.store.loadAttachmentContent(stored, xcontext, false);
+            try (InputStream expected = entity.getContentInputStream(xcontext);
+                InputStream actual = stored.getContentInputStream(xcontext)) {
+                return IOUtils.contentEquals(expected, actual);
+            }
+        } catch (XWikiException | IOException ex) {
+            this.logger.warn("Failed to read back attachment [{}]: {}", entity.getReference(), ex.getMessage());
+            return false;
+        }
+    }
 }
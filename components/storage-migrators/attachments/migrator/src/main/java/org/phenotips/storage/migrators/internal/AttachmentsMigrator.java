@@ -25,6 +25,8 @@
 import javax.inject.Singleton;
 
 import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiAttachmentArchive;
+import com.xpn.xwiki.doc.XWikiAttachmentContent;
 
 /**
  * {@link DataTypeMigrator} for migrating attachments. The current implementation of the XWiki storage engine forces the
@@ -49,4 +51,25 @@ public String getDataType()
     {
         return "attachments";
     }
+
+    @Override
+    protected String getEntityIdentifier(XWikiAttachment entity)
+    {
+        return String.valueOf(entity.getReference());
+    }
+
+    /**
+     * Discarding an attachment from the database only needs the identifiers of its content and archive, which are
+     * derived from the document and the file name, so the actual content and history don't have to be kept.
+     */
+    @Override
+    protected XWikiAttachment getDiscardableEntity(XWikiAttachment entity)
+    {
+        XWikiAttachment result = new XWikiAttachment(entity.getDoc(), entity.getFilename());
+        result.setAttachment_content(new XWikiAttachmentContent(result));
+        XWikiAttachmentArchive archive = new XWikiAttachmentArchive();
+        archive.setAttachment(result);
+        result.setAttachment_archive(archive);
+        return result;
+    }
 }
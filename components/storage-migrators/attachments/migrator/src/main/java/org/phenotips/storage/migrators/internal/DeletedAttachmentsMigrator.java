@@ -48,4 +48,10 @@ public String getDataType()
     {
         return "deleted attachments";
     }
+
+    @Override
+    protected String getEntityIdentifier(DeletedAttachment entity)
+    {
+        return String.valueOf(entity.getId());
+    }
 }
@@ -0,0 +1,58 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.concurrency;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Allows running tasks in other threads, with the same context as the current request. Each task gets its own
+ * execution context, {@link org.xwiki.context.ExecutionContextManager#initialize initialized} like the context of a
+ * new request, holding a copy of the current XWiki context. The database session and transaction are not copied,
+ * since they cannot be shared between threads.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Unstable("New API introduced in 1.4")
+@Role
+public interface ContextPropagator
+{
+    /**
+     * Captures the current context, and wraps a task so that it runs in a copy of this context. Must be called in the
+     * thread holding the context to copy, usually the request thread.
+     *
+     * @param task the task to wrap
+     * @param properties additional properties to set in the execution context of the task, may be empty
+     * @return a task that can be executed in another thread
+     */
+    Runnable wrap(Runnable task, Map<String, Object> properties);
+
+    /**
+     * Captures the current context, and wraps a task so that it runs in a copy of this context. Must be called in the
+     * thread holding the context to copy, usually the request thread.
+     *
+     * @param task the task to wrap
+     * @param <T> the type of the result computed by the task
+     * @return a task that can be executed in another thread
+     */
+    <T> Supplier<T> wrap(Supplier<T> task);
+}
@@ -0,0 +1,124 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.concurrency.internal;
+
+import org.phenotips.concurrency.ContextPropagator;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Default implementation of the {@link ContextPropagator} role.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Component
+@Singleton
+public class DefaultContextPropagator implements ContextPropagator
+{
+    /** The keys under which the database session and transaction are stored in the XWiki context. */
+    private static final String[] DATABASE_KEYS = { "hibsession", "hibtransaction" };
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager contextManager;
+
+    @Override
+    public Runnable wrap(Runnable task, Map<String, Object> properties)
+    {
+        XWikiContext original = getCurrentXWikiContext();
+        return () -> {
+            enterContext(original, properties);
+            try {
+                task.run();
+            } finally {
+                this.execution.removeContext();
+            }
+        };
+    }
+
+    @Override
+    public <T> Supplier<T> wrap(Supplier<T> task)
+    {
+        XWikiContext original = getCurrentXWikiContext();
+        return () -> {
+            enterContext(original, Collections.<String, Object>emptyMap());
+            try {
+                return task.get();
+            } finally {
+                this.execution.removeContext();
+            }
+        };
+    }
+
+    private XWikiContext getCurrentXWikiContext()
+    {
+        ExecutionContext current = this.execution.getContext();
+        return current == null ? null : (XWikiContext) current.getProperty(XWikiContext.EXECUTIONCONTEXT_KEY);
+    }
+
+    /**
+     * Sets up a new execution context in the current thread, holding a copy of the original XWiki context without the
+     * database session.
+     *
+     * @param original the XWiki context to copy, may be {@code null}
+     * @param properties additional properties to set in the new execution context
+     */
+    private void enterContext(XWikiContext original, Map<String, Object> properties)
+    {
+        ExecutionContext context = new ExecutionContext();
+        if (original != null) {
+            XWikiContext copy = original.clone();
+            for (String key : DATABASE_KEYS) {
+                copy.remove(key);
+            }
+            // Set before initializing, so that the initializers don't create a new stub context
+            context.setProperty(XWikiContext.EXECUTIONCONTEXT_KEY, copy);
+        }
+        for (Map.Entry<String, Object> property : properties.entrySet()) {
+            context.setProperty(property.getKey(), property.getValue());
+        }
+        try {
+            // Also sets the context in the current thread
+            this.contextManager.initialize(context);
+        } catch (ExecutionContextException ex) {
+            this.logger.warn("Failed to initialize the execution context of a background task: {}", ex.getMessage());
+            this.execution.setContext(context);
+        }
+    }
+}
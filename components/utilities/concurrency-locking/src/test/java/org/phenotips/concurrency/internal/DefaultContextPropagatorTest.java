@@ -0,0 +1,142 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.concurrency.internal;
+
+import org.phenotips.concurrency.ContextPropagator;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link DefaultContextPropagator} component.
+ *
+ * @version $Id$
+ */
+public class DefaultContextPropagatorTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<ContextPropagator> mocker =
+        new MockitoComponentMockingRule<>(DefaultContextPropagator.class);
+
+    private final XWikiContext xcontext = new XWikiContext();
+
+    private Execution execution;
+
+    private ExecutionContextManager contextManager;
+
+    @Before
+    public void setUp() throws ComponentLookupException
+    {
+        this.xcontext.setWikiId("xwiki");
+        this.xcontext.put("hibsession", new Object());
+        this.xcontext.put("hibtransaction", new Object());
+        ExecutionContext current = new ExecutionContext();
+        current.setProperty(XWikiContext.EXECUTIONCONTEXT_KEY, this.xcontext);
+        this.execution = this.mocker.getInstance(Execution.class);
+        when(this.execution.getContext()).thenReturn(current);
+        this.contextManager = this.mocker.getInstance(ExecutionContextManager.class);
+    }
+
+    @Test
+    public void tasksRunInAnInitializedCopyOfTheContextWithoutTheDatabaseSession() throws Exception
+    {
+        Runnable task = Mockito.mock(Runnable.class);
+
+        this.mocker.getComponentUnderTest().wrap(task, Collections.<String, Object>singletonMap("defer", true)).run();
+
+        ArgumentCaptor<ExecutionContext> context = ArgumentCaptor.forClass(ExecutionContext.class);
+        InOrder order = Mockito.inOrder(this.contextManager, task, this.execution);
+        order.verify(this.contextManager).initialize(context.capture());
+        order.verify(task).run();
+        order.verify(this.execution).removeContext();
+        XWikiContext copy = (XWikiContext) context.getValue().getProperty(XWikiContext.EXECUTIONCONTEXT_KEY);
+        Assert.assertNotSame(this.xcontext, copy);
+        Assert.assertEquals("xwiki", copy.getWikiId());
+        Assert.assertFalse(copy.containsKey("hibsession"));
+        Assert.assertFalse(copy.containsKey("hibtransaction"));
+        Assert.assertEquals(Boolean.TRUE, context.getValue().getProperty("defer"));
+        Assert.assertTrue(this.xcontext.containsKey("hibsession"));
+    }
+
+    @Test
+    public void contextIsCapturedWhenWrapping() throws Exception
+    {
+        Supplier<String> task = this.mocker.getComponentUnderTest().wrap(() -> "done");
+        // The task may run later, after the original context is gone
+        when(this.execution.getContext()).thenReturn(null);
+
+        AtomicReference<String> result = new AtomicReference<>();
+        Thread thread = new Thread(() -> result.set(task.get()));
+        thread.start();
+        thread.join();
+
+        Assert.assertEquals("done", result.get());
+        ArgumentCaptor<ExecutionContext> context = ArgumentCaptor.forClass(ExecutionContext.class);
+        Mockito.verify(this.contextManager).initialize(context.capture());
+        Assert.assertEquals("xwiki",
+            ((XWikiContext) context.getValue().getProperty(XWikiContext.EXECUTIONCONTEXT_KEY)).getWikiId());
+        Mockito.verify(this.execution).removeContext();
+    }
+
+    @Test
+    public void contextIsRemovedWhenTheTaskFails() throws Exception
+    {
+        try {
+            this.mocker.getComponentUnderTest().wrap(() -> {
+                throw new IllegalStateException();
+            }, Collections.<String, Object>emptyMap()).run();
+            Assert.fail("The failure should be propagated");
+        } catch (IllegalStateException ex) {
+            // Expected
+        }
+        Mockito.verify(this.execution).removeContext();
+    }
+
+    @Test
+    public void failingInitializersStillProvideTheCopiedContext() throws Exception
+    {
+        Mockito.doThrow(new ExecutionContextException("failed")).when(this.contextManager)
+            .initialize(Mockito.any(ExecutionContext.class));
+
+        Assert.assertEquals("done", this.mocker.getComponentUnderTest().wrap(() -> "done").get());
+
+        ArgumentCaptor<ExecutionContext> context = ArgumentCaptor.forClass(ExecutionContext.class);
+        Mockito.verify(this.execution).setContext(context.capture());
+        Assert.assertNotNull(context.getValue().getProperty(XWikiContext.EXECUTIONCONTEXT_KEY));
+    }
+}
@@ -32,9 +32,8 @@
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
 
-import org.apache.commons.collections4.MultiValuedMap;
-import org.apache.commons.collections4.multimap.ArrayListValuedHashMap;
 import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.solr.client.solrj.SolrQuery;
@@ -89,6 +88,13 @@
  * existing values will be discarded and replaced with the data read from the input file.
  * </p>
  * <p>
+ * The data is kept in a {@link CompactAnnotationsStore} until indexing ends. Extensions that extract exactly the same
+ * data from the same source can share one parsed store by returning the same {@link #getSharedStoreKey() key}.
+ * Since 1.4, the store replaces the former protected {@code data} map, so extensions that used to fill that map from
+ * {@link #processCSVRecordRow(CSVRecord, Vocabulary)} must call {@link #addAnnotation(String, String, String)}
+ * instead, and extensions that relied on it holding distinct values must override {@link #hasDistinctValues()}.
+ * </p>
+ * <p>
  * If multiple rows for the same term identifier exists, then the values are accumulated in lists of values. If in the
  * schema definition a field is set as non-multi-valued, then it's the responsibility of the user to make sure that only
  * one value will be specified for such fields. If a value is specified multiple times in the input file, then it will
@@ -132,11 +138,15 @@ public abstract class AbstractCSVAnnotationsExtension implements VocabularyExten
     protected static final String ID_KEY = "id";
 
     /**
-     * Data read from the source file. The key of the outer map is the identifier of the term being extended, and the
-     * value of the outer map is the data to add to the term. The key of the inner map is the name of the field, while
-     * the value of the inner map is the values to add to that field.
+     * The size, in bytes, of the distinct annotation values over which they are moved from the heap to a temporary
+     * memory-mapped file. Can be configured with the {@code phenotips.vocabulary.annotations.spillThreshold} system
+     * property.
      */
-    protected Map<String, MultiValuedMap<String, String>> data = new HashMap<>();
+    private static final long SPILL_THRESHOLD =
+        Long.getLong("phenotips.vocabulary.annotations.spillThreshold", 64L * 1024 * 1024);
+
+    /** Stores currently in use, keyed by their {@link #getSharedStoreKey() sharing key}. */
+    private static final Map<String, SharedStore> SHARED_STORES = new HashMap<>();
 
     /** Logging helper object. */
     @Inject
@@ -145,6 +155,15 @@ public abstract class AbstractCSVAnnotationsExtension implements VocabularyExten
     @Inject
     protected VocabularySourceRelocationService relocationService;
 
+    /**
+     * Data read from the source file, with annotations for each term identifier. May be {@code null} outside of
+     * indexing.
+     */
+    private CompactAnnotationsStore data;
+
+    /** The names of the columns to extract from the source file, the identifier column excluded. */
+    private String[] columns;
+
     private AtomicInteger operationsInProgress = new AtomicInteger(0);
 
     @Override
@@ -157,16 +176,19 @@ public boolean isVocabularySupported(@Nonnull final Vocabulary vocabulary)
     public void indexingStarted(@Nonnull final Vocabulary vocabulary)
     {
         if (this.operationsInProgress.incrementAndGet() == 1) {
-            this.data = new HashMap<>();
-            try (BufferedReader in = new BufferedReader(
-                new InputStreamReader(
-                    new URL(getAnnotationSource()).openConnection().getInputStream(), StandardCharsets.UTF_8))) {
-                CSVFormat parser = setupCSVParser(vocabulary);
-                for (final CSVRecord row : parser.parse(in)) {
-                    processCSVRecordRow(row, vocabulary);
+            final SharedStore shared;
+            synchronized (SHARED_STORES) {
+                shared = SHARED_STORES.computeIfAbsent(getSharedStoreKey(), k -> new SharedStore());
+                ++shared.users;
+            }
+            synchronized (shared) {
+                if (shared.store == null) {
+                    this.data = createStore();
+                    loadAnnotations(vocabulary);
+                    shared.store = this.data;
+                } else {
+                    this.data = shared.store;
                 }
-            } catch (final IOException ex) {
-                this.logger.error("Failed to load annotation source: {}", ex.getMessage());
             }
         }
     }
@@ -174,11 +196,11 @@ public void indexingStarted(@Nonnull final Vocabulary vocabulary)
     @Override
     public void extendTerm(VocabularyInputTerm term, Vocabulary vocabulary)
     {
-        MultiValuedMap<String, String> termData = this.data.get(term.getId());
-        if (termData == null || termData.isEmpty()) {
+        final CompactAnnotationsStore store = this.data;
+        if (store == null) {
             return;
         }
-        for (Map.Entry<String, Collection<String>> datum : termData.asMap().entrySet()) {
+        for (Map.Entry<String, Collection<String>> datum : store.get(term.getId()).entrySet()) {
             if (!datum.getValue().isEmpty()) {
                 term.set(datum.getKey(), datum.getValue());
             }
@@ -189,7 +211,18 @@ public void extendTerm(VocabularyInputTerm term, Vocabulary vocabulary)
     public void indexingEnded(Vocabulary vocabulary)
     {
         if (this.operationsInProgress.decrementAndGet() == 0) {
+            final String key = getSharedStoreKey();
+            synchronized (SHARED_STORES) {
+                final SharedStore shared = SHARED_STORES.get(key);
+                if (shared != null && --shared.users == 0) {
+                    SHARED_STORES.remove(key);
+                    if (shared.store != null) {
+                        shared.store.close();
+                    }
+                }
+            }
             this.data = null;
+            this.columns = null;
         }
     }
 
@@ -210,19 +243,58 @@ public void extendQuery(SolrQuery query, Vocabulary vocabulary)
      */
     protected void processCSVRecordRow(final CSVRecord row, final Vocabulary vocabulary)
     {
-        Map<String, String> csvData = row.toMap();
-        MultiValuedMap<String, String> termData = this.data.get(row.get(ID_KEY));
-        if (termData == null) {
-            termData = new ArrayListValuedHashMap<>();
-            this.data.put(row.get(ID_KEY), termData);
+        if (this.columns == null) {
+            this.columns = getDataColumns(row.toMap().keySet());
         }
-        for (Map.Entry<String, String> item : csvData.entrySet()) {
-            if (!ID_KEY.equals(item.getKey()) && StringUtils.isNoneBlank(item.getKey(), item.getValue())) {
-                termData.put(item.getKey(), item.getValue());
+        final String termId = row.get(ID_KEY);
+        for (String column : this.columns) {
+            if (row.isSet(column)) {
+                addAnnotation(termId, column, row.get(column));
             }
         }
     }
 
+    /**
+     * Stores a value to be added to a term when it is {@link #extendTerm extended}. Blank values are ignored.
+     *
+     * @param termId the identifier of the term to annotate
+     * @param field the name of the field where the value should be added
+     * @param value the value to add
+     */
+    protected void addAnnotation(final String termId, final String field, final String value)
+    {
+        if (StringUtils.isNoneBlank(termId, field, value)) {
+            if (this.data == null) {
+                this.data = createStore();
+            }
+            this.data.add(termId, field, value);
+        }
+    }
+
+    /**
+     * Whether duplicate values for the same term and field should be stored only once. If {@code true}, the values
+     * are set on the extended terms as a set, otherwise as a list with the values in the order they were read.
+     *
+     * @return {@code false} by default, override to only keep distinct values
+     */
+    protected boolean hasDistinctValues()
+    {
+        return false;
+    }
+
+    /**
+     * The key under which the parsed annotations are shared with other extensions, if they are indexing at the same
+     * time. By default, only instances of the same extension class reading the same source share annotations.
+     * Extensions that extract exactly the same data from the same source may return the same key to avoid parsing and
+     * storing it twice.
+     *
+     * @return a key identifying the data extracted by this extension
+     */
+    protected String getSharedStoreKey()
+    {
+        return getClass().getName() + ' ' + getAnnotationSource();
+    }
+
     /**
      * Helper method that gets the cell on the specified column, as string, if it exists, without throwing exceptions.
      *
@@ -268,4 +340,42 @@ protected String getRowItem(@Nonnull final CSVRecord row, final int colNumber)
      * @return a CSV parser that can read the annotation file
      */
     protected abstract CSVFormat setupCSVParser(Vocabulary vocabulary);
+
+    private CompactAnnotationsStore createStore()
+    {
+        return new CompactAnnotationsStore(hasDistinctValues(), SPILL_THRESHOLD);
+    }
+
+    private void loadAnnotations(final Vocabulary vocabulary)
+    {
+        try (BufferedReader in = new BufferedReader(
+            new InputStreamReader(
+                new URL(getAnnotationSource()).openConnection().getInputStream(), StandardCharsets.UTF_8));
+            CSVParser parser = setupCSVParser(vocabulary).parse(in)) {
+            if (parser.getHeaderMap() != null) {
+                this.columns = getDataColumns(parser.getHeaderMap().keySet());
+            }
+            for (final CSVRecord row : parser) {
+                processCSVRecordRow(row, vocabulary);
+            }
+        } catch (final IOException ex) {
+            this.logger.error("Failed to load annotation source: {}", ex.getMessage());
+        }
+    }
+
+    private String[] getDataColumns(final Collection<String> names)
+    {
+        return names.stream()
+            .filter(name -> StringUtils.isNotBlank(name) && !ID_KEY.equals(name))
+            .map(String::intern)
+            .toArray(String[]::new);
+    }
+
+    /** A store shared between extensions, along with the number of extensions currently using it. */
+    private static final class SharedStore
+    {
+        private CompactAnnotationsStore store;
+
+        private int users;
+    }
 }
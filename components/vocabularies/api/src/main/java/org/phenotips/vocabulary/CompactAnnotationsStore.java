@@ -0,0 +1,350 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary;
+
+import org.xwiki.stability.Unstable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Memory-efficient storage for the annotations gathered by {@link AbstractCSVAnnotationsExtension vocabulary
+ * extensions} while indexing a vocabulary. Term identifiers, field names and values are interned, so that each
+ * distinct string is only kept once, and each annotation only takes three integers. Once all the annotations are
+ * added, the first {@link #get(String) lookup} sorts the annotations by term identifier into compact arrays, and, if
+ * the distinct values take more than a configurable amount of memory, moves them into a memory-mapped temporary file.
+ * <p>
+ * Adding annotations is not thread safe, and must be done before any lookup. Lookups are thread safe.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Unstable("New API introduced in 1.4")
+public class CompactAnnotationsStore implements AutoCloseable
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompactAnnotationsStore.class);
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final boolean distinctValues;
+
+    private final long spillThreshold;
+
+    private final List<String> fields = new ArrayList<>();
+
+    private Map<String, Integer> fieldIndexes = new HashMap<>();
+
+    private Map<String, Integer> termIndexes = new HashMap<>();
+
+    private Map<String, Integer> valueIndexes = new HashMap<>();
+
+    private List<String> values = new ArrayList<>();
+
+    private long valuesLength;
+
+    private int[] entryTerms = new int[INITIAL_CAPACITY];
+
+    private int[] entryFields = new int[INITIAL_CAPACITY];
+
+    private int[] entryValues = new int[INITIAL_CAPACITY];
+
+    private int size;
+
+    /** Sorted term identifiers, available once sealed. */
+    private String[] terms;
+
+    /** Where the annotations of each term start in the entry arrays, available once sealed. */
+    private int[] termOffsets;
+
+    /** Distinct values kept in memory, if not spilled to disk. */
+    private String[] heapValues;
+
+    /** Distinct values stored on disk, as UTF-8 bytes, if spilled. */
+    private MappedByteBuffer mappedValues;
+
+    /** Where each distinct value starts in {@link #mappedValues}. */
+    private int[] mappedOffsets;
+
+    private Path spillFile;
+
+    /**
+     * Simple constructor.
+     *
+     * @param distinctValues if {@code true}, duplicate values for the same term and field are only stored once, and
+     *            are returned as a set; otherwise, values are returned as a list, in the order they were added
+     * @param spillThreshold the approximate size, in bytes, of the distinct values over which they are moved out of
+     *            the heap into a memory-mapped file; a negative value disables spilling
+     */
+    public CompactAnnotationsStore(boolean distinctValues, long spillThreshold)
+    {
+        this.distinctValues = distinctValues;
+        this.spillThreshold = spillThreshold;
+    }
+
+    /**
+     * Adds an annotation for a term.
+     *
+     * @param termId the identifier of the annotated term
+     * @param field the name of the field where the value should be added
+     * @param value the value to add
+     * @throws IllegalStateException if the store was already queried
+     */
+    public void add(String termId, String field, String value)
+    {
+        if (this.terms != null) {
+            throw new IllegalStateException("Annotations cannot be added after the store was queried");
+        }
+        if (this.size == this.entryTerms.length) {
+            int capacity = this.size * 2;
+            this.entryTerms = Arrays.copyOf(this.entryTerms, capacity);
+            this.entryFields = Arrays.copyOf(this.entryFields, capacity);
+            this.entryValues = Arrays.copyOf(this.entryValues, capacity);
+        }
+        this.entryTerms[this.size] = intern(termId, this.termIndexes, null);
+        this.entryFields[this.size] = intern(field, this.fieldIndexes, this.fields);
+        this.entryValues[this.size] = intern(value, this.valueIndexes, this.values);
+        ++this.size;
+    }
+
+    /**
+     * Adds several annotations for a term, all in the same field.
+     *
+     * @param termId the identifier of the annotated term
+     * @param field the name of the field where the values should be added
+     * @param values the values to add
+     * @throws IllegalStateException if the store was already queried
+     */
+    public void addAll(String termId, String field, Collection<String> values)
+    {
+        for (String value : values) {
+            add(termId, field, value);
+        }
+    }
+
+    /**
+     * Retrieves the annotations of a term.
+     *
+     * @param termId the identifier of the term of interest
+     * @return a map from field names to the values for that field, in the order that the fields were first added; an
+     *         empty map if there are no annotations for this term
+     */
+    public synchronized Map<String, Collection<String>> get(String termId)
+    {
+        seal();
+        int position = Arrays.binarySearch(this.terms, termId);
+        if (position < 0) {
+            return Collections.emptyMap();
+        }
+        Map<String, Collection<String>> result = new LinkedHashMap<>();
+        for (int i = this.termOffsets[position]; i < this.termOffsets[position + 1]; ++i) {
+            Collection<String> fieldValues = result.get(this.fields.get(this.entryFields[i]));
+            if (fieldValues == null) {
+                fieldValues = this.distinctValues ? new LinkedHashSet<String>() : new ArrayList<String>();
+                result.put(this.fields.get(this.entryFields[i]), fieldValues);
+            }
+            fieldValues.add(getValue(this.entryValues[i]));
+        }
+        return result;
+    }
+
+    /**
+     * The number of stored annotations. Duplicate annotations are only counted once after the store is queried, if
+     * the store only keeps distinct values.
+     *
+     * @return the number of stored annotations
+     */
+    public synchronized int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Releases the memory and temporary files used by this store.
+     */
+    @Override
+    public synchronized void close()
+    {
+        this.heapValues = null;
+        this.mappedValues = null;
+        this.mappedOffsets = null;
+        this.values = null;
+        if (this.spillFile != null) {
+            try {
+                Files.deleteIfExists(this.spillFile);
+            } catch (IOException ex) {
+                LOGGER.warn("Failed to delete temporary annotations file [{}]: {}", this.spillFile, ex.getMessage());
+            }
+            this.spillFile = null;
+        }
+    }
+
+    private int intern(String value, Map<String, Integer> indexes, List<String> pool)
+    {
+        Integer index = indexes.get(value);
+        if (index == null) {
+            index = indexes.size();
+            indexes.put(value, index);
+            if (pool != null) {
+                pool.add(value);
+                if (pool == this.values) {
+                    this.valuesLength += value.length();
+                }
+            }
+        }
+        return index;
+    }
+
+    private void seal()
+    {
+        if (this.terms != null) {
+            return;
+        }
+        // Sort the term identifiers, and compute the rank of each term in the sorted list
+        this.terms = this.termIndexes.keySet().toArray(new String[this.termIndexes.size()]);
+        Arrays.sort(this.terms);
+        int[] rank = new int[this.terms.length];
+        for (int i = 0; i < this.terms.length; ++i) {
+            rank[this.termIndexes.get(this.terms[i])] = i;
+        }
+        this.termIndexes = null;
+        this.fieldIndexes = null;
+        this.valueIndexes = null;
+
+        // Counting sort of the entries by term rank, which keeps the insertion order for each term
+        this.termOffsets = new int[this.terms.length + 1];
+        for (int i = 0; i < this.size; ++i) {
+            ++this.termOffsets[rank[this.entryTerms[i]] + 1];
+        }
+        for (int i = 0; i < this.terms.length; ++i) {
+            this.termOffsets[i + 1] += this.termOffsets[i];
+        }
+        int[] next = Arrays.copyOf(this.termOffsets, this.terms.length);
+        int[] sortedFields = new int[this.size];
+        int[] sortedValues = new int[this.size];
+        for (int i = 0; i < this.size; ++i) {
+            int target = next[rank[this.entryTerms[i]]]++;
+            sortedFields[target] = this.entryFields[i];
+            sortedValues[target] = this.entryValues[i];
+        }
+        this.entryTerms = null;
+        this.entryFields = sortedFields;
+        this.entryValues = sortedValues;
+
+        if (this.distinctValues) {
+            removeDuplicates();
+        }
+
+        this.heapValues = this.values.toArray(new String[this.values.size()]);
+        this.values = null;
+        // Strings take roughly two bytes per character
+        if (this.spillThreshold >= 0 && this.valuesLength * 2 > this.spillThreshold) {
+            spill();
+        }
+    }
+
+    private void removeDuplicates()
+    {
+        Set<Long> seen = new HashSet<>();
+        int target = 0;
+        int start = 0;
+        for (int t = 0; t < this.terms.length; ++t) {
+            int end = this.termOffsets[t + 1];
+            seen.clear();
+            this.termOffsets[t] = target;
+            for (int i = start; i < end; ++i) {
+                if (seen.add(((long) this.entryFields[i] << 32) | this.entryValues[i])) {
+                    this.entryFields[target] = this.entryFields[i];
+                    this.entryValues[target] = this.entryValues[i];
+                    ++target;
+                }
+            }
+            start = end;
+        }
+        this.termOffsets[this.terms.length] = target;
+        this.size = target;
+        this.entryFields = Arrays.copyOf(this.entryFields, target);
+        this.entryValues = Arrays.copyOf(this.entryValues, target);
+    }
+
+    private void spill()
+    {
+        Path file = null;
+        try {
+            file = Files.createTempFile("annotations", ".dat");
+            int[] offsets = new int[this.heapValues.length + 1];
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long position = 0;
+                for (int i = 0; i < this.heapValues.length; ++i) {
+                    ByteBuffer bytes = ByteBuffer.wrap(this.heapValues[i].getBytes(StandardCharsets.UTF_8));
+                    position += bytes.remaining();
+                    if (position > Integer.MAX_VALUE) {
+                        // Too large to be mapped at once, keep the values in memory
+                        Files.deleteIfExists(file);
+                        return;
+                    }
+                    offsets[i + 1] = (int) position;
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+                }
+                this.mappedValues = channel.map(FileChannel.MapMode.READ_ONLY, 0, position);
+            }
+            this.mappedOffsets = offsets;
+            this.spillFile = file;
+            this.heapValues = null;
+        } catch (IOException ex) {
+            LOGGER.warn("Failed to move annotations to a temporary file, keeping them in memory: {}", ex.getMessage());
+            if (file != null) {
+                file.toFile().delete();
+            }
+        }
+    }
+
+    private String getValue(int index)
+    {
+        if (this.heapValues != null) {
+            return this.heapValues[index];
+        }
+        byte[] bytes = new byte[this.mappedOffsets[index + 1] - this.mappedOffsets[index]];
+        ByteBuffer buffer = this.mappedValues.duplicate();
+        buffer.position(this.mappedOffsets[index]);
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
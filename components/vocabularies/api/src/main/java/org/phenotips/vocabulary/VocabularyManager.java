@@ -20,7 +20,10 @@
 import org.xwiki.component.annotation.Role;
 import org.xwiki.stability.Unstable;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -44,6 +47,30 @@
      */
     VocabularyTerm resolveTerm(String termId);
 
+    /**
+     * Retrieve several terms at once, possibly from different vocabularies. This is preferable to calling
+     * {@link #resolveTerm(String)} repeatedly, since terms from the same vocabulary are fetched together.
+     *
+     * @param termIds the term identifiers, in the format {@code <vocabulary prefix>:<term id>}, for example
+     *            {@code HP:0002066}; {@code null} and duplicate identifiers are ignored
+     * @return a map from each requested identifier to its term, in the order in which the identifiers were requested;
+     *         identifiers that couldn't be resolved are not included
+     * @since 1.4
+     */
+    default Map<String, VocabularyTerm> resolveTerms(Collection<String> termIds)
+    {
+        Map<String, VocabularyTerm> result = new LinkedHashMap<>();
+        for (String termId : termIds) {
+            if (termId != null && !result.containsKey(termId)) {
+                VocabularyTerm term = resolveTerm(termId);
+                if (term != null) {
+                    result.put(termId, term);
+                }
+            }
+        }
+        return result;
+    }
+
     /**
      * Retrieve a vocabulary given its identifier.
      *
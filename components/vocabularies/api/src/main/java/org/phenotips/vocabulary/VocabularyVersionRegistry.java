@@ -0,0 +1,63 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary;
+
+import org.phenotips.vocabulary.events.VocabularyUpdatedEvent;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+import java.util.Map;
+
+/**
+ * Keeps track of the versions of the available vocabularies. Retrieving the version of a vocabulary may require a
+ * query or even a remote request, so versions are cached until the vocabulary is
+ * {@link VocabularyUpdatedEvent updated}.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Unstable("New API introduced in 1.4")
+@Role
+public interface VocabularyVersionRegistry
+{
+    /**
+     * Lists the versions of all the available vocabularies. Vocabularies that don't report a version are not included.
+     *
+     * @return an unmodifiable map where the key is the name of a vocabulary, as registered in the component manager,
+     *         and the value is its version
+     */
+    Map<String, String> getVersions();
+
+    /**
+     * Retrieves the version of a vocabulary.
+     *
+     * @param vocabularyId the name of the vocabulary, or its {@link Vocabulary#getIdentifier() identifier}
+     * @return the version of the vocabulary, or {@code null} if the vocabulary isn't available or doesn't report a
+     *         version
+     */
+    String getVersion(String vocabularyId);
+
+    /**
+     * Discards the cached version of a vocabulary, which will be retrieved again the next time it is needed.
+     *
+     * @param vocabularyId the name of the vocabulary, its {@link Vocabulary#getIdentifier() identifier}, or one of its
+     *            {@link Vocabulary#getAliases() aliases}; if {@code null}, all the cached versions are discarded
+     */
+    void invalidate(String vocabularyId);
+}
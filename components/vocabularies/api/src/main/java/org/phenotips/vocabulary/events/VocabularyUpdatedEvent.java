@@ -0,0 +1,78 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.events;
+
+import org.phenotips.vocabulary.Vocabulary;
+
+import org.xwiki.observation.event.Event;
+import org.xwiki.stability.Unstable;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * An event that is fired every time the content of a vocabulary changes, for example when it has been reindexed. It
+ * can also be fired explicitly, to signal that information cached about a vocabulary, such as its version, is no
+ * longer valid.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Unstable
+public class VocabularyUpdatedEvent implements Event
+{
+    /** The identifier of the affected vocabulary. */
+    protected final String vocabularyId;
+
+    /**
+     * Constructor initializing the required fields.
+     *
+     * @param vocabularyId the {@link Vocabulary#getIdentifier() identifier} of the affected vocabulary, or
+     *            {@code null} if all the vocabularies are affected
+     */
+    public VocabularyUpdatedEvent(String vocabularyId)
+    {
+        this.vocabularyId = vocabularyId;
+    }
+
+    /** Default constructor, to be used for declaring the events a listener wants to observe. */
+    public VocabularyUpdatedEvent()
+    {
+        this(null);
+    }
+
+    @Override
+    public boolean matches(Object otherEvent)
+    {
+        if (otherEvent instanceof VocabularyUpdatedEvent) {
+            VocabularyUpdatedEvent otherUpdatedEvent = (VocabularyUpdatedEvent) otherEvent;
+            return this.vocabularyId == null
+                || StringUtils.equals(otherUpdatedEvent.getVocabularyId(), this.vocabularyId);
+        }
+        return false;
+    }
+
+    /**
+     * Returns the {@link Vocabulary#getIdentifier() identifier} of the updated vocabulary.
+     *
+     * @return the identifier of the affected vocabulary, or {@code null} if all the vocabularies are affected
+     */
+    public String getVocabularyId()
+    {
+        return this.vocabularyId;
+    }
+}
@@ -17,11 +17,14 @@
  */
 package org.phenotips.vocabulary.internal;
 
+import org.phenotips.concurrency.ContextPropagator;
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyManager;
 import org.phenotips.vocabulary.VocabularyTerm;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -29,9 +32,15 @@
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -51,34 +60,60 @@
  * @since 1.2M4 (under different names since 1.0M8)
  */
 @Component
+@SuppressWarnings("checkstyle:ClassFanOutComplexity")
 @Singleton
-public class DefaultVocabularyManager implements VocabularyManager
+public class DefaultVocabularyManager implements VocabularyManager, Disposable
 {
     private static final String SCORE_LABEL = "score";
 
+    /** How many vocabularies can be queried at the same time when resolving several terms. */
+    private static final int MAX_PARALLEL_LOOKUPS = 4;
+
     /** The currently available vocabularies. */
     @Inject
     private Provider<Map<String, Vocabulary>> vocabularies;
 
+    /** Used for passing the current context to the threads fetching terms. */
+    @Inject
+    private ContextPropagator contextPropagator;
+
     /** Get the logging object. */
     @Inject
     private Logger logger;
 
+    /** The vocabularies by alias, along with the vocabularies they were built from. */
+    private volatile VocabulariesByAlias vocabulariesByAlias;
+
+    /** Fetches terms from several vocabularies in parallel. */
+    private final ExecutorService fetchers = Executors.newFixedThreadPool(MAX_PARALLEL_LOOKUPS, runnable -> {
+        Thread thread = new Thread(runnable, "Vocabulary term resolver");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
-     * Constructs a map of vocabularies, where each vocabulary is also listed under each of its aliases.
+     * Constructs a map of vocabularies, where each vocabulary is also listed under each of its aliases. The map is
+     * only rebuilt when the available vocabularies change.
      *
-     * @return a map where the key is a vocabulary name or alias, and the value is the {@link Vocabulary} with that name
-     *         or alias
+     * @return an unmodifiable map where the key is a vocabulary name or alias, and the value is the {@link Vocabulary}
+     *         with that name or alias
      */
     private Map<String, Vocabulary> constructVocabulariesByAlias()
     {
+        Map<String, Vocabulary> available = this.vocabularies.get();
+        VocabulariesByAlias cached = this.vocabulariesByAlias;
+        if (cached != null && cached.source.equals(available)) {
+            return cached.aliases;
+        }
         Map<String, Vocabulary> aliasVocabularies = new HashMap<>();
-        for (Vocabulary vocabulary : this.vocabularies.get().values()) {
+        for (Vocabulary vocabulary : available.values()) {
             for (String alias : vocabulary.getAliases()) {
                 aliasVocabularies.put(alias, vocabulary);
             }
         }
-        return aliasVocabularies;
+        cached = new VocabulariesByAlias(available, aliasVocabularies);
+        this.vocabulariesByAlias = cached;
+        return cached.aliases;
     }
 
     /**
@@ -120,6 +155,12 @@ private Set<Vocabulary> generateVocabSetForCategory(@Nonnull final String catego
         return vocabularySet;
     }
 
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.fetchers.shutdownNow();
+    }
+
     @Override
     public VocabularyTerm resolveTerm(String termId)
     {
@@ -130,6 +171,51 @@ public VocabularyTerm resolveTerm(String termId)
         return null;
     }
 
+    @Override
+    public Map<String, VocabularyTerm> resolveTerms(Collection<String> termIds)
+    {
+        if (termIds == null || termIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        // Group the identifiers by their owner vocabulary
+        Map<String, Vocabulary> aliases = constructVocabulariesByAlias();
+        Map<Vocabulary, Set<String>> groups = new LinkedHashMap<>();
+        for (String termId : termIds) {
+            Vocabulary vocabulary = getVocabularyForTerm(termId, aliases);
+            if (vocabulary != null) {
+                groups.computeIfAbsent(vocabulary, k -> new LinkedHashSet<>()).add(termId);
+            }
+        }
+        if (groups.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        // Query each vocabulary once, the first one in the current thread and the others in parallel
+        Iterator<Map.Entry<Vocabulary, Set<String>>> iterator = groups.entrySet().iterator();
+        Map.Entry<Vocabulary, Set<String>> first = iterator.next();
+        List<CompletableFuture<Map<String, VocabularyTerm>>> pending = new ArrayList<>(groups.size() - 1);
+        while (iterator.hasNext()) {
+            Map.Entry<Vocabulary, Set<String>> group = iterator.next();
+            pending.add(CompletableFuture.supplyAsync(
+                this.contextPropagator.wrap(() -> fetchTerms(group.getKey(), group.getValue())), this.fetchers));
+        }
+        Map<String, VocabularyTerm> found = new HashMap<>(fetchTerms(first.getKey(), first.getValue()));
+        for (CompletableFuture<Map<String, VocabularyTerm>> lookup : pending) {
+            found.putAll(lookup.join());
+        }
+
+        // Return the terms in the requested order
+        Map<String, VocabularyTerm> result = new LinkedHashMap<>();
+        for (String termId : termIds) {
+            VocabularyTerm term = found.get(termId);
+            if (term != null) {
+                result.put(termId, term);
+            }
+        }
+        return result;
+    }
+
     @Override
     public Vocabulary getVocabulary(String vocabularyId)
     {
@@ -255,11 +341,64 @@ private int compareScores(@Nonnull final VocabularyTerm o1, @Nonnull final Vocab
      * @return the owner vocabulary, or {@code null} if the term doesn't belong to a known vocabulary
      */
     private Vocabulary getVocabularyForTerm(String termId)
+    {
+        return getVocabularyForTerm(termId, this.constructVocabulariesByAlias());
+    }
+
+    private Vocabulary getVocabularyForTerm(String termId, Map<String, Vocabulary> aliases)
     {
         String vocabularyId = StringUtils.substringBefore(termId, ":");
         if (StringUtils.isNotBlank(vocabularyId)) {
-            return this.constructVocabulariesByAlias().get(vocabularyId);
+            return aliases.get(vocabularyId);
         }
         return null;
     }
+
+    /**
+     * Fetches several terms from the same vocabulary with a single {@link Vocabulary#getTerms(Collection) lookup}.
+     * Identifiers not found this way, for example alternative identifiers, are then looked up individually.
+     *
+     * @param vocabulary the vocabulary to query
+     * @param termIds the identifiers of the terms to fetch, all belonging to {@code vocabulary}
+     * @return the terms that were found, keyed by the requested identifier
+     */
+    private Map<String, VocabularyTerm> fetchTerms(Vocabulary vocabulary, Collection<String> termIds)
+    {
+        Map<String, VocabularyTerm> result = new HashMap<>();
+        try {
+            if (termIds.size() > 1) {
+                for (VocabularyTerm term : vocabulary.getTerms(termIds)) {
+                    if (term != null && term.getId() != null) {
+                        result.put(term.getId(), term);
+                    }
+                }
+            }
+            for (String termId : termIds) {
+                if (!result.containsKey(termId)) {
+                    VocabularyTerm term = vocabulary.getTerm(termId);
+                    if (term != null) {
+                        result.put(termId, term);
+                    }
+                }
+            }
+        } catch (RuntimeException ex) {
+            this.logger.warn("Failed to resolve terms from vocabulary [{}]: {}", vocabulary.getIdentifier(),
+                ex.getMessage());
+        }
+        return result;
+    }
+
+    /** The vocabularies indexed by alias, remembering which vocabularies were available when the map was built. */
+    private static final class VocabulariesByAlias
+    {
+        private final Map<String, Vocabulary> source;
+
+        private final Map<String, Vocabulary> aliases;
+
+        VocabulariesByAlias(Map<String, Vocabulary> source, Map<String, Vocabulary> aliases)
+        {
+            this.source = new HashMap<>(source);
+            this.aliases = Collections.unmodifiableMap(aliases);
+        }
+    }
 }
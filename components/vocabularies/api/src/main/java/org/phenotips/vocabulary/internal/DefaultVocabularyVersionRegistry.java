@@ -0,0 +1,126 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal;
+
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyVersionRegistry;
+
+import org.xwiki.component.annotation.Component;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+
+/**
+ * Default implementation of the {@link VocabularyVersionRegistry} component, which caches the version of each
+ * {@link Vocabulary} registered in the component manager until it is {@link #invalidate(String) invalidated}. Blank
+ * versions are not cached, so that vocabularies which are not indexed yet, or remote vocabularies which are
+ * temporarily unreachable, are asked again the next time.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Component
+@Singleton
+public class DefaultVocabularyVersionRegistry implements VocabularyVersionRegistry
+{
+    /** The currently available vocabularies. */
+    @Inject
+    private Provider<Map<String, Vocabulary>> vocabularies;
+
+    /** Logging helper object. */
+    @Inject
+    private Logger logger;
+
+    /** The known versions, where the key is the name of the vocabulary. */
+    private final ConcurrentMap<String, String> versions = new ConcurrentHashMap<>();
+
+    @Override
+    public Map<String, String> getVersions()
+    {
+        Map<String, String> result = new HashMap<>();
+        for (Map.Entry<String, Vocabulary> vocabulary : this.vocabularies.get().entrySet()) {
+            String version = getVersion(vocabulary.getKey(), vocabulary.getValue());
+            if (version != null) {
+                result.put(vocabulary.getKey(), version);
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    @Override
+    public String getVersion(String vocabularyId)
+    {
+        if (StringUtils.isBlank(vocabularyId)) {
+            return null;
+        }
+        Map<String, Vocabulary> available = this.vocabularies.get();
+        Vocabulary vocabulary = available.get(vocabularyId);
+        if (vocabulary != null) {
+            return getVersion(vocabularyId, vocabulary);
+        }
+        for (Map.Entry<String, Vocabulary> candidate : available.entrySet()) {
+            if (vocabularyId.equals(candidate.getValue().getIdentifier())) {
+                return getVersion(candidate.getKey(), candidate.getValue());
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void invalidate(String vocabularyId)
+    {
+        if (vocabularyId == null) {
+            this.versions.clear();
+            return;
+        }
+        this.versions.remove(vocabularyId);
+        for (Map.Entry<String, Vocabulary> vocabulary : this.vocabularies.get().entrySet()) {
+            if (vocabularyId.equals(vocabulary.getValue().getIdentifier())
+                || vocabulary.getValue().getAliases().contains(vocabularyId)) {
+                this.versions.remove(vocabulary.getKey());
+            }
+        }
+    }
+
+    private String getVersion(String name, Vocabulary vocabulary)
+    {
+        String version = this.versions.get(name);
+        if (version == null) {
+            try {
+                version = vocabulary.getVersion();
+            } catch (RuntimeException ex) {
+                this.logger.warn("Failed to get the version of vocabulary [{}]: {}", name, ex.getMessage());
+            }
+            if (StringUtils.isBlank(version)) {
+                return null;
+            }
+            this.versions.put(name, version);
+        }
+        return version;
+    }
+}
@@ -22,14 +22,23 @@
 import org.phenotips.vocabulary.VocabularyTerm;
 
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
@@ -59,6 +68,9 @@ public abstract class AbstractOBOSolrVocabulary extends AbstractSolrVocabulary
 
     protected static final String VERSION_FIELD_NAME = "version";
 
+    /** The number of threads sending batches of terms to Solr in parallel. */
+    private static final int INDEXING_THREADS = 2;
+
     /**
      * The number of documents to be added and committed to Solr at a time.
      *
@@ -73,81 +85,53 @@ public VocabularyTerm getTerm(String id)
             return null;
         }
         VocabularyTerm result = super.getTerm(id);
-        if (result == null) {
+        // When the vocabulary was indexed with an alias index, alternative identifiers were already resolved
+        if (result == null && !hasTermAliases()) {
             Map<String, String> queryParameters = new HashMap<>();
             queryParameters.put(ALTERNATIVE_ID_FIELD_NAME, id);
             List<VocabularyTerm> results = search(queryParameters);
             if (results != null && !results.isEmpty()) {
-                result = search(queryParameters).iterator().next();
+                result = results.get(0);
             }
         }
         return result;
     }
 
     /**
-     * Load vocabulary data from a provided source url.
-     *
-     * @param sourceUrl the address from where to get the vocabulary source file
-     * @return vocabulary data, if exists
-     */
-    protected Map<String, TermData> load(final String sourceUrl)
-    {
-        SolrUpdateGenerator generator = new SolrUpdateGenerator();
-        Map<String, Double> fieldSelection = new HashMap<>();
-        return generator.transform(sourceUrl, fieldSelection);
-    }
-
-    /**
-     * Add a vocabulary to the index.
+     * Add a vocabulary to the index. Terms are parsed from the source one at a time and sent to Solr in batches, by
+     * several threads in parallel, so that the whole vocabulary never has to be held in memory.
      *
      * @param sourceUrl the address from where to get the vocabulary source file
      * @return {@code 0} if the indexing succeeded, {@code 1} if writing to the Solr server failed, {@code 2} if the
      *         specified URL is invalid
      */
     @Override
-    @SuppressWarnings({ "checkstyle:CyclomaticComplexity" })
     protected int index(String sourceUrl)
     {
         String url = StringUtils.defaultIfBlank(sourceUrl, getDefaultSourceLocation());
-        Map<String, TermData> data = load(url);
-
-        if (data == null || data.isEmpty()) {
+        URL source;
+        try {
+            source = new URL(url);
+        } catch (MalformedURLException ex) {
             return 2;
         }
+
+        ThreadPoolExecutor senders = new ThreadPoolExecutor(INDEXING_THREADS, INDEXING_THREADS, 0L,
+            TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(INDEXING_THREADS),
+            // When all the threads are busy and the queue is full, the parser waits by sending a batch itself
+            new ThreadPoolExecutor.CallerRunsPolicy());
         try {
-            Set<String> singleValuedFields = getSingleValuedFields();
-
-            Collection<SolrInputDocument> termBatch = new HashSet<>();
-            Iterator<Map.Entry<String, TermData>> dataIterator = data.entrySet().iterator();
-            int batchCounter = 0;
-            while (dataIterator.hasNext()) {
-                /* Resetting when the batch fills */
-                if (batchCounter == getSolrDocsPerBatch()) {
-                    commitTerms(termBatch);
-                    termBatch = new HashSet<>();
-                    batchCounter = 0;
-                }
-                Set<String> addedFields = new HashSet<>();
-                Map.Entry<String, TermData> item = dataIterator.next();
-                SolrInputDocument doc = new SolrInputDocument();
-
-                for (Map.Entry<String, Collection<String>> property : item.getValue().entrySet()) {
-                    String name = property.getKey();
-                    for (String value : property.getValue()) {
-                        // check if property is single value type and has been already added
-                        if (singleValuedFields.contains(name) && addedFields.contains(name)) {
-                            break;
-                        }
-                        doc.addField(name, value);
-                        addedFields.add(name);
-                    }
-                }
-                extendTerm(new SolrVocabularyInputTerm(doc, this));
-                termBatch.add(doc);
-                batchCounter++;
+            TermIndexer indexer = new TermIndexer(senders);
+            if (!new SolrUpdateGenerator().transform(source, new HashMap<String, Double>(), indexer)
+                || indexer.termCount == 0) {
+                return 2;
             }
-            commitTerms(termBatch);
+            indexer.finish();
             return 0;
+        } catch (ExecutionException ex) {
+            this.logger.warn("Failed to index vocabulary: {}", ex.getCause().getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
         } catch (SolrServerException ex) {
             this.logger.warn("Failed to index vocabulary: {}", ex.getMessage());
         } catch (IOException ex) {
@@ -155,10 +139,31 @@ protected int index(String sourceUrl)
                 ex.getMessage());
         } catch (OutOfMemoryError ex) {
             this.logger.warn("Failed to add terms to the Solr. Ran out of memory. {}", ex.getMessage());
+        } finally {
+            senders.shutdownNow();
         }
         return 1;
     }
 
+    private SolrInputDocument toSolrDocument(TermData term, Set<String> singleValuedFields)
+    {
+        SolrInputDocument doc = new SolrInputDocument();
+        for (Map.Entry<String, Collection<String>> property : term.entrySet()) {
+            String name = property.getKey();
+            if (singleValuedFields.contains(name)) {
+                // only the first value is kept for single value fields
+                doc.addField(name, property.getValue().iterator().next());
+            } else {
+                for (String value : property.getValue()) {
+                    doc.addField(name, value);
+                }
+            }
+        }
+        // Extensions are invoked on the parsing thread, since they aren't required to be thread safe
+        extendTerm(new SolrVocabularyInputTerm(doc, this));
+        return doc;
+    }
+
     /**
      * Delete all the data in the Solr index.
      *
@@ -224,4 +229,71 @@ private Set<String> getSingleValuedFields()
         }
         return Collections.emptySet();
     }
+
+    /**
+     * Converts parsed terms into Solr documents and sends them to the replacement core in batches.
+     */
+    private final class TermIndexer implements Consumer<TermData>
+    {
+        private final Set<String> singleValuedFields = getSingleValuedFields();
+
+        private final SolrClient client =
+            AbstractOBOSolrVocabulary.this.externalServicesAccess.getReplacementSolrConnection(
+                AbstractOBOSolrVocabulary.this);
+
+        private final int batchSize = getSolrDocsPerBatch() > 0 ? getSolrDocsPerBatch() : Integer.MAX_VALUE;
+
+        private final ExecutorService senders;
+
+        private final List<Future<?>> sentBatches = new LinkedList<>();
+
+        private List<SolrInputDocument> batch = new ArrayList<>();
+
+        private int termCount;
+
+        TermIndexer(ExecutorService senders)
+        {
+            this.senders = senders;
+        }
+
+        @Override
+        public void accept(TermData term)
+        {
+            Collection<String> alternativeIds = term.get(ALTERNATIVE_ID_FIELD_NAME);
+            Collection<String> ids = term.get(TermData.ID_FIELD_NAME);
+            if (alternativeIds != null && ids != null && !ids.isEmpty()) {
+                String id = ids.iterator().next();
+                for (String alternativeId : alternativeIds) {
+                    addTermAlias(alternativeId, id);
+                }
+            }
+            this.batch.add(toSolrDocument(term, this.singleValuedFields));
+            ++this.termCount;
+            if (this.batch.size() >= this.batchSize) {
+                send();
+            }
+        }
+
+        /**
+         * Sends the last batch, waits for all the batches to be added, and commits them.
+         */
+        void finish() throws InterruptedException, ExecutionException, SolrServerException, IOException
+        {
+            send();
+            for (Future<?> sent : this.sentBatches) {
+                sent.get();
+            }
+            this.client.commit();
+        }
+
+        private void send()
+        {
+            if (this.batch.isEmpty()) {
+                return;
+            }
+            final List<SolrInputDocument> docs = this.batch;
+            this.batch = new ArrayList<>();
+            this.sentBatches.add(this.senders.submit(() -> this.client.add(docs)));
+        }
+    }
 }
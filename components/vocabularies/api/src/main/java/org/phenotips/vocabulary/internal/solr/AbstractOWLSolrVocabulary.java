@@ -20,10 +20,9 @@
 import org.phenotips.vocabulary.VocabularyTerm;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.List;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -64,6 +63,9 @@ public abstract class AbstractOWLSolrVocabulary extends AbstractSolrVocabulary
 
     private static final String HEADER_INFO_LABEL = "HEADER_INFO";
 
+    /** The class hierarchy of the ontology currently being indexed. */
+    private OWLClassHierarchy classHierarchy;
+
     @Override
     public VocabularyTerm getTerm(@Nullable final String id)
     {
@@ -80,7 +82,8 @@ public VocabularyTerm getTerm(@Nullable final String id)
      */
     private VocabularyTerm getTerm(@Nonnull final String id, @Nullable final VocabularyTerm firstAttempt)
     {
-        return firstAttempt != null ? firstAttempt : searchTermWithoutPrefix(id);
+        // Prefix variants are already resolved when the vocabulary was indexed with an alias index
+        return firstAttempt != null || hasTermAliases() ? firstAttempt : searchTermWithoutPrefix(id);
     }
 
     /**
@@ -117,7 +120,8 @@ protected int clear()
 
     /**
      * Given a {@code sourceUrl source URL} for the vocabulary, return {@code 0} iff the vocabulary is indexed
-     * successfully, {@code 1} otherwise.
+     * successfully, {@code 1} otherwise. The ontology is loaded without a reasoner, and the class hierarchy is
+     * navigated through a {@link OWLClassHierarchy lightweight index} of the asserted sub-class relations.
      *
      * @param sourceUrl the source URL for the vocabulary, as string
      * @return {@code 0} iff the vocabulary is indexed successfully, {@code 1} otherwise
@@ -127,33 +131,28 @@ protected int index(@Nullable final String sourceUrl)
     {
         final String url = StringUtils.defaultIfBlank(sourceUrl, getDefaultSourceLocation());
         // Fetch the ontology. If this is over the network, it may take a while.
-        final OntModel ontModel = ModelFactory.createOntologyModel(OntModelSpec.OWL_DL_MEM_TRANS_INF);
+        final OntModel ontModel = ModelFactory.createOntologyModel(OntModelSpec.OWL_DL_MEM);
         ontModel.read(url);
-        // Get the root classes of the ontology that we can start the parsing with.
-        final Collection<OntClass> roots = getRootClasses(ontModel);
+        this.classHierarchy = new OWLClassHierarchy(ontModel);
         // Reusing doc for speed (see http://wiki.apache.org/lucene-java/ImproveIndexingSpeed).
         final SolrInputDocument doc = new SolrInputDocument();
         try {
-            Collection<SolrInputDocument> termBatch = new HashSet<>();
+            // Get the root classes of the ontology that we can start the parsing with.
+            final Collection<OntClass> roots = getRootClasses(ontModel);
+            Collection<SolrInputDocument> termBatch = new ArrayList<>();
             // Set the ontology model version.
             setVersion(doc, ontModel);
             // Create and add solr documents for each of the roots.
             for (final OntClass root : roots) {
                 // Don't want to add Solr documents for general root categories, so start adding children.
                 // Get all the subclasses of ontClass, and add a Solr document for each of them.
-                final ExtendedIterator<OntClass> subClasses = root.listSubClasses();
-                int batchCounter = 0;
-                while (subClasses.hasNext()) {
-                    if (batchCounter == getSolrDocsPerBatch()) {
+                for (final OntClass subClass : this.classHierarchy.getDescendants(root)) {
+                    if (termBatch.size() == getSolrDocsPerBatch()) {
                         commitTerms(termBatch);
-                        termBatch = new HashSet<>();
-                        batchCounter = 0;
+                        termBatch = new ArrayList<>();
                     }
-                    final OntClass subClass = subClasses.next();
                     addDoc(doc, subClass, root, termBatch);
-                    batchCounter++;
                 }
-                subClasses.close();
             }
             commitTerms(termBatch);
             return 0;
@@ -163,10 +162,23 @@ protected int index(@Nullable final String sourceUrl)
             this.logger.warn("Failed to communicate with the Solr server while indexing ontology: {}", ex.getMessage());
         } catch (OutOfMemoryError ex) {
             this.logger.warn("Failed to add terms to the Solr. Ran out of memory. {}", ex.getMessage());
+        } finally {
+            this.classHierarchy = null;
+            ontModel.close();
         }
         return 1;
     }
 
+    /**
+     * The class hierarchy of the ontology being indexed.
+     *
+     * @return the class hierarchy, only available during {@link #index(String) indexing}
+     */
+    OWLClassHierarchy getClassHierarchy()
+    {
+        return this.classHierarchy;
+    }
+
     /**
      * Create a document for the ontology class, and add it to the index.
      *
@@ -247,11 +259,36 @@ private void setVersion(@Nonnull final SolrInputDocument doc, @Nonnull final Ont
     private void parseSolrDocumentFromOntClass(@Nonnull final SolrInputDocument doc,
         @Nonnull final OntClass ontClass, @Nonnull final OntClass root)
     {
-        doc.addField(ID_FIELD_NAME, getFormattedOntClassId(ontClass.getLocalName()));
+        final String id = getFormattedOntClassId(ontClass.getLocalName());
+        doc.addField(ID_FIELD_NAME, id);
+        addPrefixAliases(id, ontClass.getLocalName());
         doc.addField(TERM_GROUP_LABEL, root.getLabel(null));
         extractProperties(doc, ontClass);
     }
 
+    /**
+     * Registers the variants of a term identifier that may be used in stored data: the ontology local name, the bare
+     * identifier, and the identifier with the prefix in lowercase or replaced by one of the vocabulary aliases.
+     *
+     * @param id the identifier of the term, as indexed
+     * @param localName the local name of the ontology class
+     */
+    private void addPrefixAliases(@Nullable final String id, @Nullable final String localName)
+    {
+        if (!StringUtils.contains(id, SEPARATOR)) {
+            return;
+        }
+        addTermAlias(localName, id);
+        final String localId = StringUtils.substringAfter(id, SEPARATOR);
+        addTermAlias(localId, id);
+        addTermAlias(getTermPrefix().toLowerCase() + SEPARATOR + localId, id);
+        for (final String alias : getAliases()) {
+            if (!StringUtils.containsWhitespace(alias)) {
+                addTermAlias(alias + SEPARATOR + localId, id);
+            }
+        }
+    }
+
     /**
      * Adds parent data for provided ontology class to the Solr document.
      *
@@ -261,19 +298,18 @@ private void parseSolrDocumentFromOntClass(@Nonnull final SolrInputDocument doc,
     private void parseSolrDocumentFromOntParentClasses(@Nonnull final SolrInputDocument doc,
         @Nonnull final OntClass ontClass)
     {
-        // This will list all superclasses for ontClass.
-        final ExtendedIterator<OntClass> allParents = ontClass.listSuperClasses(!DIRECT);
-        // For anonymous classes, we're only interested in the direct parents.
-        final List<OntClass> directParents = ontClass.listSuperClasses(DIRECT).toList();
-        while (allParents.hasNext()) {
-            final OntClass parent = allParents.next();
-            // We're interested in all non-anonymous parents (these are parent disorders), but only the direct anonymous
-            // parents (these are the class properties).
-            if (!parent.isAnon() || directParents.contains(parent)) {
+        // We're interested in all non-anonymous ancestors (these are parent disorders), but only the direct anonymous
+        // parents (these are the class properties).
+        for (final OntClass parent : this.classHierarchy.getDirectParents(ontClass)) {
+            if (parent.isAnon()) {
                 extractClassData(doc, ontClass, parent);
             }
         }
-        allParents.close();
+        for (final OntClass ancestor : this.classHierarchy.getAncestors(ontClass)) {
+            if (!ancestor.isAnon()) {
+                extractClassData(doc, ontClass, ancestor);
+            }
+        }
     }
 
     /**
@@ -23,11 +23,16 @@
 import org.phenotips.vocabulary.VocabularyInputTerm;
 import org.phenotips.vocabulary.VocabularySourceRelocationService;
 import org.phenotips.vocabulary.VocabularyTerm;
+import org.phenotips.vocabulary.events.VocabularyUpdatedEvent;
 
 import org.xwiki.cache.Cache;
 import org.xwiki.component.phase.InitializationException;
+import org.xwiki.environment.Environment;
+import org.xwiki.observation.ObservationManager;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
@@ -68,6 +73,12 @@ public abstract class AbstractSolrVocabulary implements Vocabulary
      */
     private static final VocabularyTerm EMPTY_MARKER = new SolrVocabularyTerm(null, null);
 
+    /** Marks that no alias index is available for this vocabulary. */
+    private static final TermAliases NO_ALIASES = new TermAliases();
+
+    /** The name of the file, stored in the Solr core directory, holding the term aliases. */
+    private static final String ALIASES_FILE_NAME = "aliases.tsv";
+
     /** Logging helper object. */
     @Inject
     protected Logger logger;
@@ -83,6 +94,20 @@ public abstract class AbstractSolrVocabulary implements Vocabulary
     @Inject
     protected VocabularySourceRelocationService relocationService;
 
+    /** Used for locating the directory where the alias index is persisted. */
+    @Inject
+    private Environment environment;
+
+    /** Notifies that the vocabulary was reindexed; lazily obtained, since listeners may depend on vocabularies. */
+    @Inject
+    private Provider<ObservationManager> observationManager;
+
+    /** Known term aliases, lazily loaded from the disk, {@link #NO_ALIASES} if the vocabulary doesn't have any. */
+    private volatile TermAliases aliases;
+
+    /** Term aliases gathered during reindexing. */
+    private volatile TermAliases newAliases;
+
     // Dilemma:
     // In an ideal world there should be a getter methods for server and cache instances.
     // However the point of splitting up the server was to lessen the number of imports
@@ -97,6 +122,12 @@ public VocabularyTerm getTerm(String id)
         }
         VocabularyTerm result = this.externalServicesAccess.getTermCache(this).get(id);
         if (result == null) {
+            String primaryId = getTermAliases().resolve(id);
+            if (primaryId != null) {
+                result = getTerm(primaryId);
+                this.externalServicesAccess.getTermCache(this).set(id, result == null ? EMPTY_MARKER : result);
+                return result;
+            }
             SolrQuery query = new SolrQuery(ID_FIELD_NAME + ':' + ClientUtils.escapeQueryChars(id));
             SolrDocumentList allResults = this.search(query);
             if (allResults != null && !allResults.isEmpty()) {
@@ -180,6 +211,7 @@ public int reindex(String sourceUrl)
     {
         int retval = 1;
         try {
+            this.newAliases = new TermAliases();
             this.externalServicesAccess.createReplacementCore(this);
             try {
                 for (VocabularyExtension ext : this.extensions.get()) {
@@ -197,12 +229,15 @@ public int reindex(String sourceUrl)
             }
             if (retval == 0) {
                 this.externalServicesAccess.replaceCore(this);
+                replaceTermAliases();
                 this.externalServicesAccess.getTermCache(this).removeAll();
+                this.observationManager.get().notify(new VocabularyUpdatedEvent(getIdentifier()), this);
             }
             return retval;
         } catch (InitializationException ex) {
             this.logger.warn("Failed to reindex. {}", ex.getMessage());
         } finally {
+            this.newAliases = null;
             this.externalServicesAccess.discardReplacementCore(this);
         }
         return retval;
@@ -383,6 +418,82 @@ protected void commitTerms(Collection<SolrInputDocument> batch)
         this.externalServicesAccess.getReplacementSolrConnection(this).commit();
     }
 
+    /**
+     * Registers an alternative identifier for a term, to be used when looking up terms once the vocabulary currently
+     * being {@link #index(String) indexed} replaces the active one. Only valid during reindexing.
+     *
+     * @param alias the alternative identifier, for example an {@code alt_id} or an identifier with a different prefix
+     * @param id the identifier under which the term is indexed
+     */
+    protected void addTermAlias(String alias, String id)
+    {
+        TermAliases target = this.newAliases;
+        if (target != null) {
+            target.add(alias, id);
+        }
+    }
+
+    /**
+     * Checks if an alias index is available for this vocabulary. If so, all the known aliases are resolved by
+     * {@link #getTerm(String)} directly, and there's no need for further searches for terms not found by identifier.
+     *
+     * @return {@code true} if the vocabulary was indexed with support for aliases
+     */
+    protected boolean hasTermAliases()
+    {
+        return getTermAliases() != NO_ALIASES;
+    }
+
+    private TermAliases getTermAliases()
+    {
+        TermAliases result = this.aliases;
+        if (result == null) {
+            result = NO_ALIASES;
+            File file = getTermAliasesFile();
+            if (file != null && file.isFile()) {
+                try {
+                    result = TermAliases.load(file);
+                } catch (IOException ex) {
+                    this.logger.warn("Failed to read term aliases for vocabulary [{}]: {}", getIdentifier(),
+                        ex.getMessage());
+                }
+            }
+            this.aliases = result;
+        }
+        return result;
+    }
+
+    private void replaceTermAliases()
+    {
+        TermAliases result = this.newAliases;
+        File file = getTermAliasesFile();
+        if (result.size() == 0) {
+            // This vocabulary doesn't use aliases
+            result = NO_ALIASES;
+        }
+        if (file != null) {
+            try {
+                if (result == NO_ALIASES) {
+                    Files.deleteIfExists(file.toPath());
+                } else {
+                    result.store(file);
+                }
+            } catch (IOException ex) {
+                this.logger.warn("Failed to store term aliases for vocabulary [{}]: {}", getIdentifier(),
+                    ex.getMessage());
+                // Don't leave an outdated alias index behind
+                file.delete();
+            }
+        }
+        this.aliases = result;
+    }
+
+    private File getTermAliasesFile()
+    {
+        File home = this.environment.getPermanentDirectory();
+        return home == null ? null : new File(home, "solr/" + getIdentifier() + '/' + ALIASES_FILE_NAME);
+    }
+
     private VocabularyTerm cacheTerm(String id, SolrDocument doc)
     {
         Cache<VocabularyTerm> cache = this.externalServicesAccess.getTermCache(this);
@@ -0,0 +1,184 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal.solr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jena.ontology.OntClass;
+import org.apache.jena.ontology.OntModel;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.vocabulary.RDFS;
+
+/**
+ * The {@code rdfs:subClassOf} hierarchy of an ontology, extracted once from the asserted statements of a model loaded
+ * without a reasoner. Transitive ancestors and descendants are computed on demand, which is much cheaper than having
+ * an inference model materialize the whole transitive closure.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+final class OWLClassHierarchy
+{
+    private final Map<Resource, List<OntClass>> parents = new HashMap<>();
+
+    private final Map<Resource, List<OntClass>> children = new HashMap<>();
+
+    private final Map<Resource, Set<OntClass>> ancestors = new HashMap<>();
+
+    /**
+     * Extracts the asserted class hierarchy from the provided model.
+     *
+     * @param model an ontology model, usually without inference
+     */
+    OWLClassHierarchy(@Nonnull final OntModel model)
+    {
+        final StmtIterator statements = model.listStatements(null, RDFS.subClassOf, (RDFNode) null);
+        while (statements.hasNext()) {
+            final Statement statement = statements.next();
+            final RDFNode object = statement.getObject();
+            if (!object.isResource() || statement.getSubject().equals(object)
+                || !statement.getSubject().canAs(OntClass.class) || !object.canAs(OntClass.class)) {
+                continue;
+            }
+            final OntClass child = statement.getSubject().as(OntClass.class);
+            final OntClass parent = object.as(OntClass.class);
+            this.parents.computeIfAbsent(child, k -> new ArrayList<>()).add(parent);
+            this.children.computeIfAbsent(parent, k -> new ArrayList<>()).add(child);
+        }
+        statements.close();
+    }
+
+    /**
+     * Lists the asserted super-classes of a class, including anonymous ones such as restrictions.
+     *
+     * @param ontClass the class of interest
+     * @return the asserted parents, may be empty
+     */
+    List<OntClass> getDirectParents(@Nonnull final OntClass ontClass)
+    {
+        final List<OntClass> result = this.parents.get(ontClass);
+        return result == null ? Collections.<OntClass>emptyList() : result;
+    }
+
+    /**
+     * Lists all the transitive super-classes of a class, excluding the class itself.
+     *
+     * @param ontClass the class of interest
+     * @return the ancestors, in breadth-first order
+     */
+    Set<OntClass> getAncestors(@Nonnull final OntClass ontClass)
+    {
+        Set<OntClass> result = this.ancestors.get(ontClass);
+        if (result == null) {
+            result = traverse(ontClass, this.parents);
+            this.ancestors.put(ontClass, result);
+        }
+        return result;
+    }
+
+    /**
+     * Lists the direct sub-classes of a class, i.e. asserted sub-classes for which this class is a direct super-class.
+     *
+     * @param ontClass the class of interest
+     * @return the direct children, may be empty
+     * @see #hasSuperClass(OntClass, OntClass, boolean)
+     */
+    List<OntClass> getDirectChildren(@Nonnull final OntClass ontClass)
+    {
+        final List<OntClass> result = new ArrayList<>();
+        final List<OntClass> assertedChildren = this.children.get(ontClass);
+        if (assertedChildren != null) {
+            for (final OntClass child : assertedChildren) {
+                if (hasSuperClass(child, ontClass, true)) {
+                    result.add(child);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Lists all the transitive sub-classes of a class, excluding the class itself.
+     *
+     * @param ontClass the class of interest
+     * @return the descendants, in breadth-first order
+     */
+    Set<OntClass> getDescendants(@Nonnull final OntClass ontClass)
+    {
+        return traverse(ontClass, this.children);
+    }
+
+    /**
+     * Checks if a class is a super-class of another one.
+     *
+     * @param ontClass the class of interest
+     * @param parent the potential super-class
+     * @param direct if {@code true}, only direct super-classes are considered, i.e. asserted super-classes that are
+     *            not also ancestors of another asserted super-class
+     * @return {@code true} if {@code parent} is a (direct) super-class of {@code ontClass}
+     */
+    boolean hasSuperClass(@Nonnull final OntClass ontClass, @Nonnull final OntClass parent, final boolean direct)
+    {
+        if (!direct) {
+            return getAncestors(ontClass).contains(parent);
+        }
+        final List<OntClass> assertedParents = getDirectParents(ontClass);
+        if (!assertedParents.contains(parent)) {
+            return false;
+        }
+        for (final OntClass other : assertedParents) {
+            if (!other.equals(parent) && getAncestors(other).contains(parent)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Set<OntClass> traverse(final OntClass start, final Map<Resource, List<OntClass>> edges)
+    {
+        final Set<OntClass> result = new LinkedHashSet<>();
+        final Queue<OntClass> front = new LinkedList<>();
+        front.add(start);
+        OntClass crt;
+        while ((crt = front.poll()) != null) {
+            final List<OntClass> next = edges.get(crt);
+            if (next == null) {
+                continue;
+            }
+            for (final OntClass item : next) {
+                if (!item.equals(start) && result.add(item)) {
+                    front.add(item);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal.solr;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Maps alternative identifiers of vocabulary terms, such as the {@code alt_id} of OBO terms or differently prefixed
+ * forms of an identifier, to the identifier under which the term is actually indexed. The mapping is built while
+ * indexing, and stored as a tab-separated file next to the Solr core, so that it doesn't have to be rebuilt on restart.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+final class TermAliases
+{
+    private static final char SEPARATOR = '\t';
+
+    private final Map<String, String> aliases = new ConcurrentHashMap<>();
+
+    /**
+     * Registers an alias. Blank aliases, or aliases identical to the identifier, are ignored.
+     *
+     * @param alias the alternative identifier
+     * @param id the identifier of the indexed term
+     */
+    void add(String alias, String id)
+    {
+        if (StringUtils.isNoneBlank(alias, id) && !alias.equals(id)) {
+            this.aliases.putIfAbsent(alias, id);
+        }
+    }
+
+    /**
+     * Looks up an alias.
+     *
+     * @param alias the identifier to resolve
+     * @return the identifier of the indexed term, or {@code null} if this is not a known alias
+     */
+    String resolve(String alias)
+    {
+        return alias == null ? null : this.aliases.get(alias);
+    }
+
+    /**
+     * The number of known aliases.
+     *
+     * @return the number of aliases
+     */
+    int size()
+    {
+        return this.aliases.size();
+    }
+
+    /**
+     * Reads aliases from a file previously written with {@link #store(File)}.
+     *
+     * @param file the file to read
+     * @return the aliases read from the file
+     * @throws IOException if reading the file fails
+     */
+    static TermAliases load(File file) throws IOException
+    {
+        TermAliases result = new TermAliases();
+        try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int separator = line.indexOf(SEPARATOR);
+                if (separator > 0) {
+                    result.add(line.substring(0, separator), line.substring(separator + 1));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes all the aliases to a file, replacing it atomically.
+     *
+     * @param file the file to write
+     * @throws IOException if writing the file fails
+     */
+    void store(File file) throws IOException
+    {
+        Files.createDirectories(file.getParentFile().toPath());
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> alias : this.aliases.entrySet()) {
+                out.write(alias.getKey());
+                out.write(SEPARATOR);
+                out.write(alias.getValue());
+                out.newLine();
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+}
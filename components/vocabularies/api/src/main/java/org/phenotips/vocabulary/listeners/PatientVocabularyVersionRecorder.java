@@ -18,21 +18,15 @@
 package org.phenotips.vocabulary.listeners;
 
 import org.phenotips.Constants;
-import org.phenotips.data.Patient;
-import org.phenotips.data.events.PatientChangingEvent;
-import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.data.spi.PatientSaveContext;
+import org.phenotips.data.spi.PatientSaveStage;
+import org.phenotips.vocabulary.VocabularyVersionRegistry;
 
 import org.xwiki.component.annotation.Component;
-import org.xwiki.context.Execution;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.EntityReference;
-import org.xwiki.observation.AbstractEventListener;
-import org.xwiki.observation.event.Event;
 
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -42,7 +36,6 @@
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
-import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
 
 /**
@@ -54,7 +47,7 @@
 @Component
 @Named("vocabulary-version-recorder")
 @Singleton
-public class PatientVocabularyVersionRecorder extends AbstractEventListener
+public class PatientVocabularyVersionRecorder implements PatientSaveStage
 {
     /** The name of the class where version info (name, version) is stored. */
     private static final EntityReference VERSION_RECORDER_REFERENCE = new EntityReference("OntologyVersionClass",
@@ -64,51 +57,44 @@ public class PatientVocabularyVersionRecorder extends AbstractEventListener
 
     private static final String VERSION_FIELD = "version";
 
-    /** Access to services that are needed to get the vocabulary version. */
+    /** Provides the cached vocabulary versions. */
     @Inject
-    private Map<String, Vocabulary> ontologies;
+    private VocabularyVersionRegistry versions;
 
-    @Inject
-    private Execution execution;
-
-    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
-    public PatientVocabularyVersionRecorder()
+    @Override
+    public int getPriority()
     {
-        super("vocabulary-version-recorder", new PatientChangingEvent());
+        // Runs last, after all the other stages changed the record
+        return 1000;
     }
 
     @Override
-    public void onEvent(Event event, Object source, Object data)
+    public void process(PatientSaveContext saveContext)
     {
-        XWikiContext context = (XWikiContext) this.execution.getContext().getProperty("xwikicontext");
-        XWikiDocument doc = (XWikiDocument) source;
-
-        BaseObject patientRecordObj = doc.getXObject(Patient.CLASS_REFERENCE);
-        if (patientRecordObj == null) {
+        XWikiContext context = saveContext.getXContext();
+        if (saveContext.getPatientObject() == null) {
             return;
         }
 
-        List<BaseObject> existingVersionObjects = doc.getXObjects(VERSION_RECORDER_REFERENCE);
         try {
             for (Map.Entry<String, String> versionType : this.getOntologiesVersions().entrySet()) {
                 boolean skip = false;
-                if (existingVersionObjects != null) {
-                    for (BaseObject existingVersionObject : existingVersionObjects) {
-                        if (existingVersionObject == null) {
-                            continue;
-                        }
-                        String name = existingVersionObject.getStringValue(NAME_FIELD);
-                        if (StringUtils.equalsIgnoreCase(name, versionType.getKey())) {
+                for (BaseObject existingVersionObject : saveContext.getObjects(VERSION_RECORDER_REFERENCE)) {
+                    String name = existingVersionObject.getStringValue(NAME_FIELD);
+                    if (StringUtils.equalsIgnoreCase(name, versionType.getKey())) {
+                        // Only touch the object if the version changed, to avoid needlessly marking it as dirty
+                        if (!StringUtils.equals(existingVersionObject.getStringValue(VERSION_FIELD),
+                            versionType.getValue())) {
                             existingVersionObject.set(VERSION_FIELD, versionType.getValue(), context);
-                            skip = true;
-                            break;
                         }
+                        skip = true;
+                        break;
                     }
-                    if (skip) {
-                        continue;
-                    }
                 }
-                BaseObject versionObject = doc.newXObject(VERSION_RECORDER_REFERENCE, context);
+                if (skip) {
+                    continue;
+                }
+                BaseObject versionObject = saveContext.newObject(VERSION_RECORDER_REFERENCE);
                 versionObject.set(NAME_FIELD, versionType.getKey(), context);
                 versionObject.set(VERSION_FIELD, versionType.getValue(), context);
             }
@@ -118,20 +104,13 @@ public void onEvent(Event event, Object source, Object data)
     }
 
     /**
-     * Modify this function to add more version types.
+     * Modify this function to add more version types. The versions are cached by the
+     * {@link VocabularyVersionRegistry}, so this doesn't query the vocabularies on each save.
      *
      * @return Map of all the version types. Each entry becomes an object in the patient record.
      */
     public Map<String, String> getOntologiesVersions()
     {
-        Map<String, String> result = new HashMap<>();
-
-        for (Entry<String, Vocabulary> ontology : this.ontologies.entrySet()) {
-            String version = ontology.getValue().getVersion();
-            if (StringUtils.isNotBlank(version)) {
-                result.put(ontology.getKey(), version);
-            }
-        }
-        return result;
+        return this.versions.getVersions();
     }
 }
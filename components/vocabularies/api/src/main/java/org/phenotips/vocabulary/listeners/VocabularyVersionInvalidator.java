@@ -0,0 +1,56 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.listeners;
+
+import org.phenotips.vocabulary.VocabularyVersionRegistry;
+import org.phenotips.vocabulary.events.VocabularyUpdatedEvent;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Discards the cached version of a vocabulary when the vocabulary is updated.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Component
+@Named("vocabulary-version-invalidator")
+@Singleton
+public class VocabularyVersionInvalidator extends AbstractEventListener
+{
+    @Inject
+    private VocabularyVersionRegistry registry;
+
+    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
+    public VocabularyVersionInvalidator()
+    {
+        super("vocabulary-version-invalidator", new VocabularyUpdatedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        this.registry.invalidate(((VocabularyUpdatedEvent) event).getVocabularyId());
+    }
+}
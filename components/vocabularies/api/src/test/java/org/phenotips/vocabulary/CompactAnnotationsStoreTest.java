@@ -0,0 +1,92 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link CompactAnnotationsStore}.
+ *
+ * @version $Id$
+ */
+public class CompactAnnotationsStoreTest
+{
+    private static final String SYMPTOM = "symptom";
+
+    private static final String GENE = "gene";
+
+    @Test
+    public void valuesAreGroupedByTermAndField()
+    {
+        try (CompactAnnotationsStore store = createStore(false, -1)) {
+            Map<String, Collection<String>> result = store.get("MIM:162200");
+            Assert.assertEquals(Arrays.asList(SYMPTOM, GENE), Arrays.asList(result.keySet().toArray()));
+            Assert.assertEquals(Arrays.asList("HP:0009737", "HP:0001256", "HP:0009737"), result.get(SYMPTOM));
+            Assert.assertEquals(Arrays.asList("NF1"), result.get(GENE));
+            Assert.assertEquals(Arrays.asList("HP:0000316"), store.get("MIM:100100").get(SYMPTOM));
+            Assert.assertTrue(store.get("MIM:000000").isEmpty());
+        }
+    }
+
+    @Test
+    public void duplicatesAreRemovedWhenDistinctValuesAreRequested()
+    {
+        try (CompactAnnotationsStore store = createStore(true, -1)) {
+            Map<String, Collection<String>> result = store.get("MIM:162200");
+            Assert.assertEquals(new HashSet<>(Arrays.asList("HP:0009737", "HP:0001256")), result.get(SYMPTOM));
+            Assert.assertEquals(4, store.size());
+        }
+    }
+
+    @Test
+    public void spilledValuesAreReadBack()
+    {
+        try (CompactAnnotationsStore store = createStore(false, 0)) {
+            Assert.assertEquals(Arrays.asList("HP:0009737", "HP:0001256", "HP:0009737"),
+                store.get("MIM:162200").get(SYMPTOM));
+            Assert.assertEquals(Arrays.asList("NF1"), store.get("MIM:162200").get(GENE));
+            Assert.assertEquals(Arrays.asList("HP:0000316"), store.get("MIM:100100").get(SYMPTOM));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void addingAfterQueryingIsRejected()
+    {
+        try (CompactAnnotationsStore store = createStore(false, -1)) {
+            store.get("MIM:162200");
+            store.add("MIM:162200", GENE, "NF2");
+        }
+    }
+
+    private CompactAnnotationsStore createStore(boolean distinctValues, long spillThreshold)
+    {
+        CompactAnnotationsStore store = new CompactAnnotationsStore(distinctValues, spillThreshold);
+        store.add("MIM:162200", SYMPTOM, "HP:0009737");
+        store.add("MIM:100100", SYMPTOM, "HP:0000316");
+        store.add("MIM:162200", SYMPTOM, "HP:0001256");
+        store.add("MIM:162200", GENE, "NF1");
+        store.add("MIM:162200", SYMPTOM, "HP:0009737");
+        return store;
+    }
+}
@@ -17,6 +17,7 @@
  */
 package org.phenotips.vocabulary.internal;
 
+import org.phenotips.concurrency.ContextPropagator;
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyManager;
 import org.phenotips.vocabulary.VocabularyTerm;
@@ -24,13 +25,16 @@
 import org.xwiki.component.phase.InitializationException;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Supplier;
 
 import org.apache.commons.lang3.StringUtils;
 import org.junit.Assert;
@@ -41,7 +45,11 @@
 import org.mockito.MockitoAnnotations;
 import org.slf4j.Logger;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -188,6 +196,10 @@ public void setUp() throws Exception
         this.mocker.registerComponent(Vocabulary.class, "ethnicity", this.ethnicity);
         this.mocker.registerComponent(Vocabulary.class, "omim", this.omim);
 
+        // Run the parallel lookups without setting up a context
+        when(this.mocker.getInstance(ContextPropagator.class).wrap(any(Supplier.class)))
+            .thenAnswer(invocation -> invocation.getArguments()[0]);
+
         this.vocabularyManager = this.mocker.getComponentUnderTest();
         this.logger = this.mocker.getMockedLogger();
     }
@@ -247,6 +259,58 @@ public void resolveTermReturnsTermFromTermId() throws Exception
         Assert.assertEquals(chebiTerm, this.vocabularyManager.resolveTerm(chebiId));
     }
 
+    @Test
+    public void resolveTermsQueriesEachVocabularyOnceAndPreservesOrder() throws Exception
+    {
+        final VocabularyTerm hpoTerm1 = mock(VocabularyTerm.class);
+        when(hpoTerm1.getId()).thenReturn("HP:01");
+        final VocabularyTerm hpoTerm2 = mock(VocabularyTerm.class);
+        when(hpoTerm2.getId()).thenReturn("HP:02");
+        final VocabularyTerm omimTerm = mock(VocabularyTerm.class);
+
+        when(this.hpo.getTerms(new LinkedHashSet<>(Arrays.asList("HP:02", "HP:01"))))
+            .thenReturn(new LinkedHashSet<>(Arrays.asList(hpoTerm1, hpoTerm2)));
+        when(this.omim.getTerm("MIM:01")).thenReturn(omimTerm);
+
+        final Map<String, VocabularyTerm> terms = this.vocabularyManager
+            .resolveTerms(Arrays.asList("HP:02", "MIM:01", "WRONG:TERM", "HP:01", null, "HP:02"));
+
+        Assert.assertEquals(Arrays.asList("HP:02", "MIM:01", "HP:01"), new ArrayList<>(terms.keySet()));
+        Assert.assertSame(hpoTerm2, terms.get("HP:02"));
+        Assert.assertSame(omimTerm, terms.get("MIM:01"));
+        Assert.assertSame(hpoTerm1, terms.get("HP:01"));
+        verify(this.hpo, never()).getTerm(anyString());
+        verify(this.omim, never()).getTerms(anyCollectionOf(String.class));
+    }
+
+    @Test
+    public void resolveTermsLooksUpMissingTermsIndividually() throws Exception
+    {
+        final VocabularyTerm hpoTerm1 = mock(VocabularyTerm.class);
+        when(hpoTerm1.getId()).thenReturn("HP:01");
+        final VocabularyTerm replacementTerm = mock(VocabularyTerm.class);
+        when(replacementTerm.getId()).thenReturn("HP:09");
+
+        when(this.hpo.getTerms(new LinkedHashSet<>(Arrays.asList("HP:01", "HP:03", "HP:04"))))
+            .thenReturn(Collections.singleton(hpoTerm1));
+        when(this.hpo.getTerm("HP:03")).thenReturn(replacementTerm);
+
+        final Map<String, VocabularyTerm> terms =
+            this.vocabularyManager.resolveTerms(Arrays.asList("HP:01", "HP:03", "HP:04"));
+
+        Assert.assertEquals(2, terms.size());
+        Assert.assertSame(hpoTerm1, terms.get("HP:01"));
+        Assert.assertSame(replacementTerm, terms.get("HP:03"));
+        verify(this.hpo).getTerm("HP:04");
+    }
+
+    @Test
+    public void resolveTermsWithNoKnownTermsReturnsEmptyMap() throws Exception
+    {
+        Assert.assertTrue(this.vocabularyManager.resolveTerms(Collections.<String>emptyList()).isEmpty());
+        Assert.assertTrue(this.vocabularyManager.resolveTerms(Arrays.asList("WRONG:TERM", "", null)).isEmpty());
+    }
+
     @Test
     public void getVocabulary() throws Exception
     {
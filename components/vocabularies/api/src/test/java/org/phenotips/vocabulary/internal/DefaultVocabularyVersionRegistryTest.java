@@ -0,0 +1,117 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal;
+
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyVersionRegistry;
+
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link DefaultVocabularyVersionRegistry} class.
+ */
+public class DefaultVocabularyVersionRegistryTest
+{
+    private static final String HPO = "hpo";
+
+    private static final String OMIM = "omim";
+
+    @Rule
+    public final MockitoComponentMockingRule<VocabularyVersionRegistry> mocker =
+        new MockitoComponentMockingRule<>(DefaultVocabularyVersionRegistry.class);
+
+    private VocabularyVersionRegistry registry;
+
+    @Mock
+    private Vocabulary hpo;
+
+    @Mock
+    private Vocabulary omim;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        MockitoAnnotations.initMocks(this);
+        when(this.hpo.getIdentifier()).thenReturn(HPO);
+        when(this.hpo.getAliases()).thenReturn(Collections.singleton("HP"));
+        when(this.hpo.getVersion()).thenReturn("2017-10-05");
+        when(this.omim.getIdentifier()).thenReturn(OMIM);
+        when(this.omim.getAliases()).thenReturn(Collections.singleton("MIM"));
+        when(this.omim.getVersion()).thenReturn("");
+
+        this.mocker.registerComponent(Vocabulary.class, HPO, this.hpo);
+        this.mocker.registerComponent(Vocabulary.class, OMIM, this.omim);
+
+        this.registry = this.mocker.getComponentUnderTest();
+    }
+
+    @Test
+    public void versionsAreCachedUntilInvalidated()
+    {
+        Map<String, String> versions = this.registry.getVersions();
+        Assert.assertEquals(Collections.singletonMap(HPO, "2017-10-05"), versions);
+        Assert.assertEquals("2017-10-05", this.registry.getVersion(HPO));
+        this.registry.getVersions();
+        verify(this.hpo, times(1)).getVersion();
+
+        when(this.hpo.getVersion()).thenReturn("2018-03-08");
+        this.registry.invalidate("HP");
+        Assert.assertEquals("2018-03-08", this.registry.getVersions().get(HPO));
+        verify(this.hpo, times(2)).getVersion();
+    }
+
+    @Test
+    public void blankVersionsAreNotCached()
+    {
+        Assert.assertNull(this.registry.getVersion(OMIM));
+        when(this.omim.getVersion()).thenReturn("2018-01-01");
+        Assert.assertEquals("2018-01-01", this.registry.getVersion(OMIM));
+        Assert.assertEquals("2018-01-01", this.registry.getVersion(OMIM));
+        verify(this.omim, times(2)).getVersion();
+    }
+
+    @Test
+    public void invalidateAllDiscardsEveryVersion()
+    {
+        this.registry.getVersions();
+        this.registry.invalidate(null);
+        this.registry.getVersions();
+        verify(this.hpo, times(2)).getVersion();
+    }
+
+    @Test
+    public void unknownVocabulariesHaveNoVersion()
+    {
+        Assert.assertNull(this.registry.getVersion("unknown"));
+        Assert.assertNull(this.registry.getVersion(null));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal.solr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.jena.ontology.OntClass;
+import org.apache.jena.ontology.OntModel;
+import org.apache.jena.ontology.OntModelSpec;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link OWLClassHierarchy}, using a small OWL file.
+ *
+ * @version $Id$
+ */
+public class OWLClassHierarchyTest
+{
+    private static final String NS = "http://example.org/test#";
+
+    private OntModel model;
+
+    private OWLClassHierarchy hierarchy;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        this.model = ModelFactory.createOntologyModel(OntModelSpec.OWL_DL_MEM);
+        try (InputStream in = getClass().getResourceAsStream("/owl-hierarchy-test.owl")) {
+            this.model.read(in, "http://example.org/test");
+        }
+        this.hierarchy = new OWLClassHierarchy(this.model);
+    }
+
+    @Test
+    public void directParentsAreTheAssertedSuperClasses()
+    {
+        Assert.assertEquals(names("B", "C", "A"), named(this.hierarchy.getDirectParents(cls("D"))));
+        Assert.assertTrue(this.hierarchy.getDirectParents(cls("A")).isEmpty());
+
+        // E also has an anonymous restriction as a super-class
+        Assert.assertEquals(2, this.hierarchy.getDirectParents(cls("E")).size());
+        Assert.assertEquals(names("D"), named(this.hierarchy.getDirectParents(cls("E"))));
+    }
+
+    @Test
+    public void ancestorsAreTransitive()
+    {
+        Assert.assertEquals(names("D", "B", "C", "A"), named(this.hierarchy.getAncestors(cls("E"))));
+        Assert.assertEquals(names("A"), named(this.hierarchy.getAncestors(cls("B"))));
+        Assert.assertTrue(this.hierarchy.getAncestors(cls("A")).isEmpty());
+        // the first, direct, ancestor is always listed before the more distant ones
+        Assert.assertEquals(cls("A"), this.hierarchy.getAncestors(cls("B")).iterator().next());
+    }
+
+    @Test
+    public void descendantsAreTransitive()
+    {
+        Assert.assertEquals(names("B", "C", "D", "E"), named(this.hierarchy.getDescendants(cls("A"))));
+        Assert.assertEquals(names("E"), named(this.hierarchy.getDescendants(cls("D"))));
+        Assert.assertTrue(this.hierarchy.getDescendants(cls("E")).isEmpty());
+    }
+
+    @Test
+    public void redundantSuperClassesAreNotDirect()
+    {
+        Assert.assertTrue(this.hierarchy.hasSuperClass(cls("D"), cls("B"), true));
+        Assert.assertTrue(this.hierarchy.hasSuperClass(cls("D"), cls("C"), true));
+        Assert.assertFalse(this.hierarchy.hasSuperClass(cls("D"), cls("A"), true));
+        Assert.assertTrue(this.hierarchy.hasSuperClass(cls("D"), cls("A"), false));
+        Assert.assertTrue(this.hierarchy.hasSuperClass(cls("E"), cls("A"), false));
+        Assert.assertFalse(this.hierarchy.hasSuperClass(cls("A"), cls("E"), false));
+
+        Assert.assertEquals(names("B", "C"), named(this.hierarchy.getDirectChildren(cls("A"))));
+        Assert.assertEquals(names("D"), named(this.hierarchy.getDirectChildren(cls("B"))));
+    }
+
+    @Test
+    public void selfReferencesAreIgnored()
+    {
+        Assert.assertTrue(this.hierarchy.getDirectParents(cls("Self")).isEmpty());
+        Assert.assertTrue(this.hierarchy.getAncestors(cls("Self")).isEmpty());
+        Assert.assertTrue(this.hierarchy.getDescendants(cls("Self")).isEmpty());
+    }
+
+    private OntClass cls(String name)
+    {
+        return this.model.getOntClass(NS + name);
+    }
+
+    private static Set<String> names(String... names)
+    {
+        return new HashSet<>(Arrays.asList(names));
+    }
+
+    /** Only named classes are checked, since the anonymous restrictions have no stable identifier. */
+    private static Set<String> named(Collection<OntClass> classes)
+    {
+        return classes.stream().filter(c -> !c.isAnon()).map(c -> c.getLocalName()).collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal.solr;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link TermAliases}.
+ *
+ * @version $Id$
+ */
+public class TermAliasesTest
+{
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void aliasesAreResolved()
+    {
+        TermAliases aliases = new TermAliases();
+        aliases.add("HP:0000001", "HP:0000118");
+        aliases.add("HP:0000001", "HP:0000119");
+        aliases.add("HP:0000118", "HP:0000118");
+        aliases.add(" ", "HP:0000118");
+
+        Assert.assertEquals("HP:0000118", aliases.resolve("HP:0000001"));
+        Assert.assertNull(aliases.resolve("HP:0000118"));
+        Assert.assertNull(aliases.resolve(null));
+        Assert.assertEquals(1, aliases.size());
+    }
+
+    @Test
+    public void aliasesAreStoredAndLoaded() throws IOException
+    {
+        TermAliases aliases = new TermAliases();
+        aliases.add("HP:0000001", "HP:0000118");
+        aliases.add("ordo:558", "ORDO:558");
+        File file = new File(this.folder.getRoot(), "hpo/aliases.tsv");
+        aliases.store(file);
+
+        TermAliases loaded = TermAliases.load(file);
+        Assert.assertEquals(2, loaded.size());
+        Assert.assertEquals("HP:0000118", loaded.resolve("HP:0000001"));
+        Assert.assertEquals("ORDO:558", loaded.resolve("ordo:558"));
+    }
+}
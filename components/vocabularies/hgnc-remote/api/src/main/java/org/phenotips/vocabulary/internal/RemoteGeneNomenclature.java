@@ -20,6 +20,7 @@
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyExtension;
 import org.phenotips.vocabulary.VocabularyTerm;
+import org.phenotips.vocabulary.events.VocabularyUpdatedEvent;
 
 import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheException;
@@ -28,25 +29,43 @@
 import org.xwiki.cache.eviction.EntryEvictionConfiguration;
 import org.xwiki.cache.eviction.LRUEvictionConfiguration;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
 import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.environment.Environment;
+import org.xwiki.observation.ObservationManager;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.apache.commons.io.IOUtils;
@@ -74,7 +93,7 @@
 @Component
 @Named("hgnc")
 @Singleton
-public class RemoteGeneNomenclature implements Vocabulary, Initializable
+public class RemoteGeneNomenclature implements Vocabulary, Initializable, Disposable
 {
     /** The list of supported categories for this vocabulary. */
     private static final Collection<String> SUPPORTED_CATEGORIES = Collections.singletonList("gene");
@@ -97,10 +116,43 @@ public class RemoteGeneNomenclature implements Vocabulary, Initializable
 
     private static final Map<String, String> QUERY_OPERATORS = new HashMap<>();
 
+    /** The maximum number of requests sent in parallel to the remote service when fetching several terms. */
+    private static final int MAX_PARALLEL_REQUESTS = 4;
+
+    /** How many days mirrored terms are used before being fetched again, unless configured otherwise. */
+    private static final Integer DEFAULT_MIRROR_TTL_DAYS = 30;
+
+    private static final String MIRROR_FETCHED_KEY = "fetched";
+
+    private static final String MIRROR_TERM_KEY = "term";
+
+    private static final String MIRROR_EXTENSION = ".json";
+
     @Inject
     @Named("xwikiproperties")
     private ConfigurationSource configuration;
 
+    /** Used for locating the local mirror of fetched terms. */
+    @Inject
+    private Environment environment;
+
+    /** Where fetched terms are stored locally, {@code null} if the local mirror isn't available. */
+    private File mirrorDirectory;
+
+    /** How long, in milliseconds, mirrored terms are used before being fetched again from the remote service. */
+    private long mirrorTTL;
+
+    /** Lookups currently in progress, shared by all the threads requesting the same term. */
+    private final ConcurrentMap<String, CompletableFuture<VocabularyTerm>> pendingLookups =
+        new ConcurrentHashMap<>();
+
+    /** Fetches several terms in parallel. */
+    private final ExecutorService fetchers = Executors.newFixedThreadPool(MAX_PARALLEL_REQUESTS, runnable -> {
+        Thread thread = new Thread(runnable, "HGNC fetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private String baseServiceURL;
 
     private String searchServiceURL;
@@ -128,6 +180,10 @@ public class RemoteGeneNomenclature implements Vocabulary, Initializable
     @Inject
     private CacheManager cacheFactory;
 
+    /** Notifies that the vocabulary was reindexed; lazily obtained, since listeners may depend on vocabularies. */
+    @Inject
+    private Provider<ObservationManager> observationManager;
+
     @Override
     public void initialize() throws InitializationException
     {
@@ -144,38 +200,28 @@ public void initialize() throws InitializationException
         } catch (final CacheException ex) {
             throw new InitializationException("Cannot create cache: " + ex.getMessage());
         }
+        Integer mirrorTTLDays =
+            this.configuration.getProperty("phenotips.ontologies.hgnc.mirrorTTL", DEFAULT_MIRROR_TTL_DAYS);
+        this.mirrorTTL = TimeUnit.DAYS.toMillis(mirrorTTLDays == null ? DEFAULT_MIRROR_TTL_DAYS : mirrorTTLDays);
+        File home = this.environment.getPermanentDirectory();
+        this.mirrorDirectory = home == null ? null : new File(home, "cache/hgnc");
         QUERY_OPERATORS.put("OR", "");
         QUERY_OPERATORS.put(DEFAULT_OPERATOR, DEFAULT_OPERATOR + ' ');
         QUERY_OPERATORS.put("NOT", "-");
     }
 
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.fetchers.shutdownNow();
+    }
+
     @Override
     public VocabularyTerm getTerm(String id)
     {
         VocabularyTerm result = this.cache.get(id);
-        String safeID;
         if (result == null) {
-            try {
-                safeID = URLEncoder.encode(id, Consts.UTF_8.name());
-            } catch (UnsupportedEncodingException e) {
-                safeID = id.replaceAll("\\s", "");
-                this.logger.warn("Could not find the encoding: {}", Consts.UTF_8.name());
-            }
-            HttpGet method = new HttpGet(this.fetchServiceURL + "symbol/" + safeID);
-            method.setHeader(HttpHeaders.ACCEPT, ContentType.APPLICATION_JSON.getMimeType());
-            try (CloseableHttpResponse httpResponse = this.client.execute(method)) {
-                String response = IOUtils.toString(httpResponse.getEntity().getContent(), Consts.UTF_8);
-                JSONObject responseJSON = new JSONObject(response);
-                JSONArray docs = responseJSON.getJSONObject(RESPONSE_KEY).getJSONArray(DATA_KEY);
-                if (docs.length() == 1) {
-                    result = new JSONOntologyTerm(docs.getJSONObject(0), this);
-                    this.cache.set(id, result);
-                } else {
-                    this.cache.set(id, EMPTY_MARKER);
-                }
-            } catch (IOException | JSONException ex) {
-                this.logger.warn("Failed to fetch gene definition: {}", ex.getMessage());
-            }
+            result = lookup(id);
         }
         return (result == EMPTY_MARKER) ? null : result;
     }
@@ -183,17 +229,170 @@ public VocabularyTerm getTerm(String id)
     @Override
     public Set<VocabularyTerm> getTerms(Collection<String> ids)
     {
-        // FIXME Reimplement with a bunch of async connections fired in parallel
-        Set<VocabularyTerm> result = new LinkedHashSet<>();
+        Map<String, VocabularyTerm> found = new LinkedHashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
         for (String id : ids) {
-            VocabularyTerm term = getTerm(id);
+            VocabularyTerm term = this.cache.get(id);
             if (term != null) {
+                found.put(id, term);
+            } else {
+                missing.add(id);
+            }
+        }
+
+        if (missing.size() == 1) {
+            String id = missing.iterator().next();
+            found.put(id, lookup(id));
+        } else if (!missing.isEmpty()) {
+            // Fetch the missing terms in parallel, bounded by the size of the fetchers pool
+            Map<String, Future<VocabularyTerm>> lookups = new LinkedHashMap<>();
+            for (String id : missing) {
+                lookups.put(id, this.fetchers.submit(() -> lookup(id)));
+            }
+            for (Map.Entry<String, Future<VocabularyTerm>> lookup : lookups.entrySet()) {
+                try {
+                    found.put(lookup.getKey(), lookup.getValue().get());
+                } catch (ExecutionException ex) {
+                    this.logger.warn("Failed to fetch gene definition: {}", ex.getCause().getMessage());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+
+        Set<VocabularyTerm> result = new LinkedHashSet<>();
+        for (String id : ids) {
+            VocabularyTerm term = found.get(id);
+            if (term != null && term != EMPTY_MARKER) {
                 result.add(term);
             }
         }
         return result;
     }
 
+    /**
+     * Looks up a term which is not in the memory cache. Concurrent lookups for the same term are coalesced into a
+     * single lookup, whose result is shared.
+     *
+     * @param id the symbol of the gene to look up
+     * @return the found term, {@link #EMPTY_MARKER} if the term doesn't exist, or {@code null} if the lookup failed
+     */
+    private VocabularyTerm lookup(String id)
+    {
+        CompletableFuture<VocabularyTerm> lookup = new CompletableFuture<>();
+        CompletableFuture<VocabularyTerm> existing = this.pendingLookups.putIfAbsent(id, lookup);
+        if (existing != null) {
+            return existing.join();
+        }
+        VocabularyTerm result = null;
+        try {
+            result = doLookup(id);
+        } finally {
+            this.pendingLookups.remove(id, lookup);
+            lookup.complete(result);
+        }
+        return result;
+    }
+
+    private VocabularyTerm doLookup(String id)
+    {
+        JSONObject mirrored = readMirror(id);
+        if (mirrored != null
+            && System.currentTimeMillis() - mirrored.optLong(MIRROR_FETCHED_KEY) < this.mirrorTTL) {
+            return cacheTerm(id, mirrored.optJSONObject(MIRROR_TERM_KEY));
+        }
+        try {
+            JSONObject data = fetch(id);
+            writeMirror(id, data);
+            return cacheTerm(id, data);
+        } catch (IOException | JSONException ex) {
+            this.logger.warn("Failed to fetch gene definition: {}", ex.getMessage());
+        }
+        // The remote service is not available, use the outdated local copy, if any
+        return mirrored == null ? null : cacheTerm(id, mirrored.optJSONObject(MIRROR_TERM_KEY));
+    }
+
+    /**
+     * Fetches a term from the remote service.
+     *
+     * @param id the symbol of the gene to fetch
+     * @return the term data, or {@code null} if the term doesn't exist
+     * @throws IOException if the remote service cannot be reached
+     * @throws JSONException if the remote service sent an invalid response
+     */
+    private JSONObject fetch(String id) throws IOException
+    {
+        String safeID;
+        try {
+            safeID = URLEncoder.encode(id, Consts.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            safeID = id.replaceAll("\\s", "");
+            this.logger.warn("Could not find the encoding: {}", Consts.UTF_8.name());
+        }
+        HttpGet method = new HttpGet(this.fetchServiceURL + "symbol/" + safeID);
+        method.setHeader(HttpHeaders.ACCEPT, ContentType.APPLICATION_JSON.getMimeType());
+        try (CloseableHttpResponse httpResponse = this.client.execute(method)) {
+            String response = IOUtils.toString(httpResponse.getEntity().getContent(), Consts.UTF_8);
+            JSONObject responseJSON = new JSONObject(response);
+            JSONArray docs = responseJSON.getJSONObject(RESPONSE_KEY).getJSONArray(DATA_KEY);
+            return docs.length() == 1 ? docs.getJSONObject(0) : null;
+        }
+    }
+
+    private VocabularyTerm cacheTerm(String id, JSONObject data)
+    {
+        VocabularyTerm result = data == null ? EMPTY_MARKER : new JSONOntologyTerm(data, this);
+        this.cache.set(id, result);
+        return result;
+    }
+
+    private File getMirrorFile(String id)
+    {
+        if (this.mirrorDirectory == null) {
+            return null;
+        }
+        try {
+            return new File(this.mirrorDirectory, URLEncoder.encode(id, Consts.UTF_8.name()) + MIRROR_EXTENSION);
+        } catch (UnsupportedEncodingException ex) {
+            // This will not happen, UTF-8 is always available
+            return null;
+        }
+    }
+
+    private JSONObject readMirror(String id)
+    {
+        File file = getMirrorFile(id);
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        try {
+            return new JSONObject(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        } catch (IOException | JSONException ex) {
+            this.logger.debug("Failed to read mirrored gene definition for [{}]: {}", id, ex.getMessage());
+            return null;
+        }
+    }
+
+    private void writeMirror(String id, JSONObject data)
+    {
+        File file = getMirrorFile(id);
+        if (file == null) {
+            return;
+        }
+        JSONObject mirrored = new JSONObject();
+        mirrored.put(MIRROR_FETCHED_KEY, System.currentTimeMillis());
+        mirrored.putOpt(MIRROR_TERM_KEY, data);
+        try {
+            Files.createDirectories(this.mirrorDirectory.toPath());
+            File temp = File.createTempFile("gene", MIRROR_EXTENSION, this.mirrorDirectory);
+            Files.write(temp.toPath(), mirrored.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            this.logger.warn("Failed to mirror gene definition for [{}]: {}", id, ex.getMessage());
+        }
+    }
+
     @Override
     public List<VocabularyTerm> search(Map<String, ?> fieldValues)
     {
@@ -350,8 +549,18 @@ public long size()
     @Override
     public int reindex(String ontologyUrl)
     {
-        // Remote vocabulary, we cannot reindex, but we can clear the local cache
+        // Remote vocabulary, we cannot reindex, but we can clear the local cache and mirror
         this.cache.removeAll();
+        this.infoCache.removeAll();
+        if (this.mirrorDirectory != null) {
+            File[] mirrored = this.mirrorDirectory.listFiles();
+            if (mirrored != null) {
+                for (File file : mirrored) {
+                    file.delete();
+                }
+            }
+        }
+        this.observationManager.get().notify(new VocabularyUpdatedEvent(getIdentifier()), this);
         return 0;
     }
 
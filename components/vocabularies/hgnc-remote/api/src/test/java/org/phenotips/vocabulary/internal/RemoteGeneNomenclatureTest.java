@@ -19,18 +19,23 @@
 
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyTerm;
+import org.phenotips.vocabulary.events.VocabularyUpdatedEvent;
 
 import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.CacheManager;
 import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.phase.Disposable;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
 import org.xwiki.component.util.ReflectionUtils;
 import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.environment.Environment;
+import org.xwiki.observation.ObservationManager;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.net.URI;
@@ -40,9 +45,11 @@
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.client.ClientProtocolException;
@@ -54,11 +61,14 @@
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.mockito.internal.matchers.CapturingMatcher;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
@@ -96,6 +106,9 @@
 
     private VocabularyTerm emptyMarker;
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Before
     public void setUp() throws ComponentLookupException, CacheException, NoSuchFieldException,
         IllegalArgumentException, IllegalAccessException
@@ -216,18 +229,65 @@ public void getTermsFetchesFromRemoteServer() throws ComponentLookupException, U
     {
         URI expectedURI1 = new URI("http://rest.genenames.org/fetch/symbol/BRCA1");
         URI expectedURI2 = new URI("http://rest.genenames.org/fetch/symbol/NOTHING");
-        CapturingMatcher<HttpUriRequest> reqCapture = new CapturingMatcher<>();
-        when(this.client.execute(Matchers.argThat(reqCapture))).thenReturn(this.response);
-        when(this.response.getEntity()).thenReturn(this.responseEntity);
-        when(this.responseEntity.getContent()).thenReturn(ClassLoader.getSystemResourceAsStream("BRCA1.json"),
-            ClassLoader.getSystemResourceAsStream("NOTHING.json"));
+        // Terms are fetched in parallel, so responses must match the requested URI, not the order of requests
+        final List<URI> calledURIs = Collections.synchronizedList(new LinkedList<URI>());
+        final Map<URI, CloseableHttpResponse> responses = new HashMap<>();
+        responses.put(expectedURI1, mockResponse("BRCA1.json"));
+        responses.put(expectedURI2, mockResponse("NOTHING.json"));
+        when(this.client.execute(any(HttpUriRequest.class))).thenAnswer(new Answer<CloseableHttpResponse>()
+        {
+            @Override
+            public CloseableHttpResponse answer(InvocationOnMock invocation)
+            {
+                HttpUriRequest request = (HttpUriRequest) invocation.getArguments()[0];
+                Assert.assertEquals("application/json", request.getLastHeader("Accept").getValue());
+                calledURIs.add(request.getURI());
+                return responses.get(request.getURI());
+            }
+        });
         Set<VocabularyTerm> result = this.mocker.getComponentUnderTest().getTerms(Arrays.asList("BRCA1", "NOTHING"));
-        List<HttpUriRequest> calledURIs = reqCapture.getAllValues();
-        Assert.assertEquals(expectedURI1, calledURIs.get(0).getURI());
-        Assert.assertEquals(expectedURI2, calledURIs.get(1).getURI());
-        Assert.assertEquals("application/json", reqCapture.getLastValue().getLastHeader("Accept").getValue());
+        Assert.assertEquals(2, calledURIs.size());
+        Assert.assertTrue(calledURIs.containsAll(Arrays.asList(expectedURI1, expectedURI2)));
         Assert.assertEquals(1, result.size());
         Assert.assertEquals("BRCA1", result.iterator().next().getId());
+        verify(this.cache).set("NOTHING", this.emptyMarker);
+    }
+
+    @Test
+    public void getTermsOnlyFetchesMissingTerms() throws ComponentLookupException, URISyntaxException,
+        ClientProtocolException, IOException
+    {
+        when(this.cache.get("BRCA2")).thenReturn(this.term);
+        CapturingMatcher<HttpUriRequest> reqCapture = new CapturingMatcher<>();
+        CloseableHttpResponse brca1 = mockResponse("BRCA1.json");
+        when(this.client.execute(Matchers.argThat(reqCapture))).thenReturn(brca1);
+        Set<VocabularyTerm> result = this.mocker.getComponentUnderTest().getTerms(Arrays.asList("BRCA2", "BRCA1"));
+        Assert.assertEquals(1, reqCapture.getAllValues().size());
+        Assert.assertEquals(new URI("http://rest.genenames.org/fetch/symbol/BRCA1"),
+            reqCapture.getLastValue().getURI());
+        Assert.assertEquals(2, result.size());
+        Iterator<VocabularyTerm> terms = result.iterator();
+        Assert.assertSame(this.term, terms.next());
+        Assert.assertEquals("BRCA1", terms.next().getId());
+    }
+
+    @Test
+    public void mirroredTermsAreUsedWithoutRemoteRequests() throws Exception
+    {
+        File home = this.folder.newFolder();
+        when(this.mocker.<Environment>getInstance(Environment.class).getPermanentDirectory()).thenReturn(home);
+        ((Initializable) this.mocker.getComponentUnderTest()).initialize();
+        CloseableHttpResponse brca1 = mockResponse("BRCA1.json");
+        when(this.client.execute(any(HttpUriRequest.class))).thenReturn(brca1);
+
+        VocabularyTerm result = this.mocker.getComponentUnderTest().getTerm("BRCA1");
+        Assert.assertEquals("breast cancer 1, early onset", result.getName());
+        Assert.assertTrue(new File(home, "cache/hgnc/BRCA1.json").isFile());
+
+        // The memory cache is a mock which never returns anything, so this must come from the mirror
+        result = this.mocker.getComponentUnderTest().getTerm("BRCA1");
+        Assert.assertEquals("breast cancer 1, early onset", result.getName());
+        verify(this.client, Mockito.times(1)).execute(any(HttpUriRequest.class));
     }
 
     @Test
@@ -302,8 +362,11 @@ public void getVersionWithErrorReturnsEmptyString() throws ComponentLookupExcept
     public void reindexInvalidatesCache() throws ComponentLookupException
     {
         Assert.assertEquals(0, this.mocker.getComponentUnderTest().reindex(null));
-        Mockito.verify(this.cache).removeAll();
+        // The same mock is used for both the term cache and the info cache
+        Mockito.verify(this.cache, Mockito.times(2)).removeAll();
         Mockito.verifyNoMoreInteractions(this.client);
+        Mockito.verify(this.mocker.<ObservationManager>getInstance(ObservationManager.class))
+            .notify(any(VocabularyUpdatedEvent.class), Mockito.same(this.mocker.getComponentUnderTest()));
     }
 
     @Test
@@ -498,4 +561,22 @@ public void invalidOrEmptyResponseReturnsNoInfo() throws ComponentLookupExceptio
         when(this.responseEntity.getContent()).thenReturn(ClassLoader.getSystemResourceAsStream(""));
         Assert.assertEquals("", this.mocker.getComponentUnderTest().getVersion());
     }
+
+    @Test
+    public void disposeStopsTheFetcherThreads() throws Exception
+    {
+        ((Disposable) this.mocker.getComponentUnderTest()).dispose();
+        ExecutorService fetchers =
+            (ExecutorService) ReflectionUtils.getFieldValue(this.mocker.getComponentUnderTest(), "fetchers");
+        Assert.assertTrue(fetchers.isShutdown());
+    }
+
+    private CloseableHttpResponse mockResponse(String resource) throws IOException
+    {
+        CloseableHttpResponse result = mock(CloseableHttpResponse.class);
+        HttpEntity entity = mock(HttpEntity.class);
+        when(result.getEntity()).thenReturn(entity);
+        when(entity.getContent()).thenReturn(ClassLoader.getSystemResourceAsStream(resource));
+        return result;
+    }
 }
@@ -31,8 +31,6 @@
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
 
-import org.apache.commons.collections4.MultiValuedMap;
-import org.apache.commons.collections4.multimap.HashSetValuedHashMap;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVRecord;
 import org.apache.commons.lang3.StringUtils;
@@ -78,18 +76,20 @@ protected void processCSVRecordRow(@Nonnull final CSVRecord row, @Nonnull final
             final String symptomId = getRowItem(row, PHENOTYPE_COLUMN);
             if (StringUtils.isNotBlank(diseaseId) && StringUtils.isNotBlank(symptomId)) {
                 diseaseId = vocabularyIdToTermPrefix(dbName) + diseaseId;
-                MultiValuedMap<String, String> termData = this.data.get(diseaseId);
-                if (termData == null) {
-                    termData = new HashSetValuedHashMap<>();
-                    this.data.put(diseaseId, termData);
+                addAnnotation(diseaseId, getDirectPhenotypesLabel(), symptomId);
+                for (String ancestorId : getSelfAndAncestorTermIds(symptomId)) {
+                    addAnnotation(diseaseId, getAllAncestorPhenotypesLabel(), ancestorId);
                 }
-
-                termData.put(getDirectPhenotypesLabel(), symptomId);
-                termData.putAll(getAllAncestorPhenotypesLabel(), getSelfAndAncestorTermIds(symptomId));
             }
         }
     }
 
+    @Override
+    protected boolean hasDistinctValues()
+    {
+        return true;
+    }
+
     @Override
     protected CSVFormat setupCSVParser(Vocabulary vocabulary)
     {
@@ -80,8 +80,8 @@ public String getDefaultSourceLocation()
     @Override
     protected int getSolrDocsPerBatch()
     {
-        /* This number should be sufficient to index the whole vocabulary in one go */
-        return 15000;
+        /* Batches are sent to Solr in parallel while the rest of the vocabulary is being parsed */
+        return 2000;
     }
 
     @Override
@@ -27,6 +27,12 @@
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrQuery;
@@ -42,6 +48,7 @@
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
 import org.mockito.Matchers;
 import org.mockito.Mockito;
@@ -98,6 +105,35 @@ public void testHumanPhenotypeOntologyReindex()
         Assert.assertTrue(this.ontologyServiceResult == 0);
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void reindexSendsEachTermWithItsAncestors() throws IOException, SolrServerException
+    {
+        ArgumentCaptor<Collection<SolrInputDocument>> batch = ArgumentCaptor.forClass((Class) Collection.class);
+        verify(this.server).add(batch.capture());
+        Map<String, SolrInputDocument> documents = new LinkedHashMap<>();
+        for (SolrInputDocument document : batch.getValue()) {
+            documents.put((String) document.getFieldValue("id"), document);
+        }
+
+        Assert.assertEquals(Arrays.asList("HEADER_INFO", "HP:0000001", "HP:0000118", "HP:0001507", "HP:0000002",
+            "HP:0004323", "HP:0001510"), new ArrayList<>(documents.keySet()));
+        Assert.assertEquals("releases/2015-04-10", documents.get("HEADER_INFO").getFieldValue("version"));
+
+        SolrInputDocument height = documents.get("HP:0000002");
+        Assert.assertEquals(Arrays.asList("HP:0000002", "HP:0001507", "HP:0000118", "HP:0000001"),
+            new ArrayList<>(height.getFieldValues("term_category")));
+        Assert.assertEquals(Collections.singletonList("HP:0001507"), new ArrayList<>(height.getFieldValues("is_a")));
+        Assert.assertEquals("Abnormality of body height", height.getFieldValue("name"));
+
+        SolrInputDocument growth = documents.get("HP:0001507");
+        Assert.assertEquals(Collections.singletonList("HP:0008904"), new ArrayList<>(growth.getFieldValues("alt_id")));
+        Assert.assertEquals(Collections.singletonList("ABNORMAL GROWTH"),
+            new ArrayList<>(growth.getFieldValues("synonym")));
+        Assert.assertEquals(Collections.singletonList("HP:0000001"),
+            new ArrayList<>(documents.get("HP:0000001").getFieldValues("term_category")));
+    }
+
     @Test
     public void testHumanPhenotypeOntologyVersion() throws SolrServerException, IOException
     {
@@ -176,7 +176,7 @@ Collection<OntClass> getRootClasses(@Nonnull final OntModel ontModel)
 
         final ImmutableSet.Builder<OntClass> selectedRoots = ImmutableSet.builder();
         for (final OntClass hierarchyRoot : this.hierarchyRoots) {
-            selectedRoots.addAll(hierarchyRoot.listSubClasses(DIRECT));
+            selectedRoots.addAll(getClassHierarchy().getDirectChildren(hierarchyRoot));
         }
         return selectedRoots.build();
     }
@@ -220,7 +220,7 @@ private void extractNamedClassData(@Nonnull final SolrInputDocument doc, @Nonnul
             addMultivaluedField(doc, TERM_CATEGORY_LABEL, ordoId);
 
             // If parent is a direct super-class to ontClass, then want to also add the parent to the "is_a" category.
-            if (ontClass.hasSuperClass(parent, DIRECT)) {
+            if (getClassHierarchy().hasSuperClass(ontClass, parent, DIRECT)) {
                 addMultivaluedField(doc, IS_A_LABEL, ordoId);
             }
         }
@@ -377,7 +377,7 @@ private String getSomeValuesFromRestriction(@Nonnull final Restriction restricti
     private Boolean hasHierarchyRootAsParent(@Nonnull final OntClass ontClass, @Nonnull final Boolean level)
     {
         for (final OntClass hierarchyRoot : this.hierarchyRoots) {
-            if (ontClass.hasSuperClass(hierarchyRoot, level)) {
+            if (getClassHierarchy().hasSuperClass(ontClass, hierarchyRoot, level)) {
                 return true;
             }
         }
@@ -18,10 +18,12 @@
 package org.phenotips.vocabularies.rest.internal;
 
 import org.phenotips.rest.Autolinker;
+import org.phenotips.rest.VersionedResponses;
 import org.phenotips.vocabularies.rest.VocabularyTermResource;
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyManager;
 import org.phenotips.vocabulary.VocabularyTerm;
+import org.phenotips.vocabulary.VocabularyVersionRegistry;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.rest.XWikiResource;
@@ -30,7 +32,8 @@
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
-import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 
 import org.apache.commons.lang3.StringUtils;
@@ -53,6 +56,17 @@ public class DefaultVocabularyTermResource extends XWikiResource implements Voca
     @Inject
     private Provider<Autolinker> autolinker;
 
+    @Inject
+    private VersionedResponses responses;
+
+    /** Remembers the vocabulary versions, so that the index isn't queried for the version on every request. */
+    @Inject
+    private VocabularyVersionRegistry versions;
+
+    /** The current request, used for answering conditional requests. */
+    @Context
+    private Request request;
+
     @Override
     public Response getTerm(String vocabularyId, String termId)
     {
@@ -67,8 +81,12 @@ public Response getTerm(String vocabularyId, String termId)
         if (term == null) {
             return Response.status(Response.Status.NOT_FOUND).build();
         }
-        JSONObject rep = term.toJSON();
-        rep.put("links", this.autolinker.get().forResource(getClass(), this.uriInfo).build());
-        return Response.ok(rep, MediaType.APPLICATION_JSON_TYPE).build();
+        // Terms only change when the vocabulary is reindexed, which changes its version
+        return this.responses.getResponse(this.request, null, () -> {
+            JSONObject rep = term.toJSON();
+            rep.put("links", this.autolinker.get().forResource(getClass(), this.uriInfo).build());
+            return rep;
+        }, VocabularyTermResource.class.getName(), vocabulary.getIdentifier(),
+            this.versions.getVersion(vocabulary.getIdentifier()), term.getId(), this.uriInfo.getBaseUri());
     }
 }
@@ -0,0 +1,158 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabularies.rest.internal;
+
+import org.phenotips.rest.Autolinker;
+import org.phenotips.rest.VersionedResponses;
+import org.phenotips.vocabularies.rest.VocabularyTermResource;
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyManager;
+import org.phenotips.vocabulary.VocabularyTerm;
+import org.phenotips.vocabulary.VocabularyVersionRegistry;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.function.Supplier;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link DefaultVocabularyTermResource} class.
+ */
+public class DefaultVocabularyTermResourceTest
+{
+    private static final String HPO_ID = "hpo";
+
+    private static final String HPO_VERSION = "2017-04-13";
+
+    private static final String TERM_ID = "HP:0001367";
+
+    @Rule
+    public MockitoComponentMockingRule<VocabularyTermResource> mocker =
+        new MockitoComponentMockingRule<>(DefaultVocabularyTermResource.class);
+
+    @Mock
+    private UriInfo uriInfo;
+
+    @Mock
+    private Vocabulary hpo;
+
+    @Mock
+    private VocabularyTerm term;
+
+    private URI baseUri;
+
+    private VersionedResponses responses;
+
+    private VocabularyTermResource component;
+
+    @Before
+    public void setUp() throws ComponentLookupException, URISyntaxException
+    {
+        MockitoAnnotations.initMocks(this);
+
+        final Execution execution = mock(Execution.class);
+        final ExecutionContext executionContext = mock(ExecutionContext.class);
+        final ComponentManager componentManager = this.mocker.getInstance(ComponentManager.class, "context");
+        when(componentManager.getInstance(Execution.class)).thenReturn(execution);
+        when(execution.getContext()).thenReturn(executionContext);
+        when(executionContext.getProperty("xwikicontext")).thenReturn(mock(XWikiContext.class));
+
+        this.component = this.mocker.getComponentUnderTest();
+        this.baseUri = new URI("http://host/rest/");
+        when(this.uriInfo.getBaseUri()).thenReturn(this.baseUri);
+        ReflectionUtils.setFieldValue(this.component, "uriInfo", this.uriInfo);
+
+        final Autolinker autolinker = this.mocker.getInstance(Autolinker.class);
+        when(autolinker.forResource(any(Class.class), any(UriInfo.class))).thenReturn(autolinker);
+        when(autolinker.build()).thenReturn(Collections.emptyList());
+
+        final VocabularyManager vm = this.mocker.getInstance(VocabularyManager.class);
+        when(vm.getVocabulary(HPO_ID)).thenReturn(this.hpo);
+        when(this.hpo.getIdentifier()).thenReturn(HPO_ID);
+        final VocabularyVersionRegistry versions = this.mocker.getInstance(VocabularyVersionRegistry.class);
+        when(versions.getVersion(HPO_ID)).thenReturn(HPO_VERSION);
+        when(this.hpo.getTerm(TERM_ID)).thenReturn(this.term);
+        when(this.term.getId()).thenReturn(TERM_ID);
+        when(this.term.toJSON()).thenReturn(new JSONObject().put("id", TERM_ID));
+
+        this.responses = this.mocker.getInstance(VersionedResponses.class);
+        when(this.responses.getResponse(any(Request.class), any(Date.class), any(Supplier.class), anyVararg()))
+            .thenAnswer(invocation -> Response.ok(((Supplier<?>) invocation.getArguments()[2]).get().toString(),
+                MediaType.APPLICATION_JSON_TYPE).build());
+    }
+
+    @Test
+    public void getTermReturnsTermWithLinks()
+    {
+        Response response = this.component.getTerm(HPO_ID, TERM_ID);
+
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+        JSONObject json = new JSONObject((String) response.getEntity());
+        Assert.assertEquals(TERM_ID, json.getString("id"));
+        Assert.assertTrue(json.has("links"));
+    }
+
+    @Test
+    public void getTermIsVersionedByVocabularyVersion()
+    {
+        this.component.getTerm(HPO_ID, TERM_ID);
+
+        verify(this.responses).getResponse(any(Request.class), eq((Date) null), any(Supplier.class),
+            eq(VocabularyTermResource.class.getName()), eq(HPO_ID), eq(HPO_VERSION), eq(TERM_ID), eq(this.baseUri));
+        verify(this.hpo, never()).getVersion();
+    }
+
+    @Test
+    public void getTermReturnsNotFoundForUnknownTerms()
+    {
+        Response response = this.component.getTerm(HPO_ID, "HP:0000000");
+
+        Assert.assertEquals(Response.Status.NOT_FOUND.getStatusCode(), response.getStatus());
+    }
+}